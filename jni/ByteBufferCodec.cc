@@ -0,0 +1,51 @@
+#include "ByteBufferCodec.h"
+#include <cstring>
+
+ByteBufferCodec::ByteBufferCodec(JNIEnv *env, jobject buffer, jint offset, jint length) {
+
+    uint8_t *address = static_cast<uint8_t*>(env->GetDirectBufferAddress(buffer));
+    if (address != 0) {
+        bytes = coder::ByteArray(address + offset, length);
+    }
+    else {
+        jbyteArray array = static_cast<jbyteArray>(buffer);
+        void *elements = env->GetPrimitiveArrayCritical(array, 0);
+        if (elements != 0) {
+            bytes = coder::ByteArray(static_cast<uint8_t*>(elements) + offset, length);
+            env->ReleasePrimitiveArrayCritical(array, elements, JNI_ABORT);
+        }
+    }
+
+}
+
+/**
+ * Write bytes to buffer at offset. Throws BadParameterException and
+ * returns false if there are more than length bytes.
+ */
+bool ByteBufferCodec::write(JNIEnv *env, jobject buffer, jint offset, jint length,
+                                                    const coder::ByteArray& bytes) {
+
+    jint count = bytes.getLength();
+    if (count > length) {
+        jclass bpe = env->FindClass("org/cryptokitty/exceptions/BadParameterException");
+        env->ThrowNew(bpe, "Output buffer too small");
+        return false;
+    }
+
+    uint8_t *byteArray = bytes.asArray();
+    uint8_t *address = static_cast<uint8_t*>(env->GetDirectBufferAddress(buffer));
+    if (address != 0) {
+        std::memcpy(address + offset, byteArray, count);
+    }
+    else {
+        jbyteArray array = static_cast<jbyteArray>(buffer);
+        void *elements = env->GetPrimitiveArrayCritical(array, 0);
+        if (elements != 0) {
+            std::memcpy(static_cast<uint8_t*>(elements) + offset, byteArray, count);
+            env->ReleasePrimitiveArrayCritical(array, elements, 0);
+        }
+    }
+    delete[] byteArray;
+    return true;
+
+}
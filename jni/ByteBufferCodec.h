@@ -0,0 +1,33 @@
+#ifndef BYTEBUFFERCODEC_H_INCLUDED
+#define BYTEBUFFERCODEC_H_INCLUDED
+
+#include <jni.h>
+#include <coder/ByteArray.h>
+
+/**
+ * Reads and writes the bytes of a direct ByteBuffer or a Java byte array
+ * without creating Java arrays. Direct buffers are accessed through
+ * GetDirectBufferAddress. Byte arrays, the backing arrays of heap
+ * buffers, are pinned with GetPrimitiveArrayCritical for just the copy.
+ */
+class ByteBufferCodec {
+
+    public:
+        ByteBufferCodec(JNIEnv *env, jobject buffer, jint offset, jint length);
+        ~ByteBufferCodec() {}
+
+    private:
+        ByteBufferCodec(const ByteBufferCodec& other);
+        ByteBufferCodec& operator =(const ByteBufferCodec& other);
+
+    public:
+        const coder::ByteArray& getBytes() const { return bytes; }
+        static bool write(JNIEnv *env, jobject buffer, jint offset, jint length,
+                                                    const coder::ByteArray& bytes);
+
+    private:
+        coder::ByteArray bytes;
+
+};
+
+#endif // BYTEBUFFERCODEC_H_INCLUDED
@@ -0,0 +1,58 @@
+#ifndef KEYEDCIPHER_H_INCLUDED
+#define KEYEDCIPHER_H_INCLUDED
+
+#include <CryptoKitty-C/cipher/AES.h>
+#include <CryptoKitty-C/cipher/BlockCipher.h>
+#include <CryptoKitty-C/ciphermodes/GCM.h>
+#include <coder/ByteArray.h>
+
+/**
+ * AES with its key held on the native side. The key is copied in once by
+ * setKey, so the keyed calls pass only data across JNI.
+ */
+class KeyedAES : public CK::AES {
+
+    public:
+        KeyedAES(CK::AES::KeySize ks, int size) : CK::AES(ks), keySize(size) {}
+        ~KeyedAES() {}
+
+    private:
+        KeyedAES(const KeyedAES& other);
+        KeyedAES& operator= (const KeyedAES& other);
+
+    public:
+        const coder::ByteArray& getKey() const { return key; }
+        int getKeySize() const { return keySize; }
+        bool isKeyed() const { return key.getLength() > 0; }
+        void setKey(const coder::ByteArray& k) { key = k; }
+
+    private:
+        int keySize;
+        coder::ByteArray key;
+
+};
+
+/**
+ * GCM with its key held on the native side. See KeyedAES.
+ */
+class KeyedGCM : public CK::GCM {
+
+    public:
+        KeyedGCM(CK::BlockCipher *cipher, bool appendTag) : CK::GCM(cipher, appendTag) {}
+        ~KeyedGCM() {}
+
+    private:
+        KeyedGCM(const KeyedGCM& other);
+        KeyedGCM& operator= (const KeyedGCM& other);
+
+    public:
+        const coder::ByteArray& getKey() const { return key; }
+        bool isKeyed() const { return key.getLength() > 0; }
+        void setKey(const coder::ByteArray& k) { key = k; }
+
+    private:
+        coder::ByteArray key;
+
+};
+
+#endif // KEYEDCIPHER_H_INCLUDED
@@ -1,57 +1,163 @@
 #include "ReferenceManager.h"
 #include <CryptoKitty-C/jni/JNIReference.h>
 
-// The singlton.
-ReferenceManager *ReferenceManager::theInstance = 0;
-
 ReferenceManager::ReferenceManager()
-: refIndex(100) {
+: segments(new std::atomic<Slot*>[MAX_SEGMENTS]),
+  freeList(0),
+  highWater(0) {
+
+    for (uint32_t i = 0; i < MAX_SEGMENTS; ++i) {
+        segments[i].store(0, std::memory_order_relaxed);
+    }
+
 }
 
 ReferenceManager::~ReferenceManager() {
+
+    for (uint32_t i = 0; i < MAX_SEGMENTS; ++i) {
+        delete[] segments[i].load(std::memory_order_relaxed);
+    }
+    delete[] segments;
+
 }
 
+/**
+ * Add a reference. Returns the slot index plus one in the low word and
+ * the slot generation in the high word, or zero if the table is full.
+ */
 long ReferenceManager::addRef(CK::JNIReference *ref) {
 
-    std::lock_guard<std::mutex> lock(refMutex);
+    uint32_t slot = popFree();
+    if (slot == 0) {
+        slot = highWater.fetch_add(1, std::memory_order_relaxed) + 1;
+        if (slot > SEGMENT_SIZE * MAX_SEGMENTS) {
+            highWater.fetch_sub(1, std::memory_order_relaxed);
+            return 0;
+        }
+
+        // Allocate the segment if this is its first slot. A thread that
+        // loses the race frees its copy.
+        uint32_t segment = (slot - 1) >> SEGMENT_BITS;
+        if (segments[segment].load(std::memory_order_acquire) == 0) {
+            Slot *fresh = new Slot[SEGMENT_SIZE];
+            for (uint32_t i = 0; i < SEGMENT_SIZE; ++i) {
+                fresh[i].ref.store(0, std::memory_order_relaxed);
+                fresh[i].generation.store(0, std::memory_order_relaxed);
+                fresh[i].next.store(0, std::memory_order_relaxed);
+            }
+            Slot *expected = 0;
+            if (!segments[segment].compare_exchange_strong(expected, fresh,
+                                                    std::memory_order_acq_rel)) {
+                delete[] fresh;
+            }
+        }
+    }
 
-    Reference reference;
-    reference.ref = ref;
-    reference.deleted = false;
-    references[refIndex] = reference;
-    return refIndex++;
+    Slot *s = getSlot(slot);
+    s->ref.store(ref, std::memory_order_release);
+    uint64_t generation = s->generation.load(std::memory_order_acquire);
+    return static_cast<long>((generation << 32) | slot);
 
 }
 
+/**
+ * Delete a reference and the object it refers to. Deleting a reference
+ * that is already deleted or stale does nothing.
+ */
 void ReferenceManager::deleteRef(long index) {
 
-    RefIter it = references.find(index);
-    if (it != references.end() && !it->second.deleted) {
-        it->second.deleted = true;
-        delete it->second.ref;
+    uint32_t slot = static_cast<uint32_t>(index);
+    uint32_t generation = static_cast<uint32_t>(static_cast<uint64_t>(index) >> 32);
+    Slot *s = getSlot(slot);
+    if (s == 0) {
+        return;
+    }
+
+    // Only one thread can move the generation on.
+    if (s->generation.compare_exchange_strong(generation, generation + 1,
+                                                    std::memory_order_acq_rel)) {
+        delete s->ref.exchange(0, std::memory_order_acq_rel);
+        pushFree(slot);
     }
 
 }
 
+/**
+ * Get the object for a reference, or null if the reference isn't
+ * current.
+ */
 CK::JNIReference *ReferenceManager::getRef(long index) const {
 
-    RefConstIter it = references.find(index);
-    if (it != references.end() && !it->second.deleted) {
-        return it->second.ref;
-    }
-    else {
+    uint32_t slot = static_cast<uint32_t>(index);
+    uint32_t generation = static_cast<uint32_t>(static_cast<uint64_t>(index) >> 32);
+    Slot *s = getSlot(slot);
+    if (s == 0 || s->generation.load(std::memory_order_acquire) != generation) {
         return 0;
     }
+    return s->ref.load(std::memory_order_acquire);
 
 }
 
-ReferenceManager *ReferenceManager::instance() {
+/**
+ * Get a slot by index plus one, or null if it hasn't been allocated.
+ */
+ReferenceManager::Slot *ReferenceManager::getSlot(uint32_t slot) const {
 
-    if (theInstance == 0) {
-        theInstance = new ReferenceManager;
+    if (slot == 0 || slot > highWater.load(std::memory_order_acquire)) {
+        return 0;
     }
+    Slot *segment = segments[(slot - 1) >> SEGMENT_BITS].load(std::memory_order_acquire);
+    if (segment == 0) {
+        return 0;
+    }
+    return &segment[(slot - 1) & (SEGMENT_SIZE - 1)];
+
+}
 
+ReferenceManager *ReferenceManager::instance() {
+
+    // Initialized once, thread safe. Never destroyed, since JNI calls can
+    // still arrive while the process exits.
+    static ReferenceManager *theInstance = new ReferenceManager;
     return theInstance;
 
 }
 
+/**
+ * Pop a free slot. Returns zero if there are none.
+ */
+uint32_t ReferenceManager::popFree() {
+
+    uint64_t head = freeList.load(std::memory_order_acquire);
+    while (true) {
+        uint32_t slot = static_cast<uint32_t>(head);
+        if (slot == 0) {
+            return 0;
+        }
+        uint64_t next = getSlot(slot)->next.load(std::memory_order_relaxed);
+        uint64_t tag = (head >> 32) + 1;
+        if (freeList.compare_exchange_weak(head, (tag << 32) | next,
+                                                    std::memory_order_acq_rel)) {
+            return slot;
+        }
+    }
+
+}
+
+/**
+ * Push a slot onto the free stack.
+ */
+void ReferenceManager::pushFree(uint32_t slot) {
+
+    Slot *s = getSlot(slot);
+    uint64_t head = freeList.load(std::memory_order_relaxed);
+    while (true) {
+        s->next.store(static_cast<uint32_t>(head), std::memory_order_relaxed);
+        uint64_t tag = head >> 32;
+        if (freeList.compare_exchange_weak(head, (tag << 32) | slot,
+                                                    std::memory_order_release)) {
+            return;
+        }
+    }
+
+}
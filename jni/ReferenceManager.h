@@ -1,13 +1,24 @@
 #ifndef REFERENCEMANAGER_H_INCLUDED
 #define REFERENCEMANAGER_H_INCLUDED
 
-#include <map>
-#include <mutex>
+#include <atomic>
+#include <cstdint>
 
 namespace CK {
     class JNIReference;
 }
 
+/**
+ * Table of the native objects held by Java objects. A reference is a
+ * slot index and the slot's generation. Slots are reused, but a stale
+ * reference to a reused slot no longer matches its generation, so
+ * getRef returns null for it.
+ *
+ * The table is lock free. Slots are allocated in segments that are
+ * never moved or freed, so getRef is two loads and a compare. Free
+ * slots are kept on a tagged stack. Adding and deleting are a compare
+ * and swap each, so JNI calls from many threads don't serialize here.
+ */
 class ReferenceManager {
 
     public:
@@ -25,20 +36,28 @@ class ReferenceManager {
         static ReferenceManager *instance();
 
     private:
-        static ReferenceManager *theInstance;
-
-        long refIndex;
-        struct Reference {
-            CK::JNIReference *ref;
-            bool deleted;
+        struct Slot {
+            std::atomic<CK::JNIReference*> ref;
+            std::atomic<uint32_t> generation;
+            std::atomic<uint32_t> next;
         };
-        typedef std::map<long, Reference> ReferenceMap;
-        typedef ReferenceMap::iterator RefIter;
-        typedef ReferenceMap::const_iterator RefConstIter;
-        ReferenceMap references;
-        std::mutex refMutex;
+
+        static const unsigned SEGMENT_BITS = 12;
+        static const uint32_t SEGMENT_SIZE = 1 << SEGMENT_BITS;
+        static const uint32_t MAX_SEGMENTS = 1 << 16;
+
+        Slot *getSlot(uint32_t slot) const;
+        uint32_t popFree();
+        void pushFree(uint32_t slot);
+
+        // Slot segments, allocated on first use.
+        std::atomic<Slot*> *segments;
+        // Free slot stack. The top slot plus one in the low word and a
+        // tag in the high word that changes on every pop, against ABA.
+        alignas(64) std::atomic<uint64_t> freeList;
+        // Slots handed out so far, free or not.
+        alignas(64) std::atomic<uint32_t> highWater;
 
 };
 
 #endif // REFERENCEMANAGER_H_INCLUDED
-
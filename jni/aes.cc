@@ -1,6 +1,8 @@
 #include "org_cryptokitty_cipher_AES.h"
 #include "ByteArrayCodec.h"
+#include "ByteBufferCodec.h"
 #include "ReferenceManager.h"
+#include "KeyedCipher.h"
 #include <CryptoKitty-C/cipher/AES.h>
 #include <CryptoKitty-C/exceptions/BadParameterException.h>
 #include <coder/ByteArray.h>
@@ -9,7 +11,7 @@
 /**
  * Retrieve the opaque jniImpl reference.
  */
-static CK::AES *getReference(JNIEnv *env, jobject thisObj) {
+static KeyedAES *getReference(JNIEnv *env, jobject thisObj) {
 
     jclass thisClass = env->GetObjectClass(thisObj);
     jfieldID fieldId = env->GetFieldID(thisClass, "jniImpl", "J");
@@ -22,16 +24,100 @@ static CK::AES *getReference(JNIEnv *env, jobject thisObj) {
         return 0;
     }
     else {
-        return dynamic_cast<CK::AES*>(ref);
+        return dynamic_cast<KeyedAES*>(ref);
     }
 
 }
 
+/**
+ * Check that a key has been set with setKey.
+ */
+static bool checkKeyed(JNIEnv *env, KeyedAES *ref) {
+
+    if (!ref->isKeyed()) {
+        jclass ise = env->FindClass("org/cryptokitty/exceptions/IllegalStateException");
+        env->ThrowNew(ise, "AES key not set");
+        return false;
+    }
+    return true;
+
+}
+
+/**
+ * Run one block through the cipher from in[inOff] to out[outOff]. The
+ * block is moved with the array region calls so no Java arrays are
+ * created and in and out may be the same array. The key is keyIn, or
+ * the key held by the reference if keyIn is null.
+ */
+static void cipherBlock(JNIEnv *env, jobject thisObj, jbyteArray in, jint inOff,
+                                jbyteArray out, jint outOff, jbyteArray keyIn, bool encrypt) {
+
+    KeyedAES *ref = getReference(env, thisObj);
+    if (ref == 0 || (keyIn == 0 && !checkKeyed(env, ref))) {
+        return;
+    }
+    if (inOff < 0 || outOff < 0 || env->GetArrayLength(in) - inOff < 16
+                                || env->GetArrayLength(out) - outOff < 16) {
+        jclass ibs = env->FindClass("org/cryptokitty/exceptions/IllegalBlockSizeException");
+        env->ThrowNew(ibs, "Illegal AES block size");
+        return;
+    }
+
+    jbyte block[16];
+    env->GetByteArrayRegion(in, inOff, 16, block);
+    try {
+        coder::ByteArray text(reinterpret_cast<uint8_t*>(block), 16);
+        coder::ByteArray result;
+        if (keyIn == 0) {
+            result = encrypt ? ref->encrypt(text, ref->getKey())
+                             : ref->decrypt(text, ref->getKey());
+        }
+        else {
+            ByteArrayCodec keyCodec(env, keyIn);
+            result = encrypt ? ref->encrypt(text, keyCodec.getBytes())
+                             : ref->decrypt(text, keyCodec.getBytes());
+        }
+        uint8_t *bytes = result.asArray();
+        env->SetByteArrayRegion(out, outOff, 16, reinterpret_cast<const jbyte*>(bytes));
+        delete[] bytes;
+    }
+    catch (CK::BadParameterException& e) {
+        jclass bpe = env->FindClass("org/cryptokitty/exceptions/BadParameterException");
+        env->ThrowNew(bpe, e.what());
+    }
+
+}
+
+/**
+ * Encrypt or decrypt with the key held by the reference.
+ */
+static jbyteArray keyedCipher(JNIEnv *env, jobject thisObj, jbyteArray textIn, bool encrypt) {
+
+    KeyedAES *ref = getReference(env, thisObj);
+    if (ref == 0 || !checkKeyed(env, ref)) {
+        return 0;
+    }
+    ByteArrayCodec textCodec(env, textIn);
+    try {
+        coder::ByteArray result(encrypt ? ref->encrypt(textCodec.getBytes(), ref->getKey())
+                                        : ref->decrypt(textCodec.getBytes(), ref->getKey()));
+        ByteArrayCodec resultCodec(env, result);
+        return resultCodec.getJBytes();
+    }
+    catch (CK::BadParameterException& e) {
+        jclass bpe = env->FindClass("org/cryptokitty/exceptions/BadParameterException");
+        env->ThrowNew(bpe, e.what());
+    }
+    // Won't get here.
+    return 0;
+
+}
+
 JNIEXPORT jbyteArray JNICALL
 Java_org_cryptokitty_cipher_AES_decrypt (JNIEnv *env, jobject thisObj, jbyteArray ciphertextIn,
                                                                                 jbyteArray keyIn) {
 
-    CK::AES *ref = getReference(env, thisObj);
+    KeyedAES *ref = getReference(env, thisObj);
     // Retrieve ciphertext and key
     ByteArrayCodec ctCodec(env, ciphertextIn);
     ByteArrayCodec keyCodec(env, keyIn);
@@ -52,12 +138,10 @@ Java_org_cryptokitty_cipher_AES_decrypt (JNIEnv *env, jobject thisObj, jbyteArra
 }
 
 JNIEXPORT void JNICALL
-Java_org_cryptokitty_cipher_AES_dispose (JNIEnv *env, jobject thisObj) {
+Java_org_cryptokitty_cipher_AES_decryptBlock (JNIEnv *env, jobject thisObj, jbyteArray in, jint inOff,
+                                        jbyteArray out, jint outOff, jbyteArray keyIn) {
 
-    jclass thisClass = env->GetObjectClass(thisObj);
-    jfieldID fieldId = env->GetFieldID(thisClass, "jniImpl", "J");
-    jlong jniImpl = env->GetLongField(thisObj, fieldId);
-    ReferenceManager::instance()->deleteRef(jniImpl);
+    cipherBlock(env, thisObj, in, inOff, out, outOff, keyIn, false);
 
 }
 
@@ -65,7 +149,7 @@ JNIEXPORT jbyteArray JNICALL
 Java_org_cryptokitty_cipher_AES_encrypt (JNIEnv *env, jobject thisObj, jbyteArray plaintextIn,
                                                                                 jbyteArray keyIn) {
 
-    CK::AES *ref = getReference(env, thisObj);
+    KeyedAES *ref = getReference(env, thisObj);
     // Retrieve plaintext and key
     ByteArrayCodec ptCodec(env, plaintextIn);
     ByteArrayCodec keyCodec(env, keyIn);
@@ -85,6 +169,14 @@ Java_org_cryptokitty_cipher_AES_encrypt (JNIEnv *env, jobject thisObj, jbyteArra
 
 }
 
+JNIEXPORT void JNICALL
+Java_org_cryptokitty_cipher_AES_encryptBlock (JNIEnv *env, jobject thisObj, jbyteArray in, jint inOff,
+                                        jbyteArray out, jint outOff, jbyteArray keyIn) {
+
+    cipherBlock(env, thisObj, in, inOff, out, outOff, keyIn, true);
+
+}
+
 JNIEXPORT jlong JNICALL
 Java_org_cryptokitty_cipher_AES_initialize (JNIEnv *env, jobject thisobj, jint keysize) {
 
@@ -100,7 +192,79 @@ Java_org_cryptokitty_cipher_AES_initialize (JNIEnv *env, jobject thisobj, jint k
             ks = CK::AES::AES256;
             break;
     }
-    CK::AES *ref = new CK::AES(ks);
+    KeyedAES *ref = new KeyedAES(ks, keysize);
     return ReferenceManager::instance()->addRef(ref);
 
 }
+
+JNIEXPORT jint JNICALL
+Java_org_cryptokitty_cipher_AES_keyedCryptBuffer (JNIEnv *env, jobject thisObj, jboolean encrypt,
+                                        jobject src, jint srcOff, jint length,
+                                        jobject dst, jint dstOff, jint dstLength) {
+
+    KeyedAES *ref = getReference(env, thisObj);
+    if (ref == 0 || !checkKeyed(env, ref)) {
+        return 0;
+    }
+    ByteBufferCodec srcCodec(env, src, srcOff, length);
+    try {
+        coder::ByteArray result(encrypt ? ref->encrypt(srcCodec.getBytes(), ref->getKey())
+                                        : ref->decrypt(srcCodec.getBytes(), ref->getKey()));
+        if (ByteBufferCodec::write(env, dst, dstOff, dstLength, result)) {
+            return result.getLength();
+        }
+    }
+    catch (CK::BadParameterException& e) {
+        jclass bpe = env->FindClass("org/cryptokitty/exceptions/BadParameterException");
+        env->ThrowNew(bpe, e.what());
+    }
+    return 0;
+
+}
+
+JNIEXPORT jbyteArray JNICALL
+Java_org_cryptokitty_cipher_AES_keyedDecrypt (JNIEnv *env, jobject thisObj, jbyteArray ciphertextIn) {
+
+    return keyedCipher(env, thisObj, ciphertextIn, false);
+
+}
+
+JNIEXPORT void JNICALL
+Java_org_cryptokitty_cipher_AES_keyedDecryptBlock (JNIEnv *env, jobject thisObj, jbyteArray in,
+                                        jint inOff, jbyteArray out, jint outOff) {
+
+    cipherBlock(env, thisObj, in, inOff, out, outOff, 0, false);
+
+}
+
+JNIEXPORT jbyteArray JNICALL
+Java_org_cryptokitty_cipher_AES_keyedEncrypt (JNIEnv *env, jobject thisObj, jbyteArray plaintextIn) {
+
+    return keyedCipher(env, thisObj, plaintextIn, true);
+
+}
+
+JNIEXPORT void JNICALL
+Java_org_cryptokitty_cipher_AES_keyedEncryptBlock (JNIEnv *env, jobject thisObj, jbyteArray in,
+                                        jint inOff, jbyteArray out, jint outOff) {
+
+    cipherBlock(env, thisObj, in, inOff, out, outOff, 0, true);
+
+}
+
+JNIEXPORT void JNICALL
+Java_org_cryptokitty_cipher_AES_setKey (JNIEnv *env, jobject thisObj, jbyteArray keyIn) {
+
+    KeyedAES *ref = getReference(env, thisObj);
+    if (ref == 0) {
+        return;
+    }
+    if (env->GetArrayLength(keyIn) != ref->getKeySize()) {
+        jclass ike = env->FindClass("org/cryptokitty/exceptions/InvalidKeyException");
+        env->ThrowNew(ike, "Invalid AES key size");
+        return;
+    }
+    ByteArrayCodec keyCodec(env, keyIn);
+    ref->setKey(keyCodec.getBytes());
+
+}
@@ -31,14 +31,10 @@ static CK::BigInteger *getReference(JNIEnv *env, jobject thisObj) {
 static jobject newBigInteger(JNIEnv *env, const CK::BigInteger& integer) {
 
     jclass biClass = env->FindClass("org/cryptokitty/jni/BigInteger");
-    jmethodID initId = env->GetMethodID(biClass, "<init>", "()V");
-    jobject biObj = env->NewObject(biClass, initId);
-    jfieldID fieldId = env->GetFieldID(biClass, "jniImpl", "J");
+    jmethodID initId = env->GetMethodID(biClass, "<init>", "(JZ)V");
     CK::BigInteger *ref = new CK::BigInteger(integer);
     jlong jniImpl = ReferenceManager::instance()->addRef(ref);
-    //std::cout << "newBigInteger called in biginteger.cc returning index " << jniImpl << std::endl;
-    env->SetLongField(biObj, fieldId, jniImpl);
-    return biObj;
+    return env->NewObject(biClass, initId, jniImpl, JNI_TRUE);
 
 }
 
@@ -103,16 +99,6 @@ Java_org_cryptokitty_jni_BigInteger_copy (JNIEnv *env, jclass, jobject otherObj)
 
 }
 
-JNIEXPORT void JNICALL
-Java_org_cryptokitty_jni_BigInteger_dispose (JNIEnv *env, jobject thisObj) {
-
-    jclass thisClass = env->GetObjectClass(thisObj);
-    jfieldID fieldId = env->GetFieldID(thisClass, "jniImpl", "J");
-    jlong jniImpl = env->GetLongField(thisObj, fieldId);
-    ReferenceManager::instance()->deleteRef(jniImpl);
-
-}
-
 JNIEXPORT jobject JNICALL
 Java_org_cryptokitty_jni_BigInteger_gcd (JNIEnv *env, jobject thisObj, jobject otherObj) {
 
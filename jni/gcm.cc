@@ -1,16 +1,20 @@
 #include "org_cryptokitty_modes_GCM.h"
 #include "ByteArrayCodec.h"
+#include "ByteBufferCodec.h"
 #include "ReferenceManager.h"
+#include "KeyedCipher.h"
 #include <CryptoKitty-C/ciphermodes/GCM.h>
 #include <CryptoKitty-C/cipher/BlockCipher.h>
 #include <CryptoKitty-C/exceptions/BadParameterException.h>
 #include <CryptoKitty-C/exceptions/AuthenticationException.h>
 #include <coder/ByteArray.h>
+#include <cstring>
+#include <vector>
 
 /**
  * Retrieve the opaque jniImpl reference.
  */
-static CK::GCM *getReference(JNIEnv *env, jobject thisObj) {
+static KeyedGCM *getReference(JNIEnv *env, jobject thisObj) {
 
     jclass thisClass = env->GetObjectClass(thisObj);
     jfieldID fieldId = env->GetFieldID(thisClass, "jniImpl", "J");
@@ -23,7 +27,7 @@ static CK::GCM *getReference(JNIEnv *env, jobject thisObj) {
         return 0;
     }
     else {
-        return dynamic_cast<CK::GCM*>(ref);
+        return dynamic_cast<KeyedGCM*>(ref);
     }
 
 }
@@ -49,11 +53,25 @@ static CK::BlockCipher *getCipherReference(JNIEnv *env, jobject cipherObj) {
 
 }
 
+/**
+ * Check that a key has been set with setKey.
+ */
+static bool checkKeyed(JNIEnv *env, KeyedGCM *ref) {
+
+    if (!ref->isKeyed()) {
+        jclass ise = env->FindClass("org/cryptokitty/exceptions/IllegalStateException");
+        env->ThrowNew(ise, "GCM key not set");
+        return false;
+    }
+    return true;
+
+}
+
 JNIEXPORT jbyteArray JNICALL
 Java_org_cryptokitty_modes_GCM_decrypt (JNIEnv *env, jobject thisObj, jbyteArray ciphertextIn,
                                                                                 jbyteArray keyIn) {
 
-    CK::GCM *ref = getReference(env, thisObj);
+    KeyedGCM *ref = getReference(env, thisObj);
     // Retrieve ciphertext and key
     ByteArrayCodec ctCodec(env, ciphertextIn);
     ByteArrayCodec keyCodec(env, keyIn);
@@ -77,21 +95,11 @@ Java_org_cryptokitty_modes_GCM_decrypt (JNIEnv *env, jobject thisObj, jbyteArray
 
 }
 
-JNIEXPORT void JNICALL
-Java_org_cryptokitty_modes_GCM_dispose (JNIEnv *env, jobject thisObj) {
-
-    jclass thisClass = env->GetObjectClass(thisObj);
-    jfieldID fieldId = env->GetFieldID(thisClass, "jniImpl", "J");
-    jlong jniImpl = env->GetLongField(thisObj, fieldId);
-    ReferenceManager::instance()->deleteRef(jniImpl);
-
-}
-
 JNIEXPORT jbyteArray JNICALL
 Java_org_cryptokitty_modes_GCM_encrypt (JNIEnv *env, jobject thisObj, jbyteArray plaintextIn,
                                                                             jbyteArray keyIn) {
 
-    CK::GCM *ref = getReference(env, thisObj);
+    KeyedGCM *ref = getReference(env, thisObj);
     // Retrieve plaintext and key
     ByteArrayCodec ptCodec(env, plaintextIn);
     ByteArrayCodec keyCodec(env, keyIn);
@@ -116,26 +124,235 @@ Java_org_cryptokitty_modes_GCM_initialize (JNIEnv *env, jobject thisObj, jobject
                                                                             jboolean appendTag) {
 
     CK::BlockCipher *cipher = getCipherReference(env, cipherObj);
-    CK::GCM *ref = new CK::GCM(cipher, appendTag);
+    KeyedGCM *ref = new KeyedGCM(cipher, appendTag);
     ref->setJni(true);
     return ReferenceManager::instance()->addRef(ref);
 
 }
 
+/**
+ * Seal or open a batch of records in one call. The IVs and
+ * authentication data are read first. The records are then copied out of
+ * the pinned input in one pass and processed, and the results are
+ * copied into the pinned output in one pass. No JNI calls are made while
+ * an array is pinned.
+ */
+JNIEXPORT jintArray JNICALL
+Java_org_cryptokitty_modes_GCM_keyedBatch (JNIEnv *env, jobject thisObj, jboolean seal,
+                                        jobjectArray ivsIn, jobjectArray aadsIn, jbyteArray in,
+                                        jintArray offsetsIn, jintArray lengthsIn, jbyteArray out,
+                                        jintArray outOffsetsIn) {
+
+    KeyedGCM *ref = getReference(env, thisObj);
+    if (ref == 0 || !checkKeyed(env, ref)) {
+        return 0;
+    }
+
+    jsize count = env->GetArrayLength(ivsIn);
+    std::vector<jint> offsets(count + 1);
+    std::vector<jint> lengths(count + 1);
+    std::vector<jint> outOffsets(count + 1);
+    std::vector<jint> status(count + 1);
+    env->GetIntArrayRegion(offsetsIn, 0, count, &offsets[0]);
+    env->GetIntArrayRegion(lengthsIn, 0, count, &lengths[0]);
+    env->GetIntArrayRegion(outOffsetsIn, 0, count, &outOffsets[0]);
+
+    std::vector<coder::ByteArray> ivs(count);
+    std::vector<coder::ByteArray> aads(count);
+    for (jsize i = 0; i < count; ++i) {
+        jbyteArray iv = static_cast<jbyteArray>(env->GetObjectArrayElement(ivsIn, i));
+        jbyteArray aad = static_cast<jbyteArray>(env->GetObjectArrayElement(aadsIn, i));
+        if (iv == 0) {
+            status[i] = org_cryptokitty_modes_GCM_BATCH_BAD_PARAMETER;
+        }
+        else {
+            ByteArrayCodec ivCodec(env, iv);
+            ivs[i] = ivCodec.getBytes();
+            env->DeleteLocalRef(iv);
+        }
+        if (aad != 0) {
+            ByteArrayCodec aadCodec(env, aad);
+            aads[i] = aadCodec.getBytes();
+            env->DeleteLocalRef(aad);
+        }
+    }
+
+    // Copy the records out of the input.
+    std::vector<coder::ByteArray> texts(count);
+    jsize inLength = env->GetArrayLength(in);
+    uint8_t *inBytes = static_cast<uint8_t*>(env->GetPrimitiveArrayCritical(in, 0));
+    if (inBytes == 0) {
+        // OutOfMemoryError is pending.
+        return 0;
+    }
+    for (jsize i = 0; i < count; ++i) {
+        if (offsets[i] < 0 || lengths[i] < 0 || offsets[i] > inLength - lengths[i]) {
+            status[i] = org_cryptokitty_modes_GCM_BATCH_BAD_PARAMETER;
+        }
+        else if (status[i] == 0) {
+            texts[i] = coder::ByteArray(inBytes + offsets[i], lengths[i]);
+        }
+    }
+    env->ReleasePrimitiveArrayCritical(in, inBytes, JNI_ABORT);
+
+    std::vector<coder::ByteArray> results(count);
+    jsize outLength = env->GetArrayLength(out);
+    for (jsize i = 0; i < count; ++i) {
+        if (status[i] != 0) {
+            continue;
+        }
+        try {
+            ref->setIV(ivs[i]);
+            ref->setAuthenticationData(aads[i]);
+            results[i] = seal ? ref->encrypt(texts[i], ref->getKey())
+                              : ref->decrypt(texts[i], ref->getKey());
+            jint length = results[i].getLength();
+            if (outOffsets[i] < 0 || outOffsets[i] > outLength - length) {
+                status[i] = org_cryptokitty_modes_GCM_BATCH_BAD_PARAMETER;
+            }
+            else {
+                status[i] = length;
+            }
+        }
+        catch (CK::BadParameterException& e) {
+            status[i] = org_cryptokitty_modes_GCM_BATCH_BAD_PARAMETER;
+        }
+        catch (CK::AuthenticationException& e) {
+            status[i] = org_cryptokitty_modes_GCM_BATCH_AUTHENTICATION_FAILED;
+        }
+    }
+
+    // Copy the results into the output.
+    uint8_t *outBytes = static_cast<uint8_t*>(env->GetPrimitiveArrayCritical(out, 0));
+    if (outBytes == 0) {
+        return 0;
+    }
+    for (jsize i = 0; i < count; ++i) {
+        if (status[i] > 0) {
+            uint8_t *bytes = results[i].asArray();
+            std::memcpy(outBytes + outOffsets[i], bytes, status[i]);
+            delete[] bytes;
+        }
+    }
+    env->ReleasePrimitiveArrayCritical(out, outBytes, 0);
+
+    jintArray statusOut = env->NewIntArray(count);
+    if (statusOut != 0) {
+        env->SetIntArrayRegion(statusOut, 0, count, &status[0]);
+    }
+    return statusOut;
+
+}
+
+JNIEXPORT jint JNICALL
+Java_org_cryptokitty_modes_GCM_keyedCryptBuffer (JNIEnv *env, jobject thisObj, jboolean encrypt,
+                                        jobject src, jint srcOff, jint length,
+                                        jobject dst, jint dstOff, jint dstLength) {
+
+    KeyedGCM *ref = getReference(env, thisObj);
+    if (ref == 0 || !checkKeyed(env, ref)) {
+        return 0;
+    }
+    ByteBufferCodec srcCodec(env, src, srcOff, length);
+    try {
+        coder::ByteArray result(encrypt ? ref->encrypt(srcCodec.getBytes(), ref->getKey())
+                                        : ref->decrypt(srcCodec.getBytes(), ref->getKey()));
+        if (ByteBufferCodec::write(env, dst, dstOff, dstLength, result)) {
+            return result.getLength();
+        }
+    }
+    catch (CK::BadParameterException& e) {
+        jclass bpe = env->FindClass("org/cryptokitty/exceptions/BadParameterException");
+        env->ThrowNew(bpe, e.what());
+    }
+    catch (CK::AuthenticationException& e) {
+        jclass ae = env->FindClass("org/cryptokitty/exceptions/AuthenticationException");
+        env->ThrowNew(ae, e.what());
+    }
+    return 0;
+
+}
+
+JNIEXPORT jbyteArray JNICALL
+Java_org_cryptokitty_modes_GCM_keyedDecrypt (JNIEnv *env, jobject thisObj, jbyteArray ciphertextIn) {
+
+    KeyedGCM *ref = getReference(env, thisObj);
+    if (ref == 0 || !checkKeyed(env, ref)) {
+        return 0;
+    }
+    ByteArrayCodec ctCodec(env, ciphertextIn);
+    try {
+        coder::ByteArray plaintext(ref->decrypt(ctCodec.getBytes(), ref->getKey()));
+        ByteArrayCodec ptCodec(env, plaintext);
+        return ptCodec.getJBytes();
+    }
+    catch (CK::BadParameterException& e) {
+        jclass bpe = env->FindClass("org/cryptokitty/exceptions/BadParameterException");
+        env->ThrowNew(bpe, e.what());
+    }
+    catch (CK::AuthenticationException& e) {
+        jclass ae = env->FindClass("org/cryptokitty/exceptions/AuthenticationException");
+        env->ThrowNew(ae, e.what());
+    }
+    // Won't get here.
+    return 0;
+
+}
+
+JNIEXPORT jbyteArray JNICALL
+Java_org_cryptokitty_modes_GCM_keyedEncrypt (JNIEnv *env, jobject thisObj, jbyteArray plaintextIn) {
+
+    KeyedGCM *ref = getReference(env, thisObj);
+    if (ref == 0 || !checkKeyed(env, ref)) {
+        return 0;
+    }
+    ByteArrayCodec ptCodec(env, plaintextIn);
+    try {
+        coder::ByteArray ciphertext(ref->encrypt(ptCodec.getBytes(), ref->getKey()));
+        ByteArrayCodec ctCodec(env, ciphertext);
+        return ctCodec.getJBytes();
+    }
+    catch (CK::BadParameterException& e) {
+        jclass bpe = env->FindClass("org/cryptokitty/exceptions/BadParameterException");
+        env->ThrowNew(bpe, e.what());
+    }
+    // Won't get here.
+    return 0;
+
+}
+
 JNIEXPORT void JNICALL
 Java_org_cryptokitty_modes_GCM_setAuthenticationData (JNIEnv *env, jobject thisObj,
                                                                             jbyteArray adIn) {
 
-    CK::GCM *ref = getReference(env, thisObj);
+    KeyedGCM *ref = getReference(env, thisObj);
     ByteArrayCodec adCodec(env, adIn);
     ref->setAuthenticationData(adCodec.getBytes());
 
 }
 
+JNIEXPORT void JNICALL
+Java_org_cryptokitty_modes_GCM_setKey (JNIEnv *env, jobject thisObj, jbyteArray keyIn) {
+
+    KeyedGCM *ref = getReference(env, thisObj);
+    if (ref == 0) {
+        return;
+    }
+    jsize length = env->GetArrayLength(keyIn);
+    if (length != 16 && length != 24 && length != 32) {
+        jclass ike = env->FindClass("org/cryptokitty/exceptions/InvalidKeyException");
+        env->ThrowNew(ike, "Invalid GCM key size");
+        return;
+    }
+    ByteArrayCodec keyCodec(env, keyIn);
+    ref->setKey(keyCodec.getBytes());
+
+}
+
 JNIEXPORT void JNICALL
 Java_org_cryptokitty_modes_GCM_setIV (JNIEnv *env, jobject thisObj, jbyteArray ivIn) {
 
-    CK::GCM *ref = getReference(env, thisObj);
+    KeyedGCM *ref = getReference(env, thisObj);
     ByteArrayCodec ivCodec(env, ivIn);
     ref->setIV(ivCodec.getBytes());
 
@@ -1,5 +1,6 @@
 #include "org_cryptokitty_mac_HMAC.h"
 #include "ByteArrayCodec.h"
+#include "ByteBufferCodec.h"
 #include "ReferenceManager.h"
 #include <CryptoKitty-C/mac/HMAC.h>
 #include <CryptoKitty-C/digest/SHA256.h>
@@ -47,16 +48,6 @@ JNICALL Java_org_cryptokitty_mac_HMAC_authenticate (JNIEnv *env, jobject thisObj
 
 }
 
-JNIEXPORT void JNICALL
-Java_org_cryptokitty_mac_HMAC_dispose (JNIEnv *env, jobject thisObj) {
-
-    jclass thisClass = env->GetObjectClass(thisObj);
-    jfieldID fieldId = env->GetFieldID(thisClass, "jniImpl", "J");
-    jlong jniImpl = env->GetLongField(thisObj, fieldId);
-    ReferenceManager::instance()->deleteRef(jniImpl);
-
-}
-
 JNIEXPORT jbyteArray JNICALL
 Java_org_cryptokitty_mac_HMAC_generateKey (JNIEnv *env, jobject thisObj, jint bitsize) {
 
@@ -91,6 +82,28 @@ Java_org_cryptokitty_mac_HMAC_getHMAC (JNIEnv *env, jobject thisObj) {
 
 }
 
+JNIEXPORT jint JNICALL
+Java_org_cryptokitty_mac_HMAC_getHMACBuffer (JNIEnv *env, jobject thisObj, jobject hmacOut,
+                                                            jint offset, jint length) {
+
+    CK::HMAC *ref = getReference(env, thisObj);
+    if (ref == 0) {
+        return 0;
+    }
+    try {
+        coder::ByteArray hmac(ref->getHMAC());
+        if (ByteBufferCodec::write(env, hmacOut, offset, length, hmac)) {
+            return hmac.getLength();
+        }
+    }
+    catch (CK::IllegalStateException& e) {
+        jclass ise = env->FindClass("org/cryptokitty/exceptions/IllegalStateException");
+        env->ThrowNew(ise, e.what());
+    }
+    return 0;
+
+}
+
 JNIEXPORT jlong JNICALL
 Java_org_cryptokitty_mac_HMAC_getDigestLength (JNIEnv *env, jobject thisObj) {
 
@@ -146,3 +159,16 @@ Java_org_cryptokitty_mac_HMAC_setMessage (JNIEnv *env, jobject thisObj, jbyteArr
 
 }
 
+JNIEXPORT void JNICALL
+Java_org_cryptokitty_mac_HMAC_setMessageBuffer (JNIEnv *env, jobject thisObj, jobject msgIn,
+                                                            jint offset, jint length) {
+
+    CK::HMAC *ref = getReference(env, thisObj);
+    if (ref == 0) {
+        return;
+    }
+    ByteBufferCodec msgCodec(env, msgIn, offset, length);
+    ref->setMessage(msgCodec.getBytes());
+
+}
+
@@ -0,0 +1,9 @@
+#include "org_cryptokitty_jni_JNIReference.h"
+#include "ReferenceManager.h"
+
+JNIEXPORT void JNICALL
+Java_org_cryptokitty_jni_JNIReference_deleteRef (JNIEnv *, jclass, jlong jniImpl) {
+
+    ReferenceManager::instance()->deleteRef(jniImpl);
+
+}
@@ -31,23 +31,10 @@ static CK::RSAKeyPairGenerator *getReference(JNIEnv *env, jobject thisObj) {
 static jobject newBigInteger(JNIEnv *env, const CK::BigInteger& integer) {
 
     jclass biClass = env->FindClass("org/cryptokitty/jni/BigInteger");
-    jmethodID initId = env->GetMethodID(biClass, "<init>", "()V");
-    jobject biObj = env->NewObject(biClass, initId);
-    jfieldID fieldId = env->GetFieldID(biClass, "jniImpl", "J");
+    jmethodID initId = env->GetMethodID(biClass, "<init>", "(JZ)V");
     CK::BigInteger *ref = new CK::BigInteger(integer);
     jlong jniImpl = ReferenceManager::instance()->addRef(ref);
-    env->SetLongField(biObj, fieldId, jniImpl);
-    return biObj;
-
-}
-
-JNIEXPORT void JNICALL
-Java_org_cryptokitty_keys_RSAKeyPairGenerator_dispose (JNIEnv *env, jobject thisObj) {
-
-    jclass thisClass = env->GetObjectClass(thisObj);
-    jfieldID fieldId = env->GetFieldID(thisClass, "jniImpl", "J");
-    jlong jniImpl = env->GetLongField(thisObj, fieldId);
-    ReferenceManager::instance()->deleteRef(jniImpl);
+    return env->NewObject(biClass, initId, jniImpl, JNI_TRUE);
 
 }
 
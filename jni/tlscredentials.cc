@@ -28,23 +28,10 @@ static CK::TLSCredentials *getReference(JNIEnv *env, jobject thisObj) {
 JNIEXPORT jobject JNICALL
 Java_org_cryptokitty_tls_TLSCredentials_allocate (JNIEnv *env, jclass clazz) {
 
-    jmethodID initId = env->GetMethodID(clazz, "<init>", "()V");
-    jobject cred = env->NewObject(clazz, initId);
-    jfieldID fieldId = env->GetFieldID(clazz, "jniImpl", "J");
+    jmethodID initId = env->GetMethodID(clazz, "<init>", "(J)V");
     CK::TLSCredentials *ref = CK::TLSCredentials::allocate();
     jlong jniImpl = ReferenceManager::instance()->addRef(ref);
-    env->SetLongField(cred, fieldId, jniImpl);
-    return cred;
-
-}
-
-JNIEXPORT void JNICALL
-Java_org_cryptokitty_tls_TLSCredentials_dispose (JNIEnv *env, jobject thisObj) {
-
-    jclass thisClass = env->GetObjectClass(thisObj);
-    jfieldID fieldId = env->GetFieldID(thisClass, "jniImpl", "J");
-    jlong jniImpl = env->GetLongField(thisObj, fieldId);
-    ReferenceManager::instance()->deleteRef(jniImpl);
+    return env->NewObject(clazz, initId, jniImpl);
 
 }
 
@@ -29,16 +29,6 @@ static CK::TLSSession *getReference(JNIEnv *env, jobject thisObj) {
 
 }
 
-JNIEXPORT void JNICALL
-Java_org_cryptokitty_tls_TLSSession_dispose (JNIEnv *env, jobject thisObj) {
-
-    jclass thisClass = env->GetObjectClass(thisObj);
-    jfieldID fieldId = env->GetFieldID(thisClass, "jniImpl", "J");
-    jlong jniImpl = env->GetLongField(thisObj, fieldId);
-    ReferenceManager::instance()->deleteRef(jniImpl);
-
-}
-
 JNIEXPORT jboolean JNICALL
 Java_org_cryptokitty_tls_TLSSession_doHandshake (JNIEnv *env, jobject thisObj) {
 
@@ -77,26 +67,20 @@ Java_org_cryptokitty_tls_TLSSession_getLastError (JNIEnv *env, jobject thisObj)
 JNIEXPORT jobject JNICALL
 Java_org_cryptokitty_tls_TLSSession_initializeClient (JNIEnv *env, jclass clazz) {
 
-    jmethodID initId = env->GetMethodID(clazz, "<init>", "()V");
-    jobject session = env->NewObject(clazz, initId);
-    jfieldID fieldId = env->GetFieldID(clazz, "jniImpl", "J");
+    jmethodID initId = env->GetMethodID(clazz, "<init>", "(J)V");
     CK::TLSSession *ref = CK::TLSSession::initializeClient();
     jlong jniImpl = ReferenceManager::instance()->addRef(ref);
-    env->SetLongField(session, fieldId, jniImpl);
-    return session;
+    return env->NewObject(clazz, initId, jniImpl);
 
 }
 
 JNIEXPORT jobject JNICALL
 Java_org_cryptokitty_tls_TLSSession_initializeServer (JNIEnv *env, jclass clazz) {
 
-    jmethodID initId = env->GetMethodID(clazz, "<init>", "()V");
-    jobject session = env->NewObject(clazz, initId);
-    jfieldID fieldId = env->GetFieldID(clazz, "jniImpl", "J");
+    jmethodID initId = env->GetMethodID(clazz, "<init>", "(J)V");
     CK::TLSSession *ref = CK::TLSSession::initializeServer();
     jlong jniImpl = ReferenceManager::instance()->addRef(ref);
-    env->SetLongField(session, fieldId, jniImpl);
-    return session;
+    return env->NewObject(clazz, initId, jniImpl);
 
 }
 
@@ -138,7 +122,7 @@ Java_org_cryptokitty_tls_TLSSession_sendRecord (JNIEnv *env, jobject thisObj, jb
 }
 
 JNIEXPORT void JNICALL
-Java_org_cryptokitty_tls_TLSSession_setCredentials (JNIEnv *env, jobject thisObj,
+Java_org_cryptokitty_tls_TLSSession_setNativeCredentials (JNIEnv *env, jobject thisObj,
                                                                         jobject credObj) {
 
     CK::TLSSession *ref = getReference(env, thisObj);
@@ -3,15 +3,25 @@
  */
 package org.cryptokitty.cipher;
 
+import java.nio.ByteBuffer;
+
 import org.cryptokitty.exceptions.BadParameterException;
 import org.cryptokitty.exceptions.IllegalBlockSizeException;
+import org.cryptokitty.exceptions.IllegalStateException;
 import org.cryptokitty.exceptions.InvalidKeyException;
+import org.cryptokitty.jni.JNIReference;
+import org.cryptokitty.jni.NativeBuffers;
 
 /**
  * @author stevebrenneis
  *
+ * AES in CryptoKitty-C. The BlockCipher methods take the key on every
+ * call. Alternatively, the key can be set once with setKey or withKey,
+ * after which it is held on the native side and the keyed methods pass
+ * only the data. The keyed ByteBuffer methods read and write the
+ * buffers in place, without creating Java arrays.
  */
-public class AES implements BlockCipher {
+public class AES implements BlockCipher, AutoCloseable {
 
 	/**
 	 * Load the CryptoKitty-C binary.
@@ -32,6 +42,11 @@ public class AES implements BlockCipher {
 	 */
 	private long jniImpl;
 
+	/**
+	 * Frees the native object on close or after collection.
+	 */
+	private final JNIReference reference;
+
 	/**
 	 * @throws InvalidKeyException 
 	 * 
@@ -43,6 +58,7 @@ public class AES implements BlockCipher {
 			case AES192:
 			case AES256:
 				jniImpl = initialize(keySize);
+				reference = JNIReference.register(this, jniImpl);
 				break;
 			default:
 				throw new InvalidKeyException("Invalid AES key size");
@@ -57,10 +73,74 @@ public class AES implements BlockCipher {
 	public native byte[] decrypt(byte[] ciphertext, byte[] key)
 							throws BadParameterException, IllegalBlockSizeException;
 
+	/*
+	 * Encrypt or decrypt the remaining bytes of src into dst with the key
+	 * set by setKey. Advances both positions.
+	 */
+	private int crypt(boolean encrypt, ByteBuffer src, ByteBuffer dst)
+							throws BadParameterException, IllegalStateException {
+
+		ByteBuffer in = NativeBuffers.readable(src);
+		int length = keyedCryptBuffer(encrypt, NativeBuffers.target(in), NativeBuffers.offset(in),
+							in.remaining(), NativeBuffers.target(dst), NativeBuffers.offset(dst),
+							dst.remaining());
+		src.position(src.limit());
+		dst.position(dst.position() + length);
+		return length;
+
+	}
+
+	/**
+	 * Decrypt with the key set by setKey.
+	 */
+	public byte[] decrypt(byte[] ciphertext)
+							throws BadParameterException, IllegalStateException {
+
+		return keyedDecrypt(ciphertext);
+
+	}
+
+	/**
+	 * Decrypt the remaining bytes of src into dst with the key set by
+	 * setKey. Direct buffers are accessed in place. Returns the number of
+	 * bytes written.
+	 */
+	public int decrypt(ByteBuffer src, ByteBuffer dst)
+							throws BadParameterException, IllegalStateException {
+
+		return crypt(false, src, dst);
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.cipher.BlockCipher#decryptBlock(byte[], int, byte[], int, byte[])
+	 */
+	@Override
+	public native void decryptBlock(byte[] in, int inOff, byte[] out, int outOff, byte[] key)
+							throws BadParameterException, IllegalBlockSizeException;
+
+	/**
+	 * Decrypt one block with the key set by setKey. The input and output
+	 * may be the same array at the same offset.
+	 */
+	public void decryptBlock(byte[] in, int inOff, byte[] out, int outOff)
+							throws BadParameterException, IllegalBlockSizeException,
+							IllegalStateException {
+
+		keyedDecryptBlock(in, inOff, out, outOff);
+
+	}
+
 	/**
-	 * Free JNI resources.
+	 * Free the native object now instead of when this is collected. This
+	 * can't be used after it is closed.
 	 */
-	private native void dispose();
+	@Override
+	public void close() {
+
+		reference.close();
+
+	}
 
 	/* (non-Javadoc)
 	 * @see org.cryptokitty.cipher.BlockCipher#encrypt(byte[], byte[])
@@ -69,14 +149,44 @@ public class AES implements BlockCipher {
 	public native byte[] encrypt(byte[] plaintext, byte[] key)
 							throws BadParameterException, IllegalBlockSizeException;
 
-	/*
-	 * (non-Javadoc)
-	 * @see java.lang.Object#finalize()
+	/**
+	 * Encrypt with the key set by setKey.
+	 */
+	public byte[] encrypt(byte[] plaintext)
+							throws BadParameterException, IllegalStateException {
+
+		return keyedEncrypt(plaintext);
+
+	}
+
+	/**
+	 * Encrypt the remaining bytes of src into dst with the key set by
+	 * setKey. Direct buffers are accessed in place. Returns the number of
+	 * bytes written.
+	 */
+	public int encrypt(ByteBuffer src, ByteBuffer dst)
+							throws BadParameterException, IllegalStateException {
+
+		return crypt(true, src, dst);
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.cipher.BlockCipher#encryptBlock(byte[], int, byte[], int, byte[])
 	 */
 	@Override
-	public void finalize() throws Throwable {
+	public native void encryptBlock(byte[] in, int inOff, byte[] out, int outOff, byte[] key)
+							throws BadParameterException, IllegalBlockSizeException;
+
+	/**
+	 * Encrypt one block with the key set by setKey. The input and output
+	 * may be the same array at the same offset.
+	 */
+	public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff)
+							throws BadParameterException, IllegalBlockSizeException,
+							IllegalStateException {
 
-		dispose();
+		keyedEncryptBlock(in, inOff, out, outOff);
 
 	}
 
@@ -97,11 +207,52 @@ public class AES implements BlockCipher {
 	 */
 	private native long initialize(int keySize);
 
+	/*
+	 * Keyed JNI operations. These use the key held on the native side.
+	 * The buffer operation takes direct ByteBuffers or byte arrays.
+	 */
+	private native int keyedCryptBuffer(boolean encrypt, Object src, int srcOff, int length,
+							Object dst, int dstOff, int dstLength)
+							throws BadParameterException, IllegalStateException;
+	private native byte[] keyedDecrypt(byte[] ciphertext)
+							throws BadParameterException, IllegalStateException;
+	private native void keyedDecryptBlock(byte[] in, int inOff, byte[] out, int outOff)
+							throws BadParameterException, IllegalBlockSizeException,
+							IllegalStateException;
+	private native byte[] keyedEncrypt(byte[] plaintext)
+							throws BadParameterException, IllegalStateException;
+	private native void keyedEncryptBlock(byte[] in, int inOff, byte[] out, int outOff)
+							throws BadParameterException, IllegalBlockSizeException,
+							IllegalStateException;
+
 	/* (non-Javadoc)
 	 * @see org.cryptokitty.cipher.BlockCipher#reset()
 	 */
 	@Override
 	public native void reset();
 
+	/**
+	 * Set the key for the keyed methods. The key is copied to the native
+	 * side once and isn't passed again. It must match the key size given
+	 * to the constructor.
+	 *
+	 * @param key
+	 * @throws InvalidKeyException
+	 */
+	public native void setKey(byte[] key) throws InvalidKeyException;
+
+	/**
+	 * Construct a cipher with its key set.
+	 *
+	 * @param key - A 16, 24 or 32 byte key.
+	 * @throws InvalidKeyException
+	 */
+	public static AES withKey(byte[] key) throws InvalidKeyException {
+
+		AES aes = new AES(key.length);
+		aes.setKey(key);
+		return aes;
+
+	}
 
 }
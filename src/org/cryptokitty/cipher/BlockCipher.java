@@ -18,6 +18,15 @@ public interface BlockCipher {
 	 */
 	public byte[] decrypt(byte[] ciphertext, byte[] key)
 					throws BadParameterException, IllegalBlockSizeException;
+
+	/**
+	 * Decrypt one block of ciphertext beginning at inOff and write the
+	 * plaintext to out beginning at outOff. The input and output may be
+	 * the same array at the same offset.
+	 * @throws IllegalBlockSizeException 
+	 */
+	public void decryptBlock(byte[] in, int inOff, byte[] out, int outOff, byte[] key)
+					throws BadParameterException, IllegalBlockSizeException;
 	
 	/**
 	 * Encrypt a series of bits.
@@ -26,6 +35,15 @@ public interface BlockCipher {
 	public byte[] encrypt(byte[] plaintext, byte[] key)
 					throws BadParameterException, IllegalBlockSizeException;
 
+	/**
+	 * Encrypt one block of plaintext beginning at inOff and write the
+	 * ciphertext to out beginning at outOff. The input and output may be
+	 * the same array at the same offset.
+	 * @throws IllegalBlockSizeException 
+	 */
+	public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff, byte[] key)
+					throws BadParameterException, IllegalBlockSizeException;
+
 	/**
 	 * Get the block size of the cipher.
 	 * @return
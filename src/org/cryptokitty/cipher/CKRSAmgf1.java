@@ -1,10 +1,5 @@
 package org.cryptokitty.cipher;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.Arrays;
-
-import org.cryptokitty.codec.Scalar32;
 import org.cryptokitty.digest.Digest;
 import org.cryptokitty.digest.SHA224;
 import org.cryptokitty.digest.SHA256;
@@ -93,25 +88,27 @@ public final class CKRSAmgf1 {
 			throw new BadParameterException("Bad padding");
 		}
 
-		ByteArrayOutputStream T = new ByteArrayOutputStream();
-		for (int counter = 0;
-				counter < Math.ceil((double)maskLen / hLen);
-					++ counter) {
-			byte[] C = new Scalar32(counter).getEncoded();
-			byte[] h = new byte[C.length + mgfSeed.length];
-			System.arraycopy(mgfSeed, 0, h, 0, mgfSeed.length);
-			System.arraycopy(C, 0, h, mgfSeed.length, 4);
-			byte[] t = digest.digest(h);
-			try {
-				T.write(t);
-			}
-			catch (IOException e) {
-				// TODO What do we do with this?
-				// Not likely to happen
-			}
+		// The seed is hashed once. Each counter starts from the midstate.
+		digest.reset();
+		digest.update(mgfSeed);
+		Digest seeded = digest.snapshot();
+
+		byte[] T = new byte[maskLen];
+		byte[] C = new byte[4];
+		int count = (maskLen + hLen - 1) / hLen;
+		for (int counter = 0; counter < count; ++counter) {
+			C[0] = (byte)(counter >>> 24);
+			C[1] = (byte)(counter >>> 16);
+			C[2] = (byte)(counter >>> 8);
+			C[3] = (byte)counter;
+			digest.restore(seeded);
+			digest.update(C);
+			byte[] t = digest.digest();
+			int offset = counter * hLen;
+			System.arraycopy(t, 0, T, offset, Math.min(hLen, maskLen - offset));
 		}
 
-		return Arrays.copyOf(T.toByteArray(), maskLen);
+		return T;
 
 	}
 
@@ -0,0 +1,320 @@
+/**
+ * 
+ */
+package org.cryptokitty.digest;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * @author Steve Brenneis
+ *
+ * BLAKE2b message digest implementation. See RFC 7693. Unkeyed, with
+ * a digest length of 1 to 64 bytes.
+ *
+ * The last block is marked with a flag rather than padded with the
+ * message length, so it is held until more input arrives.
+ */
+public class BLAKE2b extends Digest {
+
+	/*
+	 * Initialization vector. The same as the SHA-512 initial hash values.
+	 */
+	private static final long[] IV =
+		{ 0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+			0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L };
+
+	/*
+	 * Message word permutations. Rounds 10 and 11 use the first two.
+	 */
+	private static final int[][] SIGMA =
+		{ { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15 },
+			{ 14, 10, 4, 8, 9, 15, 13, 6, 1, 12, 0, 2, 11, 7, 5, 3 },
+			{ 11, 8, 12, 0, 5, 2, 15, 13, 10, 14, 3, 6, 7, 1, 9, 4 },
+			{ 7, 9, 3, 1, 13, 12, 11, 14, 2, 6, 5, 10, 4, 0, 15, 8 },
+			{ 9, 0, 5, 7, 2, 4, 10, 15, 14, 1, 11, 12, 6, 8, 3, 13 },
+			{ 2, 12, 6, 10, 0, 11, 8, 3, 4, 13, 7, 5, 15, 14, 1, 9 },
+			{ 12, 5, 1, 15, 14, 13, 4, 10, 0, 7, 6, 3, 9, 2, 8, 11 },
+			{ 13, 11, 7, 14, 12, 1, 3, 9, 5, 0, 15, 4, 8, 6, 2, 10 },
+			{ 6, 15, 14, 9, 11, 3, 0, 8, 12, 2, 13, 7, 1, 4, 10, 5 },
+			{ 10, 2, 8, 4, 7, 6, 1, 5, 15, 11, 9, 14, 3, 12, 13, 0 } };
+
+	/*
+	 * Digest length in bytes.
+	 */
+	private int digestLength;
+
+	/*
+	 * Chaining state.
+	 */
+	private long[] h;
+
+	/*
+	 * Byte counter, low and high words.
+	 */
+	private long t0;
+	private long t1;
+
+	/*
+	 * Message block words.
+	 */
+	private long[] m;
+
+	/*
+	 * Working vector.
+	 */
+	private long[] v;
+
+	/**
+	 * Construct with a 64 byte digest.
+	 */
+	public BLAKE2b() {
+		this(64);
+	}
+
+	/**
+	 * @param digestLength - The digest length in bytes, 1 to 64.
+	 */
+	public BLAKE2b(int digestLength) {
+
+		super(128, true);
+		if (digestLength < 1 || digestLength > 64) {
+			throw new IllegalArgumentException("Invalid digest length");
+		}
+		this.digestLength = digestLength;
+		h = new long[8];
+		m = new long[16];
+		v = new long[16];
+		reset();
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#compress(byte[], int)
+	 */
+	@Override
+	protected void compress(byte[] message, int offset) {
+
+		load(message, offset);
+		count(128);
+		transform(false);
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#compress(java.nio.ByteBuffer)
+	 */
+	@Override
+	protected void compress(ByteBuffer message) {
+
+		for (int j = 0; j < 16; ++j) {
+			m[j] = Long.reverseBytes(message.getLong());
+		}
+		count(128);
+		transform(false);
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#copy()
+	 */
+	@Override
+	public Digest copy() {
+
+		BLAKE2b copy = (BLAKE2b)super.copy();
+		copy.h = h.clone();
+		copy.m = new long[16];
+		copy.v = new long[16];
+		return copy;
+
+	}
+
+	/*
+	 * Add to the byte counter.
+	 */
+	private void count(int bytes) {
+
+		t0 += bytes;
+		// Unsigned compare for the carry.
+		if ((t0 ^ Long.MIN_VALUE) < (bytes ^ Long.MIN_VALUE)) {
+			t1++;
+		}
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#finish()
+	 */
+	@Override
+	protected byte[] finish() {
+
+		byte[] last = new byte[128];
+		int length = getFinalBlock(last);
+		load(last, 0);
+		count(length);
+		transform(true);
+
+		byte[] result = new byte[digestLength];
+		for (int i = 0; i < digestLength; ++i) {
+			result[i] = (byte)(h[i / 8] >>> ((i % 8) * 8));
+		}
+		return result;
+
+	}
+
+	/*
+	 * G mixing function.
+	 */
+	private void G(int a, int b, int c, int d, long x, long y) {
+
+		v[a] = v[a] + v[b] + x;
+		v[d] = Long.rotateRight(v[d] ^ v[a], 32);
+		v[c] = v[c] + v[d];
+		v[b] = Long.rotateRight(v[b] ^ v[c], 24);
+		v[a] = v[a] + v[b] + y;
+		v[d] = Long.rotateRight(v[d] ^ v[a], 16);
+		v[c] = v[c] + v[d];
+		v[b] = Long.rotateRight(v[b] ^ v[c], 63);
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#getBlockSize()
+	 */
+	@Override
+	public int getBlockSize() {
+		return 128;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#getDigestLength()
+	 */
+	@Override
+	public int getDigestLength() {
+		return digestLength;
+	}
+
+	/*
+	 * Load a block of little endian words from the message into m.
+	 */
+	private void load(byte[] message, int offset) {
+
+		for (int j = 0; j < 16; ++j) {
+			int i = offset + (j * 8);
+			long word = 0;
+			for (int k = 7; k >= 0; --k) {
+				word = (word << 8) | (message[i + k] & 0xff);
+			}
+			m[j] = word;
+		}
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#readState(java.io.DataInput)
+	 */
+	@Override
+	protected void readState(DataInput in) throws IOException {
+
+		if (in.readUnsignedByte() != digestLength) {
+			throw new IllegalArgumentException("State is from a different digest length");
+		}
+		for (int i = 0; i < h.length; ++i) {
+			h[i] = in.readLong();
+		}
+		t0 = in.readLong();
+		t1 = in.readLong();
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#reset()
+	 */
+	@Override
+	public void reset() {
+
+		super.reset();
+		System.arraycopy(IV, 0, h, 0, 8);
+		// Parameter block: digest length, no key, fanout and depth 1.
+		h[0] ^= 0x01010000L ^ digestLength;
+		t0 = 0;
+		t1 = 0;
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#restore(org.cryptokitty.digest.Digest)
+	 */
+	@Override
+	public void restore(Digest snapshot) {
+
+		super.restore(snapshot);
+		BLAKE2b other = (BLAKE2b)snapshot;
+		if (other.digestLength != digestLength) {
+			throw new IllegalArgumentException("Snapshot is from a different digest length");
+		}
+		System.arraycopy(other.h, 0, h, 0, h.length);
+		t0 = other.t0;
+		t1 = other.t1;
+
+	}
+
+	/*
+	 * Compress the block in m.
+	 */
+	private void transform(boolean last) {
+
+		System.arraycopy(h, 0, v, 0, 8);
+		System.arraycopy(IV, 0, v, 8, 8);
+		v[12] ^= t0;
+		v[13] ^= t1;
+		if (last) {
+			v[14] = ~v[14];
+		}
+
+		for (int r = 0; r < 12; ++r) {
+			int[] s = SIGMA[r % 10];
+			G(0, 4, 8, 12, m[s[0]], m[s[1]]);
+			G(1, 5, 9, 13, m[s[2]], m[s[3]]);
+			G(2, 6, 10, 14, m[s[4]], m[s[5]]);
+			G(3, 7, 11, 15, m[s[6]], m[s[7]]);
+			G(0, 5, 10, 15, m[s[8]], m[s[9]]);
+			G(1, 6, 11, 12, m[s[10]], m[s[11]]);
+			G(2, 7, 8, 13, m[s[12]], m[s[13]]);
+			G(3, 4, 9, 14, m[s[14]], m[s[15]]);
+		}
+
+		for (int i = 0; i < 8; ++i) {
+			h[i] ^= v[i] ^ v[i + 8];
+		}
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#writeState(java.io.DataOutput)
+	 */
+	@Override
+	protected void writeState(DataOutput out) throws IOException {
+
+		out.writeByte(digestLength);
+		for (int i = 0; i < h.length; ++i) {
+			out.writeLong(h[i]);
+		}
+		out.writeLong(t0);
+		out.writeLong(t1);
+
+	}
+
+}
@@ -0,0 +1,594 @@
+/**
+ * 
+ */
+package org.cryptokitty.digest;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.RecursiveTask;
+
+import org.cryptokitty.xprovider.WorkerPool;
+
+/**
+ * @author Steve Brenneis
+ *
+ * BLAKE3 message digest implementation, unkeyed with a 32 byte digest.
+ *
+ * The message is split into 1 KiB chunks. Each chunk is hashed to a
+ * chaining value and the chaining values are combined in a binary tree.
+ * The chaining values of complete subtrees are kept on a stack, one
+ * entry for each one bit of the chunk count, and merged as the count
+ * grows. The last chunk and the root are flagged, so the last block is
+ * held until more input arrives.
+ *
+ * In parallel mode, long runs of whole chunks are hashed as subtrees
+ * on the shared worker pool. A subtree is a power of two chunks that
+ * starts at a multiple of its size, so it is the same node that the
+ * sequential hash would compute.
+ */
+public class BLAKE3 extends Digest {
+
+	/*
+	 * Chunk length in bytes.
+	 */
+	private static final int CHUNK_LENGTH = 1024;
+
+	/*
+	 * Blocks in a chunk.
+	 */
+	private static final int CHUNK_BLOCKS = 16;
+
+	/*
+	 * Domain flags.
+	 */
+	private static final int CHUNK_START = 1;
+	private static final int CHUNK_END = 2;
+	private static final int PARENT = 4;
+	private static final int ROOT = 8;
+
+	/*
+	 * Fewest whole chunks hashed on the pool.
+	 */
+	private static final int MIN_PARALLEL_CHUNKS = 32;
+
+	/*
+	 * Fewest chunks hashed by one task.
+	 */
+	private static final int MIN_TASK_CHUNKS = 8;
+
+	/*
+	 * Initialization vector. The same as the SHA-256 initial hash values.
+	 */
+	private static final int[] IV =
+		{ 0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a,
+			0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19 };
+
+	/*
+	 * Message word permutation applied after each round.
+	 */
+	private static final int[] PERMUTATION =
+		{ 2, 6, 3, 10, 7, 0, 4, 13, 1, 11, 12, 5, 9, 14, 15, 8 };
+
+	/*
+	 * Message word order for each round, the permutation applied
+	 * round times.
+	 */
+	private static final int[][] SCHEDULE = new int[7][16];
+	static {
+		for (int i = 0; i < 16; ++i) {
+			SCHEDULE[0][i] = i;
+		}
+		for (int r = 1; r < 7; ++r) {
+			for (int i = 0; i < 16; ++i) {
+				SCHEDULE[r][i] = SCHEDULE[r - 1][PERMUTATION[i]];
+			}
+		}
+	}
+
+	/*
+	 * Hashes a subtree of whole chunks. The message is a byte array or
+	 * a big endian buffer read with absolute gets, so tasks can share it.
+	 */
+	private static final class Subtree extends RecursiveTask<int[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private byte[] array;
+		private ByteBuffer buffer;
+		private int offset;
+		private long counter;
+		private int chunks;
+		private int grain;
+
+		Subtree(byte[] array, ByteBuffer buffer, int offset, long counter, int chunks,
+					int grain) {
+			this.array = array;
+			this.buffer = buffer;
+			this.offset = offset;
+			this.counter = counter;
+			this.chunks = chunks;
+			this.grain = grain;
+		}
+
+		@Override
+		protected int[] compute() {
+
+			if (chunks <= grain) {
+				return hash(array, buffer, offset, counter, chunks, new int[16], new int[16]);
+			}
+
+			int half = chunks / 2;
+			Subtree left = new Subtree(array, buffer, offset, counter, half, grain);
+			Subtree right = new Subtree(array, buffer, offset + (half * CHUNK_LENGTH),
+											counter + half, half, grain);
+			left.fork();
+			int[] rightValue = right.compute();
+			int[] leftValue = left.join();
+			int[] m = new int[16];
+			System.arraycopy(leftValue, 0, m, 0, 8);
+			System.arraycopy(rightValue, 0, m, 8, 8);
+			int[] cv = IV.clone();
+			compress(cv, m, 0, 64, PARENT, new int[16]);
+			return cv;
+
+		}
+
+	}
+
+	/*
+	 * Hash in parallel.
+	 */
+	private boolean parallel;
+
+	/*
+	 * Chaining value of the current chunk.
+	 */
+	private int[] cv;
+
+	/*
+	 * Blocks compressed in the current chunk.
+	 */
+	private int blocksInChunk;
+
+	/*
+	 * Index of the current chunk.
+	 */
+	private long chunkCounter;
+
+	/*
+	 * Chaining values of complete subtrees, eight words each.
+	 */
+	private int[] stack;
+	private int stackSize;
+
+	/*
+	 * Message block words.
+	 */
+	private int[] m;
+
+	/*
+	 * Working vector.
+	 */
+	private int[] v;
+
+	/**
+	 * Construct a sequential digest.
+	 */
+	public BLAKE3() {
+		this(false);
+	}
+
+	/**
+	 * @param parallel - Hash long runs of chunks on the shared worker pool.
+	 */
+	public BLAKE3(boolean parallel) {
+
+		super(64, true);
+		this.parallel = parallel;
+		cv = new int[8];
+		// One entry per bit of the chunk counter.
+		stack = new int[64 * 8];
+		m = new int[16];
+		v = new int[16];
+		reset();
+
+	}
+
+	/*
+	 * Add the chaining value of a subtree of the given number of
+	 * chunks. Complete pairs are merged. Only called when more input
+	 * follows, so none of them is the root.
+	 */
+	private void addSubtree(int[] value, long chunks) {
+
+		System.arraycopy(value, 0, stack, stackSize * 8, 8);
+		stackSize++;
+		chunkCounter += chunks;
+		while (stackSize > Long.bitCount(chunkCounter)) {
+			stackSize--;
+			System.arraycopy(stack, (stackSize - 1) * 8, m, 0, 16);
+			int[] parent = IV.clone();
+			compress(parent, m, 0, 64, PARENT, v);
+			System.arraycopy(parent, 0, stack, (stackSize - 1) * 8, 8);
+		}
+
+	}
+
+	/*
+	 * The compression function. The chaining value is replaced by the
+	 * first half of the output.
+	 */
+	private static void compress(int[] cv, int[] m, long counter, int blockLength,
+									int flags, int[] v) {
+
+		System.arraycopy(cv, 0, v, 0, 8);
+		System.arraycopy(IV, 0, v, 8, 4);
+		v[12] = (int)counter;
+		v[13] = (int)(counter >>> 32);
+		v[14] = blockLength;
+		v[15] = flags;
+
+		for (int r = 0; r < 7; ++r) {
+			int[] s = SCHEDULE[r];
+			G(v, 0, 4, 8, 12, m[s[0]], m[s[1]]);
+			G(v, 1, 5, 9, 13, m[s[2]], m[s[3]]);
+			G(v, 2, 6, 10, 14, m[s[4]], m[s[5]]);
+			G(v, 3, 7, 11, 15, m[s[6]], m[s[7]]);
+			G(v, 0, 5, 10, 15, m[s[8]], m[s[9]]);
+			G(v, 1, 6, 11, 12, m[s[10]], m[s[11]]);
+			G(v, 2, 7, 8, 13, m[s[12]], m[s[13]]);
+			G(v, 3, 4, 9, 14, m[s[14]], m[s[15]]);
+		}
+
+		for (int i = 0; i < 8; ++i) {
+			cv[i] = v[i] ^ v[i + 8];
+		}
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#compress(byte[], int)
+	 */
+	@Override
+	protected void compress(byte[] message, int offset) {
+
+		load(message, null, offset, m);
+		compressChunkBlock();
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#compress(java.nio.ByteBuffer)
+	 */
+	@Override
+	protected void compress(ByteBuffer message) {
+
+		for (int j = 0; j < 16; ++j) {
+			m[j] = Integer.reverseBytes(message.getInt());
+		}
+		compressChunkBlock();
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#compressBlocks(byte[], int, int)
+	 */
+	@Override
+	protected void compressBlocks(byte[] message, int offset, int count) {
+
+		while (count > 0) {
+			int chunks = subtreeChunks(count);
+			if (chunks > 0) {
+				addSubtree(subtree(message, null, offset, chunks), chunks);
+				offset += chunks * CHUNK_LENGTH;
+				count -= chunks * CHUNK_BLOCKS;
+			}
+			else {
+				compress(message, offset);
+				offset += 64;
+				count--;
+			}
+		}
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#compressBlocks(java.nio.ByteBuffer, int)
+	 */
+	@Override
+	protected void compressBlocks(ByteBuffer message, int count) {
+
+		while (count > 0) {
+			int chunks = subtreeChunks(count);
+			if (chunks > 0) {
+				int position = message.position();
+				addSubtree(subtree(null, message, position, chunks), chunks);
+				message.position(position + (chunks * CHUNK_LENGTH));
+				count -= chunks * CHUNK_BLOCKS;
+			}
+			else {
+				compress(message);
+				count--;
+			}
+		}
+
+	}
+
+	/*
+	 * Compress the block in m into the current chunk.
+	 */
+	private void compressChunkBlock() {
+
+		int flags = blocksInChunk == 0 ? CHUNK_START : 0;
+		if (blocksInChunk == CHUNK_BLOCKS - 1) {
+			flags |= CHUNK_END;
+		}
+		compress(cv, m, chunkCounter, 64, flags, v);
+		if (++blocksInChunk == CHUNK_BLOCKS) {
+			// More input follows, so this isn't the last chunk.
+			addSubtree(cv, 1);
+			System.arraycopy(IV, 0, cv, 0, 8);
+			blocksInChunk = 0;
+		}
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#copy()
+	 */
+	@Override
+	public Digest copy() {
+
+		BLAKE3 copy = (BLAKE3)super.copy();
+		copy.cv = cv.clone();
+		copy.stack = stack.clone();
+		copy.m = new int[16];
+		copy.v = new int[16];
+		return copy;
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#finish()
+	 */
+	@Override
+	protected byte[] finish() {
+
+		byte[] last = new byte[64];
+		int length = getFinalBlock(last);
+		load(last, null, 0, m);
+
+		int flags = CHUNK_END;
+		if (blocksInChunk == 0) {
+			flags |= CHUNK_START;
+		}
+		int[] value = cv.clone();
+		compress(value, m, chunkCounter, length, stackSize == 0 ? flags | ROOT : flags, v);
+
+		// Fold the stack from the right. The last parent is the root.
+		for (int i = stackSize - 1; i >= 0; --i) {
+			System.arraycopy(stack, i * 8, m, 0, 8);
+			System.arraycopy(value, 0, m, 8, 8);
+			System.arraycopy(IV, 0, value, 0, 8);
+			compress(value, m, 0, 64, i == 0 ? PARENT | ROOT : PARENT, v);
+		}
+
+		byte[] result = new byte[32];
+		for (int i = 0; i < 8; ++i) {
+			result[i * 4] = (byte)value[i];
+			result[(i * 4) + 1] = (byte)(value[i] >>> 8);
+			result[(i * 4) + 2] = (byte)(value[i] >>> 16);
+			result[(i * 4) + 3] = (byte)(value[i] >>> 24);
+		}
+		return result;
+
+	}
+
+	/*
+	 * G mixing function.
+	 */
+	private static void G(int[] v, int a, int b, int c, int d, int x, int y) {
+
+		v[a] = v[a] + v[b] + x;
+		v[d] = Integer.rotateRight(v[d] ^ v[a], 16);
+		v[c] = v[c] + v[d];
+		v[b] = Integer.rotateRight(v[b] ^ v[c], 12);
+		v[a] = v[a] + v[b] + y;
+		v[d] = Integer.rotateRight(v[d] ^ v[a], 8);
+		v[c] = v[c] + v[d];
+		v[b] = Integer.rotateRight(v[b] ^ v[c], 7);
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#getBlockSize()
+	 */
+	@Override
+	public int getBlockSize() {
+		return 64;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#getDigestLength()
+	 */
+	@Override
+	public int getDigestLength() {
+		return 32;
+	}
+
+	/*
+	 * Hash a run of whole chunks on one thread and return the chaining
+	 * value of their subtree. The number of chunks is a power of two.
+	 */
+	private static int[] hash(byte[] array, ByteBuffer buffer, int offset, long counter,
+								int chunks, int[] m, int[] v) {
+
+		if (chunks > 1) {
+			int half = chunks / 2;
+			int[] left = hash(array, buffer, offset, counter, half, m, v);
+			int[] right = hash(array, buffer, offset + (half * CHUNK_LENGTH), counter + half,
+								half, m, v);
+			System.arraycopy(left, 0, m, 0, 8);
+			System.arraycopy(right, 0, m, 8, 8);
+			int[] parent = IV.clone();
+			compress(parent, m, 0, 64, PARENT, v);
+			return parent;
+		}
+
+		int[] value = IV.clone();
+		for (int b = 0; b < CHUNK_BLOCKS; ++b) {
+			load(array, buffer, offset + (b * 64), m);
+			int flags = b == 0 ? CHUNK_START : b == CHUNK_BLOCKS - 1 ? CHUNK_END : 0;
+			compress(value, m, counter, 64, flags, v);
+		}
+		return value;
+
+	}
+
+	/**
+	 * Is the digest in parallel mode?
+	 */
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/*
+	 * Load a block of little endian words from an array or a big endian
+	 * buffer.
+	 */
+	private static void load(byte[] array, ByteBuffer buffer, int offset, int[] m) {
+
+		if (array != null) {
+			for (int j = 0; j < 16; ++j) {
+				int i = offset + (j * 4);
+				m[j] = (array[i] & 0xff) | ((array[i + 1] & 0xff) << 8)
+						| ((array[i + 2] & 0xff) << 16) | ((array[i + 3] & 0xff) << 24);
+			}
+		}
+		else {
+			for (int j = 0; j < 16; ++j) {
+				m[j] = Integer.reverseBytes(buffer.getInt(offset + (j * 4)));
+			}
+		}
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#readState(java.io.DataInput)
+	 */
+	@Override
+	protected void readState(DataInput in) throws IOException {
+
+		for (int i = 0; i < 8; ++i) {
+			cv[i] = in.readInt();
+		}
+		int newBlocks = in.readUnsignedByte();
+		long newCounter = in.readLong();
+		if (newBlocks >= CHUNK_BLOCKS || newCounter < 0) {
+			throw new IllegalArgumentException("Invalid chunk state");
+		}
+		blocksInChunk = newBlocks;
+		chunkCounter = newCounter;
+		stackSize = Long.bitCount(chunkCounter);
+		for (int i = 0; i < stackSize * 8; ++i) {
+			stack[i] = in.readInt();
+		}
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#reset()
+	 */
+	@Override
+	public void reset() {
+
+		super.reset();
+		System.arraycopy(IV, 0, cv, 0, 8);
+		blocksInChunk = 0;
+		chunkCounter = 0;
+		stackSize = 0;
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#restore(org.cryptokitty.digest.Digest)
+	 */
+	@Override
+	public void restore(Digest snapshot) {
+
+		super.restore(snapshot);
+		BLAKE3 other = (BLAKE3)snapshot;
+		System.arraycopy(other.cv, 0, cv, 0, 8);
+		System.arraycopy(other.stack, 0, stack, 0, other.stackSize * 8);
+		stackSize = other.stackSize;
+		blocksInChunk = other.blocksInChunk;
+		chunkCounter = other.chunkCounter;
+
+	}
+
+	/*
+	 * Hash a subtree of whole chunks at the start of a chunk, on the
+	 * pool.
+	 */
+	private int[] subtree(byte[] array, ByteBuffer buffer, int offset, int chunks) {
+
+		// A few tasks per worker so the load evens out.
+		int grain = Math.max(MIN_TASK_CHUNKS, chunks / (WorkerPool.getParallelism() * 4));
+		return WorkerPool.getPool().invoke(new Subtree(array, buffer, offset, chunkCounter,
+														chunks, grain));
+
+	}
+
+	/*
+	 * The number of chunks to hash as one subtree on the pool, from a
+	 * run of whole blocks, or zero to hash the next block here. The
+	 * subtree is the largest power of two that fits the run and the
+	 * alignment of the chunk counter.
+	 */
+	private int subtreeChunks(int blocks) {
+
+		if (!parallel || blocksInChunk != 0 || blocks / CHUNK_BLOCKS < MIN_PARALLEL_CHUNKS
+				|| WorkerPool.getParallelism() < 2) {
+			return 0;
+		}
+
+		int chunks = Integer.highestOneBit(blocks / CHUNK_BLOCKS);
+		if (chunkCounter != 0) {
+			chunks = (int)Math.min(chunks, Long.lowestOneBit(chunkCounter));
+		}
+		return chunks < MIN_PARALLEL_CHUNKS ? 0 : chunks;
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#writeState(java.io.DataOutput)
+	 */
+	@Override
+	protected void writeState(DataOutput out) throws IOException {
+
+		for (int i = 0; i < 8; ++i) {
+			out.writeInt(cv[i]);
+		}
+		out.writeByte(blocksInChunk);
+		out.writeLong(chunkCounter);
+		for (int i = 0; i < stackSize * 8; ++i) {
+			out.writeInt(stack[i]);
+		}
+
+	}
+
+}
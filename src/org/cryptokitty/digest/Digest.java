@@ -3,54 +3,181 @@
  */
 package org.cryptokitty.digest;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * @author Steve Brenneis
  *
  * Basic interface contract for all Crypto Kitty hashes.
+ *
+ * Input is compressed a block at a time as it arrives. Only the partial
+ * block and the message length are kept between updates, so the memory
+ * used doesn't depend on the length of the message.
+ *
+ * Whole blocks are compressed in place from byte arrays and from heap
+ * or direct buffers, without copying.
+ *
+ * The running state can be exported and imported later to continue
+ * the hash without hashing the earlier input again.
+ *
+ * Hashes that flag the last block instead of padding it with the
+ * message length hold a full block back until more input arrives, so
+ * the last block is always compressed by finish.
  */
-public abstract class Digest {
+public abstract class Digest implements Cloneable {
+
+	/*
+	 * Exported state format version.
+	 */
+	private static final int STATE_VERSION = 1;
+
+	/*
+	 * Partial block.
+	 */
+	private byte[] block;
 
 	/*
-	 * Message accumulator.
+	 * Bytes in the partial block.
 	 */
-	private ByteArrayOutputStream accumulator;
+	private int blockLength;
+
+	/*
+	 * Message length in bytes.
+	 */
+	private long length;
+
+	/*
+	 * True if the last full block is held until more input arrives.
+	 */
+	private boolean holdLast;
 
 	/**
-	 * 
+	 * @param blockSize - The block size of the compression function in bytes.
+	 */
+	protected Digest(int blockSize) {
+		this(blockSize, false);
+	}
+
+	/**
+	 * @param blockSize - The block size of the compression function in bytes.
+	 * @param holdLast - Hold the last full block until more input arrives.
+	 */
+	protected Digest(int blockSize, boolean holdLast) {
+		block = new byte[blockSize];
+		this.holdLast = holdLast;
+	}
+
+	/*
+	 * Compress one block of the message at offset.
+	 */
+	protected abstract void compress(byte[] message, int offset);
+
+	/*
+	 * Compress one block of the message at the buffer's position. The
+	 * buffer is big endian and its position is advanced past the block.
+	 */
+	protected abstract void compress(ByteBuffer message);
+
+	/*
+	 * Compress count whole blocks of the message starting at offset.
+	 * Subclasses can override this to hash long runs of blocks another
+	 * way.
+	 */
+	protected void compressBlocks(byte[] message, int offset, int count) {
+
+		for (int i = 0; i < count; ++i) {
+			compress(message, offset);
+			offset += block.length;
+		}
+
+	}
+
+	/*
+	 * Compress count whole blocks of the message at the buffer's
+	 * position. The buffer is big endian and its position is advanced
+	 * past the blocks.
+	 */
+	protected void compressBlocks(ByteBuffer message, int count) {
+
+		for (int i = 0; i < count; ++i) {
+			compress(message);
+		}
+
+	}
+
+	/*
+	 * Create a digest with the same state. The copy and the original can
+	 * be updated independently. Subclasses copy their chaining state.
 	 */
-	protected Digest() {
-		accumulator = new ByteArrayOutputStream();
+	public Digest copy() {
+
+		try {
+			Digest copy = (Digest)clone();
+			copy.block = block.clone();
+			return copy;
+		}
+		catch (CloneNotSupportedException e) {
+			// Can't happen. We're Cloneable.
+			throw new RuntimeException(e);
+		}
+
 	}
 
 	/*
 	 * Finish a previously updated digest.
 	 */
 	public byte[] digest() {
-		byte[] result = finalize(accumulator.toByteArray());
-		accumulator.reset();
+		byte[] result = finish();
+		reset();
 		return result;
 	}
 
 	/*
-	 * One step hash. Previous updates to the context are ignored.
+	 * One step hash. The message is added to any previous updates.
 	 */
 	public byte[] digest(byte[] message) {
-		try {
-			accumulator.write(message);
-			return digest();
-		} catch (IOException e) {
-			// Nope
-			throw new RuntimeException(e);
-		}
+		update(message);
+		return digest();
 	}
 
 	/*
-	 * Finalize the digest.
+	 * Pad the message and return the hash value.
 	 */
-	protected abstract byte[] finalize(byte[] message);
+	protected abstract byte[] finish();
+
+	/*
+	 * Export the running state: the class of the digest, the message
+	 * length, the partial block and the chaining state. The digest
+	 * isn't changed.
+	 */
+	public byte[] exportState() {
+
+		ByteArrayOutputStream state = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(state);
+		try {
+			out.writeByte(STATE_VERSION);
+			out.writeUTF(getClass().getName());
+			out.writeLong(length);
+			out.writeShort(blockLength);
+			out.write(block, 0, blockLength);
+			writeState(out);
+			out.flush();
+		}
+		catch (IOException e) {
+			// Nope.
+			throw new RuntimeException(e);
+		}
+		return state.toByteArray();
+
+	}
 
 	/**
 	 * 
@@ -58,6 +185,24 @@ public abstract class Digest {
 	 */
 	public abstract int getBlockSize();
 
+	/*
+	 * Copy the partial block to out, which is a block long, and fill
+	 * the rest of out with zeros. The partial block is discarded. Returns
+	 * the number of message bytes in it. For hashes that hold the last
+	 * block.
+	 */
+	protected int getFinalBlock(byte[] out) {
+
+		int count = blockLength;
+		System.arraycopy(block, 0, out, 0, count);
+		for (int i = count; i < out.length; ++i) {
+			out[i] = 0;
+		}
+		blockLength = 0;
+		return count;
+
+	}
+
 	/**
 	 * Get the length of the hash in bytes.
 	 * 
@@ -66,37 +211,227 @@ public abstract class Digest {
 	public abstract int getDigestLength();
 
 	/*
-	 * Reset the accumulator. Accumulated input is discarded.
+	 * Continue a hash from a state exported by a digest of the same
+	 * type. Throws IllegalArgumentException if the state is malformed
+	 * or from another type of digest, and the digest is reset.
+	 */
+	public void importState(byte[] state) {
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+		try {
+			if (in.readUnsignedByte() != STATE_VERSION) {
+				throw new IllegalArgumentException("Unknown state version");
+			}
+			if (!in.readUTF().equals(getClass().getName())) {
+				throw new IllegalArgumentException("State is from a different digest");
+			}
+			long newLength = in.readLong();
+			int newBlockLength = in.readUnsignedShort();
+			long expected = holdLast && newLength > 0 ? ((newLength - 1) % block.length) + 1
+														: newLength % block.length;
+			if (newLength < 0 || newBlockLength != expected) {
+				throw new IllegalArgumentException("Invalid state length");
+			}
+			in.readFully(block, 0, newBlockLength);
+			readState(in);
+			if (in.available() > 0) {
+				throw new IllegalArgumentException("Invalid state length");
+			}
+			length = newLength;
+			blockLength = newBlockLength;
+		}
+		catch (IOException e) {
+			// Only EOF is possible.
+			reset();
+			throw new IllegalArgumentException("Truncated state", e);
+		}
+		catch (IllegalArgumentException e) {
+			reset();
+			throw e;
+		}
+
+	}
+
+	/*
+	 * Standard Merkle-Damgard padding. A single one bit is added to the
+	 * message, then zeros, then the message length in bits at the end of
+	 * the last block in a field of lengthSize bytes. The final block or
+	 * blocks are compressed.
+	 */
+	protected void pad(int lengthSize, boolean bigEndian) {
+
+		long bits = length * 8;
+		block[blockLength++] = (byte)0x80;
+		if (blockLength > block.length - lengthSize) {
+			while (blockLength < block.length) {
+				block[blockLength++] = 0;
+			}
+			compress(block, 0);
+			blockLength = 0;
+		}
+		while (blockLength < block.length - 8) {
+			block[blockLength++] = 0;
+		}
+		for (int i = 0; i < 8; ++i) {
+			int shift = bigEndian ? 56 - (i * 8) : i * 8;
+			block[blockLength++] = (byte)(bits >>> shift);
+		}
+		compress(block, 0);
+		blockLength = 0;
+
+	}
+
+	/*
+	 * Read the chaining state written by writeState.
+	 */
+	protected abstract void readState(DataInput in) throws IOException;
+
+	/*
+	 * Reset the digest. Accumulated input is discarded. Subclasses
+	 * restore their initial hash values.
 	 */
 	public void reset() {
-		accumulator.reset();
+		blockLength = 0;
+		length = 0;
+	}
+
+	/*
+	 * Set the state of this digest to a snapshot taken from a digest of
+	 * the same type. The snapshot isn't changed and can be restored
+	 * again. Subclasses restore their chaining state.
+	 */
+	public void restore(Digest snapshot) {
+
+		if (snapshot.getClass() != getClass()) {
+			throw new IllegalArgumentException("Snapshot is from a different digest");
+		}
+		System.arraycopy(snapshot.block, 0, block, 0, snapshot.blockLength);
+		blockLength = snapshot.blockLength;
+		length = snapshot.length;
+
+	}
+
+	/*
+	 * Save the state of the digest. Used with restore to hash several
+	 * messages with a common prefix without hashing the prefix each time.
+	 */
+	public Digest snapshot() {
+		return copy();
 	}
 
 	/*
 	 * Update the hash context.
 	 */
 	public void update(byte message) {
-		accumulator.write(message);
+		if (blockLength == block.length) {
+			// Held block.
+			compress(block, 0);
+			blockLength = 0;
+		}
+		block[blockLength++] = message;
+		length++;
+		if (!holdLast && blockLength == block.length) {
+			compress(block, 0);
+			blockLength = 0;
+		}
 	}
 
 	/*
-	 * Update the hash context.
+	 * Update the hash context with the remaining bytes of the buffer.
+	 * The buffer's position is advanced to its limit.
 	 */
-	public void update(byte[] message) {
-		try {
-			accumulator.write(message);
+	public void update(ByteBuffer message) {
+
+		if (message.hasArray()) {
+			int position = message.position();
+			update(message.array(), message.arrayOffset() + position, message.remaining());
+			message.position(message.limit());
+			return;
 		}
-		catch (IOException e) {
-			// Meh.
-			throw new RuntimeException(e);
+		if (!message.hasRemaining()) {
+			return;
 		}
+
+		length += message.remaining();
+
+		// Finish a partial block.
+		if (blockLength > 0) {
+			int count = Math.min(message.remaining(), block.length - blockLength);
+			message.get(block, blockLength, count);
+			blockLength += count;
+			if (blockLength < block.length || (holdLast && !message.hasRemaining())) {
+				return;
+			}
+			compress(block, 0);
+			blockLength = 0;
+		}
+
+		// Whole blocks straight from the buffer. The view leaves the
+		// caller's byte order alone.
+		int blocks = (holdLast ? message.remaining() - 1 : message.remaining()) / block.length;
+		if (blocks > 0) {
+			ByteBuffer view = message.slice().order(ByteOrder.BIG_ENDIAN);
+			compressBlocks(view, blocks);
+			message.position(message.position() + view.position());
+		}
+
+		// Start a new partial block.
+		blockLength = message.remaining();
+		message.get(block, 0, blockLength);
+
+	}
+
+	/*
+	 * Update the hash context.
+	 */
+	public void update(byte[] message) {
+		update(message, 0, message.length);
 	}
 
 	/*
 	 * Update the hash context.
 	 */
 	public void update(byte[] message, int offset, int length) {
-		accumulator.write(message, offset, length);
+
+		if (length == 0) {
+			return;
+		}
+
+		this.length += length;
+
+		// Finish a partial block.
+		if (blockLength > 0) {
+			int count = Math.min(length, block.length - blockLength);
+			System.arraycopy(message, offset, block, blockLength, count);
+			blockLength += count;
+			offset += count;
+			length -= count;
+			if (blockLength < block.length || (holdLast && length == 0)) {
+				return;
+			}
+			compress(block, 0);
+			blockLength = 0;
+		}
+
+		// Whole blocks straight from the message.
+		int blocks = (holdLast ? length - 1 : length) / block.length;
+		if (blocks > 0) {
+			compressBlocks(message, offset, blocks);
+			offset += blocks * block.length;
+			length -= blocks * block.length;
+		}
+
+		// Start a new partial block.
+		if (length > 0) {
+			System.arraycopy(message, offset, block, 0, length);
+			blockLength = length;
+		}
+
 	}
 
+	/*
+	 * Write the chaining state for exportState.
+	 */
+	protected abstract void writeState(DataOutput out) throws IOException;
+
 }
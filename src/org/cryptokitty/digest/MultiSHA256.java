@@ -0,0 +1,300 @@
+/**
+ * 
+ */
+package org.cryptokitty.digest;
+
+/**
+ * @author Steve Brenneis
+ *
+ * Multi-buffer SHA-256. Hashes many independent messages by running
+ * the compression function on several messages at once, one lane per
+ * message. The working variables and the message schedule are held in
+ * arrays interleaved by lane, so each step of a round is a short loop
+ * over the lanes with no dependencies between them. The JIT can unroll
+ * and vectorize those loops.
+ *
+ * When the message in a lane is finished, the lane is given the next
+ * message in the list, so lanes stay busy when the lengths differ.
+ */
+public class MultiSHA256 {
+
+	/**
+	 * Default number of lanes.
+	 */
+	public static final int DEFAULT_LANES = 8;
+
+	/*
+	 * Initial hash values.
+	 */
+	private static final int[] IV =
+		{ 0x6a09e667, 0xbb67ae85, 0x3c6ef372, 0xa54ff53a,
+			0x510e527f, 0x9b05688c, 0x1f83d9ab, 0x5be0cd19 };
+
+	/*
+	 * Number of lanes.
+	 */
+	private int lanes;
+
+	/*
+	 * Chaining state. Word i of lane l is at state[(i * lanes) + l].
+	 */
+	private int[] state;
+
+	/*
+	 * Message schedule. Word j of lane l is at w[(j * lanes) + l].
+	 */
+	private int[] w;
+
+	/*
+	 * Working variables, one entry per lane. The arrays are renamed
+	 * rather than shifted at the end of each round.
+	 */
+	private int[][] registers;
+
+	/*
+	 * The message in each lane, or -1 if the lane is idle.
+	 */
+	private int[] job;
+
+	/*
+	 * Next block of the message in each lane.
+	 */
+	private int[] block;
+
+	/*
+	 * Padded length in blocks of the message in each lane.
+	 */
+	private int[] blocks;
+
+	/*
+	 * Padded final blocks.
+	 */
+	private byte[] tail;
+
+	/**
+	 * Construct with the default number of lanes.
+	 */
+	public MultiSHA256() {
+		this(DEFAULT_LANES);
+	}
+
+	/**
+	 * @param lanes - The number of messages hashed at once.
+	 */
+	public MultiSHA256(int lanes) {
+
+		if (lanes < 1) {
+			throw new IllegalArgumentException("Invalid lane count");
+		}
+		this.lanes = lanes;
+		state = new int[8 * lanes];
+		w = new int[64 * lanes];
+		registers = new int[8][lanes];
+		job = new int[lanes];
+		block = new int[lanes];
+		blocks = new int[lanes];
+		tail = new byte[64];
+
+	}
+
+	/*
+	 * Start the next message in a lane. Returns the index of the
+	 * message after it.
+	 */
+	private int assign(int lane, int next, byte[][] messages) {
+
+		if (next >= messages.length) {
+			job[lane] = -1;
+			return next;
+		}
+
+		job[lane] = next;
+		block[lane] = 0;
+		blocks[lane] = ((messages[next].length + 8) / 64) + 1;
+		for (int i = 0; i < 8; ++i) {
+			state[(i * lanes) + lane] = IV[i];
+		}
+		return next + 1;
+
+	}
+
+	/*
+	 * Compress one block in every lane.
+	 */
+	private void compress() {
+
+		final int n = lanes;
+
+		for (int j = 16; j < 64; ++j) {
+			int t = j * n;
+			for (int l = 0; l < n; ++l) {
+				int w2 = w[t - (2 * n) + l];
+				int w15 = w[t - (15 * n) + l];
+				w[t + l] = (Integer.rotateRight(w2, 17) ^ Integer.rotateRight(w2, 19) ^ (w2 >>> 10))
+							+ w[t - (7 * n) + l]
+							+ (Integer.rotateRight(w15, 7) ^ Integer.rotateRight(w15, 18) ^ (w15 >>> 3))
+							+ w[t - (16 * n) + l];
+			}
+		}
+
+		int[] a = registers[0];
+		int[] b = registers[1];
+		int[] c = registers[2];
+		int[] d = registers[3];
+		int[] e = registers[4];
+		int[] f = registers[5];
+		int[] g = registers[6];
+		int[] h = registers[7];
+		System.arraycopy(state, 0, a, 0, n);
+		System.arraycopy(state, n, b, 0, n);
+		System.arraycopy(state, 2 * n, c, 0, n);
+		System.arraycopy(state, 3 * n, d, 0, n);
+		System.arraycopy(state, 4 * n, e, 0, n);
+		System.arraycopy(state, 5 * n, f, 0, n);
+		System.arraycopy(state, 6 * n, g, 0, n);
+		System.arraycopy(state, 7 * n, h, 0, n);
+
+		for (int j = 0; j < 64; ++j) {
+
+			int k = SHA256.K[j];
+			int t = j * n;
+			for (int l = 0; l < n; ++l) {
+				int el = e[l];
+				int al = a[l];
+				int T1 = h[l] + (Integer.rotateRight(el, 6) ^ Integer.rotateRight(el, 11)
+									^ Integer.rotateRight(el, 25))
+							+ ((el & f[l]) ^ (~el & g[l])) + k + w[t + l];
+				int T2 = (Integer.rotateRight(al, 2) ^ Integer.rotateRight(al, 13)
+									^ Integer.rotateRight(al, 22))
+							+ ((al & b[l]) ^ (al & c[l]) ^ (b[l] & c[l]));
+				d[l] += T1;
+				h[l] = T1 + T2;
+			}
+
+			// h is the new a and d is the new e.
+			int[] r = h;
+			h = g;
+			g = f;
+			f = e;
+			e = d;
+			d = c;
+			c = b;
+			b = a;
+			a = r;
+
+		}
+
+		int[][] result = { a, b, c, d, e, f, g, h };
+		for (int i = 0; i < 8; ++i) {
+			int[] v = result[i];
+			int s = i * n;
+			for (int l = 0; l < n; ++l) {
+				state[s + l] += v[l];
+			}
+		}
+
+	}
+
+	/**
+	 * Hash each of the messages. The result at index i is the SHA-256
+	 * hash of the message at index i.
+	 */
+	public byte[][] digest(byte[][] messages) {
+
+		byte[][] digests = new byte[messages.length][];
+		int next = 0;
+		int active = 0;
+		for (int l = 0; l < lanes; ++l) {
+			next = assign(l, next, messages);
+			if (job[l] >= 0) {
+				active++;
+			}
+		}
+
+		while (active > 0) {
+
+			for (int l = 0; l < lanes; ++l) {
+				if (job[l] >= 0) {
+					load(messages[job[l]], l);
+				}
+			}
+
+			compress();
+
+			for (int l = 0; l < lanes; ++l) {
+				if (job[l] >= 0 && ++block[l] == blocks[l]) {
+					digests[job[l]] = getValue(l);
+					next = assign(l, next, messages);
+					if (job[l] < 0) {
+						active--;
+					}
+				}
+			}
+
+		}
+
+		return digests;
+
+	}
+
+	/**
+	 * Get the number of lanes.
+	 */
+	public int getLanes() {
+		return lanes;
+	}
+
+	/*
+	 * Encode the hash value of a lane.
+	 */
+	private byte[] getValue(int lane) {
+
+		byte[] result = new byte[32];
+		for (int i = 0; i < 8; ++i) {
+			int v = state[(i * lanes) + lane];
+			result[i * 4] = (byte)(v >>> 24);
+			result[(i * 4) + 1] = (byte)(v >>> 16);
+			result[(i * 4) + 2] = (byte)(v >>> 8);
+			result[(i * 4) + 3] = (byte)v;
+		}
+		return result;
+
+	}
+
+	/*
+	 * Load the next block of a message into the schedule of a lane.
+	 * The final blocks are padded here.
+	 */
+	private void load(byte[] message, int lane) {
+
+		int offset = block[lane] * 64;
+		byte[] source = message;
+		if (offset + 64 > message.length) {
+			// Padding. See SHA256.
+			int count = Math.max(0, message.length - offset);
+			System.arraycopy(message, offset < message.length ? offset : 0, tail, 0, count);
+			for (int i = count; i < 64; ++i) {
+				tail[i] = 0;
+			}
+			if (offset <= message.length) {
+				tail[count] = (byte)0x80;
+			}
+			if (block[lane] == blocks[lane] - 1) {
+				long bits = (long)message.length * 8;
+				for (int i = 0; i < 8; ++i) {
+					tail[56 + i] = (byte)(bits >>> (56 - (i * 8)));
+				}
+			}
+			source = tail;
+			offset = 0;
+		}
+
+		for (int j = 0; j < 16; ++j) {
+			int i = offset + (j * 4);
+			w[(j * lanes) + lane] = ((source[i] & 0xff) << 24) | ((source[i + 1] & 0xff) << 16)
+										| ((source[i + 2] & 0xff) << 8) | (source[i + 3] & 0xff);
+		}
+
+	}
+
+}
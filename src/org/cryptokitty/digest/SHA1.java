@@ -3,12 +3,10 @@
  */
 package org.cryptokitty.digest;
 
-import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Arrays;
-
-import org.cryptokitty.codec.Scalar32;
-import org.cryptokitty.codec.Scalar64;
+import java.nio.ByteBuffer;
 
 /**
  * @author Steve Brenneis
@@ -26,135 +24,89 @@ public class SHA1 extends Digest {
 	private static final int H5 = 0xc3d2e1f0;
 
 	/*
-	 * Round constant.
+	 * Chaining state.
+	 */
+	private int[] state;
+
+	/*
+	 * Message schedule.
 	 */
-	private static final int[] K =
-				{ 0x5a827999, 0x6ed9eba1, 0x8f1bbcdc, 0xca62c1d6 };
+	private int[] w;
+
 	/**
 	 * 
 	 */
 	public SHA1() {
+
+		super(64);
+		state = new int[5];
+		w = new int[80];
+		reset();
+
 	}
 
 	/*
-	 * Ch function.
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#compress(byte[], int)
 	 */
-	private int Ch (int x, int y, int z) {
-		int r = (x & y) ^ ((~x) & z);
-		return r;
+	@Override
+	protected void compress(byte[] message, int offset) {
+
+		for (int t = 0; t < 16; ++t) {
+			int i = offset + (t * 4);
+			w[t] = ((message[i] & 0xff) << 24) | ((message[i + 1] & 0xff) << 16)
+					| ((message[i + 2] & 0xff) << 8) | (message[i + 3] & 0xff);
+		}
+		transform();
+
 	}
 
 	/*
-	 * Round function.
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#compress(java.nio.ByteBuffer)
 	 */
-	private int f(int x, int y, int z, int t){
+	@Override
+	protected void compress(ByteBuffer message) {
 
-		if (t <= 19) {
-			return Ch(x, y, z);
-		}
-		else if (t <= 39) {
-			return Parity(x, y, z);
-		}
-		else if (t <= 59) {
-			return Maj(x, y, z);
-		}
-		else {
-			return Parity(x, y, z);
+		for (int t = 0; t < 16; ++t) {
+			w[t] = message.getInt();
 		}
+		transform();
 
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * @see org.cryptokitty.provider.digest.Digest#finalize(byte[])
+	 * @see org.cryptokitty.digest.Digest#copy()
 	 */
 	@Override
-	protected byte[] finalize(byte[] message) {
+	public Digest copy() {
 
-		// Pad the message to an even multiple of 512 bits.
-		byte[] context = pad(message);
-
-		// Split the message up into 512 bit chunks.
-		int N = context.length / 64;
-		// We need the chunk array to begin at index 1 so the indexing
-		// works out below.
-		byte[][] chunks = new byte[N+1][64];
-		int ci = 0;
-		for (int i = 1; i <= N; i++) {
-			System.arraycopy(context, ci, chunks[i], 0, 64);
-			ci += 64;
-		}
+		SHA1 copy = (SHA1)super.copy();
+		copy.state = state.clone();
+		copy.w = new int[80];
+		return copy;
 
-		// Set the initial hash seeds
-		int [] h1 = new int[N + 1];
-		h1[0] = H1;
-		int [] h2 = new int[N + 1];
-		h2[0] = H2;
-		int [] h3 = new int[N + 1];
-		h3[0] = H3;
-		int [] h4 = new int[N + 1];
-		h4[0] = H4;
-		int [] h5 = new int[N + 1];
-		h5[0] = H5;
-
-		// Process the chunks.
-		for (int i = 1; i <= N; ++i) {
-
-			int[] w = W(chunks[i]);
-			
-			int a = h1[i-1];
-			int b = h2[i-1];
-			int c = h3[i-1];
-			int d = h4[i-1];
-			int e = h5[i-1];
-
-			for (int t = 0; t < 80; ++t) {
-
-				int k;
-				if (t <= 19) {
-					k = K[0];
-				}
-				else if (t <= 39) {
-					k = K[1];
-				}
-				else if (t <= 59) {
-					k = K[2];
-				}
-				else {
-					k = K[3];
-				}
-				
-				int T = rol(a, 5) + f(b, c, d, t) + e + k + w[t];
-				e = d;
-				d = c;
-				c = rol(b, 30);
-				b = a;
-				a = T;
-
-			}
-
-			h1[i] = h1[i-1] + a;
-			h2[i] = h2[i-1] + b;
-			h3[i] = h3[i-1] + c;
-			h4[i] = h4[i-1] + d;
-			h5[i] = h5[i-1] + e;
+	}
 
-		}
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#finish()
+	 */
+	@Override
+	protected byte[] finish() {
 
-		ByteArrayOutputStream d = new ByteArrayOutputStream();
-		try {
-			d.write(new Scalar32((int)h1[N]).getEncoded());
-			d.write(new Scalar32((int)h2[N]).getEncoded());
-			d.write(new Scalar32((int)h3[N]).getEncoded());
-			d.write(new Scalar32((int)h4[N]).getEncoded());
-			d.write(new Scalar32((int)h5[N]).getEncoded());
-		}
-		catch (IOException e) {
-			// Nope.
-			throw new RuntimeException(e);
+		// Pad the message to an even multiple of 512 bits.
+		pad(8, true);
+
+		byte[] result = new byte[20];
+		for (int i = 0; i < 5; ++i) {
+			result[i * 4] = (byte)(state[i] >>> 24);
+			result[(i * 4) + 1] = (byte)(state[i] >>> 16);
+			result[(i * 4) + 2] = (byte)(state[i] >>> 8);
+			result[(i * 4) + 3] = (byte)state[i];
 		}
-
-		return d.toByteArray();
+		return result;
 
 	}
 
@@ -179,69 +131,259 @@ public class SHA1 extends Digest {
 	}
 
 	/*
-	 * Maj function.
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#restore(org.cryptokitty.digest.Digest)
 	 */
-	private int Maj(int x, int y, int z) {
-		int r = (x & y) ^ (x & z) ^ (y & z);
-		return r;
+	@Override
+	public void restore(Digest snapshot) {
+
+		super.restore(snapshot);
+		System.arraycopy(((SHA1)snapshot).state, 0, state, 0, state.length);
+
 	}
 
 	/*
-	 * Pad the message.
-	 */
-	private byte[] pad(byte[] in) {
-
-		int bitsize = in.length * 8;
-		int padbits = 448 - (bitsize % 512);
-		byte[] padding = new byte[padbits / 8];
-		Arrays.fill(padding, (byte)0);
-		padding[0] = (byte)0x80;
-		byte[] context = new byte[in.length + padding.length + 8];
-		System.arraycopy(in, 0, context, 0, in.length);
-		System.arraycopy(padding, 0, context, in.length, padding.length);
-		System.arraycopy(new Scalar64(bitsize).getEncoded(), 0, context,
-											in.length + padding.length, 8);
-		return context;
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#readState(java.io.DataInput)
+	 */
+	@Override
+	protected void readState(DataInput in) throws IOException {
+
+		for (int i = 0; i < state.length; ++i) {
+			state[i] = in.readInt();
+		}
 
 	}
 
 	/*
-	 * Parity function.
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#reset()
 	 */
-	private int Parity(int x, int y, int z) {
-		return x ^ y ^ z;
+	@Override
+	public void reset() {
+
+		super.reset();
+		state[0] = H1;
+		state[1] = H2;
+		state[2] = H3;
+		state[3] = H4;
+		state[4] = H5;
+
 	}
 
 	/*
-	 * Rotate left (shift left carry the msb).
+	 * Compress the block in the message schedule. The rounds are
+	 * unrolled and the working variables are renamed instead of
+	 * shifted, five steps to a full turn.
 	 */
-	private int rol(int x, int count) {
-		int result = x;
-		for (int i = 1; i <= count; ++i) {
-			int carry = (result >> 31) & 0x01;
-			result = (result << 1) | carry;
-		}
-		return result;
+	private void transform() {
+
+		W();
+
+		int a = state[0];
+		int b = state[1];
+		int c = state[2];
+		int d = state[3];
+		int e = state[4];
+
+		// Rounds 0 to 19, Ch.
+		e += Integer.rotateLeft(a, 5) + ((b & c) | (~b & d)) + 0x5a827999 + w[0];
+		b = Integer.rotateLeft(b, 30);
+		d += Integer.rotateLeft(e, 5) + ((a & b) | (~a & c)) + 0x5a827999 + w[1];
+		a = Integer.rotateLeft(a, 30);
+		c += Integer.rotateLeft(d, 5) + ((e & a) | (~e & b)) + 0x5a827999 + w[2];
+		e = Integer.rotateLeft(e, 30);
+		b += Integer.rotateLeft(c, 5) + ((d & e) | (~d & a)) + 0x5a827999 + w[3];
+		d = Integer.rotateLeft(d, 30);
+		a += Integer.rotateLeft(b, 5) + ((c & d) | (~c & e)) + 0x5a827999 + w[4];
+		c = Integer.rotateLeft(c, 30);
+		e += Integer.rotateLeft(a, 5) + ((b & c) | (~b & d)) + 0x5a827999 + w[5];
+		b = Integer.rotateLeft(b, 30);
+		d += Integer.rotateLeft(e, 5) + ((a & b) | (~a & c)) + 0x5a827999 + w[6];
+		a = Integer.rotateLeft(a, 30);
+		c += Integer.rotateLeft(d, 5) + ((e & a) | (~e & b)) + 0x5a827999 + w[7];
+		e = Integer.rotateLeft(e, 30);
+		b += Integer.rotateLeft(c, 5) + ((d & e) | (~d & a)) + 0x5a827999 + w[8];
+		d = Integer.rotateLeft(d, 30);
+		a += Integer.rotateLeft(b, 5) + ((c & d) | (~c & e)) + 0x5a827999 + w[9];
+		c = Integer.rotateLeft(c, 30);
+		e += Integer.rotateLeft(a, 5) + ((b & c) | (~b & d)) + 0x5a827999 + w[10];
+		b = Integer.rotateLeft(b, 30);
+		d += Integer.rotateLeft(e, 5) + ((a & b) | (~a & c)) + 0x5a827999 + w[11];
+		a = Integer.rotateLeft(a, 30);
+		c += Integer.rotateLeft(d, 5) + ((e & a) | (~e & b)) + 0x5a827999 + w[12];
+		e = Integer.rotateLeft(e, 30);
+		b += Integer.rotateLeft(c, 5) + ((d & e) | (~d & a)) + 0x5a827999 + w[13];
+		d = Integer.rotateLeft(d, 30);
+		a += Integer.rotateLeft(b, 5) + ((c & d) | (~c & e)) + 0x5a827999 + w[14];
+		c = Integer.rotateLeft(c, 30);
+		e += Integer.rotateLeft(a, 5) + ((b & c) | (~b & d)) + 0x5a827999 + w[15];
+		b = Integer.rotateLeft(b, 30);
+		d += Integer.rotateLeft(e, 5) + ((a & b) | (~a & c)) + 0x5a827999 + w[16];
+		a = Integer.rotateLeft(a, 30);
+		c += Integer.rotateLeft(d, 5) + ((e & a) | (~e & b)) + 0x5a827999 + w[17];
+		e = Integer.rotateLeft(e, 30);
+		b += Integer.rotateLeft(c, 5) + ((d & e) | (~d & a)) + 0x5a827999 + w[18];
+		d = Integer.rotateLeft(d, 30);
+		a += Integer.rotateLeft(b, 5) + ((c & d) | (~c & e)) + 0x5a827999 + w[19];
+		c = Integer.rotateLeft(c, 30);
+
+		// Rounds 20 to 39, Parity.
+		e += Integer.rotateLeft(a, 5) + (b ^ c ^ d) + 0x6ed9eba1 + w[20];
+		b = Integer.rotateLeft(b, 30);
+		d += Integer.rotateLeft(e, 5) + (a ^ b ^ c) + 0x6ed9eba1 + w[21];
+		a = Integer.rotateLeft(a, 30);
+		c += Integer.rotateLeft(d, 5) + (e ^ a ^ b) + 0x6ed9eba1 + w[22];
+		e = Integer.rotateLeft(e, 30);
+		b += Integer.rotateLeft(c, 5) + (d ^ e ^ a) + 0x6ed9eba1 + w[23];
+		d = Integer.rotateLeft(d, 30);
+		a += Integer.rotateLeft(b, 5) + (c ^ d ^ e) + 0x6ed9eba1 + w[24];
+		c = Integer.rotateLeft(c, 30);
+		e += Integer.rotateLeft(a, 5) + (b ^ c ^ d) + 0x6ed9eba1 + w[25];
+		b = Integer.rotateLeft(b, 30);
+		d += Integer.rotateLeft(e, 5) + (a ^ b ^ c) + 0x6ed9eba1 + w[26];
+		a = Integer.rotateLeft(a, 30);
+		c += Integer.rotateLeft(d, 5) + (e ^ a ^ b) + 0x6ed9eba1 + w[27];
+		e = Integer.rotateLeft(e, 30);
+		b += Integer.rotateLeft(c, 5) + (d ^ e ^ a) + 0x6ed9eba1 + w[28];
+		d = Integer.rotateLeft(d, 30);
+		a += Integer.rotateLeft(b, 5) + (c ^ d ^ e) + 0x6ed9eba1 + w[29];
+		c = Integer.rotateLeft(c, 30);
+		e += Integer.rotateLeft(a, 5) + (b ^ c ^ d) + 0x6ed9eba1 + w[30];
+		b = Integer.rotateLeft(b, 30);
+		d += Integer.rotateLeft(e, 5) + (a ^ b ^ c) + 0x6ed9eba1 + w[31];
+		a = Integer.rotateLeft(a, 30);
+		c += Integer.rotateLeft(d, 5) + (e ^ a ^ b) + 0x6ed9eba1 + w[32];
+		e = Integer.rotateLeft(e, 30);
+		b += Integer.rotateLeft(c, 5) + (d ^ e ^ a) + 0x6ed9eba1 + w[33];
+		d = Integer.rotateLeft(d, 30);
+		a += Integer.rotateLeft(b, 5) + (c ^ d ^ e) + 0x6ed9eba1 + w[34];
+		c = Integer.rotateLeft(c, 30);
+		e += Integer.rotateLeft(a, 5) + (b ^ c ^ d) + 0x6ed9eba1 + w[35];
+		b = Integer.rotateLeft(b, 30);
+		d += Integer.rotateLeft(e, 5) + (a ^ b ^ c) + 0x6ed9eba1 + w[36];
+		a = Integer.rotateLeft(a, 30);
+		c += Integer.rotateLeft(d, 5) + (e ^ a ^ b) + 0x6ed9eba1 + w[37];
+		e = Integer.rotateLeft(e, 30);
+		b += Integer.rotateLeft(c, 5) + (d ^ e ^ a) + 0x6ed9eba1 + w[38];
+		d = Integer.rotateLeft(d, 30);
+		a += Integer.rotateLeft(b, 5) + (c ^ d ^ e) + 0x6ed9eba1 + w[39];
+		c = Integer.rotateLeft(c, 30);
+
+		// Rounds 40 to 59, Maj.
+		e += Integer.rotateLeft(a, 5) + ((b & c) | (b & d) | (c & d)) + 0x8f1bbcdc + w[40];
+		b = Integer.rotateLeft(b, 30);
+		d += Integer.rotateLeft(e, 5) + ((a & b) | (a & c) | (b & c)) + 0x8f1bbcdc + w[41];
+		a = Integer.rotateLeft(a, 30);
+		c += Integer.rotateLeft(d, 5) + ((e & a) | (e & b) | (a & b)) + 0x8f1bbcdc + w[42];
+		e = Integer.rotateLeft(e, 30);
+		b += Integer.rotateLeft(c, 5) + ((d & e) | (d & a) | (e & a)) + 0x8f1bbcdc + w[43];
+		d = Integer.rotateLeft(d, 30);
+		a += Integer.rotateLeft(b, 5) + ((c & d) | (c & e) | (d & e)) + 0x8f1bbcdc + w[44];
+		c = Integer.rotateLeft(c, 30);
+		e += Integer.rotateLeft(a, 5) + ((b & c) | (b & d) | (c & d)) + 0x8f1bbcdc + w[45];
+		b = Integer.rotateLeft(b, 30);
+		d += Integer.rotateLeft(e, 5) + ((a & b) | (a & c) | (b & c)) + 0x8f1bbcdc + w[46];
+		a = Integer.rotateLeft(a, 30);
+		c += Integer.rotateLeft(d, 5) + ((e & a) | (e & b) | (a & b)) + 0x8f1bbcdc + w[47];
+		e = Integer.rotateLeft(e, 30);
+		b += Integer.rotateLeft(c, 5) + ((d & e) | (d & a) | (e & a)) + 0x8f1bbcdc + w[48];
+		d = Integer.rotateLeft(d, 30);
+		a += Integer.rotateLeft(b, 5) + ((c & d) | (c & e) | (d & e)) + 0x8f1bbcdc + w[49];
+		c = Integer.rotateLeft(c, 30);
+		e += Integer.rotateLeft(a, 5) + ((b & c) | (b & d) | (c & d)) + 0x8f1bbcdc + w[50];
+		b = Integer.rotateLeft(b, 30);
+		d += Integer.rotateLeft(e, 5) + ((a & b) | (a & c) | (b & c)) + 0x8f1bbcdc + w[51];
+		a = Integer.rotateLeft(a, 30);
+		c += Integer.rotateLeft(d, 5) + ((e & a) | (e & b) | (a & b)) + 0x8f1bbcdc + w[52];
+		e = Integer.rotateLeft(e, 30);
+		b += Integer.rotateLeft(c, 5) + ((d & e) | (d & a) | (e & a)) + 0x8f1bbcdc + w[53];
+		d = Integer.rotateLeft(d, 30);
+		a += Integer.rotateLeft(b, 5) + ((c & d) | (c & e) | (d & e)) + 0x8f1bbcdc + w[54];
+		c = Integer.rotateLeft(c, 30);
+		e += Integer.rotateLeft(a, 5) + ((b & c) | (b & d) | (c & d)) + 0x8f1bbcdc + w[55];
+		b = Integer.rotateLeft(b, 30);
+		d += Integer.rotateLeft(e, 5) + ((a & b) | (a & c) | (b & c)) + 0x8f1bbcdc + w[56];
+		a = Integer.rotateLeft(a, 30);
+		c += Integer.rotateLeft(d, 5) + ((e & a) | (e & b) | (a & b)) + 0x8f1bbcdc + w[57];
+		e = Integer.rotateLeft(e, 30);
+		b += Integer.rotateLeft(c, 5) + ((d & e) | (d & a) | (e & a)) + 0x8f1bbcdc + w[58];
+		d = Integer.rotateLeft(d, 30);
+		a += Integer.rotateLeft(b, 5) + ((c & d) | (c & e) | (d & e)) + 0x8f1bbcdc + w[59];
+		c = Integer.rotateLeft(c, 30);
+
+		// Rounds 60 to 79, Parity.
+		e += Integer.rotateLeft(a, 5) + (b ^ c ^ d) + 0xca62c1d6 + w[60];
+		b = Integer.rotateLeft(b, 30);
+		d += Integer.rotateLeft(e, 5) + (a ^ b ^ c) + 0xca62c1d6 + w[61];
+		a = Integer.rotateLeft(a, 30);
+		c += Integer.rotateLeft(d, 5) + (e ^ a ^ b) + 0xca62c1d6 + w[62];
+		e = Integer.rotateLeft(e, 30);
+		b += Integer.rotateLeft(c, 5) + (d ^ e ^ a) + 0xca62c1d6 + w[63];
+		d = Integer.rotateLeft(d, 30);
+		a += Integer.rotateLeft(b, 5) + (c ^ d ^ e) + 0xca62c1d6 + w[64];
+		c = Integer.rotateLeft(c, 30);
+		e += Integer.rotateLeft(a, 5) + (b ^ c ^ d) + 0xca62c1d6 + w[65];
+		b = Integer.rotateLeft(b, 30);
+		d += Integer.rotateLeft(e, 5) + (a ^ b ^ c) + 0xca62c1d6 + w[66];
+		a = Integer.rotateLeft(a, 30);
+		c += Integer.rotateLeft(d, 5) + (e ^ a ^ b) + 0xca62c1d6 + w[67];
+		e = Integer.rotateLeft(e, 30);
+		b += Integer.rotateLeft(c, 5) + (d ^ e ^ a) + 0xca62c1d6 + w[68];
+		d = Integer.rotateLeft(d, 30);
+		a += Integer.rotateLeft(b, 5) + (c ^ d ^ e) + 0xca62c1d6 + w[69];
+		c = Integer.rotateLeft(c, 30);
+		e += Integer.rotateLeft(a, 5) + (b ^ c ^ d) + 0xca62c1d6 + w[70];
+		b = Integer.rotateLeft(b, 30);
+		d += Integer.rotateLeft(e, 5) + (a ^ b ^ c) + 0xca62c1d6 + w[71];
+		a = Integer.rotateLeft(a, 30);
+		c += Integer.rotateLeft(d, 5) + (e ^ a ^ b) + 0xca62c1d6 + w[72];
+		e = Integer.rotateLeft(e, 30);
+		b += Integer.rotateLeft(c, 5) + (d ^ e ^ a) + 0xca62c1d6 + w[73];
+		d = Integer.rotateLeft(d, 30);
+		a += Integer.rotateLeft(b, 5) + (c ^ d ^ e) + 0xca62c1d6 + w[74];
+		c = Integer.rotateLeft(c, 30);
+		e += Integer.rotateLeft(a, 5) + (b ^ c ^ d) + 0xca62c1d6 + w[75];
+		b = Integer.rotateLeft(b, 30);
+		d += Integer.rotateLeft(e, 5) + (a ^ b ^ c) + 0xca62c1d6 + w[76];
+		a = Integer.rotateLeft(a, 30);
+		c += Integer.rotateLeft(d, 5) + (e ^ a ^ b) + 0xca62c1d6 + w[77];
+		e = Integer.rotateLeft(e, 30);
+		b += Integer.rotateLeft(c, 5) + (d ^ e ^ a) + 0xca62c1d6 + w[78];
+		d = Integer.rotateLeft(d, 30);
+		a += Integer.rotateLeft(b, 5) + (c ^ d ^ e) + 0xca62c1d6 + w[79];
+		c = Integer.rotateLeft(c, 30);
+
+		state[0] += a;
+		state[1] += b;
+		state[2] += c;
+		state[3] += d;
+		state[4] += e;
+
 	}
 
 	/*
 	 * W function. Compute expanded message blocks via the SHA-1
 	 * message schedule.
 	 */
-	private int[] W(byte[] chunk) {
-
-		int[] w = new int[80];
+	private void W() {
 
-		for (int t = 0; t < 16; ++t) {
-			int i = t * 4;
-			w[t] = new Scalar32(Arrays.copyOfRange(chunk, i, i + 4)).getValue();
+		for (int t = 16; t < 80; ++t) {
+			w[t] = Integer.rotateLeft(w[t-3] ^ w[t-8] ^ w[t-14] ^ w[t-16], 1);
 		}
 
-		for (int t = 16; t < 80; ++t) {
-			w[t] = rol((w[t-3] ^ w[t-8] ^ w[t-14] ^ w[t-16]), 1);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#writeState(java.io.DataOutput)
+	 */
+	@Override
+	protected void writeState(DataOutput out) throws IOException {
+
+		for (int i = 0; i < state.length; ++i) {
+			out.writeInt(state[i]);
 		}
-		
-		return w;
 
 	}
 
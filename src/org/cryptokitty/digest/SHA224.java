@@ -25,16 +25,17 @@ public class SHA224 extends SHA256 {
 		H6 = 0x68581511;
 		H7 = 0x64f98fa7;
 		H8 = 0xbefa4fa4;
+		reset();
 
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * @see org.cryptokitty.provider.digest.CKSHA256#finalize(byte[])
+	 * @see org.cryptokitty.digest.SHA256#finish()
 	 */
 	@Override
-	protected byte[] finalize(byte[] message) {
-		byte[] m = super.finalize(message);
+	protected byte[] finish() {
+		byte[] m = super.finish();
 		return Arrays.copyOf(m, 28);
 	}
 
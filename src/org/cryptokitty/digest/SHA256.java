@@ -3,12 +3,10 @@
  */
 package org.cryptokitty.digest;
 
-import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Arrays;
-import java.math.BigInteger;
-
-import org.cryptokitty.codec.Scalar32;
+import java.nio.ByteBuffer;
 
 /**
  * @author Steve Brenneis
@@ -20,7 +18,7 @@ public class SHA256 extends Digest{
 	/*
 	 * Round constants.
 	 */
-	private static final int[] K =
+	static final int[] K =
 		{ 0x428a2f98, 0x71374491, 0xb5c0fbcf, 0xe9b5dba5, 0x3956c25b, 0x59f111f1, 0x923f82a4, 0xab1c5ed5,
 			0xd807aa98, 0x12835b01, 0x243185be, 0x550c7dc3, 0x72be5d74, 0x80deb1fe, 0x9bdc06a7, 0xc19bf174,
 			0xe49b69c1, 0xefbe4786, 0x0fc19dc6, 0x240ca1cc, 0x2de92c6f, 0x4a7484aa, 0x5cb0a9dc, 0x76f988da,
@@ -42,11 +40,25 @@ public class SHA256 extends Digest{
 	protected int H7;
 	protected int H8;
 
+	/*
+	 * Chaining state.
+	 */
+	private int[] state;
+
+	/*
+	 * Message schedule.
+	 */
+	private int[] w;
+
 	/**
 	 * 
 	 */
 	public SHA256() {
 
+		super(64);
+		state = new int[8];
+		w = new int[64];
+
 		H1 = 0x6a09e667;
 		H2 = 0xbb67ae85;
 		H3 = 0x3c6ef372;
@@ -55,6 +67,7 @@ public class SHA256 extends Digest{
 		H6 = 0x9b05688c;
 		H7 = 0x1f83d9ab;
 		H8 = 0x5be0cd19;
+		reset();
 
 	}
 
@@ -67,101 +80,66 @@ public class SHA256 extends Digest{
 
 	/*
 	 * (non-Javadoc)
-	 * @see org.cryptokitty.provider.digest.Digest#finalize(byte[])
+	 * @see org.cryptokitty.digest.Digest#compress(byte[], int)
 	 */
 	@Override
-	protected byte[] finalize(byte[] in) {
+	protected void compress(byte[] message, int offset) {
 
-		// Pad the message to an even multiple of 512 bits.
-		byte[] context = pad(in);
-
-		// Split the message up into 512 bit chunks.
-		int N = context.length / 64;
-		// We need the chunk array to begin at index 1 so the indexing
-		// works out below.
-		byte[][] chunks = new byte[N+1][64];
-		int ci = 0;
-		for (int i = 1; i <= N; i++) {
-			System.arraycopy(context, ci, chunks[i], 0, 64);
-			ci += 64;
+		for (int j = 0; j < 16; ++j) {
+			int i = offset + (j * 4);
+			w[j] = ((message[i] & 0xff) << 24) | ((message[i + 1] & 0xff) << 16)
+					| ((message[i + 2] & 0xff) << 8) | (message[i + 3] & 0xff);
 		}
+		transform();
 
-		// Set the initial hash seeds
-		int [] h1 = new int[N + 1];
-		h1[0] = H1;
-		int [] h2 = new int[N + 1];
-		h2[0] = H2;
-		int [] h3 = new int[N + 1];
-		h3[0] = H3;
-		int [] h4 = new int[N + 1];
-		h4[0] = H4;
-		int [] h5 = new int[N + 1];
-		h5[0] = H5;
-		int [] h6 = new int[N + 1];
-		h6[0] = H6;
-		int [] h7 = new int[N + 1];
-		h7[0] = H7;
-		int [] h8 = new int[N + 1];
-		h8[0] = H8;
-
-		// Process chunks.
-		for (int i = 1; i <= N; ++i) {
-
-			int a = h1[i-1];
-			int b = h2[i-1];
-			int c = h3[i-1];
-			int d = h4[i-1];
-			int e = h5[i-1];
-			int f = h6[i-1];
-			int g = h7[i-1];
-			int h = h8[i-1];
-
-			int[] w = W(chunks[i]);
-
-			for (int j = 0; j < 64; ++j) {
-
-				int T1 = h + Sigma1(e) + Ch(e, f, g) + K[j] + w[j];
-				int T2 = Sigma0(a) + Maj(a, b, c);
-				
-				h = g;
-				g = f;
-				f = e;
-				e = d + T1;
-				d = c;
-				c = b;
-				b = a;
-				a = T1 + T2;
-
-			}
-
-			h1[i] = h1[i-1] + a;
-			h2[i] = h2[i-1] + b;
-			h3[i] = h3[i-1] + c;
-			h4[i] = h4[i-1] + d;
-			h5[i] = h5[i-1] + e;
-			h6[i] = h6[i-1] + f;
-			h7[i] = h7[i-1] + g;
-			h8[i] = h8[i-1] + h;
+	}
 
-		}
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#compress(java.nio.ByteBuffer)
+	 */
+	@Override
+	protected void compress(ByteBuffer message) {
 
-		ByteArrayOutputStream d = new ByteArrayOutputStream();
-		try {
-			d.write(new Scalar32((int)h1[N]).getEncoded());
-			d.write(new Scalar32((int)h2[N]).getEncoded());
-			d.write(new Scalar32((int)h3[N]).getEncoded());
-			d.write(new Scalar32((int)h4[N]).getEncoded());
-			d.write(new Scalar32((int)h5[N]).getEncoded());
-			d.write(new Scalar32((int)h6[N]).getEncoded());
-			d.write(new Scalar32((int)h7[N]).getEncoded());
-			d.write(new Scalar32((int)h8[N]).getEncoded());
-		}
-		catch (IOException e) {
-			// Nope.
-			throw new RuntimeException(e);
+		for (int j = 0; j < 16; ++j) {
+			w[j] = message.getInt();
 		}
+		transform();
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#copy()
+	 */
+	@Override
+	public Digest copy() {
 
-		return d.toByteArray();
+		SHA256 copy = (SHA256)super.copy();
+		copy.state = state.clone();
+		copy.w = new int[64];
+		return copy;
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#finish()
+	 */
+	@Override
+	protected byte[] finish() {
+
+		// Pad the message to an even multiple of 512 bits.
+		pad(8, true);
+
+		byte[] result = new byte[32];
+		for (int i = 0; i < 8; ++i) {
+			result[i * 4] = (byte)(state[i] >>> 24);
+			result[(i * 4) + 1] = (byte)(state[i] >>> 16);
+			result[(i * 4) + 2] = (byte)(state[i] >>> 8);
+			result[(i * 4) + 3] = (byte)state[i];
+		}
+		return result;
 
 	}
 
@@ -195,53 +173,46 @@ public class SHA256 extends Digest{
 	}
 
 	/*
-	 * Pad the message.
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#restore(org.cryptokitty.digest.Digest)
+	 */
+	@Override
+	public void restore(Digest snapshot) {
+
+		super.restore(snapshot);
+		System.arraycopy(((SHA256)snapshot).state, 0, state, 0, state.length);
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#readState(java.io.DataInput)
 	 */
-	private byte[] pad(byte[] in) {
-
-		/*
-		int bitsize = in.length * 8;
-		int padbits = 448 - (bitsize % 512);
-		byte[] padding = new byte[padbits / 8];
-		Arrays.fill(padding, (byte)0);
-		padding[0] = (byte)0x80;
-		byte[] context = new byte[in.length + padding.length + 8];
-		System.arraycopy(in, 0, context, 0, in.length);
-		System.arraycopy(padding, 0, context, in.length, padding.length);
-		System.arraycopy(Scalar64.encode(bitsize), 0, context,
-											in.length + padding.length, 8);
-		*/
-		
-
-	    // Message size in bits - l
-	    long l = in.length * 8;
-
-	    /*
-	     * Pad the message such that k + 1 + l is congruent to
-	     * 448 mod 512, where k + 1 is the padding length and l is the
-	     * message length. The message is always padded with a byte
-	     * value of 0x80, which is a single bit added to the end of
-	     * the message.
-	     */
-	    ByteArrayOutputStream work = new ByteArrayOutputStream();
-	    work.write(in, 0, in.length);
-	    work.write((byte)0x80);
-	    // 512 bits = 64 bytes. The padded message includes the 64 bit
-	    // big endian representation of the message length in bits, so
-	    // in order to make the message modulo 512, we add bytes until
-	    // the whole message, including the length encoding is an even
-	    // multiple of 64,
-	    while ((work.size() + 8)  % 64 != 0) {
-	        work.write(0); //pad with zeroes.
-	    }
-	    // Append the 64 bit encoded bit length
-	    BigInteger l64 = new BigInteger(new Long(l).toString());
-	    byte[] lBytes = l64.toByteArray();
-	    byte[] eBytes = { 0, 0, 0, 0, 0, 0, 0, 0 };
-	    System.arraycopy(lBytes, 0, eBytes, 8 - lBytes.length, lBytes.length);
-	    work.write(eBytes, 0, eBytes.length);
-
-	    return work.toByteArray();
+	@Override
+	protected void readState(DataInput in) throws IOException {
+
+		for (int i = 0; i < state.length; ++i) {
+			state[i] = in.readInt();
+		}
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#reset()
+	 */
+	@Override
+	public void reset() {
+
+		super.reset();
+		state[0] = H1;
+		state[1] = H2;
+		state[2] = H3;
+		state[3] = H4;
+		state[4] = H5;
+		state[5] = H6;
+		state[6] = H7;
+		state[7] = H8;
 
 	}
 
@@ -286,24 +257,71 @@ public class SHA256 extends Digest{
 	}
 
 	/*
-	 * W function. Compute expanded message blocks via the SHA-256
-	 * message schedule.
+	 * Compress the block in the message schedule.
 	 */
-	private int[] W(byte[] chunk) {
+	private void transform() {
+
+		W();
+
+		int a = state[0];
+		int b = state[1];
+		int c = state[2];
+		int d = state[3];
+		int e = state[4];
+		int f = state[5];
+		int g = state[6];
+		int h = state[7];
+
+		for (int j = 0; j < 64; ++j) {
+
+			int T1 = h + Sigma1(e) + Ch(e, f, g) + K[j] + w[j];
+			int T2 = Sigma0(a) + Maj(a, b, c);
+			
+			h = g;
+			g = f;
+			f = e;
+			e = d + T1;
+			d = c;
+			c = b;
+			b = a;
+			a = T1 + T2;
 
-		int[] w = new int[64];
-
-		for (int j = 0; j < 16; ++j) {
-			int i = j * 4;
-			w[j] = new Scalar32(Arrays.copyOfRange(chunk, i, i + 4)).getValue();
 		}
 
+		state[0] += a;
+		state[1] += b;
+		state[2] += c;
+		state[3] += d;
+		state[4] += e;
+		state[5] += f;
+		state[6] += g;
+		state[7] += h;
+
+	}
+
+	/*
+	 * W function. Compute expanded message blocks via the SHA-256
+	 * message schedule.
+	 */
+	private void W() {
+
 		for (int j = 16; j < 64; ++j) {
 			w[j] = sigma1(w[j-2]) + w[j-7] + sigma0(w[j-15]) + w[j-16];
 		}
-		
-		return w;
 
 	}
 
-}
\ No newline at end of file
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#writeState(java.io.DataOutput)
+	 */
+	@Override
+	protected void writeState(DataOutput out) throws IOException {
+
+		for (int i = 0; i < state.length; ++i) {
+			out.writeInt(state[i]);
+		}
+
+	}
+
+}
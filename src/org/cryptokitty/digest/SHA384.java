@@ -25,16 +25,17 @@ public class SHA384 extends SHA512 {
 		H6 = 0x8eb44a8768581511L;
 		H7 = 0xdb0c2e0d64f98fa7L;
 		H8 = 0x47b5481dbefa4fa4L;
+		reset();
 
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * @see org.cryptokitty.provider.digest.CKSHA512#finalize(byte[])
+	 * @see org.cryptokitty.digest.SHA512#finish()
 	 */
 	@Override
-	protected byte[] finalize(byte[] message) {
-		byte[] m = super.finalize(message);
+	protected byte[] finish() {
+		byte[] m = super.finish();
 		return Arrays.copyOf(m, 48);
 	}
 
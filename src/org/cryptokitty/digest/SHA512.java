@@ -3,12 +3,10 @@
  */
 package org.cryptokitty.digest;
 
-import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Arrays;
-
-import org.cryptokitty.codec.Scalar128;
-import org.cryptokitty.codec.Scalar64;
+import java.nio.ByteBuffer;
 
 /**
  * @author Steve Brenneis
@@ -55,11 +53,25 @@ public class SHA512 extends Digest {
 	protected long H7;
 	protected long H8;
 
+	/*
+	 * Chaining state.
+	 */
+	private long[] state;
+
+	/*
+	 * Message schedule.
+	 */
+	private long[] w;
+
 	/**
 	 * 
 	 */
 	public SHA512() {
 
+		super(128);
+		state = new long[8];
+		w = new long[80];
+
 		H1 = 0x6a09e667f3bcc908L;
 		H2 = 0xbb67ae8584caa73bL;
 		H3 = 0x3c6ef372fe94f82bL;
@@ -68,6 +80,7 @@ public class SHA512 extends Digest {
 		H6 = 0x9b05688c2b3e6c1fL;
 		H7 = 0x1f83d9abfb41bd6bL;
 		H8 = 0x5be0cd19137e2179L;
+		reset();
 
 	}
 
@@ -80,101 +93,68 @@ public class SHA512 extends Digest {
 
 	/*
 	 * (non-Javadoc)
-	 * @see org.cryptokitty.provider.digest.Digest#finalize(byte[])
+	 * @see org.cryptokitty.digest.Digest#compress(byte[], int)
 	 */
 	@Override
-	protected byte[] finalize(byte[] message) {
+	protected void compress(byte[] message, int offset) {
 
-		// Pad the message to an even multiple of 1024 bits.
-		byte[] context = pad(message);
-
-		// Split the message up into 1024 bit chunks.
-		int N = context.length / 128;
-		// We need the chunk array to begin at index 1 so the indexing
-		// works out below.
-		byte[][] chunks = new byte[N+1][128];
-		int ci = 0;
-		for (int i = 1; i <= N; i++) {
-			System.arraycopy(context, ci, chunks[i], 0, 128);
-			ci += 128;
+		for (int j = 0; j < 16; ++j) {
+			int i = offset + (j * 8);
+			long word = 0;
+			for (int k = 0; k < 8; ++k) {
+				word = (word << 8) | (message[i + k] & 0xff);
+			}
+			w[j] = word;
 		}
+		transform();
 
-		// Set the initial hash seeds
-		long [] h1 = new long[N + 1];
-		h1[0] = H1;
-		long [] h2 = new long[N + 1];
-		h2[0] = H2;
-		long [] h3 = new long[N + 1];
-		h3[0] = H3;
-		long [] h4 = new long[N + 1];
-		h4[0] = H4;
-		long [] h5 = new long[N + 1];
-		h5[0] = H5;
-		long [] h6 = new long[N + 1];
-		h6[0] = H6;
-		long [] h7 = new long[N + 1];
-		h7[0] = H7;
-		long [] h8 = new long[N + 1];
-		h8[0] = H8;
-
-		// Process chunks.
-		for (int i = 1; i <= N; ++i) {
-
-			long a = h1[i-1];
-			long b = h2[i-1];
-			long c = h3[i-1];
-			long d = h4[i-1];
-			long e = h5[i-1];
-			long f = h6[i-1];
-			long g = h7[i-1];
-			long h = h8[i-1];
-
-			long[] w = W(chunks[i]);
-
-			for (int j = 0; j < 80; ++j) {
-
-				long T1 = h + Sigma1(e) + Ch(e, f, g) + K[j] + w[j];
-				long T2 = Sigma0(a) + Maj(a, b, c);
-				
-				h = g;
-				g = f;
-				f = e;
-				e = d + T1;
-				d = c;
-				c = b;
-				b = a;
-				a = T1 + T2;
-
-			}
+	}
 
-			h1[i] = h1[i-1] + a;
-			h2[i] = h2[i-1] + b;
-			h3[i] = h3[i-1] + c;
-			h4[i] = h4[i-1] + d;
-			h5[i] = h5[i-1] + e;
-			h6[i] = h6[i-1] + f;
-			h7[i] = h7[i-1] + g;
-			h8[i] = h8[i-1] + h;
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#compress(java.nio.ByteBuffer)
+	 */
+	@Override
+	protected void compress(ByteBuffer message) {
 
+		for (int j = 0; j < 16; ++j) {
+			w[j] = message.getLong();
 		}
+		transform();
 
-		ByteArrayOutputStream d = new ByteArrayOutputStream();
-		try {
-			d.write(new Scalar64(h1[N]).getEncoded());
-			d.write(new Scalar64(h2[N]).getEncoded());
-			d.write(new Scalar64(h3[N]).getEncoded());
-			d.write(new Scalar64(h4[N]).getEncoded());
-			d.write(new Scalar64(h5[N]).getEncoded());
-			d.write(new Scalar64(h6[N]).getEncoded());
-			d.write(new Scalar64(h7[N]).getEncoded());
-			d.write(new Scalar64(h8[N]).getEncoded());
-		}
-		catch (IOException e) {
-			// Nope.
-			throw new RuntimeException(e);
-		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#copy()
+	 */
+	@Override
+	public Digest copy() {
+
+		SHA512 copy = (SHA512)super.copy();
+		copy.state = state.clone();
+		copy.w = new long[80];
+		return copy;
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#finish()
+	 */
+	@Override
+	protected byte[] finish() {
+
+		// Pad the message to an even multiple of 1024 bits.
+		pad(16, true);
 
-		return d.toByteArray();
+		byte[] result = new byte[64];
+		for (int i = 0; i < 8; ++i) {
+			for (int j = 0; j < 8; ++j) {
+				result[(i * 8) + j] = (byte)(state[i] >>> (56 - (j * 8)));
+			}
+		}
+		return result;
 
 	}
 
@@ -185,7 +165,7 @@ public class SHA512 extends Digest {
 	@Override
 	public int getBlockSize() {
 
-		return 64;
+		return 128;
 
 	}
 
@@ -206,21 +186,46 @@ public class SHA512 extends Digest {
 	}
 
 	/*
-	 * Pad the message.
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#restore(org.cryptokitty.digest.Digest)
+	 */
+	@Override
+	public void restore(Digest snapshot) {
+
+		super.restore(snapshot);
+		System.arraycopy(((SHA512)snapshot).state, 0, state, 0, state.length);
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#readState(java.io.DataInput)
+	 */
+	@Override
+	protected void readState(DataInput in) throws IOException {
+
+		for (int i = 0; i < state.length; ++i) {
+			state[i] = in.readLong();
+		}
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#reset()
 	 */
-	private byte[] pad(byte[] message) {
-
-		int bitsize = message.length * 8;
-		int padbits = 896 - (bitsize % 1024);
-		byte[] padding = new byte[padbits / 8];
-		Arrays.fill(padding, (byte)0);
-		padding[0] = (byte)0x80;
-		byte[] context = new byte[message.length + padding.length + 16];
-		System.arraycopy(message, 0, context, 0, message.length);
-		System.arraycopy(padding, 0, context, message.length, padding.length);
-		System.arraycopy(Scalar128.encode(bitsize), 0, context,
-											message.length + padding.length, 16);
-		return context;
+	@Override
+	public void reset() {
+
+		super.reset();
+		state[0] = H1;
+		state[1] = H2;
+		state[2] = H3;
+		state[3] = H4;
+		state[4] = H5;
+		state[5] = H6;
+		state[6] = H7;
+		state[7] = H8;
 
 	}
 
@@ -266,23 +271,70 @@ public class SHA512 extends Digest {
 	}
 
 	/*
-	 * W function. Compute expanded message blocks via the SHA-512
-	 * message schedule.
+	 * Compress the block in the message schedule.
 	 */
-	private long[] W(byte[] chunk) {
-
-		long[] w = new long[80];
+	private void transform() {
+
+		W();
+
+		long a = state[0];
+		long b = state[1];
+		long c = state[2];
+		long d = state[3];
+		long e = state[4];
+		long f = state[5];
+		long g = state[6];
+		long h = state[7];
+
+		for (int j = 0; j < 80; ++j) {
+
+			long T1 = h + Sigma1(e) + Ch(e, f, g) + K[j] + w[j];
+			long T2 = Sigma0(a) + Maj(a, b, c);
+			
+			h = g;
+			g = f;
+			f = e;
+			e = d + T1;
+			d = c;
+			c = b;
+			b = a;
+			a = T1 + T2;
 
-		for (int j = 0; j < 16; ++j) {
-			int i = j * 8;
-			w[j] = new Scalar64(Arrays.copyOfRange(chunk, i, i + 8)).getValue();
 		}
 
+		state[0] += a;
+		state[1] += b;
+		state[2] += c;
+		state[3] += d;
+		state[4] += e;
+		state[5] += f;
+		state[6] += g;
+		state[7] += h;
+
+	}
+
+	/*
+	 * W function. Compute expanded message blocks via the SHA-512
+	 * message schedule.
+	 */
+	private void W() {
+
 		for (int j = 16; j < 80; ++j) {
 			w[j] = sigma1(w[j-2]) + w[j-7] + sigma0(w[j-15]) + w[j-16];
 		}
-		
-		return w;
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#writeState(java.io.DataOutput)
+	 */
+	@Override
+	protected void writeState(DataOutput out) throws IOException {
+
+		for (int i = 0; i < state.length; ++i) {
+			out.writeLong(state[i]);
+		}
 
 	}
 
@@ -0,0 +1,276 @@
+/**
+ * 
+ */
+package org.cryptokitty.digest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cryptokitty.xprovider.WorkerPool;
+
+/**
+ * @author Steve Brenneis
+ *
+ * Merkle tree hash of a file. The file is memory mapped in fixed size
+ * leaves and the leaves are hashed in parallel on the shared worker
+ * pool. The tree is built as in RFC 6962. A leaf hash is H(0x00 || leaf),
+ * an interior node is H(0x01 || left || right), and a node without a
+ * sibling is carried up to the next level. The hash of an empty file
+ * is the hash of the empty string.
+ *
+ * The leaf hashes are kept with the root so a single leaf can be
+ * checked later without hashing the whole file.
+ */
+public class TreeHash {
+
+	/**
+	 * Default leaf size, 1 MiB.
+	 */
+	public static final int DEFAULT_LEAF_SIZE = 1024 * 1024;
+
+	/*
+	 * Domain separation prefixes.
+	 */
+	private static final byte LEAF = 0x00;
+	private static final byte NODE = 0x01;
+
+	/**
+	 * The result of hashing a file.
+	 */
+	public static final class Tree {
+
+		private byte[] root;
+		private byte[][] leaves;
+		private int leafSize;
+
+		Tree(byte[] root, byte[][] leaves, int leafSize) {
+			this.root = root;
+			this.leaves = leaves;
+			this.leafSize = leafSize;
+		}
+
+		/**
+		 * Get the leaf hashes, in file order.
+		 */
+		public byte[][] getLeaves() {
+			return leaves;
+		}
+
+		/**
+		 * Get the leaf size in bytes.
+		 */
+		public int getLeafSize() {
+			return leafSize;
+		}
+
+		/**
+		 * Get the root hash.
+		 */
+		public byte[] getRoot() {
+			return root;
+		}
+
+	}
+
+	/*
+	 * Hashes a range of leaves, splitting the range until it is small
+	 * enough to do on one thread.
+	 */
+	private final class Leaves extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private FileChannel channel;
+		private long size;
+		private int leafSize;
+		private byte[][] leaves;
+		private int first;
+		private int last;
+		private int grain;
+		private AtomicReference<IOException> failure;
+
+		Leaves(FileChannel channel, long size, int leafSize, byte[][] leaves, int first,
+				int last, int grain, AtomicReference<IOException> failure) {
+			this.channel = channel;
+			this.size = size;
+			this.leafSize = leafSize;
+			this.leaves = leaves;
+			this.first = first;
+			this.last = last;
+			this.grain = grain;
+			this.failure = failure;
+		}
+
+		@Override
+		protected void compute() {
+
+			if (last - first > grain) {
+				int middle = (first + last) >>> 1;
+				invokeAll(new Leaves(channel, size, leafSize, leaves, first, middle, grain, failure),
+							new Leaves(channel, size, leafSize, leaves, middle, last, grain, failure));
+				return;
+			}
+
+			Digest leafDigest = digest.copy();
+			for (int i = first; i < last && failure.get() == null; ++i) {
+				try {
+					leaves[i] = hashLeaf(channel, size, leafSize, i, leafDigest);
+				}
+				catch (IOException e) {
+					failure.compareAndSet(null, e);
+				}
+			}
+
+		}
+
+	}
+
+	/*
+	 * The hash function. Only copies are updated.
+	 */
+	private Digest digest;
+
+	/*
+	 * Leaf size in bytes.
+	 */
+	private int leafSize;
+
+	/**
+	 * Construct with the default leaf size.
+	 *
+	 * @param digest - The hash function.
+	 */
+	public TreeHash(Digest digest) {
+		this(digest, DEFAULT_LEAF_SIZE);
+	}
+
+	/**
+	 * @param digest - The hash function.
+	 * @param leafSize - The leaf size in bytes.
+	 */
+	public TreeHash(Digest digest, int leafSize) {
+
+		if (leafSize <= 0) {
+			throw new IllegalArgumentException("Invalid leaf size");
+		}
+		this.digest = digest.copy();
+		this.digest.reset();
+		this.leafSize = leafSize;
+
+	}
+
+	/**
+	 * Hash a file.
+	 */
+	public Tree hash(File file) throws IOException {
+
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			return hash(in.getChannel());
+		}
+
+	}
+
+	/**
+	 * Hash the contents of a channel. The channel's position isn't used
+	 * or changed.
+	 */
+	public Tree hash(FileChannel channel) throws IOException {
+
+		long size = channel.size();
+		long count = (size + leafSize - 1) / leafSize;
+		if (count > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many leaves, use a larger leaf size");
+		}
+
+		byte[][] leaves = new byte[(int)count][];
+		if (count > 0) {
+			// A few ranges per worker so the load evens out.
+			int grain = Math.max(1, (int)count / (WorkerPool.getParallelism() * 4));
+			AtomicReference<IOException> failure = new AtomicReference<IOException>();
+			WorkerPool.getPool().invoke(new Leaves(channel, size, leafSize, leaves, 0,
+														(int)count, grain, failure));
+			if (failure.get() != null) {
+				throw failure.get();
+			}
+		}
+
+		return new Tree(root(leaves), leaves, leafSize);
+
+	}
+
+	/*
+	 * Hash one leaf. The digest reads straight from the mapping.
+	 */
+	private byte[] hashLeaf(FileChannel channel, long size, int leafSize, int index,
+							Digest leafDigest) throws IOException {
+
+		long position = (long)index * leafSize;
+		long length = Math.min(leafSize, size - position);
+		MappedByteBuffer leaf = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+		leafDigest.update(LEAF);
+		leafDigest.update(leaf);
+		return leafDigest.digest();
+
+	}
+
+	/**
+	 * Compute the root hash from a list of leaf hashes.
+	 */
+	public byte[] root(byte[][] leaves) {
+
+		Digest nodeDigest = digest.copy();
+		if (leaves.length == 0) {
+			return nodeDigest.digest();
+		}
+
+		byte[][] level = leaves.clone();
+		int count = level.length;
+		while (count > 1) {
+			int next = 0;
+			for (int i = 0; i < count; i += 2) {
+				if (i + 1 < count) {
+					nodeDigest.update(NODE);
+					nodeDigest.update(level[i]);
+					nodeDigest.update(level[i + 1]);
+					level[next++] = nodeDigest.digest();
+				}
+				else {
+					level[next++] = level[i];
+				}
+			}
+			count = next;
+		}
+		return level[0];
+
+	}
+
+	/**
+	 * Check one leaf of a file against a tree. The leaf hashes in the
+	 * tree are also checked against its root.
+	 */
+	public boolean verify(FileChannel channel, Tree tree, int index) throws IOException {
+
+		byte[][] leaves = tree.getLeaves();
+		if (index < 0 || index >= leaves.length) {
+			throw new IllegalArgumentException("Invalid leaf index");
+		}
+
+		long size = channel.size();
+		int treeLeafSize = tree.getLeafSize();
+		if ((size + treeLeafSize - 1) / treeLeafSize != leaves.length) {
+			return false;
+		}
+		byte[] leaf = hashLeaf(channel, size, treeLeafSize, index, digest.copy());
+		return MessageDigest.isEqual(leaf, leaves[index])
+				&& MessageDigest.isEqual(root(leaves), tree.getRoot());
+
+	}
+
+}
@@ -6,11 +6,14 @@ package org.cryptokitty.jni;
 /**
  * This is a JNI wrapper for the CryptoKitty-C BigInteger class.
  * The performance of the native Java implementation is terrible.
+ * Arithmetic creates a native integer for every result. Close
+ * intermediate results that are no longer needed to free them at once
+ * instead of after they are collected.
  * 
  * @author stevebrenneis
  *
  */
-public class BigInteger {
+public class BigInteger implements AutoCloseable {
 
 	/**
 	 * Load the CryptoKitty-C binary.
@@ -24,6 +27,11 @@ public class BigInteger {
 	 */
 	private long jniImpl;
 
+	/**
+	 * Frees the native object on close or after collection.
+	 */
+	private final JNIReference reference;
+
 	/**
 	 * Zero and one constants.
 	 */
@@ -36,6 +44,7 @@ public class BigInteger {
 	public BigInteger() {
 
 		jniImpl = initialize();
+		reference = JNIReference.register(this, jniImpl);
 
 	}
 
@@ -45,6 +54,7 @@ public class BigInteger {
 	public BigInteger(long lValue) {
 		
 		jniImpl = initialize(lValue);
+		reference = JNIReference.register(this, jniImpl);
 
 	}
 
@@ -54,6 +64,18 @@ public class BigInteger {
 	public BigInteger(byte[] bytes) {
 
 		jniImpl = initialize(bytes);
+		reference = JNIReference.register(this, jniImpl);
+
+	}
+
+	/**
+	 * Wrap a native integer created by the JNI implementation. The flag
+	 * only distinguishes this from BigInteger(long).
+	 */
+	private BigInteger(long jniImpl, boolean wrap) {
+
+		this.jniImpl = jniImpl;
+		reference = JNIReference.register(this, jniImpl);
 
 	}
 
@@ -100,18 +122,15 @@ public class BigInteger {
 	public static native BigInteger copy(BigInteger other);
 
 	/**
-	 * Free JNI resources.
-	 */
-	private native void dispose();
-
-	/*
-	 * (non-Javadoc)
-	 * @see java.lang.Object#finalize()
+	 * Free the native object now instead of when this is collected. This
+	 * can't be used after it is closed. Closing ZERO or ONE does nothing.
 	 */
 	@Override
-	public void finalize() throws Throwable {
+	public void close() {
 
-		dispose();
+		if (this != ZERO && this != ONE) {
+			reference.close();
+		}
 
 	}
 
@@ -0,0 +1,138 @@
+/**
+ *
+ */
+package org.cryptokitty.jni;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * @author stevebrenneis
+ *
+ * Frees the native object of a JNI wrapper. The wrapper registers its
+ * native reference when it is constructed and frees it by calling close.
+ * If it isn't closed, the native object is freed by a reaper thread after
+ * the wrapper is collected. This replaces finalize. A wrapper with a
+ * finalizer survives at least two collections, and its native object
+ * waits on the single finalizer thread.
+ *
+ * The native object is freed once, whichever comes first. The number of
+ * live native objects is available for monitoring.
+ */
+public final class JNIReference extends PhantomReference<Object> {
+
+	/**
+	 * Load the CryptoKitty-C binary.
+	 */
+	static {
+		System.loadLibrary("ckjni");
+	}
+
+	/*
+	 * Collected wrappers are queued here for the reaper.
+	 */
+	private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<Object>();
+
+	/*
+	 * References that haven't been freed. A reference has to be reachable
+	 * to be queued when its wrapper is collected.
+	 */
+	private static final Set<JNIReference> LIVE =
+			Collections.newSetFromMap(new ConcurrentHashMap<JNIReference, Boolean>());
+
+	/*
+	 * Number of live native objects.
+	 */
+	private static final AtomicLong COUNT = new AtomicLong();
+
+	/*
+	 * Clears jniImpl exactly once.
+	 */
+	private static final AtomicLongFieldUpdater<JNIReference> IMPL =
+			AtomicLongFieldUpdater.newUpdater(JNIReference.class, "jniImpl");
+
+	static {
+		Thread reaper = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					try {
+						((JNIReference)QUEUE.remove()).close();
+					}
+					catch (InterruptedException e) {
+						// Keep reaping.
+					}
+				}
+			}
+		}, "CryptoKitty JNI reaper");
+		reaper.setDaemon(true);
+		reaper.start();
+	}
+
+	/**
+	 * JNI implementation index. Zero once the native object is freed.
+	 */
+	private volatile long jniImpl;
+
+	/**
+	 * Use register.
+	 */
+	private JNIReference(Object owner, long jniImpl) {
+		super(owner, QUEUE);
+
+		this.jniImpl = jniImpl;
+
+	}
+
+	/**
+	 * Free the native object if it hasn't been freed.
+	 */
+	public void close() {
+
+		long impl = IMPL.getAndSet(this, 0);
+		if (impl != 0) {
+			deleteRef(impl);
+			LIVE.remove(this);
+			COUNT.decrementAndGet();
+		}
+		clear();
+
+	}
+
+	/**
+	 * Free a native object.
+	 */
+	private static native void deleteRef(long jniImpl);
+
+	/**
+	 * The number of native objects held by wrappers that haven't been
+	 * closed or reaped.
+	 */
+	public static long liveCount() {
+
+		return COUNT.get();
+
+	}
+
+	/**
+	 * Register the native object of a wrapper. It is freed when the
+	 * returned reference is closed or after the owner is collected.
+	 *
+	 * @param owner - The wrapper.
+	 * @param jniImpl - The wrapper's JNI implementation index.
+	 */
+	public static JNIReference register(Object owner, long jniImpl) {
+
+		JNIReference reference = new JNIReference(owner, jniImpl);
+		LIVE.add(reference);
+		COUNT.incrementAndGet();
+		return reference;
+
+	}
+
+}
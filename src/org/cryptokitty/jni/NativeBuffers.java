@@ -0,0 +1,60 @@
+/**
+ *
+ */
+package org.cryptokitty.jni;
+
+import java.nio.ByteBuffer;
+
+/**
+ * @author stevebrenneis
+ *
+ * Helpers for passing ByteBuffers to the JNI implementations. Native code
+ * is given the buffer itself if it is direct, or its backing array if it
+ * is a heap buffer, along with the offset of the buffer position in it.
+ * See jni/ByteBufferCodec.
+ */
+public final class NativeBuffers {
+
+	/**
+	 *
+	 */
+	private NativeBuffers() {
+	}
+
+	/**
+	 * The offset of the buffer position in the object returned by
+	 * target.
+	 */
+	public static int offset(ByteBuffer buffer) {
+
+		return buffer.isDirect() ? buffer.position() : buffer.arrayOffset() + buffer.position();
+
+	}
+
+	/**
+	 * A buffer with the remaining bytes of buffer that native code can
+	 * read. Read only heap buffers don't expose their arrays, so their
+	 * contents are copied. Other buffers are returned as they are.
+	 */
+	public static ByteBuffer readable(ByteBuffer buffer) {
+
+		if (buffer.isDirect() || buffer.hasArray()) {
+			return buffer;
+		}
+		byte[] copy = new byte[buffer.remaining()];
+		buffer.duplicate().get(copy);
+		return ByteBuffer.wrap(copy);
+
+	}
+
+	/**
+	 * The object passed to native code for a buffer. The buffer itself
+	 * if it is direct, otherwise its backing array.
+	 */
+	public static Object target(ByteBuffer buffer) {
+
+		return buffer.isDirect() ? buffer : buffer.array();
+
+	}
+
+}
@@ -5,6 +5,8 @@ package org.cryptokitty.keys;
 
 import java.security.KeyPair;
 
+import org.cryptokitty.jni.JNIReference;
+
 /**
  * @author Steve Brenneis
  *
@@ -12,7 +14,7 @@ import java.security.KeyPair;
  * default. The (n, d) version can be specified in the
  * algorithm parameters.
  */
-public class RSAKeyPairGenerator {
+public class RSAKeyPairGenerator implements AutoCloseable {
 
 	/**
 	 * Load the CryptoKitty-C binary.
@@ -26,28 +28,29 @@ public class RSAKeyPairGenerator {
 	 */
 	private long jniImpl;
 
+	/**
+	 * Frees the native object on close or after collection.
+	 */
+	private final JNIReference reference;
+
 	/**
 	 * 
 	 */
 	public RSAKeyPairGenerator() {
 
 		jniImpl = initialize();
+		reference = JNIReference.register(this, jniImpl);
 
 	}
 
 	/**
-	 * Free JNI resources.
-	 */
-	private native void dispose();
-
-	/*
-	 * (non-Javadoc)
-	 * @see java.lang.Object#finalize()
+	 * Free the native object now instead of when this is collected. This
+	 * can't be used after it is closed.
 	 */
 	@Override
-	public void finalize() throws Throwable {
+	public void close() {
 
-		dispose();
+		reference.close();
 
 	}
 
@@ -3,14 +3,18 @@
  */
 package org.cryptokitty.mac;
 
+import java.nio.ByteBuffer;
+
 import org.cryptokitty.exceptions.BadParameterException;
 import org.cryptokitty.exceptions.IllegalStateException;
+import org.cryptokitty.jni.JNIReference;
+import org.cryptokitty.jni.NativeBuffers;
 
 /**
  * @author stevebrenneis
  *
  */
-public class HMAC {
+public class HMAC implements AutoCloseable {
 
 	/**
 	 * Load the CryptoKitty-C binary.
@@ -32,6 +36,11 @@ public class HMAC {
 	 */
 	private long jniImpl;
 
+	/**
+	 * Frees the native object on close or after collection.
+	 */
+	private final JNIReference reference;
+
 	/**
 	 * 
 	 * @param digest
@@ -44,6 +53,7 @@ public class HMAC {
 		case SHA384:
 		case SHA512:
 			jniImpl = initialize(digest);
+			reference = JNIReference.register(this, jniImpl);
 			break;
 		default:
 			throw new BadParameterException("Invalid digest type");
@@ -62,18 +72,13 @@ public class HMAC {
 					throws BadParameterException, IllegalStateException;
 
 	/**
-	 * Free JNI resources.
-	 */
-	private native void dispose();
-
-	/*
-	 * (non-Javadoc)
-	 * @see java.lang.Object#finalize()
+	 * Free the native object now instead of when this is collected. This
+	 * can't be used after it is closed.
 	 */
 	@Override
-	public void finalize() throws Throwable {
+	public void close() {
 
-		dispose();
+		reference.close();
 
 	}
 
@@ -97,6 +102,30 @@ public class HMAC {
 	 * @throws BadParameterException 
 	 */
 	public native byte[] getHMAC() throws IllegalStateException, BadParameterException;
+
+	/**
+	 * Generate the HMAC into the buffer at its position. Direct buffers
+	 * are written in place. Returns the number of bytes written.
+	 *
+	 * @param hmac
+	 * @return
+	 * @throws IllegalStateException
+	 * @throws BadParameterException
+	 */
+	public int getHMAC(ByteBuffer hmac) throws IllegalStateException, BadParameterException {
+
+		int length = getHMACBuffer(NativeBuffers.target(hmac), NativeBuffers.offset(hmac),
+															hmac.remaining());
+		hmac.position(hmac.position() + length);
+		return length;
+
+	}
+
+	/*
+	 * JNI HMAC into a direct ByteBuffer or a byte array.
+	 */
+	private native int getHMACBuffer(Object hmac, int offset, int length)
+					throws IllegalStateException, BadParameterException;
 	
 	/**
 	 * 
@@ -123,4 +152,23 @@ public class HMAC {
 	 */
 	public native void setMessage(byte[] m);
 
+	/**
+	 * Set the message from the remaining bytes of the buffer. Direct
+	 * buffers are read in place.
+	 *
+	 * @param m
+	 */
+	public void setMessage(ByteBuffer m) {
+
+		ByteBuffer in = NativeBuffers.readable(m);
+		setMessageBuffer(NativeBuffers.target(in), NativeBuffers.offset(in), in.remaining());
+		m.position(m.limit());
+
+	}
+
+	/*
+	 * JNI message from a direct ByteBuffer or a byte array.
+	 */
+	private native void setMessageBuffer(Object m, int offset, int length);
+
 }
@@ -3,16 +3,43 @@
  */
 package org.cryptokitty.modes;
 
+import java.nio.ByteBuffer;
+
 import org.cryptokitty.cipher.BlockCipher;
 import org.cryptokitty.exceptions.AuthenticationException;
 import org.cryptokitty.exceptions.BadParameterException;
 import org.cryptokitty.exceptions.IllegalBlockSizeException;
+import org.cryptokitty.exceptions.IllegalStateException;
+import org.cryptokitty.exceptions.InvalidKeyException;
+import org.cryptokitty.jni.JNIReference;
+import org.cryptokitty.jni.NativeBuffers;
 
 /**
  * @author stevebrenneis
  *
+ * GCM in CryptoKitty-C. The AEADCipherMode methods take the key on every
+ * call. Alternatively, the key can be set once with setKey, after which
+ * it is held on the native side and the keyed encrypt and decrypt pass
+ * only the data. That suits many small messages under a few session keys.
+ * The keyed ByteBuffer methods read and write the buffers in place,
+ * without creating Java arrays.
+ *
+ * For small records, seal and open process a whole batch in one native
+ * call. That avoids a JNI transition and reference lookup for each IV,
+ * authentication data and text of every record.
  */
-public class GCM implements AEADCipherMode {
+public class GCM implements AEADCipherMode, AutoCloseable {
+
+	/**
+	 * Batch status for a record that failed authentication.
+	 */
+	public static final int BATCH_AUTHENTICATION_FAILED = -1;
+
+	/**
+	 * Batch status for a record with bad parameters or that doesn't fit
+	 * in the output.
+	 */
+	public static final int BATCH_BAD_PARAMETER = -2;
 
 	/**
 	 * Load the CryptoKitty-C binary.
@@ -26,6 +53,17 @@ public class GCM implements AEADCipherMode {
 	 */
 	private long jniImpl;
 
+	/**
+	 * Frees the native object on close or after collection.
+	 */
+	private final JNIReference reference;
+
+	/**
+	 * The native GCM uses the cipher's native object, so the cipher is
+	 * kept reachable for as long as this is.
+	 */
+	private final BlockCipher cipher;
+
 	/**
 	 * @throws IllegalBlockSizeException 
 	 * 
@@ -36,7 +74,9 @@ public class GCM implements AEADCipherMode {
 			throw new IllegalBlockSizeException("Invalid GCM block cipher size");
 		}
 
+		this.cipher = cipher;
 		jniImpl = initialize(cipher, appendTag);
+		reference = JNIReference.register(this, jniImpl);
 
 	}
 
@@ -48,10 +88,72 @@ public class GCM implements AEADCipherMode {
 						throws AuthenticationException, IllegalBlockSizeException,
 														BadParameterException;
 
+	/*
+	 * Check that the batch arrays describe the same number of records.
+	 */
+	private static void checkBatch(byte[][] ivs, byte[][] aads, int[] offsets, int[] lengths,
+							int[] outOffsets) throws BadParameterException {
+
+		int count = ivs.length;
+		if (aads.length != count || offsets.length != count || lengths.length != count
+								|| outOffsets.length != count) {
+			throw new BadParameterException("Batch array lengths differ");
+		}
+
+	}
+
+	/*
+	 * Encrypt or decrypt the remaining bytes of src into dst with the key
+	 * set by setKey. Advances both positions.
+	 */
+	private int crypt(boolean encrypt, ByteBuffer src, ByteBuffer dst)
+						throws AuthenticationException, BadParameterException,
+														IllegalStateException {
+
+		ByteBuffer in = NativeBuffers.readable(src);
+		int length = keyedCryptBuffer(encrypt, NativeBuffers.target(in), NativeBuffers.offset(in),
+							in.remaining(), NativeBuffers.target(dst), NativeBuffers.offset(dst),
+							dst.remaining());
+		src.position(src.limit());
+		dst.position(dst.position() + length);
+		return length;
+
+	}
+
+	/**
+	 * Decrypt with the key set by setKey.
+	 */
+	public byte[] decrypt(byte[] ciphertext)
+						throws AuthenticationException, BadParameterException,
+														IllegalStateException {
+
+		return keyedDecrypt(ciphertext);
+
+	}
+
 	/**
-	 * Free JNI resources.
+	 * Decrypt the remaining bytes of src into dst with the key set by
+	 * setKey. Direct buffers are accessed in place. Returns the number of
+	 * bytes written.
 	 */
-	private native void dispose();
+	public int decrypt(ByteBuffer src, ByteBuffer dst)
+						throws AuthenticationException, BadParameterException,
+														IllegalStateException {
+
+		return crypt(false, src, dst);
+
+	}
+
+	/**
+	 * Free the native object now instead of when this is collected. This
+	 * can't be used after it is closed.
+	 */
+	@Override
+	public void close() {
+
+		reference.close();
+
+	}
 
 	/* (non-Javadoc)
 	 * @see org.cryptokitty.modes.BlockMode#encrypt(byte[], byte[])
@@ -60,14 +162,30 @@ public class GCM implements AEADCipherMode {
 	public native byte[] encrypt(byte[] P, byte[] key)
 							throws IllegalBlockSizeException, BadParameterException;
 
-	/*
-	 * (non-Javadoc)
-	 * @see java.lang.Object#finalize()
+	/**
+	 * Encrypt with the key set by setKey.
 	 */
-	@Override
-	public void finalize() throws Throwable {
+	public byte[] encrypt(byte[] P) throws BadParameterException, IllegalStateException {
+
+		return keyedEncrypt(P);
 
-		dispose();
+	}
+
+	/**
+	 * Encrypt the remaining bytes of src into dst with the key set by
+	 * setKey. Direct buffers are accessed in place. Returns the number of
+	 * bytes written.
+	 */
+	public int encrypt(ByteBuffer src, ByteBuffer dst)
+						throws BadParameterException, IllegalStateException {
+
+		try {
+			return crypt(true, src, dst);
+		}
+		catch (AuthenticationException e) {
+			// Can't happen. Only decryption authenticates.
+			throw new RuntimeException(e);
+		}
 
 	}
 
@@ -78,7 +196,59 @@ public class GCM implements AEADCipherMode {
 	 * @param appendTag
 	 */
 	private native long initialize(BlockCipher cipher, boolean appendTag);
+
+	/*
+	 * Keyed JNI operations. These use the key held on the native side.
+	 * The buffer operation takes direct ByteBuffers or byte arrays.
+	 */
+	private native int[] keyedBatch(boolean seal, byte[][] ivs, byte[][] aads, byte[] in,
+							int[] offsets, int[] lengths, byte[] out, int[] outOffsets)
+						throws IllegalStateException;
+	private native int keyedCryptBuffer(boolean encrypt, Object src, int srcOff, int length,
+							Object dst, int dstOff, int dstLength)
+						throws AuthenticationException, BadParameterException,
+														IllegalStateException;
+	private native byte[] keyedDecrypt(byte[] ciphertext)
+						throws AuthenticationException, BadParameterException,
+														IllegalStateException;
+	private native byte[] keyedEncrypt(byte[] P)
+						throws BadParameterException, IllegalStateException;
 	
+	/**
+	 * Decrypt and authenticate a batch of records in one native call with
+	 * the key set by setKey. Record i is lengths[i] bytes of in at
+	 * offsets[i], with IV ivs[i] and authentication data aads[i], which
+	 * may be null. Its plaintext is written to out at outOffsets[i].
+	 *
+	 * Returns the status of each record: the number of bytes written, or
+	 * BATCH_AUTHENTICATION_FAILED or BATCH_BAD_PARAMETER. A failed record
+	 * doesn't stop the rest of the batch. The IV and authentication data
+	 * of the last record are left set.
+	 */
+	public int[] open(byte[][] ivs, byte[][] aads, byte[] in, int[] offsets, int[] lengths,
+							byte[] out, int[] outOffsets)
+						throws BadParameterException, IllegalStateException {
+
+		checkBatch(ivs, aads, offsets, lengths, outOffsets);
+		return keyedBatch(false, ivs, aads, in, offsets, lengths, out, outOffsets);
+
+	}
+
+	/**
+	 * Encrypt a batch of records in one native call with the key set by
+	 * setKey. Laid out and reported as for open. Each record's ciphertext
+	 * is written to out at outOffsets[i], with the tag appended if the
+	 * mode was constructed to append it.
+	 */
+	public int[] seal(byte[][] ivs, byte[][] aads, byte[] in, int[] offsets, int[] lengths,
+							byte[] out, int[] outOffsets)
+						throws BadParameterException, IllegalStateException {
+
+		checkBatch(ivs, aads, offsets, lengths, outOffsets);
+		return keyedBatch(true, ivs, aads, in, offsets, lengths, out, outOffsets);
+
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see org.cryptokitty.modes.AEADCipherMode#setAuthenticationData(byte[])
@@ -93,4 +263,13 @@ public class GCM implements AEADCipherMode {
 	@Override
 	public native void setIV(byte[] iv);
 
+	/**
+	 * Set the key for the keyed encrypt and decrypt. The key is copied to
+	 * the native side once and isn't passed again.
+	 *
+	 * @param key - A 16, 24 or 32 byte key.
+	 * @throws InvalidKeyException
+	 */
+	public native void setKey(byte[] key) throws InvalidKeyException;
+
 }
@@ -3,6 +3,8 @@
  */
 package org.cryptokitty.pgp;
 
+import org.cryptokitty.digest.BLAKE2b;
+import org.cryptokitty.digest.BLAKE3;
 import org.cryptokitty.digest.MD5;
 import org.cryptokitty.digest.SHA224;
 import org.cryptokitty.digest.SHA256;
@@ -38,6 +40,10 @@ public class AlgorithmFactory {
 			return new SHA384();
 		case PGPConstants.SHA512:
 			return new SHA512();
+		case PGPConstants.BLAKE2B:
+			return new BLAKE2b();
+		case PGPConstants.BLAKE3:
+			return new BLAKE3();
 		default:
 			throw new UnsupportedAlgorithmException("No such hash algorithm: "
 												+ String.valueOf(algorithm));
@@ -53,6 +53,9 @@ public class PGPConstants {
 	public static final int SHA384 = 9;
 	public static final int SHA512 = 10;
 	public static final int SHA224 = 11;
+	// No assigned IDs. Private/experimental range, RFC 4880 section 9.4.
+	public static final int BLAKE2B = 100;
+	public static final int BLAKE3 = 101;
 
 	/**
 	 * 
@@ -157,8 +157,7 @@ public class IteratedS2K extends String2Key {
 		long index = count - toHash.length;
 		while (index > 0) {
 			for (int i = 0; i < numhashes; ++i) {
-				hashes[i].update(Arrays.copyOf(toHash,
-									(int)Math.min(toHash.length, index)));
+				hashes[i].update(toHash, 0, (int)Math.min(toHash.length, index));
 			}
 			index -= toHash.length;
 		}
@@ -0,0 +1,110 @@
+/**
+ *
+ */
+package org.cryptokitty.test;
+
+import java.security.InvalidKeyException;
+import java.util.Random;
+
+import javax.crypto.IllegalBlockSizeException;
+
+import org.cryptokitty.xprovider.cipher.AES;
+import org.cryptokitty.xprovider.cipher.BlockCipher;
+import org.cryptokitty.xprovider.cipher.FastAES;
+
+/**
+ * @author Steve Brenneis
+ *
+ * Rough throughput measurement of the pure Java AES engines. A 1 MiB
+ * buffer is pushed through the cipher one block at a time, in place. A number of
+ * warmup passes are run before the timed passes so the JIT has settled,
+ * in the manner of a JMH throughput benchmark.
+ */
+public class AESBenchmark {
+
+	/*
+	 * Buffer size.
+	 */
+	private static final int BUFFER_SIZE = 1024 * 1024;
+
+	/*
+	 * Untimed and timed passes.
+	 */
+	private static final int WARMUP = 5;
+	private static final int ITERATIONS = 10;
+
+	/**
+	 *
+	 */
+	public AESBenchmark() {
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+
+		byte[] key = new byte[AES.AES128];
+		byte[] buffer = new byte[BUFFER_SIZE];
+		Random random = new Random(0);
+		random.nextBytes(key);
+		random.nextBytes(buffer);
+
+		try {
+			BlockCipher cipher = new AES();
+			cipher.setKey(key);
+			run("AES-128 encrypt", cipher, buffer, true);
+			run("AES-128 decrypt", cipher, buffer, false);
+
+			cipher = new FastAES();
+			cipher.setKey(key);
+			run("Table AES-128 encrypt", cipher, buffer, true);
+			run("Table AES-128 decrypt", cipher, buffer, false);
+		}
+		catch (InvalidKeyException | IllegalBlockSizeException e) {
+			System.out.println("AES benchmark failed with exception: " + e.getMessage());
+		}
+
+	}
+
+	/*
+	 * Time the passes and report MiB/s.
+	 */
+	private static void run(String name, BlockCipher cipher, byte[] buffer, boolean encrypt)
+			throws IllegalBlockSizeException {
+
+		for (int i = 0; i < WARMUP; ++i) {
+			pass(cipher, buffer, encrypt);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; ++i) {
+			pass(cipher, buffer, encrypt);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		double mib = (double)ITERATIONS * buffer.length / BUFFER_SIZE;
+		double seconds = elapsed / 1e9;
+		System.out.println(String.format("%s: %.2f MiB/s", name, mib / seconds));
+
+	}
+
+	/*
+	 * One pass over the buffer.
+	 */
+	private static void pass(BlockCipher cipher, byte[] buffer, boolean encrypt)
+			throws IllegalBlockSizeException {
+
+		int blockSize = cipher.getBlockSize();
+		for (int offset = 0; offset < buffer.length; offset += blockSize) {
+			if (encrypt) {
+				cipher.encryptBlock(buffer, offset, buffer, offset);
+			}
+			else {
+				cipher.decryptBlock(buffer, offset, buffer, offset);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,133 @@
+/**
+ *
+ */
+package org.cryptokitty.test;
+
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import org.cryptokitty.xprovider.cipher.AES;
+import org.cryptokitty.xprovider.cipher.BlockCipher;
+import org.cryptokitty.xprovider.cipher.FastAES;
+
+/**
+ * @author Steve Brenneis
+ *
+ * AES known answer tests. Vectors are from FIPS 197, Appendix C.
+ */
+public class AESTest {
+
+	/**
+	 *
+	 */
+	public AESTest() {
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+
+		byte[] plaintext =
+			{ 0x00, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66, 0x77,
+				(byte)0x88, (byte)0x99, (byte)0xaa, (byte)0xbb,
+				(byte)0xcc, (byte)0xdd, (byte)0xee, (byte)0xff };
+
+		// 128 bit key
+		byte[] key128 =
+			{ 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+				0x08, 0x09, 0x0a, 0x0b, 0x0c, 0x0d, 0x0e, 0x0f };
+
+		byte[] ciphertext128 =
+			{ 0x69, (byte)0xc4, (byte)0xe0, (byte)0xd8, 0x6a, 0x7b, 0x04, 0x30,
+				(byte)0xd8, (byte)0xcd, (byte)0xb7, (byte)0x80, 0x70, (byte)0xb4,
+				(byte)0xc5, 0x5a };
+
+		// 192 bit key
+		byte[] key192 =
+			{ 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+				0x08, 0x09, 0x0a, 0x0b, 0x0c, 0x0d, 0x0e, 0x0f,
+				0x10, 0x11, 0x12, 0x13, 0x14, 0x15, 0x16, 0x17 };
+
+		byte[] ciphertext192 =
+			{ (byte)0xdd, (byte)0xa9, 0x7c, (byte)0xa4, (byte)0x86, 0x4c, (byte)0xdf,
+				(byte)0xe0, 0x6e, (byte)0xaf, 0x70, (byte)0xa0, (byte)0xec, 0x0d,
+				0x71, (byte)0x91 };
+
+		// 256 bit key
+		byte[] key256 =
+			{ 0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07,
+				0x08, 0x09, 0x0a, 0x0b, 0x0c, 0x0d, 0x0e, 0x0f,
+				0x10, 0x11, 0x12, 0x13, 0x14, 0x15, 0x16, 0x17,
+				0x18, 0x19, 0x1a, 0x1b, 0x1c, 0x1d, 0x1e, 0x1f };
+
+		byte[] ciphertext256 =
+			{ (byte)0x8e, (byte)0xa2, (byte)0xb7, (byte)0xca, 0x51, 0x67, 0x45,
+				(byte)0xbf, (byte)0xea, (byte)0xfc, 0x49, (byte)0x90, 0x4b, 0x49,
+				0x60, (byte)0x89 };
+
+		try {
+
+			knownAnswer("AES-128", new AES(), key128, plaintext, ciphertext128);
+			knownAnswer("AES-192", new AES(), key192, plaintext, ciphertext192);
+			knownAnswer("AES-256", new AES(), key256, plaintext, ciphertext256);
+
+			knownAnswer("Table AES-128", new FastAES(), key128, plaintext, ciphertext128);
+			knownAnswer("Table AES-192", new FastAES(), key192, plaintext, ciphertext192);
+			knownAnswer("Table AES-256", new FastAES(), key256, plaintext, ciphertext256);
+
+		}
+		catch (InvalidKeyException | IllegalBlockSizeException | BadPaddingException e) {
+			System.out.println("AES test failed with exception: " + e.getMessage());
+		}
+
+	}
+
+	/*
+	 * Encrypt and decrypt one block and compare against the expected values.
+	 * The block is encrypted twice to make sure the cached key schedule
+	 * is not disturbed by the first operation.
+	 */
+	private static void knownAnswer(String name, BlockCipher cipher, byte[] key,
+						byte[] plaintext, byte[] ciphertext)
+			throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException {
+
+		cipher.setKey(key);
+		byte[] c = cipher.encrypt(plaintext);
+		c = cipher.encrypt(plaintext);
+		if (Arrays.equals(c, ciphertext)) {
+			System.out.println(name + " encryption test passed!");
+		}
+		else {
+			System.out.println(name + " encryption test failed.");
+		}
+
+		byte[] m = cipher.decrypt(ciphertext);
+		m = cipher.decrypt(ciphertext);
+		if (Arrays.equals(m, plaintext)) {
+			System.out.println(name + " decryption test passed!");
+		}
+		else {
+			System.out.println(name + " decryption test failed.");
+		}
+
+		// In place, at an offset.
+		byte[] buffer = new byte[plaintext.length + 3];
+		System.arraycopy(plaintext, 0, buffer, 3, plaintext.length);
+		cipher.encryptBlock(buffer, 3, buffer, 3);
+		boolean passed = Arrays.equals(Arrays.copyOfRange(buffer, 3, buffer.length), ciphertext);
+		cipher.decryptBlock(buffer, 3, buffer, 3);
+		passed &= Arrays.equals(Arrays.copyOfRange(buffer, 3, buffer.length), plaintext);
+		if (passed) {
+			System.out.println(name + " in place test passed!");
+		}
+		else {
+			System.out.println(name + " in place test failed.");
+		}
+
+	}
+
+}
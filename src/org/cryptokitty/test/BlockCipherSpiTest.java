@@ -0,0 +1,237 @@
+/**
+ *
+ */
+package org.cryptokitty.test;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.cryptokitty.xprovider.CKProvider;
+
+/**
+ * @author Steve Brenneis
+ *
+ * Provider block cipher tests. Key schedules are cached by key object,
+ * so a cached key must not expand its key again, the least recently
+ * used key is evicted when the cache is full, and a different key of
+ * the same length must get its own schedule. Updates in place with the
+ * output shifted from the input must match a separate output buffer.
+ */
+public class BlockCipherSpiTest {
+
+	/*
+	 * Key cache size for the tests.
+	 */
+	private static final int CACHE_SIZE = 4;
+
+	/*
+	 * A key that counts how many times it is encoded. The cipher only
+	 * encodes a key that isn't in its cache.
+	 */
+	private static final class CountingKey implements SecretKey {
+
+		private static final long serialVersionUID = 1L;
+
+		private byte[] encoded;
+		int encodings;
+
+		CountingKey(byte[] encoded) {
+			this.encoded = encoded;
+		}
+
+		@Override
+		public String getAlgorithm() {
+			return "AES";
+		}
+
+		@Override
+		public byte[] getEncoded() {
+			++encodings;
+			return encoded.clone();
+		}
+
+		@Override
+		public String getFormat() {
+			return "RAW";
+		}
+
+	}
+
+	/**
+	 *
+	 */
+	public BlockCipherSpiTest() {
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+
+		// Read when the cipher is created.
+		System.setProperty(CKProvider.KEY_CACHE_SIZE, Integer.toString(CACHE_SIZE));
+
+		try {
+			eviction();
+			differentKeys();
+			for (int shift : new int[] { -16, -5, 0, 5, 16 }) {
+				overlap(Cipher.ENCRYPT_MODE, shift);
+				overlap(Cipher.DECRYPT_MODE, shift);
+			}
+		}
+		catch (GeneralSecurityException e) {
+			System.out.println("Block cipher SPI test failed with exception: " + e.getMessage());
+		}
+
+	}
+
+	/*
+	 * Random bytes.
+	 */
+	private static byte[] random(Random random, int length) {
+
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+
+	}
+
+	/*
+	 * Encrypt or decrypt with the platform's AES.
+	 */
+	private static byte[] reference(int opmode, Key key, byte[] text)
+			throws GeneralSecurityException {
+
+		Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+		cipher.init(opmode, new SecretKeySpec(key.getEncoded(), "AES"));
+		return cipher.doFinal(text);
+
+	}
+
+	/*
+	 * Initialize with a key and check one encryption. Returns true if
+	 * the key was encoded, i.e. it wasn't in the cache.
+	 */
+	private static boolean init(Cipher cipher, CountingKey key, byte[] P, boolean[] correct)
+			throws GeneralSecurityException {
+
+		int encodings = key.encodings;
+		cipher.init(Cipher.ENCRYPT_MODE, key);
+		boolean encoded = key.encodings != encodings;
+		correct[0] &= Arrays.equals(cipher.doFinal(P), reference(Cipher.ENCRYPT_MODE,
+															new SecretKeySpec(key.encoded, "AES"), P));
+		return encoded;
+
+	}
+
+	/*
+	 * Fill the cache, use the oldest key again, then add one more. The
+	 * least recently used key is evicted and has to be expanded again.
+	 * The rest are still cached.
+	 */
+	private static void eviction() throws GeneralSecurityException {
+
+		Random random = new Random(1);
+		byte[] P = random(random, 64);
+		CountingKey[] keys = new CountingKey[CACHE_SIZE + 1];
+		for (int i = 0; i < keys.length; ++i) {
+			keys[i] = new CountingKey(random(random, 16));
+		}
+
+		Cipher cipher = Cipher.getInstance("AES", new CKProvider());
+		boolean[] correct = { true };
+		boolean misses = true;
+		for (int i = 0; i < CACHE_SIZE; ++i) {
+			misses &= init(cipher, keys[i], P, correct);
+		}
+		boolean hit = !init(cipher, keys[0], P, correct);
+
+		// keys[1] is now the least recently used.
+		misses &= init(cipher, keys[CACHE_SIZE], P, correct);
+		boolean evicted = init(cipher, keys[1], P, correct);
+		boolean kept = !init(cipher, keys[0], P, correct)
+						&& !init(cipher, keys[CACHE_SIZE - 1], P, correct)
+						&& !init(cipher, keys[CACHE_SIZE], P, correct);
+
+		TestSupport.check("Key cache first use", misses);
+		TestSupport.check("Key cache hit", hit);
+		TestSupport.check("Key cache eviction", evicted && kept);
+		TestSupport.check("Key cache encryption", correct[0]);
+
+	}
+
+	/*
+	 * Alternate between keys of the same length. Each must encrypt with
+	 * its own schedule, including a new key object with the same bytes
+	 * as a cached one.
+	 */
+	private static void differentKeys() throws GeneralSecurityException {
+
+		Random random = new Random(2);
+		byte[] P = random(random, 64);
+		byte[] bytes = random(random, 32);
+		Key[] keys = { new SecretKeySpec(bytes, "AES"),
+						new SecretKeySpec(random(random, 32), "AES"),
+						new SecretKeySpec(bytes, "AES"),
+						new SecretKeySpec(random(random, 32), "AES") };
+
+		Cipher cipher = Cipher.getInstance("AES", new CKProvider());
+		boolean correct = true;
+		for (int pass = 0; pass < 3; ++pass) {
+			for (Key key : keys) {
+				cipher.init(Cipher.ENCRYPT_MODE, key);
+				correct &= Arrays.equals(cipher.doFinal(P),
+											reference(Cipher.ENCRYPT_MODE, key, P));
+				cipher.init(Cipher.DECRYPT_MODE, key);
+				correct &= Arrays.equals(cipher.doFinal(reference(Cipher.ENCRYPT_MODE, key, P)),
+											P);
+			}
+		}
+		TestSupport.check("Key cache different keys", correct);
+
+	}
+
+	/*
+	 * Update and finish in place in three pieces, with a partial block
+	 * held between the updates and the output shifted from the input.
+	 * Output further ahead than the held bytes would overwrite input of
+	 * the next call, so that is done in one call.
+	 */
+	private static void overlap(int opmode, int shift) throws GeneralSecurityException {
+
+		Random random = new Random(3 + shift);
+		Key key = new SecretKeySpec(random(random, 16), "AES");
+		byte[] text = random(random, 1024);
+		byte[] expected = reference(opmode, key, text);
+
+		Cipher cipher = Cipher.getInstance("AES", new CKProvider());
+		cipher.init(opmode, key);
+
+		int inOff = 40;
+		int outOff = inOff + shift;
+		byte[] buffer = new byte[text.length + 80];
+		System.arraycopy(text, 0, buffer, inOff, text.length);
+		int length = 0;
+		if (shift <= 11) {
+			length += cipher.update(buffer, inOff, 7, buffer, outOff);
+			length += cipher.update(buffer, inOff + 7, 500, buffer, outOff + length);
+			length += cipher.doFinal(buffer, inOff + 507, text.length - 507, buffer,
+										outOff + length);
+		}
+		else {
+			length += cipher.doFinal(buffer, inOff, text.length, buffer, outOff);
+		}
+
+		String name = opmode == Cipher.ENCRYPT_MODE ? "encryption" : "decryption";
+		TestSupport.check("In place " + name + " " + shift, length == text.length && Arrays.equals(
+					Arrays.copyOfRange(buffer, outOff, outOff + length), expected));
+
+	}
+
+}
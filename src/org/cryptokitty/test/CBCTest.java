@@ -0,0 +1,169 @@
+/**
+ * 
+ */
+package org.cryptokitty.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+import org.cryptokitty.xprovider.cipher.BlockCipher;
+import org.cryptokitty.xprovider.cipher.CAST5;
+import org.cryptokitty.xprovider.cipher.FastAES;
+import org.cryptokitty.xprovider.modes.CBC;
+
+/**
+ * @author Steve Brenneis
+ *
+ * CBC known answer tests. The AES vectors are F.2.1 and F.2.5 from
+ * NIST SP 800-38A. Those are unpadded, so the ciphertext is checked up
+ * to the padding block. The CAST5 vector is one block of the RFC 2144
+ * test vector with a zero IV. A long message is also decrypted on the
+ * parallel path, in place and with the output shifted against the input.
+ * Through the provider, the AES and CAST5 ciphers must not reuse the IV
+ * on a key-only init, and must initialize from each other's parameters.
+ */
+public class CBCTest {
+
+	/**
+	 *
+	 */
+	public CBCTest() {
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+
+		TestSupport.parallelWorkers();
+
+		String P = "6bc1bee22e409f96e93d7e117393172aae2d8a571e03ac9c9eb76fac45af8e51"
+					+ "30c81c46a35ce411e5fbc1191a0a52eff69f2445df4f9b17ad2b417be66c3710";
+		String IV = "000102030405060708090a0b0c0d0e0f";
+
+		try {
+
+			knownAnswer("CBC-AES128", new FastAES(), "2b7e151628aed2a6abf7158809cf4f3c", IV, P,
+					"7649abac8119b246cee98e9b12e9197d5086cb9b507219ee95db113a917678b2"
+					+ "73bed6b8e3c1743b7116e69e222295163ff1caa1681fac09120eca307586e1a7");
+
+			knownAnswer("CBC-AES256", new FastAES(),
+					"603deb1015ca71be2b73aef0857d77811f352c073b6108d72d9810a30914dff4", IV, P,
+					"f58c4c04d6e5f1ba779eabfb5f7bfbd69cfc4e967edb808d679f777bc6702c7d"
+					+ "39f23369a9d9bacfa530e26304231461b2eb05e2c39be9fcda6c19078c6a9d1b");
+
+			knownAnswer("CBC-CAST5", new CAST5(), "0123456712345678234567893456789a",
+					"0000000000000000", "0123456789abcdef", "238b4fe5847e44b2");
+
+			CTRTest.reinit("CBC-AES128", "AES/CBC/PKCS5Padding",
+					TestSupport.decode("2b7e151628aed2a6abf7158809cf4f3c"), TestSupport.decode(IV),
+					TestSupport.decode(P));
+			CTRTest.reinit("CBC-CAST5", "CAST5/CBC/PKCS5Padding",
+					TestSupport.decode("0123456712345678234567893456789a"),
+					TestSupport.decode("0001020304050607"), TestSupport.decode(P));
+
+			for (int shift : new int[] { -16, -3, 0 }) {
+				parallelOverlap("CBC-AES128", shift);
+			}
+
+		}
+		catch (GeneralSecurityException | IOException e) {
+			System.out.println("CBC test failed with exception: " + e.getMessage());
+		}
+
+	}
+
+	/*
+	 * Encrypt and check the ciphertext ahead of the padding block, then
+	 * decrypt and check the plaintext. A corrupted padding block must be
+	 * rejected.
+	 */
+	private static void knownAnswer(String name, BlockCipher cipher, String key, String iv,
+						String plaintext, String ciphertext)
+			throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException,
+						IOException {
+
+		CBC cbc = new CBC(cipher);
+		cbc.setKey(TestSupport.decode(key));
+		cbc.setIV(TestSupport.decode(iv));
+
+		byte[] P = TestSupport.decode(plaintext);
+		byte[] expected = TestSupport.decode(ciphertext);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		cbc.encrypt(new ByteArrayInputStream(P), out);
+		byte[] C = out.toByteArray();
+		if (C.length == expected.length + cipher.getBlockSize()
+				&& Arrays.equals(Arrays.copyOf(C, expected.length), expected)) {
+			System.out.println(name + " encryption test passed!");
+		}
+		else {
+			System.out.println(name + " encryption test failed.");
+		}
+
+		out.reset();
+		cbc.decrypt(new ByteArrayInputStream(C), out);
+		if (Arrays.equals(out.toByteArray(), P)) {
+			System.out.println(name + " decryption test passed!");
+		}
+		else {
+			System.out.println(name + " decryption test failed.");
+		}
+
+		C[C.length - cipher.getBlockSize()] ^= 1;
+		try {
+			cbc.decrypt(new ByteArrayInputStream(C), new ByteArrayOutputStream());
+			System.out.println(name + " padding test failed.");
+		}
+		catch (BadPaddingException e) {
+			System.out.println(name + " padding test passed!");
+		}
+
+	}
+
+	/*
+	 * Decrypt about 96 KiB with the parallel threshold lowered to 32 KiB,
+	 * with the output in the same array as the input, shifted by shift
+	 * bytes. Compared with the plaintext. Repeated because a race
+	 * doesn't show every time.
+	 */
+	private static void parallelOverlap(String name, int shift)
+			throws GeneralSecurityException, IOException {
+
+		Random random = new Random(shift);
+		byte[] key = new byte[16];
+		byte[] iv = new byte[16];
+		byte[] P = new byte[(96 * 1024) + 5];
+		random.nextBytes(key);
+		random.nextBytes(iv);
+		random.nextBytes(P);
+
+		final CBC cbc = new CBC(new FastAES());
+		cbc.setKey(key);
+		cbc.setIV(iv);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		cbc.encrypt(new ByteArrayInputStream(P), out);
+		byte[] C = out.toByteArray();
+
+		cbc.setParallelThreshold(32 * 1024);
+		TestSupport.overlap(name + " parallel overlap", shift, C, P, new TestSupport.InPlace() {
+			@Override
+			public int run(byte[] buffer, int inOff, int length, int outOff)
+					throws GeneralSecurityException {
+				cbc.start(false);
+				int written = cbc.update(buffer, inOff, length, buffer, outOff);
+				return written + cbc.finish(buffer, 0, 0, buffer, outOff + written);
+			}
+		});
+
+	}
+
+}
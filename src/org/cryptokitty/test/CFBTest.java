@@ -0,0 +1,174 @@
+/**
+ *
+ */
+package org.cryptokitty.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.cryptokitty.xprovider.CKProvider;
+import org.cryptokitty.xprovider.cipher.FastAES;
+import org.cryptokitty.xprovider.modes.CFB;
+
+/**
+ * @author Steve Brenneis
+ *
+ * AES/CFB known answer test. The vector is F.3.13 from NIST SP 800-38A.
+ * The parallel threshold is lowered so long messages are decrypted in
+ * several parallel windows. Those are checked against the platform's
+ * AES/CFB, including a last window that is only partly full. Through
+ * the provider, the IV rules are the same as for the other modes.
+ */
+public class CFBTest {
+
+	/*
+	 * Lowered parallel threshold. With four workers the window is 64 KiB.
+	 */
+	private static final int THRESHOLD = 32 * 1024;
+
+	/**
+	 *
+	 */
+	public CFBTest() {
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+
+		// The threshold is read when the mode is constructed.
+		TestSupport.parallelWorkers();
+		System.setProperty(CKProvider.CFB_PARALLEL_THRESHOLD, Integer.toString(THRESHOLD));
+
+		try {
+
+			knownAnswer("CFB128-AES128", "2b7e151628aed2a6abf7158809cf4f3c",
+					"000102030405060708090a0b0c0d0e0f",
+					"6bc1bee22e409f96e93d7e117393172aae2d8a571e03ac9c9eb76fac45af8e51"
+					+ "30c81c46a35ce411e5fbc1191a0a52eff69f2445df4f9b17ad2b417be66c3710",
+					"3b3fd92eb72dad20333449f8e83cfb4ac8a64537a0b3a93fcde3cdad9f1ce58b"
+					+ "26751f67a3cbb140b1808cf187a4f4dfc04b05357c5d1c0eeac4c66f9ff7f2e6");
+
+			String K = "2b7e151628aed2a6abf7158809cf4f3c";
+			String IV = "000102030405060708090a0b0c0d0e0f";
+			CTRTest.reinit("CFB-AES128", "AES/CFB/NoPadding", TestSupport.decode(K),
+					TestSupport.decode(IV),
+					TestSupport.decode("6bc1bee22e409f96e93d7e117393172aae2d8a571e03ac9c9eb76fac45af8e51"));
+			wrongParameters("CFB-AES128", TestSupport.decode(K), TestSupport.decode(IV));
+
+			// Full windows only, a parallel partial window with a partial
+			// block, and a partial window below the threshold.
+			windows("CFB-AES128 full windows", 2 * 64 * 1024);
+			windows("CFB-AES128 parallel partial window", (3 * 64 * 1024) + 40005);
+			windows("CFB-AES128 serial partial window", (2 * 64 * 1024) + 1000);
+
+		}
+		catch (GeneralSecurityException | IOException e) {
+			System.out.println("CFB test failed with exception: " + e.getMessage());
+		}
+
+	}
+
+	/*
+	 * Encrypt and check the ciphertext, then decrypt and check the
+	 * plaintext.
+	 */
+	private static void knownAnswer(String name, String key, String iv, String plaintext,
+						String ciphertext)
+			throws GeneralSecurityException, IOException {
+
+		CFB cfb = new CFB();
+		cfb.setBlockCipher(new FastAES());
+		cfb.setKey(TestSupport.decode(key));
+
+		byte[] P = TestSupport.decode(plaintext);
+		byte[] expected = TestSupport.decode(ciphertext);
+
+		cfb.setIV(TestSupport.decode(iv));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		cfb.encrypt(new ByteArrayInputStream(P), out);
+		if (Arrays.equals(out.toByteArray(), expected)) {
+			System.out.println(name + " encryption test passed!");
+		}
+		else {
+			System.out.println(name + " encryption test failed.");
+		}
+
+		cfb.setIV(TestSupport.decode(iv));
+		out.reset();
+		cfb.decrypt(new ByteArrayInputStream(expected), out);
+		if (Arrays.equals(out.toByteArray(), P)) {
+			System.out.println(name + " decryption test passed!");
+		}
+		else {
+			System.out.println(name + " decryption test failed.");
+		}
+
+	}
+
+	/*
+	 * Parameters that aren't an IV are refused.
+	 */
+	private static void wrongParameters(String name, byte[] key, byte[] iv)
+			throws GeneralSecurityException {
+
+		Cipher cipher = Cipher.getInstance("AES/CFB/NoPadding", new CKProvider());
+		try {
+			cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"),
+						new GCMParameterSpec(128, iv));
+			System.out.println(name + " wrong parameters test failed.");
+		}
+		catch (InvalidAlgorithmParameterException e) {
+			System.out.println(name + " wrong parameters test passed!");
+		}
+
+	}
+
+	/*
+	 * Encrypt a message of the given length with the platform's AES/CFB
+	 * and decrypt it in windows on the parallel path. The feedback
+	 * register must carry over from one window to the next.
+	 */
+	private static void windows(String name, int length)
+			throws GeneralSecurityException, IOException {
+
+		Random random = new Random(length);
+		byte[] key = new byte[16];
+		byte[] iv = new byte[16];
+		byte[] P = new byte[length];
+		random.nextBytes(key);
+		random.nextBytes(iv);
+		random.nextBytes(P);
+
+		Cipher reference = Cipher.getInstance("AES/CFB/NoPadding");
+		reference.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"),
+						new IvParameterSpec(iv));
+		byte[] C = reference.doFinal(P);
+
+		CFB cfb = new CFB();
+		cfb.setBlockCipher(new FastAES());
+		cfb.setKey(key);
+		cfb.setIV(iv);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		cfb.decrypt(new ByteArrayInputStream(C), out);
+		if (Arrays.equals(out.toByteArray(), P)) {
+			System.out.println(name + " decryption test passed!");
+		}
+		else {
+			System.out.println(name + " decryption test failed.");
+		}
+
+	}
+
+}
@@ -0,0 +1,186 @@
+/**
+ * 
+ */
+package org.cryptokitty.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.cryptokitty.xprovider.CKProvider;
+import org.cryptokitty.xprovider.cipher.FastAES;
+import org.cryptokitty.xprovider.modes.CTR;
+
+/**
+ * @author Steve Brenneis
+ *
+ * AES/CTR known answer tests. Vectors are F.5.1 and F.5.5 from
+ * NIST SP 800-38A. A message large enough for the parallel path is
+ * also encrypted in place with the output shifted against the input.
+ * Through the provider, initializing again with only a key must not
+ * reuse the IV, and the parameters of one cipher must initialize another.
+ */
+public class CTRTest {
+
+	/**
+	 *
+	 */
+	public CTRTest() {
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+
+		TestSupport.parallelWorkers();
+
+		String P = "6bc1bee22e409f96e93d7e117393172aae2d8a571e03ac9c9eb76fac45af8e51"
+					+ "30c81c46a35ce411e5fbc1191a0a52eff69f2445df4f9b17ad2b417be66c3710";
+		String IV = "f0f1f2f3f4f5f6f7f8f9fafbfcfdfeff";
+
+		try {
+
+			knownAnswer("CTR-AES128", "2b7e151628aed2a6abf7158809cf4f3c", IV, P,
+					"874d6191b620e3261bef6864990db6ce9806f66b7970fdff8617187bb9fffdff"
+					+ "5ae4df3edbd5d35e5b4f09020db03eab1e031dda2fbe03d1792170a0f3009cee");
+
+			knownAnswer("CTR-AES256",
+					"603deb1015ca71be2b73aef0857d77811f352c073b6108d72d9810a30914dff4", IV, P,
+					"601ec313775789a5b7a7f504bbf3d228f443e3ca4d62b59aca84e990cacaf5c5"
+					+ "2b0930daa23de94ce87017ba2d84988ddfc9c58db67aada613c2dd08457941a6");
+
+			reinit("CTR-AES128", "AES/CTR/NoPadding",
+					TestSupport.decode("2b7e151628aed2a6abf7158809cf4f3c"), TestSupport.decode(IV),
+					TestSupport.decode(P));
+
+			for (int shift : new int[] { -16, -3, 3, 16 }) {
+				overlap("CTR-AES128", shift);
+			}
+
+		}
+		catch (GeneralSecurityException | IOException e) {
+			System.out.println("CTR test failed with exception: " + e.getMessage());
+		}
+
+	}
+
+	/*
+	 * Encrypt and check the ciphertext, then decrypt a range from the
+	 * middle of the ciphertext after a seek.
+	 */
+	private static void knownAnswer(String name, String key, String iv, String plaintext,
+						String ciphertext)
+			throws GeneralSecurityException, IOException {
+
+		CTR ctr = new CTR(new FastAES());
+		ctr.setKey(TestSupport.decode(key));
+		ctr.setIV(TestSupport.decode(iv));
+
+		byte[] P = TestSupport.decode(plaintext);
+		byte[] expected = TestSupport.decode(ciphertext);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ctr.encrypt(new ByteArrayInputStream(P), out);
+		if (Arrays.equals(out.toByteArray(), expected)) {
+			System.out.println(name + " encryption test passed!");
+		}
+		else {
+			System.out.println(name + " encryption test failed.");
+		}
+
+		byte[] range = new byte[27];
+		ctr.seek(21);
+		ctr.update(expected, 21, range.length, range, 0);
+		if (Arrays.equals(range, Arrays.copyOfRange(P, 21, 21 + range.length))) {
+			System.out.println(name + " seek test passed!");
+		}
+		else {
+			System.out.println(name + " seek test failed.");
+		}
+
+	}
+
+	/*
+	 * Encrypt with an IV, then initialize again with only the key. The
+	 * second encryption must get a new IV. Decryption needs the IV. The
+	 * parameters of the encrypting cipher, also after encoding and
+	 * decoding, initialize the decrypting one.
+	 */
+	static void reinit(String name, String transformation, byte[] keyBytes, byte[] iv, byte[] P)
+			throws GeneralSecurityException, IOException {
+
+		SecretKeySpec key = new SecretKeySpec(keyBytes, transformation.split("/")[0]);
+		Cipher enc = Cipher.getInstance(transformation, new CKProvider());
+		enc.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv));
+		byte[] C = enc.doFinal(P);
+		AlgorithmParameters params = enc.getParameters();
+		TestSupport.check(name + " parameters from IV", params != null && Arrays.equals(
+					params.getParameterSpec(IvParameterSpec.class).getIV(), iv));
+
+		enc.init(Cipher.ENCRYPT_MODE, key);
+		byte[] C2 = enc.doFinal(P);
+		TestSupport.check(name + " key only IV", !Arrays.equals(enc.getIV(), iv)
+					&& !Arrays.equals(C2, C));
+
+		Cipher dec = Cipher.getInstance(transformation, new CKProvider());
+		try {
+			dec.init(Cipher.DECRYPT_MODE, key);
+			TestSupport.check(name + " key only decryption", false);
+		}
+		catch (InvalidKeyException e) {
+			TestSupport.check(name + " key only decryption", true);
+		}
+
+		dec.init(Cipher.DECRYPT_MODE, key, enc.getParameters());
+		boolean second = Arrays.equals(dec.doFinal(C2), P);
+		AlgorithmParameters decoded = AlgorithmParameters.getInstance(params.getAlgorithm(),
+																		new CKProvider());
+		decoded.init(params.getEncoded());
+		dec.init(Cipher.DECRYPT_MODE, key, decoded);
+		TestSupport.check(name + " parameters", second && Arrays.equals(dec.doFinal(C), P));
+
+	}
+
+	/*
+	 * Encrypt 256 KiB in one update on the parallel path, with the
+	 * output in the same array shifted by shift bytes, and compare with
+	 * a separate output. Repeated because a race doesn't show every time.
+	 */
+	private static void overlap(String name, int shift) throws GeneralSecurityException {
+
+		Random random = new Random(shift);
+		byte[] key = new byte[16];
+		byte[] iv = new byte[16];
+		byte[] P = new byte[256 * 1024];
+		random.nextBytes(key);
+		random.nextBytes(iv);
+		random.nextBytes(P);
+
+		final SecretKeySpec keySpec = new SecretKeySpec(key, "AES");
+		final IvParameterSpec ivSpec = new IvParameterSpec(iv);
+		final Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding", new CKProvider());
+		cipher.init(Cipher.ENCRYPT_MODE, keySpec, ivSpec);
+		byte[] expected = cipher.doFinal(P);
+
+		TestSupport.overlap(name + " overlap", shift, P, expected, new TestSupport.InPlace() {
+			@Override
+			public int run(byte[] buffer, int inOff, int length, int outOff)
+					throws GeneralSecurityException {
+				cipher.init(Cipher.ENCRYPT_MODE, keySpec, ivSpec);
+				return cipher.doFinal(buffer, inOff, length, buffer, outOff);
+			}
+		});
+
+	}
+
+}
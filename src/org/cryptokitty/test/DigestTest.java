@@ -3,14 +3,23 @@
  */
 package org.cryptokitty.test;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 
+import org.cryptokitty.digest.BLAKE2b;
+import org.cryptokitty.digest.BLAKE3;
+import org.cryptokitty.digest.Digest;
 import org.cryptokitty.digest.MD5;
+import org.cryptokitty.digest.MultiSHA256;
 import org.cryptokitty.digest.SHA1;
 import org.cryptokitty.digest.SHA224;
 import org.cryptokitty.digest.SHA256;
 import org.cryptokitty.digest.SHA384;
 import org.cryptokitty.digest.SHA512;
+import org.cryptokitty.xprovider.CKProvider;
 import org.cryptokitty.xprovider.digest.CKRIPEMD160;
 
 /**
@@ -135,6 +144,22 @@ public class DigestTest {
 				0x61, 0x28, 0x08, (byte)0x97, 0x7e, (byte)0xe8, (byte)0xf5, 0x48, (byte)0xb2, 0x25,
 				(byte)0x8d, 0x31 };
 
+		byte[] abcAnswerBLAKE2b =
+			{ (byte)0xba, (byte)0x80, (byte)0xa5, 0x3f, (byte)0x98, 0x1c, 0x4d, 0x0d, 0x6a,
+				0x27, (byte)0x97, (byte)0xb6, (byte)0x9f, 0x12, (byte)0xf6, (byte)0xe9, 0x4c,
+				0x21, 0x2f, 0x14, 0x68, 0x5a, (byte)0xc4, (byte)0xb7, 0x4b, 0x12, (byte)0xbb,
+				0x6f, (byte)0xdb, (byte)0xff, (byte)0xa2, (byte)0xd1, 0x7d, (byte)0x87, (byte)0xc5,
+				0x39, 0x2a, (byte)0xab, 0x79, 0x2d, (byte)0xc2, 0x52, (byte)0xd5, (byte)0xde,
+				0x45, 0x33, (byte)0xcc, (byte)0x95, 0x18, (byte)0xd3, (byte)0x8a, (byte)0xa8,
+				(byte)0xdb, (byte)0xf1, (byte)0x92, 0x5a, (byte)0xb9, 0x23, (byte)0x86, (byte)0xed,
+				(byte)0xd4, 0x00, (byte)0x99, 0x23 };
+
+		byte[] abcAnswerBLAKE3 =
+			{ 0x64, 0x37, (byte)0xb3, (byte)0xac, 0x38, 0x46, 0x51, 0x33, (byte)0xff, (byte)0xb6,
+				0x3b, 0x75, 0x27, 0x3a, (byte)0x8d, (byte)0xb5, 0x48, (byte)0xc5, 0x58, 0x46,
+				0x5d, 0x79, (byte)0xdb, 0x03, (byte)0xfd, 0x35, (byte)0x9c, 0x6c, (byte)0xd5,
+				(byte)0xbd, (byte)0x9d, (byte)0x85 };
+
 		SHA256 sha256 = new SHA256();
 		byte[] digestSHA256 = sha256.digest("".getBytes());
 		if (Arrays.equals(digestSHA256, emptyAnswerSHA256)) {
@@ -171,6 +196,37 @@ public class DigestTest {
 			System.out.println("SHA256 million test failed!");
 		}
 
+		// Every padding case, with more messages than lanes.
+		byte[][] messages = new byte[300][];
+		for (int i = 0; i < messages.length; ++i) {
+			messages[i] = new byte[i];
+			Arrays.fill(messages[i], (byte)i);
+		}
+		byte[][] digests = new MultiSHA256(5).digest(messages);
+		boolean multiPassed = true;
+		for (int i = 0; i < messages.length; ++i) {
+			multiPassed &= Arrays.equals(digests[i], sha256.digest(messages[i]));
+		}
+		if (multiPassed) {
+			System.out.println("MultiSHA256 test passed!");
+		}
+		else {
+			System.out.println("MultiSHA256 test failed!");
+		}
+
+		// Export part way through and continue in another instance.
+		sha256.update(paddingMessage, 0, 20);
+		SHA256 resumed = new SHA256();
+		resumed.importState(sha256.exportState());
+		sha256.reset();
+		resumed.update(paddingMessage, 20, paddingMessage.length - 20);
+		if (Arrays.equals(resumed.digest(), paddingAnswerSHA256)) {
+			System.out.println("SHA256 resume test passed!");
+		}
+		else {
+			System.out.println("SHA256 resume test failed!");
+		}
+
 		SHA512 sha512 = new SHA512();
 		byte[] digestSHA512 = sha512.digest("".getBytes());
 		if (Arrays.equals(digestSHA512, emptyAnswerSHA512)) {
@@ -273,6 +329,124 @@ public class DigestTest {
 			System.out.println("RIPEMD160 'abc' test failed!");
 		}
 
+		BLAKE2b blake2b = new BLAKE2b();
+		if (Arrays.equals(blake2b.digest(abcMessage), abcAnswerBLAKE2b)) {
+			System.out.println("BLAKE2b 'abc' test passed!");
+		}
+		else {
+			System.out.println("BLAKE2b 'abc' test failed!");
+		}
+
+		BLAKE3 blake3 = new BLAKE3();
+		if (Arrays.equals(blake3.digest(abcMessage), abcAnswerBLAKE3)) {
+			System.out.println("BLAKE3 'abc' test passed!");
+		}
+		else {
+			System.out.println("BLAKE3 'abc' test failed!");
+		}
+
+		// Long enough for the parallel mode to hash subtrees, with an
+		// odd tail.
+		byte[] longMessage = new byte[(1024 * 1024) + 1000];
+		for (int i = 0; i < longMessage.length; ++i) {
+			longMessage[i] = (byte)(i % 251);
+		}
+		if (Arrays.equals(new BLAKE3(true).digest(longMessage), blake3.digest(longMessage))) {
+			System.out.println("BLAKE3 parallel test passed!");
+		}
+		else {
+			System.out.println("BLAKE3 parallel test failed!");
+		}
+
+		// Buffer updates must hash the same bytes as array updates.
+		byte[] bufferMessage = Arrays.copyOf(longMessage, 1000);
+		buffers("MD5", new MD5(), bufferMessage);
+		buffers("SHA-1", new SHA1(), bufferMessage);
+		buffers("SHA224", new SHA224(), bufferMessage);
+		buffers("SHA256", new SHA256(), bufferMessage);
+		buffers("SHA384", new SHA384(), bufferMessage);
+		buffers("SHA512", new SHA512(), bufferMessage);
+		buffers("RIPEMD160", new CKRIPEMD160(), bufferMessage);
+		buffers("BLAKE2b", new BLAKE2b(), bufferMessage);
+		buffers("BLAKE3", new BLAKE3(), bufferMessage);
+
+		String[] algorithms = { "MD5", "SHA-1", "SHA-224", "SHA-256", "SHA-384", "SHA-512",
+								"RIPEMD-160", "BLAKE2B-512", "BLAKE3-256" };
+		try {
+			for (String algorithm : algorithms) {
+				MessageDigest md = MessageDigest.getInstance(algorithm, new CKProvider());
+				byte[] expected = md.digest(bufferMessage);
+				for (ByteBuffer buffer : buffers(bufferMessage)) {
+					md.update(bufferMessage, 0, 5);
+					md.update(buffer);
+					checkBuffer(algorithm + " provider", buffer, md.digest(), expected);
+				}
+			}
+		}
+		catch (NoSuchAlgorithmException e) {
+			System.out.println("Provider buffer test failed with exception: " + e.getMessage());
+		}
+
+	}
+
+	/*
+	 * The message after its first five bytes in a heap buffer, a direct
+	 * buffer and a read-only buffer. Each starts at a non-zero position
+	 * and the heap buffers have a non-zero array offset. The direct
+	 * buffer is little endian, which the digest must leave alone.
+	 */
+	private static ByteBuffer[] buffers(byte[] message) {
+
+		int length = message.length - 5;
+		byte[] backing = new byte[length + 48];
+		System.arraycopy(message, 5, backing, 32, length);
+		ByteBuffer wrapped = ByteBuffer.wrap(backing, 16, length + 16);
+		ByteBuffer heap = wrapped.slice();
+		heap.position(16);
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(length + 32).order(ByteOrder.LITTLE_ENDIAN);
+		direct.position(17);
+		direct.put(message, 5, length);
+		direct.position(17);
+		direct.limit(17 + length);
+
+		ByteBuffer readOnly = heap.asReadOnlyBuffer();
+
+		return new ByteBuffer[] { heap, direct, readOnly };
+
+	}
+
+	/*
+	 * Hash the message after a five byte array update, once from each
+	 * kind of buffer, and compare with the array digest.
+	 */
+	private static void buffers(String name, Digest digest, byte[] message) {
+
+		byte[] expected = digest.digest(message);
+		for (ByteBuffer buffer : buffers(message)) {
+			digest.update(message, 0, 5);
+			digest.update(buffer);
+			checkBuffer(name, buffer, digest.digest(), expected);
+		}
+
+	}
+
+	/*
+	 * Check a buffer digest. The buffer must be consumed and keep its
+	 * byte order.
+	 */
+	private static void checkBuffer(String name, ByteBuffer buffer, byte[] digest,
+										byte[] expected) {
+
+		String kind = buffer.isDirect() ? "direct" : buffer.isReadOnly() ? "read-only" : "heap";
+		ByteOrder order = buffer.isDirect() ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		if (Arrays.equals(digest, expected) && !buffer.hasRemaining() && buffer.order() == order) {
+			System.out.println(name + " " + kind + " buffer test passed!");
+		}
+		else {
+			System.out.println(name + " " + kind + " buffer test failed!");
+		}
+
 	}
 
 }
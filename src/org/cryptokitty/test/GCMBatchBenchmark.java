@@ -0,0 +1,183 @@
+/**
+ *
+ */
+package org.cryptokitty.test;
+
+import java.util.Random;
+
+import org.cryptokitty.cipher.AES;
+import org.cryptokitty.exceptions.AuthenticationException;
+import org.cryptokitty.exceptions.BadParameterException;
+import org.cryptokitty.exceptions.IllegalBlockSizeException;
+import org.cryptokitty.exceptions.IllegalStateException;
+import org.cryptokitty.exceptions.InvalidKeyException;
+import org.cryptokitty.modes.GCM;
+
+/**
+ * @author Steve Brenneis
+ *
+ * Per record cost of the native GCM for small records, sealed one call
+ * at a time and in batches of increasing size. The per record time
+ * should fall as the batch grows and the JNI transitions are shared. A
+ * number of warmup passes are run before the timed passes so the JIT
+ * has settled.
+ */
+public class GCMBatchBenchmark {
+
+	/*
+	 * Record sizes and batch sizes.
+	 */
+	private static final int[] RECORD_SIZES = { 64, 256, 512 };
+	private static final int[] BATCH_SIZES = { 1, 4, 16, 64, 256 };
+
+	/*
+	 * Records sealed per pass.
+	 */
+	private static final int RECORDS = 16384;
+
+	/*
+	 * Untimed and timed passes.
+	 */
+	private static final int WARMUP = 5;
+	private static final int ITERATIONS = 10;
+
+	/**
+	 *
+	 */
+	public GCMBatchBenchmark() {
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+
+		byte[] key = new byte[AES.AES128];
+		Random random = new Random(0);
+		random.nextBytes(key);
+
+		try {
+			GCM gcm = new GCM(new AES(AES.AES128), true);
+			gcm.setKey(key);
+
+			for (int size : RECORD_SIZES) {
+				byte[] records = new byte[RECORDS * size];
+				random.nextBytes(records);
+				byte[] sealed = new byte[RECORDS * (size + 16)];
+				byte[][] ivs = new byte[RECORDS][12];
+				byte[][] aads = new byte[RECORDS][13];
+				for (int i = 0; i < RECORDS; ++i) {
+					random.nextBytes(ivs[i]);
+					random.nextBytes(aads[i]);
+				}
+
+				runSingle(size, gcm, ivs, aads, records);
+				for (int batch : BATCH_SIZES) {
+					runBatch(size, batch, gcm, ivs, aads, records, sealed);
+				}
+			}
+		}
+		catch (InvalidKeyException | IllegalBlockSizeException | BadParameterException
+					| IllegalStateException | AuthenticationException e) {
+			System.out.println("GCM batch benchmark failed with exception: " + e.getMessage());
+		}
+
+	}
+
+	/*
+	 * One pass sealing the records in batches.
+	 */
+	private static void passBatch(int size, int batch, GCM gcm, byte[][] ivs, byte[][] aads,
+						byte[] records, byte[] sealed)
+			throws BadParameterException, IllegalStateException, AuthenticationException {
+
+		byte[][] batchIvs = new byte[batch][];
+		byte[][] batchAads = new byte[batch][];
+		int[] offsets = new int[batch];
+		int[] lengths = new int[batch];
+		int[] outOffsets = new int[batch];
+		for (int first = 0; first < RECORDS; first += batch) {
+			for (int i = 0; i < batch; ++i) {
+				batchIvs[i] = ivs[first + i];
+				batchAads[i] = aads[first + i];
+				offsets[i] = (first + i) * size;
+				lengths[i] = size;
+				outOffsets[i] = (first + i) * (size + 16);
+			}
+			int[] status = gcm.seal(batchIvs, batchAads, records, offsets, lengths, sealed,
+										outOffsets);
+			for (int i = 0; i < batch; ++i) {
+				if (status[i] < 0) {
+					throw new AuthenticationException("Batch seal failed with status " + status[i]);
+				}
+			}
+		}
+
+	}
+
+	/*
+	 * One pass sealing the records one call at a time.
+	 */
+	private static void passSingle(int size, GCM gcm, byte[][] ivs, byte[][] aads,
+						byte[] records) throws BadParameterException, IllegalStateException {
+
+		byte[] record = new byte[size];
+		for (int i = 0; i < RECORDS; ++i) {
+			System.arraycopy(records, i * size, record, 0, size);
+			gcm.setIV(ivs[i]);
+			gcm.setAuthenticationData(aads[i]);
+			gcm.encrypt(record);
+		}
+
+	}
+
+	/*
+	 * Report nanoseconds per record.
+	 */
+	private static void report(String name, long elapsed) {
+
+		double perRecord = (double)elapsed / ((long)ITERATIONS * RECORDS);
+		System.out.println(String.format("%s: %.0f ns/record", name, perRecord));
+
+	}
+
+	/*
+	 * Time batched passes and report the cost per record.
+	 */
+	private static void runBatch(int size, int batch, GCM gcm, byte[][] ivs, byte[][] aads,
+						byte[] records, byte[] sealed)
+			throws BadParameterException, IllegalStateException, AuthenticationException {
+
+		for (int i = 0; i < WARMUP; ++i) {
+			passBatch(size, batch, gcm, ivs, aads, records, sealed);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; ++i) {
+			passBatch(size, batch, gcm, ivs, aads, records, sealed);
+		}
+		report(String.format("%d byte records, batches of %d", size, batch),
+										System.nanoTime() - start);
+
+	}
+
+	/*
+	 * Time single call passes and report the cost per record.
+	 */
+	private static void runSingle(int size, GCM gcm, byte[][] ivs, byte[][] aads,
+						byte[] records) throws BadParameterException, IllegalStateException {
+
+		for (int i = 0; i < WARMUP; ++i) {
+			passSingle(size, gcm, ivs, aads, records);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; ++i) {
+			passSingle(size, gcm, ivs, aads, records);
+		}
+		report(String.format("%d byte records, single calls", size),
+										System.nanoTime() - start);
+
+	}
+
+}
@@ -0,0 +1,272 @@
+/**
+ *
+ */
+package org.cryptokitty.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.cryptokitty.xprovider.CKProvider;
+import org.cryptokitty.xprovider.cipher.FastAES;
+import org.cryptokitty.xprovider.modes.GCM;
+
+/**
+ * @author Steve Brenneis
+ *
+ * AES/GCM known answer tests. Vectors are test cases 2, 3, 4 and 6
+ * from the GCM specification (McGrew and Viega). Through the provider,
+ * an encryption can't be repeated with the same key and IV. Long runs
+ * on the parallel path must match the serial output, including when
+ * the output overlaps the input.
+ */
+public class GCMTest {
+
+	/**
+	 *
+	 */
+	public GCMTest() {
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+
+		TestSupport.parallelWorkers();
+
+		String K3 = "feffe9928665731c6d6a8f9467308308";
+		String P3 = "d9313225f88406e5a55909c5aff5269a86a7a9531534f7da2e4c303d8a318a72"
+					+ "1c3c0c95956809532fcf0e2449a6b525b16aedf5aa0de657ba637b391aafd255";
+		String P4 = P3.substring(0, 120);
+		String A4 = "feedfacedeadbeeffeedfacedeadbeefabaddad2";
+
+		try {
+
+			knownAnswer("GCM test case 2", "00000000000000000000000000000000",
+					"000000000000000000000000", "", "00000000000000000000000000000000",
+					"0388dace60b6a392f328c2b971b2fe78", "ab6e47d42cec13bdf53a67b21257bddf");
+
+			knownAnswer("GCM test case 3", K3, "cafebabefacedbaddecaf888", "", P3,
+					"42831ec2217774244b7221b784d0d49ce3aa212f2c02a4e035c17e2329aca12e"
+					+ "21d514b25466931c7d8f6a5aac84aa051ba30b396a0aac973d58e091473f5985",
+					"4d5c2af327cd64a62cf35abd2ba6fab4");
+
+			knownAnswer("GCM test case 4", K3, "cafebabefacedbaddecaf888", A4, P4,
+					"42831ec2217774244b7221b784d0d49ce3aa212f2c02a4e035c17e2329aca12e"
+					+ "21d514b25466931c7d8f6a5aac84aa051ba30b396a0aac973d58e091",
+					"5bc94fbc3221a5db94fae95ae7121a47");
+
+			knownAnswer("GCM test case 6", K3,
+					"9313225df88406e555909c5aff5269aa6a7a9538534f7da1e4c303d2a318a728"
+					+ "c3c0c95156809539fcf0e2429a6b525416aedbf5a0de6a57a637b39b", A4, P4,
+					"8ce24998625615b603a033aca13fb894be9112a5c3a211a8ba262a3cca7e2ca7"
+					+ "01e4a9a4fba43c90ccdcb281d48c7c6fd62875d2aca417034c34aee5",
+					"619cc5aefffe0bfa462af43c1699d050");
+
+			nonceReuse("GCM", "AES/GCM/NoPadding", TestSupport.decode(K3),
+					TestSupport.decode("cafebabefacedbaddecaf888"), TestSupport.decode(P3));
+
+			parallel("GCM", -16);
+			parallel("GCM", -3);
+			parallel("GCM", 0);
+
+		}
+		catch (GeneralSecurityException | IOException e) {
+			System.out.println("GCM test failed with exception: " + e.getMessage());
+		}
+
+	}
+
+	/*
+	 * Encrypt and check the ciphertext and tag, then decrypt and check
+	 * the plaintext. A corrupted tag must be rejected.
+	 */
+	private static void knownAnswer(String name, String key, String iv, String aad,
+						String plaintext, String ciphertext, String tag)
+			throws InvalidKeyException, IllegalBlockSizeException, BadPaddingException,
+						IOException {
+
+		GCM gcm = new GCM(new FastAES());
+		gcm.setKey(TestSupport.decode(key));
+		gcm.setIV(TestSupport.decode(iv));
+		gcm.setAuthenticationData(TestSupport.decode(aad));
+
+		byte[] P = TestSupport.decode(plaintext);
+		byte[] expected = TestSupport.decode(ciphertext + tag);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		gcm.encrypt(new ByteArrayInputStream(P), out);
+		byte[] C = out.toByteArray();
+		if (Arrays.equals(C, expected)) {
+			System.out.println(name + " encryption test passed!");
+		}
+		else {
+			System.out.println(name + " encryption test failed.");
+		}
+
+		out.reset();
+		gcm.decrypt(new ByteArrayInputStream(expected), out);
+		if (Arrays.equals(out.toByteArray(), P)) {
+			System.out.println(name + " decryption test passed!");
+		}
+		else {
+			System.out.println(name + " decryption test failed.");
+		}
+
+		expected[expected.length - 1] ^= 1;
+		try {
+			gcm.decrypt(new ByteArrayInputStream(expected), new ByteArrayOutputStream());
+			System.out.println(name + " tag test failed.");
+		}
+		catch (AEADBadTagException e) {
+			System.out.println(name + " tag test passed!");
+		}
+
+	}
+
+	/*
+	 * Encrypt through the provider, then check that the cipher can't be
+	 * used again until it has a new IV, that the same key and IV are
+	 * refused, and that a key alone gets a fresh IV.
+	 */
+	static void nonceReuse(String name, String transformation, byte[] keyBytes, byte[] iv,
+						byte[] P) throws GeneralSecurityException {
+
+		SecretKeySpec key = new SecretKeySpec(keyBytes, "AES");
+		Cipher cipher = Cipher.getInstance(transformation, new CKProvider());
+		cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+		byte[] C = cipher.doFinal(P);
+
+		try {
+			cipher.doFinal(P);
+			TestSupport.check(name + " repeated doFinal", false);
+		}
+		catch (IllegalStateException e) {
+			TestSupport.check(name + " repeated doFinal", true);
+		}
+		try {
+			cipher.update(P);
+			TestSupport.check(name + " update after doFinal", false);
+		}
+		catch (IllegalStateException e) {
+			TestSupport.check(name + " update after doFinal", true);
+		}
+
+		try {
+			cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(128, iv));
+			TestSupport.check(name + " same key and IV", false);
+		}
+		catch (InvalidAlgorithmParameterException e) {
+			TestSupport.check(name + " same key and IV", true);
+		}
+
+		cipher.init(Cipher.ENCRYPT_MODE, key);
+		byte[] fresh = cipher.getIV();
+		byte[] C2 = cipher.doFinal(P);
+		cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, fresh));
+		TestSupport.check(name + " key only IV", !Arrays.equals(fresh, iv) && !Arrays.equals(C2, C)
+					&& Arrays.equals(cipher.doFinal(C2), P));
+
+		// The parameters of a key-only init carry the generated nonce.
+		cipher.init(Cipher.ENCRYPT_MODE, key);
+		AlgorithmParameters params = cipher.getParameters();
+		GCMParameterSpec spec = params == null ? null
+							: params.getParameterSpec(GCMParameterSpec.class);
+		byte[] C3 = cipher.doFinal(P);
+		boolean decrypted = false;
+		if (spec != null) {
+			AlgorithmParameters decoded = AlgorithmParameters.getInstance("GCM", new CKProvider());
+			try {
+				decoded.init(params.getEncoded());
+			}
+			catch (IOException e) {
+				throw new InvalidAlgorithmParameterException(e.getMessage());
+			}
+			cipher.init(Cipher.DECRYPT_MODE, key, decoded);
+			decrypted = Arrays.equals(cipher.doFinal(C3), P);
+		}
+		TestSupport.check(name + " parameters", spec != null && spec.getTLen() == 128
+					&& Arrays.equals(spec.getIV(), cipher.getIV()) && decrypted);
+
+		try {
+			cipher.init(Cipher.DECRYPT_MODE, key);
+			TestSupport.check(name + " key only decryption", false);
+		}
+		catch (InvalidKeyException e) {
+			TestSupport.check(name + " key only decryption", true);
+		}
+
+		cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(128, iv));
+		byte[] first = cipher.doFinal(C);
+		TestSupport.check(name + " repeated decryption", Arrays.equals(first, P)
+					&& Arrays.equals(cipher.doFinal(C), P));
+
+	}
+
+	/*
+	 * Encrypt in place on the parallel path with the output shifted from
+	 * the input and compare with the serial output. Then decrypt on the
+	 * parallel path, which hashes the ciphertext in chunks.
+	 */
+	private static void parallel(String name, int shift) throws GeneralSecurityException,
+						IOException {
+
+		Random random = new Random(shift);
+		byte[] key = new byte[16];
+		byte[] iv = new byte[12];
+		byte[] aad = new byte[200 * 1024];
+		byte[] P = new byte[(256 * 1024) + 7];
+		random.nextBytes(key);
+		random.nextBytes(iv);
+		random.nextBytes(aad);
+		random.nextBytes(P);
+
+		final GCM gcm = new GCM(new FastAES());
+		gcm.setKey(key);
+		gcm.setIV(iv);
+		gcm.setAuthenticationData(aad);
+		gcm.setParallelThreshold(0);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		gcm.encrypt(new ByteArrayInputStream(P), out);
+		byte[] expected = out.toByteArray();
+
+		gcm.setParallelThreshold(32 * 1024);
+		TestSupport.overlap(name + " parallel encryption", shift, P, expected,
+							new TestSupport.InPlace() {
+			@Override
+			public int run(byte[] buffer, int inOff, int length, int outOff)
+					throws GeneralSecurityException {
+				gcm.start(true);
+				int written = gcm.update(buffer, inOff, length, buffer, outOff);
+				return written + gcm.finish(buffer, 0, 0, buffer, outOff + written);
+			}
+		});
+
+		byte[] plaintext = new byte[P.length];
+		gcm.start(false);
+		int length = gcm.update(expected, 0, expected.length, plaintext, 0);
+		length += gcm.finish(expected, 0, 0, plaintext, length);
+		if (length == P.length && Arrays.equals(plaintext, P)) {
+			System.out.println(name + " parallel decryption " + shift + " test passed!");
+		}
+		else {
+			System.out.println(name + " parallel decryption " + shift + " test failed.");
+		}
+
+	}
+
+}
@@ -0,0 +1,125 @@
+/**
+ *
+ */
+package org.cryptokitty.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.cryptokitty.cipher.AES;
+import org.cryptokitty.exceptions.InvalidKeyException;
+
+/**
+ * @author Steve Brenneis
+ *
+ * Multithreaded throughput of native calls. Every JNI call looks up its
+ * native object in the reference table, so with small blocks the table
+ * is on the critical path. Each thread encrypts single blocks with its
+ * own keyed AES. The throughput should scale with the number of threads
+ * up to the number of cores.
+ */
+public class JNIHandleBenchmark {
+
+	/*
+	 * Thread counts.
+	 */
+	private static final int[] THREADS = { 1, 2, 4, 8, 16, 32 };
+
+	/*
+	 * Calls per thread per pass.
+	 */
+	private static final int CALLS = 200000;
+
+	/*
+	 * Untimed and timed passes.
+	 */
+	private static final int WARMUP = 3;
+	private static final int ITERATIONS = 5;
+
+	/**
+	 *
+	 */
+	public JNIHandleBenchmark() {
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+
+		System.out.println(Runtime.getRuntime().availableProcessors() + " processors");
+		double single = 0;
+		try {
+			for (int threads : THREADS) {
+				double rate = run(threads);
+				if (threads == 1) {
+					single = rate;
+				}
+				System.out.println(String.format("%d threads: %.0f calls/s, %.2fx", threads,
+													rate, rate / single));
+			}
+		}
+		catch (InvalidKeyException | InterruptedException | ExecutionException e) {
+			System.out.println("JNI handle benchmark failed with exception: " + e.getMessage());
+		}
+
+	}
+
+	/*
+	 * Time the passes with the given number of threads. Returns calls
+	 * per second.
+	 */
+	private static double run(int threads)
+			throws InvalidKeyException, InterruptedException, ExecutionException {
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < threads; ++i) {
+			final AES aes = AES.withKey(new byte[AES.AES128]);
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					byte[] block = new byte[16];
+					for (int j = 0; j < CALLS; ++j) {
+						aes.encryptBlock(block, 0, block, 0);
+					}
+					return null;
+				}
+			});
+		}
+
+		try {
+			for (int i = 0; i < WARMUP; ++i) {
+				pass(pool, tasks);
+			}
+			long start = System.nanoTime();
+			for (int i = 0; i < ITERATIONS; ++i) {
+				pass(pool, tasks);
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			return (double)ITERATIONS * threads * CALLS / seconds;
+		}
+		finally {
+			pool.shutdown();
+		}
+
+	}
+
+	/*
+	 * One pass on every thread.
+	 */
+	private static void pass(ExecutorService pool, List<Callable<Void>> tasks)
+			throws InterruptedException, ExecutionException {
+
+		for (Future<Void> result : pool.invokeAll(tasks)) {
+			result.get();
+		}
+
+	}
+
+}
@@ -0,0 +1,94 @@
+/**
+ *
+ */
+package org.cryptokitty.test;
+
+import org.cryptokitty.jni.BigInteger;
+import org.cryptokitty.jni.JNIReference;
+
+/**
+ * @author Steve Brenneis
+ *
+ * Native object lifetime test. Closed integers are freed at once and
+ * closing twice is harmless. Integers that are dropped without closing
+ * are freed by the reaper after they are collected.
+ */
+public class JNIReferenceTest {
+
+	/*
+	 * Integers created per check.
+	 */
+	private static final int COUNT = 100000;
+
+	/**
+	 *
+	 */
+	public JNIReferenceTest() {
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+
+		// ZERO and ONE are created when BigInteger is loaded and stay live.
+		BigInteger.ONE.bitLength();
+		long base = JNIReference.liveCount();
+
+		BigInteger[] integers = new BigInteger[COUNT];
+		for (int i = 0; i < COUNT; ++i) {
+			integers[i] = new BigInteger(i);
+		}
+		check("Live count after create", base + COUNT);
+
+		try (BigInteger sum = integers[0].add(integers[1])) {
+			check("Live count of arithmetic result", base + COUNT + 1);
+			if (sum.compareTo(BigInteger.ONE) == 0) {
+				System.out.println("Arithmetic result passed.");
+			}
+			else {
+				System.out.println("Arithmetic result failed. Expected 1, got " + sum);
+			}
+		}
+		check("Live count after closing result", base + COUNT);
+
+		for (int i = 0; i < COUNT / 2; ++i) {
+			integers[i].close();
+		}
+		check("Live count after close", base + COUNT / 2);
+		integers[0].close();
+		check("Live count after second close", base + COUNT / 2);
+		BigInteger.ZERO.close();
+		check("Live count after closing ZERO", base + COUNT / 2);
+
+		integers = null;
+		long deadline = System.currentTimeMillis() + 10000;
+		while (JNIReference.liveCount() != base && System.currentTimeMillis() < deadline) {
+			System.gc();
+			try {
+				Thread.sleep(10);
+			}
+			catch (InterruptedException e) {
+				break;
+			}
+		}
+		check("Live count after collection", base);
+
+	}
+
+	/*
+	 * Compare the live count with the expected count.
+	 */
+	private static void check(String name, long expected) {
+
+		long live = JNIReference.liveCount();
+		if (live == expected) {
+			System.out.println(name + " passed.");
+		}
+		else {
+			System.out.println(name + " failed. Expected " + expected + ", live " + live);
+		}
+
+	}
+
+}
@@ -0,0 +1,181 @@
+/**
+ *
+ */
+package org.cryptokitty.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.AEADBadTagException;
+
+import org.cryptokitty.xprovider.cipher.FastAES;
+import org.cryptokitty.xprovider.modes.OCB;
+
+/**
+ * @author Steve Brenneis
+ *
+ * AES/OCB known answer tests. Vectors are from RFC 7253, appendix A,
+ * with the samples numbered from one. Through the provider, an
+ * encryption can't be repeated with the same key and nonce. A long
+ * message with long authentication data is checked on the parallel path
+ * against the serial path, with the output shifted against the input.
+ */
+public class OCBTest {
+
+	/**
+	 *
+	 */
+	public OCBTest() {
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+
+		TestSupport.parallelWorkers();
+
+		String K = "000102030405060708090a0b0c0d0e0f";
+		String T3 = "000102030405060708090a0b0c0d0e0f";
+		String T6 = "000102030405060708090a0b0c0d0e0f1011121314151617";
+		String T12 = "000102030405060708090a0b0c0d0e0f1011121314151617"
+					+ "18191a1b1c1d1e1f2021222324252627";
+
+		try {
+
+			knownAnswer("OCB sample 1", K, "bbaa99887766554433221100", "", "", "",
+					"785407bfffc8ad9edcc5520ac9111ee6");
+
+			knownAnswer("OCB sample 2", K, "bbaa99887766554433221101", "0001020304050607",
+					"0001020304050607", "6820b3657b6f615a", "5725bda0d3b4eb3a257c9af1f8f03009");
+
+			knownAnswer("OCB sample 5", K, "bbaa99887766554433221104", T3, T3,
+					"571d535b60b277188be5147170a9a22c", "3ad7a4ff3835b8c5701c1ccec8fc3358");
+
+			knownAnswer("OCB sample 8", K, "bbaa99887766554433221107", T6, T6,
+					"1ca2207308c87c010756104d8840ce1952f09673a448a122",
+					"c92c62241051f57356d7f3c90bb0e07f");
+
+			knownAnswer("OCB sample 14", K, "bbaa9988776655443322110d", T12, T12,
+					"d5ca91748410c1751ff8a2f618255b68a0a12e093ff454606e59f9c1d0ddc54b"
+					+ "65e8628e568bad7a", "ed07ba06a4a69483a7035490c5769e60");
+
+			GCMTest.nonceReuse("OCB", "AES/OCB/NoPadding", TestSupport.decode(K),
+					TestSupport.decode("bbaa9988776655443322110d"), TestSupport.decode(T12));
+
+			for (int shift : new int[] { -16, -3, 0 }) {
+				parallel("OCB", shift);
+			}
+
+		}
+		catch (GeneralSecurityException | IOException e) {
+			System.out.println("OCB test failed with exception: " + e.getMessage());
+		}
+
+	}
+
+	/*
+	 * Encrypt and check the ciphertext and tag, then decrypt and check
+	 * the plaintext. A corrupted tag must be rejected.
+	 */
+	private static void knownAnswer(String name, String key, String iv, String aad,
+						String plaintext, String ciphertext, String tag)
+			throws GeneralSecurityException, IOException {
+
+		OCB ocb = new OCB(new FastAES());
+		ocb.setKey(TestSupport.decode(key));
+		ocb.setIV(TestSupport.decode(iv));
+		ocb.setAuthenticationData(TestSupport.decode(aad));
+
+		byte[] P = TestSupport.decode(plaintext);
+		byte[] expected = TestSupport.decode(ciphertext + tag);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ocb.encrypt(new ByteArrayInputStream(P), out);
+		byte[] C = out.toByteArray();
+		if (Arrays.equals(C, expected)) {
+			System.out.println(name + " encryption test passed!");
+		}
+		else {
+			System.out.println(name + " encryption test failed.");
+		}
+
+		out.reset();
+		ocb.decrypt(new ByteArrayInputStream(expected), out);
+		if (Arrays.equals(out.toByteArray(), P)) {
+			System.out.println(name + " decryption test passed!");
+		}
+		else {
+			System.out.println(name + " decryption test failed.");
+		}
+
+		expected[expected.length - 1] ^= 1;
+		try {
+			ocb.decrypt(new ByteArrayInputStream(expected), new ByteArrayOutputStream());
+			System.out.println(name + " tag test failed.");
+		}
+		catch (AEADBadTagException e) {
+			System.out.println(name + " tag test passed!");
+		}
+
+	}
+
+	/*
+	 * Encrypt about 256 KiB with 200 KiB of authentication data on the
+	 * parallel path, with the output in the same array as the input
+	 * shifted by shift bytes, and compare with the serial path. Then
+	 * decrypt on the parallel path. Repeated because a race doesn't show
+	 * every time.
+	 */
+	private static void parallel(String name, int shift) throws GeneralSecurityException,
+						IOException {
+
+		Random random = new Random(shift);
+		byte[] key = new byte[16];
+		byte[] nonce = new byte[12];
+		byte[] aad = new byte[200 * 1024];
+		byte[] P = new byte[(256 * 1024) + 7];
+		random.nextBytes(key);
+		random.nextBytes(nonce);
+		random.nextBytes(aad);
+		random.nextBytes(P);
+
+		final OCB ocb = new OCB(new FastAES());
+		ocb.setKey(key);
+		ocb.setIV(nonce);
+		ocb.setAuthenticationData(aad);
+		ocb.setParallelThreshold(0);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ocb.encrypt(new ByteArrayInputStream(P), out);
+		byte[] expected = out.toByteArray();
+
+		ocb.setParallelThreshold(32 * 1024);
+		TestSupport.overlap(name + " parallel encryption", shift, P, expected,
+							new TestSupport.InPlace() {
+			@Override
+			public int run(byte[] buffer, int inOff, int length, int outOff)
+					throws GeneralSecurityException {
+				ocb.start(true);
+				int written = ocb.update(buffer, inOff, length, buffer, outOff);
+				return written + ocb.finish(buffer, 0, 0, buffer, outOff + written);
+			}
+		});
+
+		byte[] plaintext = new byte[P.length];
+		ocb.start(false);
+		int length = ocb.update(expected, 0, expected.length, plaintext, 0);
+		length += ocb.finish(expected, 0, 0, plaintext, length);
+		if (length == P.length && Arrays.equals(plaintext, P)) {
+			System.out.println(name + " parallel decryption " + shift + " test passed!");
+		}
+		else {
+			System.out.println(name + " parallel decryption " + shift + " test failed.");
+		}
+
+	}
+
+}
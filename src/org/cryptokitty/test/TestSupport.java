@@ -0,0 +1,110 @@
+/**
+ *
+ */
+package org.cryptokitty.test;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import org.cryptokitty.xprovider.WorkerPool;
+
+/**
+ * @author Steve Brenneis
+ *
+ * Helpers shared by the cipher and digest tests.
+ */
+final class TestSupport {
+
+	/*
+	 * Runs of an overlap test. A race doesn't show every time.
+	 */
+	private static final int RUNS = 20;
+
+	/*
+	 * Input offset of an overlap test. Leaves room for a negative shift.
+	 */
+	private static final int IN_OFFSET = 32;
+
+	/**
+	 * One in place operation of an overlap test.
+	 */
+	interface InPlace {
+
+		/**
+		 * Process length bytes of the buffer at inOff, writing the output
+		 * to the same buffer at outOff. Returns the output length.
+		 */
+		int run(byte[] buffer, int inOff, int length, int outOff)
+				throws GeneralSecurityException;
+
+	}
+
+	/**
+	 * Not instantiated.
+	 */
+	private TestSupport() {
+	}
+
+	/**
+	 * The parallel paths need more than one worker. Must be called before
+	 * the pool is first used.
+	 */
+	static void parallelWorkers() {
+
+		if (System.getProperty(WorkerPool.PARALLELISM) == null) {
+			System.setProperty(WorkerPool.PARALLELISM, "4");
+		}
+
+	}
+
+	/**
+	 * Report a check.
+	 */
+	static void check(String name, boolean passed) {
+
+		System.out.println(name + (passed ? " test passed!" : " test failed."));
+
+	}
+
+	/**
+	 * Decode a hex string.
+	 */
+	static byte[] decode(String hex) {
+
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; ++i) {
+			bytes[i] = (byte)Integer.parseInt(hex.substring(i * 2, (i * 2) + 2), 16);
+		}
+		return bytes;
+
+	}
+
+	/**
+	 * Run an operation with the output in the same array as the input,
+	 * shifted by shift bytes, and compare with the expected output.
+	 */
+	static void overlap(String name, int shift, byte[] input, byte[] expected, InPlace operation)
+			throws GeneralSecurityException {
+
+		int outOff = IN_OFFSET + shift;
+		int failed = 0;
+		for (int run = 0; run < RUNS; ++run) {
+			byte[] buffer = new byte[Math.max(input.length, expected.length) + (2 * IN_OFFSET)];
+			System.arraycopy(input, 0, buffer, IN_OFFSET, input.length);
+			int length = operation.run(buffer, IN_OFFSET, input.length, outOff);
+			if (length != expected.length || !Arrays.equals(
+						Arrays.copyOfRange(buffer, outOff, outOff + length), expected)) {
+				++failed;
+			}
+		}
+		if (failed == 0) {
+			System.out.println(name + " " + shift + " test passed!");
+		}
+		else {
+			System.out.println(name + " " + shift + " test failed " + failed + " of " + RUNS
+								+ ".");
+		}
+
+	}
+
+}
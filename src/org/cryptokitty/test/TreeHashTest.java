@@ -0,0 +1,171 @@
+/**
+ *
+ */
+package org.cryptokitty.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.cryptokitty.digest.SHA256;
+import org.cryptokitty.digest.TreeHash;
+
+/**
+ * @author Steve Brenneis
+ *
+ * Merkle tree hash tests. The known answers are the RFC 6962 roots
+ * for the first 0, 1, 2, 3 and 7 leaves of the Certificate Transparency
+ * test data. A file hashed on the worker pool must match its leaves
+ * hashed one at a time, and a leaf only verifies against an intact tree
+ * and file.
+ */
+public class TreeHashTest {
+
+	/*
+	 * Certificate Transparency test leaves.
+	 */
+	private static final String[] LEAVES = { "", "00", "10", "2021", "3031", "40414243",
+				"5051525354555657", "606162636465666768696a6b6c6d6e6f" };
+
+	/**
+	 *
+	 */
+	public TreeHashTest() {
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+
+		// The leaves are only split across workers with more than one.
+		TestSupport.parallelWorkers();
+
+		knownAnswer("RFC 6962 0 leaves", 0,
+				"e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855");
+		knownAnswer("RFC 6962 1 leaf", 1,
+				"6e340b9cffb37a989ca544e6bb780a2c78901d3fb33738768511a30617afa01d");
+		knownAnswer("RFC 6962 2 leaves", 2,
+				"fac54203e7cc696cf0dfcb42c92a1d9dbaf70ad9e621f4bd8d98662f00e3c125");
+		knownAnswer("RFC 6962 3 leaves", 3,
+				"aeb6bcfe274b70a14fb067a5e5578264db0fa9b51af5e0ba159158f329e06e77");
+		knownAnswer("RFC 6962 7 leaves", 7,
+				"ddb89be403809e325750d3d263cd78929c2942b7942a34b77e122c9594a74c8c");
+
+		File file = null;
+		try {
+			file = File.createTempFile("treehash", ".bin");
+			file.deleteOnExit();
+			fileHash("Empty file", file, 0, 1024);
+			fileHash("Partial last leaf", file, (6 * 1024) + 100, 1024);
+			fileHash("Many leaves", file, (200 * 4096) + 1, 4096);
+			verify("Verify", file, (13 * 1024) + 5, 1024);
+		}
+		catch (IOException e) {
+			System.out.println("Tree hash test failed with exception: " + e.getMessage());
+		}
+		finally {
+			if (file != null) {
+				file.delete();
+			}
+		}
+
+	}
+
+	/*
+	 * Hash one leaf, H(0x00 || leaf).
+	 */
+	private static byte[] leafHash(byte[] data, int offset, int length) {
+
+		SHA256 sha = new SHA256();
+		sha.update((byte)0x00);
+		sha.update(data, offset, length);
+		return sha.digest();
+
+	}
+
+	/*
+	 * Compute the root of the first count test leaves.
+	 */
+	private static void knownAnswer(String name, int count, String root) {
+
+		byte[][] leaves = new byte[count][];
+		for (int i = 0; i < count; ++i) {
+			byte[] leaf = TestSupport.decode(LEAVES[i]);
+			leaves[i] = leafHash(leaf, 0, leaf.length);
+		}
+		TestSupport.check(name, Arrays.equals(new TreeHash(new SHA256()).root(leaves),
+												TestSupport.decode(root)));
+
+	}
+
+	/*
+	 * Write a file of random data and hash it on the worker pool. The
+	 * leaves must match the leaves hashed serially, and the root must
+	 * match the root of those leaves.
+	 */
+	private static TreeHash.Tree fileHash(String name, File file, int size, int leafSize)
+			throws IOException {
+
+		byte[] data = new byte[size];
+		new Random(size).nextBytes(data);
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(data);
+		}
+
+		TreeHash treeHash = new TreeHash(new SHA256(), leafSize);
+		TreeHash.Tree tree = treeHash.hash(file);
+
+		int count = (size + leafSize - 1) / leafSize;
+		byte[][] leaves = new byte[count][];
+		for (int i = 0; i < count; ++i) {
+			int offset = i * leafSize;
+			leaves[i] = leafHash(data, offset, Math.min(leafSize, size - offset));
+		}
+		TestSupport.check(name + " tree hash", tree.getLeafSize() == leafSize
+					&& Arrays.deepEquals(tree.getLeaves(), leaves)
+					&& Arrays.equals(tree.getRoot(), treeHash.root(leaves)));
+		return tree;
+
+	}
+
+	/*
+	 * Every leaf of an intact file verifies. A changed leaf hash in the
+	 * tree or a changed byte in the file is rejected.
+	 */
+	private static void verify(String name, File file, int size, int leafSize)
+			throws IOException {
+
+		TreeHash.Tree tree = fileHash(name, file, size, leafSize);
+		TreeHash treeHash = new TreeHash(new SHA256(), leafSize);
+		byte[][] leaves = tree.getLeaves();
+
+		try (RandomAccessFile in = new RandomAccessFile(file, "rw")) {
+			boolean good = true;
+			for (int i = 0; i < leaves.length; ++i) {
+				good &= treeHash.verify(in.getChannel(), tree, i);
+			}
+			TestSupport.check(name + " good proof", good);
+
+			// The leaf hashes belong to the tree, so restore the change.
+			leaves[3][0] ^= 1;
+			boolean leaf = treeHash.verify(in.getChannel(), tree, 3);
+			boolean sibling = treeHash.verify(in.getChannel(), tree, 4);
+			leaves[3][0] ^= 1;
+			TestSupport.check(name + " tampered leaf hash", !leaf && !sibling);
+
+			in.seek(size - 1);
+			int last = in.read();
+			in.seek(size - 1);
+			in.write(last ^ 1);
+			TestSupport.check(name + " tampered file", !treeHash.verify(in.getChannel(), tree,
+															leaves.length - 1)
+						&& treeHash.verify(in.getChannel(), tree, 0));
+		}
+
+	}
+
+}
@@ -0,0 +1,138 @@
+/**
+ * 
+ */
+package org.cryptokitty.test;
+
+import java.security.InvalidKeyException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.IllegalBlockSizeException;
+
+import org.cryptokitty.xprovider.modes.XTS;
+
+/**
+ * @author Steve Brenneis
+ *
+ * XTS-AES known answer tests. Vectors 2 and 15 from IEEE Std 1619.
+ * Vector 15 has a 17 byte data unit and uses ciphertext stealing.
+ * A run of sectors on the parallel path must match the sectors done one
+ * at a time.
+ */
+public class XTSTest {
+
+	/**
+	 *
+	 */
+	public XTSTest() {
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+
+		TestSupport.parallelWorkers();
+
+		try {
+
+			knownAnswer("XTS-AES-128 vector 2",
+					"1111111111111111111111111111111122222222222222222222222222222222",
+					0x3333333333L,
+					"4444444444444444444444444444444444444444444444444444444444444444",
+					"c454185e6a16936e39334038acef838bfb186fff7480adc4289382ecd6d394f0");
+
+			knownAnswer("XTS-AES-128 vector 15",
+					"fffefdfcfbfaf9f8f7f6f5f4f3f2f1f0bfbebdbcbbbab9b8b7b6b5b4b3b2b1b0",
+					0x123456789aL, "000102030405060708090a0b0c0d0e0f10",
+					"6c1625db4671522d3d7599601de7ca09ed");
+
+			// Not a multiple of the block size, so every sector steals.
+			// The sector numbers carry past the low 32 bits.
+			parallel("XTS-AES-256 parallel", 64, 4100, 0xffffffe0L);
+
+		}
+		catch (InvalidKeyException | IllegalBlockSizeException e) {
+			System.out.println("XTS test failed with exception: " + e.getMessage());
+		}
+
+	}
+
+	/*
+	 * Encrypt one sector and check the ciphertext, then decrypt it in
+	 * place and check the plaintext.
+	 */
+	private static void knownAnswer(String name, String key, long sector, String plaintext,
+						String ciphertext) throws InvalidKeyException, IllegalBlockSizeException {
+
+		byte[] P = TestSupport.decode(plaintext);
+		byte[] expected = TestSupport.decode(ciphertext);
+
+		XTS xts = new XTS(P.length);
+		xts.setKey(TestSupport.decode(key));
+
+		byte[] C = new byte[P.length];
+		xts.encrypt(sector, P, 0, C, 0, P.length);
+		if (Arrays.equals(C, expected)) {
+			System.out.println(name + " encryption test passed!");
+		}
+		else {
+			System.out.println(name + " encryption test failed.");
+		}
+
+		xts.decrypt(sector, C, 0, C, 0, C.length);
+		if (Arrays.equals(C, P)) {
+			System.out.println(name + " decryption test passed!");
+		}
+		else {
+			System.out.println(name + " decryption test failed.");
+		}
+
+	}
+
+	/*
+	 * Encrypt a run of sectors in one call on the parallel path and
+	 * compare with each sector encrypted on its own. Then decrypt the
+	 * run in place on the parallel path.
+	 */
+	private static void parallel(String name, int key, int sectorSize, long first)
+			throws InvalidKeyException, IllegalBlockSizeException {
+
+		Random random = new Random(sectorSize);
+		byte[] K = new byte[key];
+		byte[] P = new byte[sectorSize * 64];
+		random.nextBytes(K);
+		random.nextBytes(P);
+
+		XTS serial = new XTS(sectorSize);
+		serial.setKey(K);
+		serial.setParallelThreshold(0);
+		byte[] expected = new byte[P.length];
+		for (int offset = 0; offset < P.length; offset += sectorSize) {
+			serial.encrypt(first + (offset / sectorSize), P, offset, expected, offset,
+							sectorSize);
+		}
+
+		XTS xts = new XTS(sectorSize);
+		xts.setKey(K);
+		xts.setParallelThreshold(64 * 1024);
+		byte[] C = new byte[P.length];
+		xts.encrypt(first, P, 0, C, 0, P.length);
+		if (Arrays.equals(C, expected)) {
+			System.out.println(name + " encryption test passed!");
+		}
+		else {
+			System.out.println(name + " encryption test failed.");
+		}
+
+		xts.decrypt(first, C, 0, C, 0, C.length);
+		if (Arrays.equals(C, P)) {
+			System.out.println(name + " decryption test passed!");
+		}
+		else {
+			System.out.println(name + " decryption test failed.");
+		}
+
+	}
+
+}
@@ -4,12 +4,13 @@
 package org.cryptokitty.tls;
 
 import org.cryptokitty.exceptions.TLSException;
+import org.cryptokitty.jni.JNIReference;
 
 /**
  * @author stevebrenneis
  *
  */
-public class TLSCredentials {
+public class TLSCredentials implements AutoCloseable {
 
 	/**
 	 * Load the CryptoKitty-C binary.
@@ -37,10 +38,19 @@ public class TLSCredentials {
 	 */
 	private long jniImpl;
 
+	/**
+	 * Frees the native object on close or after collection.
+	 */
+	private final JNIReference reference;
+
 	/**
 	 * Must be created via the allocate method.
 	 */
-	protected TLSCredentials() {
+	private TLSCredentials(long jniImpl) {
+
+		this.jniImpl = jniImpl;
+		reference = JNIReference.register(this, jniImpl);
+
 	}
 
 	/**
@@ -51,18 +61,13 @@ public class TLSCredentials {
 	public static native TLSCredentials allocate();
 
 	/**
-	 * Free JNI resources.
-	 */
-	private native void dispose();
-
-	/*
-	 * (non-Javadoc)
-	 * @see java.lang.Object#finalize()
+	 * Free the native object now instead of when this is collected. This
+	 * can't be used after it is closed.
 	 */
 	@Override
-	public void finalize() throws Throwable {
+	public void close() {
 
-		dispose();
+		reference.close();
 
 	}
 
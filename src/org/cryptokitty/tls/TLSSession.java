@@ -5,12 +5,13 @@ package org.cryptokitty.tls;
 
 import org.cryptokitty.exceptions.TLSException;
 import org.cryptokitty.jni.CKSocket;
+import org.cryptokitty.jni.JNIReference;
 
 /**
  * @author stevebrenneis
  *
  */
-public class TLSSession {
+public class TLSSession implements AutoCloseable {
 
 	/**
 	 * Load the CryptoKitty-C binary.
@@ -25,24 +26,34 @@ public class TLSSession {
 	private long jniImpl;
 
 	/**
-	 * 
+	 * Frees the native object on close or after collection.
 	 */
-	protected TLSSession() {
-	}
+	private final JNIReference reference;
 
 	/**
-	 * Free JNI resources.
+	 * The native session uses the credentials' native object, so the
+	 * credentials are kept reachable for as long as this is.
 	 */
-	private native void dispose();
+	private TLSCredentials credentials;
 
-	/*
-	 * (non-Javadoc)
-	 * @see java.lang.Object#finalize()
+	/**
+	 * Created by initializeClient and initializeServer.
+	 */
+	private TLSSession(long jniImpl) {
+
+		this.jniImpl = jniImpl;
+		reference = JNIReference.register(this, jniImpl);
+
+	}
+
+	/**
+	 * Free the native object now instead of when this is collected. This
+	 * can't be used after it is closed.
 	 */
 	@Override
-	public void finalize() throws Throwable {
+	public void close() {
 
-		dispose();
+		reference.close();
 
 	}
 
@@ -116,7 +127,17 @@ public class TLSSession {
 	 * @param credentials
 	 * @throws TLSException
 	 */
-	public native void setCredentials(TLSCredentials credentials) throws TLSException;
+	public void setCredentials(TLSCredentials credentials) throws TLSException {
+
+		setNativeCredentials(credentials);
+		this.credentials = credentials;
+
+	}
+
+	/**
+	 * Set the credentials on the native session.
+	 */
+	private native void setNativeCredentials(TLSCredentials credentials) throws TLSException;
 
 	/**
 	 * 
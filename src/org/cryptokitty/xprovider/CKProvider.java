@@ -5,6 +5,10 @@ package org.cryptokitty.xprovider;
 
 import java.security.Provider;
 
+import org.cryptokitty.xprovider.cipher.AES;
+import org.cryptokitty.xprovider.cipher.BlockCipher;
+import org.cryptokitty.xprovider.cipher.FastAES;
+
 /**
  * @author stevebrenneis
  *
@@ -20,7 +24,58 @@ public class CKProvider extends Provider {
 	 * 
 	 */
 	private static double VERSION = 0.1;
-	
+
+	/**
+	 * System property that selects the pure Java AES engine used by the
+	 * AES ciphers and modes. "table" selects the T-table engine, which is
+	 * the default. "reference" selects the FIPS 197 reference engine.
+	 */
+	public static final String AES_ENGINE = "org.cryptokitty.aes.engine";
+
+	/**
+	 * System property that sets the size in bytes above which CBC
+	 * decrypts in parallel. The default is 64 KiB.
+	 */
+	public static final String CBC_PARALLEL_THRESHOLD = "org.cryptokitty.cbc.parallel.threshold";
+
+	/**
+	 * System property that sets the size in bytes above which CFB
+	 * decrypts in parallel. The default is 64 KiB.
+	 */
+	public static final String CFB_PARALLEL_THRESHOLD = "org.cryptokitty.cfb.parallel.threshold";
+
+	/**
+	 * System property that sets the size in bytes above which CTR
+	 * generates the key stream in parallel. The default is 64 KiB.
+	 */
+	public static final String CTR_PARALLEL_THRESHOLD = "org.cryptokitty.ctr.parallel.threshold";
+
+	/**
+	 * System property that sets the size in bytes above which GCM
+	 * encrypts and authenticates in parallel. The default is 256 KiB.
+	 */
+	public static final String GCM_PARALLEL_THRESHOLD = "org.cryptokitty.gcm.parallel.threshold";
+
+	/**
+	 * System property that sets the size in bytes above which OCB
+	 * encrypts, decrypts and authenticates in parallel. The default is
+	 * 64 KiB.
+	 */
+	public static final String OCB_PARALLEL_THRESHOLD = "org.cryptokitty.ocb.parallel.threshold";
+
+	/**
+	 * System property that sets the size in bytes above which XTS
+	 * processes sectors in parallel. The default is 64 KiB.
+	 */
+	public static final String XTS_PARALLEL_THRESHOLD = "org.cryptokitty.xts.parallel.threshold";
+
+	/**
+	 * System property that sets the number of keys, per cipher object,
+	 * whose expanded key schedules are kept by the block ciphers. The
+	 * default is 8. Zero turns the cache off.
+	 */
+	public static final String KEY_CACHE_SIZE = "org.cryptokitty.cipher.key.cache";
+
 	/**
 	 * @param name
 	 * @param version
@@ -29,19 +84,28 @@ public class CKProvider extends Provider {
 	public CKProvider() {
 		super("CK", VERSION, "CryptoKitty Java strong encryption");
 
-		put("MessageDigest.MD5", "org.cryptokitty.provider.digest.MD5Spi");
-		put("MessageDigest.SHA-1", "org.cryptokitty.provider.digest.SHA1Spi");
-		put("MessageDigest.SHA-224", "org.cryptokitty.provider.digest.SHA224Spi");
-		put("MessageDigest.SHA-256", "org.cryptokitty.provider.digest.SHA256Spi");
-		put("MessageDigest.SHA-384", "org.cryptokitty.provider.digest.SHA384Spi");
-		put("MessageDigest.SHA-512", "org.cryptokitty.provider.digest.SHA512Spi");
-		put("MessageDigest.RIPEMD-160", "org.cryptokitty.provider.digest.RIPEMD160Spi");
-		put("Cipher.AES", "org.cryptokitty.provider.cipher.AESSpi");
-		put("Cipher.AES//NoPadding", "org.cryptokitty.provider.cipher.AESSpi");
-		put("Cipher.CAST5", "org.cryptokitty.provider.cipher.CAST5Spi");
-		put("Cipher.CAST5//NoPadding", "org.cryptokitty.provider.cipher.CAST5Spi");
-		put("Cipher.AES/CFB/NoPadding", "org.cryptokitty.provider.cipher.AESCFBSpi");
-		put("Cipher.AES/GCM/NoPadding", "org.cryptokitty.provider.cipher.AESGCMSpi");
+		put("MessageDigest.MD5", "org.cryptokitty.xprovider.digest.MD5Spi");
+		put("MessageDigest.SHA-1", "org.cryptokitty.xprovider.digest.SHA1Spi");
+		put("MessageDigest.SHA-224", "org.cryptokitty.xprovider.digest.SHA224Spi");
+		put("MessageDigest.SHA-256", "org.cryptokitty.xprovider.digest.SHA256Spi");
+		put("MessageDigest.SHA-384", "org.cryptokitty.xprovider.digest.SHA384Spi");
+		put("MessageDigest.SHA-512", "org.cryptokitty.xprovider.digest.SHA512Spi");
+		put("MessageDigest.RIPEMD-160", "org.cryptokitty.xprovider.digest.RIPEMD160Spi");
+		put("MessageDigest.BLAKE2B-512", "org.cryptokitty.xprovider.digest.BLAKE2bSpi");
+		put("MessageDigest.BLAKE3-256", "org.cryptokitty.xprovider.digest.BLAKE3Spi");
+		put("AlgorithmParameters.AES", "org.cryptokitty.xprovider.IVParametersSpi");
+		put("Cipher.AES", "org.cryptokitty.xprovider.cipher.AESSpi");
+		put("Cipher.AES//NoPadding", "org.cryptokitty.xprovider.cipher.AESSpi");
+		put("AlgorithmParameters.CAST5", "org.cryptokitty.xprovider.IVParametersSpi");
+		put("AlgorithmParameters.GCM", "org.cryptokitty.xprovider.GCMParametersSpi");
+		put("Cipher.CAST5", "org.cryptokitty.xprovider.cipher.CAST5Spi");
+		put("Cipher.CAST5//NoPadding", "org.cryptokitty.xprovider.cipher.CAST5Spi");
+		put("Cipher.AES/CBC/PKCS5Padding", "org.cryptokitty.xprovider.modes.AESCBCSpi");
+		put("Cipher.AES/CFB/NoPadding", "org.cryptokitty.xprovider.modes.AESCFBSpi");
+		put("Cipher.AES/CTR/NoPadding", "org.cryptokitty.xprovider.modes.AESCTRSpi");
+		put("Cipher.AES/GCM/NoPadding", "org.cryptokitty.xprovider.modes.AESGCMSpi");
+		put("Cipher.AES/OCB/NoPadding", "org.cryptokitty.xprovider.modes.AESOCBSpi");
+		put("Cipher.CAST5/CBC/PKCS5Padding", "org.cryptokitty.xprovider.modes.CAST5CBCSpi");
 		put("Cipher.RSA/ECB/OAEPWithSHA-1AndMGF1Padding",
 										"org.cryptokitty.provider.cipher.OAEPSHA1Spi");
 		put("Cipher.RSA/ECB/OAEPWithSHA-256AndMGF1Padding",
@@ -50,4 +114,18 @@ public class CKProvider extends Provider {
 
 	}
 
+	/**
+	 * Create a new AES engine as selected by the AES_ENGINE property.
+	 */
+	public static BlockCipher newAESEngine() {
+
+		if ("reference".equals(System.getProperty(AES_ENGINE))) {
+			return new AES();
+		}
+		else {
+			return new FastAES();
+		}
+
+	}
+
 }
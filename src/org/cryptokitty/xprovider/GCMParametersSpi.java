@@ -0,0 +1,167 @@
+/**
+ *
+ */
+package org.cryptokitty.xprovider;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+
+import javax.crypto.spec.GCMParameterSpec;
+
+import org.cryptokitty.codec.DERCodec;
+import org.cryptokitty.exceptions.CodecException;
+
+/**
+ * @author Steve Brenneis
+ *
+ * Nonce and tag length parameters for the authenticated modes. The
+ * encoding is the GCMParameters sequence of RFC 5084, a nonce OCTET
+ * STRING and the tag length in bytes, which defaults to 12.
+ */
+public class GCMParametersSpi extends CKAlgorithmParametersSpi {
+
+	/*
+	 * Tag length in bytes when the encoding leaves it out.
+	 */
+	private static final int DEFAULT_TAG_LENGTH = 12;
+
+	/*
+	 * The nonce.
+	 */
+	private byte[] nonce;
+
+	/*
+	 * Tag length in bits.
+	 */
+	private int tagLength;
+
+	/**
+	 *
+	 */
+	public GCMParametersSpi() {
+	}
+
+	/* (non-Javadoc)
+	 * @see java.security.AlgorithmParametersSpi#engineInit(java.security.spec.AlgorithmParameterSpec)
+	 */
+	@Override
+	protected void engineInit(AlgorithmParameterSpec paramSpec) throws InvalidParameterSpecException {
+
+		if (!(paramSpec instanceof GCMParameterSpec)) {
+			throw new InvalidParameterSpecException("GCM parameter required");
+		}
+		this.paramSpec = paramSpec;
+		nonce = ((GCMParameterSpec)paramSpec).getIV();
+		tagLength = ((GCMParameterSpec)paramSpec).getTLen();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see java.security.AlgorithmParametersSpi#engineInit(byte[])
+	 */
+	@Override
+	protected void engineInit(byte[] params) throws IOException {
+
+		DERCodec der = new DERCodec();
+		ByteArrayOutputStream sequence = new ByteArrayOutputStream();
+		ByteArrayOutputStream octets = new ByteArrayOutputStream();
+		int length = DEFAULT_TAG_LENGTH;
+		try {
+			der.getSequence(new ByteArrayInputStream(params), sequence);
+			ByteArrayInputStream fields = new ByteArrayInputStream(sequence.toByteArray());
+			der.getOctetString(fields, octets);
+			if (fields.available() > 0) {
+				ByteArrayOutputStream integer = new ByteArrayOutputStream();
+				der.getInteger(fields, integer);
+				length = 0;
+				for (byte b : integer.toByteArray()) {
+					length = (length << 8) | (b & 0xff);
+				}
+			}
+		}
+		catch (CodecException e) {
+			throw new IOException(e.getMessage());
+		}
+		nonce = octets.toByteArray();
+		tagLength = length * 8;
+		paramSpec = new GCMParameterSpec(tagLength, nonce);
+
+	}
+
+	/* (non-Javadoc)
+	 * @see java.security.AlgorithmParametersSpi#engineInit(byte[], java.lang.String)
+	 */
+	@Override
+	protected void engineInit(byte[] params, String format) throws IOException {
+
+		if (format != null && !format.equalsIgnoreCase("ASN.1")) {
+			throw new IOException("Unsupported format " + format);
+		}
+		engineInit(params);
+
+	}
+
+	/* (non-Javadoc)
+	 * @see java.security.AlgorithmParametersSpi#engineGetParameterSpec(java.lang.Class)
+	 */
+	@Override
+	protected <T extends AlgorithmParameterSpec> T engineGetParameterSpec(Class<T> paramSpec)
+			throws InvalidParameterSpecException {
+
+		if (!paramSpec.isAssignableFrom(GCMParameterSpec.class)) {
+			throw new InvalidParameterSpecException("GCM parameters can't be converted to "
+														+ paramSpec.getName());
+		}
+		return paramSpec.cast(new GCMParameterSpec(tagLength, nonce));
+
+	}
+
+	/* (non-Javadoc)
+	 * @see java.security.AlgorithmParametersSpi#engineGetEncoded()
+	 */
+	@Override
+	protected byte[] engineGetEncoded() throws IOException {
+
+		DERCodec der = new DERCodec();
+		ByteArrayOutputStream fields = new ByteArrayOutputStream();
+		der.encodeOctetString(fields, nonce);
+		if (tagLength != DEFAULT_TAG_LENGTH * 8) {
+			der.encodeInteger(fields, new byte[] { (byte)(tagLength / 8) });
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		der.encodeSequence(out, fields.toByteArray());
+		return out.toByteArray();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see java.security.AlgorithmParametersSpi#engineGetEncoded(java.lang.String)
+	 */
+	@Override
+	protected byte[] engineGetEncoded(String format) throws IOException {
+
+		if (format != null && !format.equalsIgnoreCase("ASN.1")) {
+			throw new IOException("Unsupported format " + format);
+		}
+		return engineGetEncoded();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see java.security.AlgorithmParametersSpi#engineToString()
+	 */
+	@Override
+	protected String engineToString() {
+
+		StringBuilder hex = new StringBuilder("Nonce: ");
+		for (byte b : nonce) {
+			hex.append(String.format("%02x", b & 0xff));
+		}
+		return hex.append(", tag length: ").append(tagLength).toString();
+
+	}
+
+}
@@ -0,0 +1,135 @@
+/**
+ *
+ */
+package org.cryptokitty.xprovider;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+
+import javax.crypto.spec.IvParameterSpec;
+
+import org.cryptokitty.codec.DERCodec;
+import org.cryptokitty.exceptions.CodecException;
+
+/**
+ * @author Steve Brenneis
+ *
+ * Initialization vector parameters for the block modes. The encoding is
+ * an ASN.1 OCTET STRING holding the IV.
+ */
+public class IVParametersSpi extends CKAlgorithmParametersSpi {
+
+	/*
+	 * The IV.
+	 */
+	private byte[] iv;
+
+	/**
+	 *
+	 */
+	public IVParametersSpi() {
+	}
+
+	/* (non-Javadoc)
+	 * @see java.security.AlgorithmParametersSpi#engineInit(java.security.spec.AlgorithmParameterSpec)
+	 */
+	@Override
+	protected void engineInit(AlgorithmParameterSpec paramSpec) throws InvalidParameterSpecException {
+
+		if (!(paramSpec instanceof IvParameterSpec)) {
+			throw new InvalidParameterSpecException("IV parameter required");
+		}
+		this.paramSpec = paramSpec;
+		iv = ((IvParameterSpec)paramSpec).getIV();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see java.security.AlgorithmParametersSpi#engineInit(byte[])
+	 */
+	@Override
+	protected void engineInit(byte[] params) throws IOException {
+
+		ByteArrayOutputStream octets = new ByteArrayOutputStream();
+		try {
+			new DERCodec().getOctetString(new ByteArrayInputStream(params), octets);
+		}
+		catch (CodecException e) {
+			throw new IOException(e.getMessage());
+		}
+		iv = octets.toByteArray();
+		paramSpec = new IvParameterSpec(iv);
+
+	}
+
+	/* (non-Javadoc)
+	 * @see java.security.AlgorithmParametersSpi#engineInit(byte[], java.lang.String)
+	 */
+	@Override
+	protected void engineInit(byte[] params, String format) throws IOException {
+
+		if (format != null && !format.equalsIgnoreCase("ASN.1")) {
+			throw new IOException("Unsupported format " + format);
+		}
+		engineInit(params);
+
+	}
+
+	/* (non-Javadoc)
+	 * @see java.security.AlgorithmParametersSpi#engineGetParameterSpec(java.lang.Class)
+	 */
+	@Override
+	protected <T extends AlgorithmParameterSpec> T engineGetParameterSpec(Class<T> paramSpec)
+			throws InvalidParameterSpecException {
+
+		if (!paramSpec.isAssignableFrom(IvParameterSpec.class)) {
+			throw new InvalidParameterSpecException("IV parameters can't be converted to "
+														+ paramSpec.getName());
+		}
+		return paramSpec.cast(new IvParameterSpec(iv));
+
+	}
+
+	/* (non-Javadoc)
+	 * @see java.security.AlgorithmParametersSpi#engineGetEncoded()
+	 */
+	@Override
+	protected byte[] engineGetEncoded() throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new DERCodec().encodeOctetString(out, iv);
+		return out.toByteArray();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see java.security.AlgorithmParametersSpi#engineGetEncoded(java.lang.String)
+	 */
+	@Override
+	protected byte[] engineGetEncoded(String format) throws IOException {
+
+		if (format != null && !format.equalsIgnoreCase("ASN.1")) {
+			throw new IOException("Unsupported format " + format);
+		}
+		return engineGetEncoded();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see java.security.AlgorithmParametersSpi#engineToString()
+	 */
+	@Override
+	protected String engineToString() {
+
+		StringBuilder hex = new StringBuilder("IV: ");
+		for (byte b : iv) {
+			hex.append(String.format("%02x", b & 0xff));
+		}
+		return hex.toString();
+
+	}
+
+}
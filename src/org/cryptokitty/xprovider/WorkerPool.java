@@ -0,0 +1,88 @@
+/**
+ * 
+ */
+package org.cryptokitty.xprovider;
+
+import java.security.ProviderException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import javax.crypto.IllegalBlockSizeException;
+
+/**
+ * @author Steve Brenneis
+ *
+ * The fork/join pool shared by the parallel cipher and digest paths.
+ * The pool is created the first time it is needed. Its size is taken
+ * from the PARALLELISM system property and defaults to the number of
+ * processors.
+ */
+public final class WorkerPool {
+
+	/**
+	 * System property that sets the number of worker threads.
+	 */
+	public static final String PARALLELISM = "org.cryptokitty.parallelism";
+
+	/*
+	 * Lazy holder for the pool.
+	 */
+	private static final class Holder {
+		static final ForkJoinPool pool = new ForkJoinPool(
+				Math.max(1, Integer.getInteger(PARALLELISM,
+								Runtime.getRuntime().availableProcessors())));
+	}
+
+	/**
+	 * Not instantiated.
+	 */
+	private WorkerPool() {
+	}
+
+	/**
+	 * Get the number of worker threads.
+	 */
+	public static int getParallelism() {
+
+		return Holder.pool.getParallelism();
+
+	}
+
+	/**
+	 * Get the shared pool.
+	 */
+	public static ForkJoinPool getPool() {
+
+		return Holder.pool;
+
+	}
+
+	/**
+	 * Run the tasks on the shared pool and wait for all of them. A task's
+	 * IllegalBlockSizeException is rethrown, anything else it throws is
+	 * wrapped in a ProviderException.
+	 */
+	public static void runAll(List<Callable<Void>> tasks) throws IllegalBlockSizeException {
+
+		try {
+			for (Future<Void> result : Holder.pool.invokeAll(tasks)) {
+				result.get();
+			}
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IllegalBlockSizeException) {
+				throw (IllegalBlockSizeException)e.getCause();
+			}
+			throw new ProviderException(e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ProviderException(e);
+		}
+
+	}
+
+}
@@ -3,9 +3,7 @@
  */
 package org.cryptokitty.xprovider.cipher;
 
-import java.io.ByteArrayOutputStream;
 import java.security.InvalidKeyException;
-import java.util.Arrays;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
@@ -112,6 +110,7 @@ public class AES implements BlockCipher {
 			row3 = new Word();
 		}
 		StateArray(Word r0, Word r1, Word r2, Word r3) {
+			this();
 			copyWord(row0, r0);
 			copyWord(row1, r1);
 			copyWord(row2, r2);
@@ -127,13 +126,13 @@ public class AES implements BlockCipher {
     }
 	
 	private static final StateArray cx = new StateArray();
-		{ cx.row0.word = new int[] { 2, 3, 1, 1 };
+		static { cx.row0.word = new int[] { 2, 3, 1, 1 };
 			cx.row1.word = new int[] { 1, 2, 3, 1 };
 			cx.row2.word = new int[] { 1, 1, 2, 3 };
 			cx.row3.word = new int[] { 3, 1, 1, 2 }; };
 
 	private static final StateArray invax = new StateArray();
-		{ invax.row0.word = new int[] { 0x0e, 0x0b, 0x0d, 0x09 };
+		static { invax.row0.word = new int[] { 0x0e, 0x0b, 0x0d, 0x09 };
 			invax.row1.word = new int[] { 0x09, 0x0e, 0x0b, 0x0d };
 			invax.row2.word = new int[] { 0x0d, 0x09, 0x0e, 0x0b };
 			invax.row3.word = new int[] { 0x0b, 0x0d, 0x09, 0x0e }; };
@@ -144,9 +143,16 @@ public class AES implements BlockCipher {
 	private int keySize;
 
 	/**
-	 * Key schedule length
+	 * Encryption key schedule. Nb * (Nr + 1) big-endian round key words,
+	 * expanded once per key in setKey.
 	 */
-	private long keyScheduleSize;
+	private int[] encryptSchedule;
+
+	/**
+	 * Decryption key schedule. The encryption schedule with the rounds
+	 * in reverse order so the inverse cipher can walk it front to back.
+	 */
+	private int[] decryptSchedule;
 
 	/**
 	 * Something.
@@ -162,11 +168,11 @@ public class AES implements BlockCipher {
      * Cipher state.
      */
     private StateArray state;
-    
+
     /**
-     * Encryption/decryption key.
+     * Copy of the state used by the column mixing transformations.
      */
-    private byte[] key;
+    private StateArray scratch;
     
 	/**
 	 * Default constructor.
@@ -174,28 +180,29 @@ public class AES implements BlockCipher {
 	public AES() {
 
 		state = new StateArray();
+		scratch = new StateArray();
 
 	}
 
 	/**
-	 * Add (xor) the round key state.
+	 * Add (xor) the round key state. The round key is the Nb words
+	 * of the key schedule beginning at offset.
 	 */
-	private void AddRoundKey(final Word[] roundKey) {
+	private void AddRoundKey(final int[] keySchedule, int offset) {
 
-		Word column = new Word();
 		for (int col = 0; col < 4; ++col) {
-			copyWord(column, roundKey[col]);
-			state.row0.word[col] = state.row0.word[col] ^ column.word[0];
-			state.row1.word[col] = state.row1.word[col] ^ column.word[1];
-			state.row2.word[col] = state.row2.word[col] ^ column.word[2];
-			state.row3.word[col] = state.row3.word[col] ^ column.word[3];
+			int column = keySchedule[offset + col];
+			state.row0.word[col] = state.row0.word[col] ^ (column >>> 24);
+			state.row1.word[col] = state.row1.word[col] ^ ((column >>> 16) & 0xff);
+			state.row2.word[col] = state.row2.word[col] ^ ((column >>> 8) & 0xff);
+			state.row3.word[col] = state.row3.word[col] ^ (column & 0xff);
 		}
 
 	}
 
 	private static void copyWord(Word dest, Word src) {
 
-		dest.word = Arrays.copyOf(dest.word, dest.word.length);
+		System.arraycopy(src.word, 0, dest.word, 0, dest.word.length);
 
 	}
 	
@@ -240,44 +247,45 @@ public class AES implements BlockCipher {
 	 * @throws BadParameterException 
 	 *  
 	 */
-	private void Cipher(final byte[] plaintext, final Word[] keySchedule) {
+	private void Cipher(final byte[] plaintext, int offset, final int[] keySchedule) {
 
-	    // Load the state
-	    for (int n = 0; n < 4; ++n) {
-	        state.row0.word[n] = plaintext[n*4];
-	        state.row1.word[n] = plaintext[(n*4)+1];
-	        state.row2.word[n] = plaintext[(n*4)+2];
-	        state.row3.word[n] = plaintext[(n*4)+3];
-	    }
+	    loadState(plaintext, offset);
 
-	    Word roundKey[] = new Word[4];
-	    for (int n = 0; n < 4; ++n) {
-	        copyWord(roundKey[n], keySchedule[n]);
-	    }
-	    AddRoundKey(roundKey);
+	    AddRoundKey(keySchedule, 0);
 
 	    // Process rounds
 	    for (int round = 1; round < Nr; ++round) {
 	        SubBytes();
 	        ShiftRows();
 	        MixColumns();
-	        for (int n = 0; n < 4; ++n) {
-	            copyWord(roundKey[n], keySchedule[(round * Nb)+n]);
-	        }
-	        AddRoundKey(roundKey);
+	        AddRoundKey(keySchedule, round * Nb);
 	    }
 
 	    // Finish up.
 	    SubBytes();
 	    ShiftRows();
-	    for (int n = 0; n < 4; ++n) {
-	        copyWord(roundKey[n], keySchedule[(Nr*Nb)+n]);
-	    }
-	    AddRoundKey(roundKey);
+	    AddRoundKey(keySchedule, Nr * Nb);
 
 	}
 
 
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.cipher.BlockCipher#copy()
+	 */
+	@Override
+	public BlockCipher copy() {
+
+		// The schedules are never modified after setKey, so they are shared.
+		AES copy = new AES();
+		copy.keySize = keySize;
+		copy.Nk = Nk;
+		copy.Nr = Nr;
+		copy.encryptSchedule = encryptSchedule;
+		copy.decryptSchedule = decryptSchedule;
+		return copy;
+
+	}
+
 	/* (non-Javadoc)
 	 * @see org.cryptokitty.provider.cipher.BlockCipher#decrypt(byte[])
 	 */
@@ -288,18 +296,27 @@ public class AES implements BlockCipher {
 	        throw new IllegalBlockSizeException("Illegal AES block size");
 	    }
 
-	    Word keySchedule[] = new Word[(int)keyScheduleSize];
-	    KeyExpansion(key, keySchedule);
-	    InvCipher(ciphertext, keySchedule);
-	    ByteArrayOutputStream plaintext = new ByteArrayOutputStream();
-	    for (int col = 0; col < 4; ++col) {
-	        plaintext.write(state.row0.word[col]);
-	        plaintext.write(state.row1.word[col]);
-	        plaintext.write(state.row2.word[col]);
-	        plaintext.write(state.row3.word[col]);
+	    byte[] plaintext = new byte[Nb * 4];
+	    InvCipher(ciphertext, 0, decryptSchedule);
+	    storeState(plaintext, 0);
+
+	    return plaintext;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.cipher.BlockCipher#decryptBlock(byte[], int, byte[], int)
+	 */
+	@Override
+	public void decryptBlock(byte[] in, int inOff, byte[] out, int outOff)
+			throws IllegalBlockSizeException {
+
+		if (in.length - inOff < Nb * 4 || out.length - outOff < Nb * 4) {
+	        throw new IllegalBlockSizeException("Illegal AES block size");
 	    }
 
-	    return plaintext.toByteArray();
+	    InvCipher(in, inOff, decryptSchedule);
+	    storeState(out, outOff);
 
 	}
 
@@ -313,18 +330,27 @@ public class AES implements BlockCipher {
 	        throw new IllegalBlockSizeException("AES encrypt: Illegal plaintext size");
 	    }
 
-	    Word keySchedule[] = new Word[(int)keyScheduleSize];
-	    KeyExpansion(key, keySchedule);
-	    Cipher(plaintext, keySchedule);
-	    ByteArrayOutputStream ciphertext = new ByteArrayOutputStream();
-	    for (int col = 0; col < 4; ++col) {
-	        ciphertext.write(state.row0.word[col]);
-	        ciphertext.write(state.row1.word[col]);
-	        ciphertext.write(state.row2.word[col]);
-	        ciphertext.write(state.row3.word[col]);
+	    byte[] ciphertext = new byte[Nb * 4];
+	    Cipher(plaintext, 0, encryptSchedule);
+	    storeState(ciphertext, 0);
+
+	    return ciphertext;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.cipher.BlockCipher#encryptBlock(byte[], int, byte[], int)
+	 */
+	@Override
+	public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff)
+			throws IllegalBlockSizeException {
+
+		if (in.length - inOff < Nb * 4 || out.length - outOff < Nb * 4) {
+	        throw new IllegalBlockSizeException("AES encrypt: Illegal plaintext size");
 	    }
 
-	    return ciphertext.toByteArray();
+	    Cipher(in, inOff, encryptSchedule);
+	    storeState(out, outOff);
 
 	}
 
@@ -370,44 +396,26 @@ public class AES implements BlockCipher {
 	 *  out = state
 	 *
 	 * end
-	 * @throws IllegalBlockSizeException 
+	 *
+	 * The key schedule passed here has its rounds reversed, so round
+	 * key w[round*Nb, (round+1)*Nb-1] above is found at (Nr-round)*Nb.
 	 */
-	private void InvCipher(final byte[] ciphertext, final Word[] keySchedule) throws IllegalBlockSizeException {
+	private void InvCipher(final byte[] ciphertext, int offset, final int[] keySchedule) {
 
-	    if (ciphertext.length != Nb * 4) {
-	        throw new IllegalBlockSizeException("Invalid AES ciphertext block size.");
-	    }
-
-	    // Load the state
-	    for (int n = 0; n < 4; ++n) {
-	        state.row0.word[n] = ciphertext[n*4];
-	        state.row1.word[n] = ciphertext[(n*4)+1];
-	        state.row2.word[n] = ciphertext[(n*4)+2];
-	        state.row3.word[n] = ciphertext[(n*4)+3];
-	    }
+	    loadState(ciphertext, offset);
 
-	    Word roundKey[] = new Word[4];
-	    for (int n = 0; n < 4; ++n) {
-	        copyWord(roundKey[n], keySchedule[(Nr*Nb)+n]);
-	    }
-	    AddRoundKey(roundKey);
+	    AddRoundKey(keySchedule, 0);
 
-	    for (int round = Nr - 1; round >= 1; --round) {
+	    for (int round = 1; round < Nr; ++round) {
 	        InvShiftRows();
 	        InvSubBytes();
-	        for (int n = 0; n < 4; ++n) {
-	            copyWord(roundKey[n], keySchedule[(round*Nb)+n]);
-	        }
-	        AddRoundKey(roundKey);
+	        AddRoundKey(keySchedule, round * Nb);
 	        InvMixColumns();
 	    }
 
 	    InvShiftRows();
 	    InvSubBytes();
-	    for (int n = 0; n < 4; ++n) {
-	        copyWord(roundKey[n], keySchedule[n]);
-	    }
-	    AddRoundKey(roundKey);
+	    AddRoundKey(keySchedule, Nr * Nb);
 
 	}
 
@@ -421,7 +429,11 @@ public class AES implements BlockCipher {
 	 */
 	private void InvMixColumns() {
 
-	    StateArray m = state;
+	    StateArray m = scratch;
+	    copyWord(m.row0, state.row0);
+	    copyWord(m.row1, state.row1);
+	    copyWord(m.row2, state.row2);
+	    copyWord(m.row3, state.row3);
 
 	    for (int c = 0; c < 4; ++c) {
 	        state.row0.word[c] = RijndaelMult(invax.row0.word[0], m.row0.word[c])
@@ -517,47 +529,44 @@ public class AES implements BlockCipher {
 	 * end
 	 *  
 	 */
-	private final void KeyExpansion(final byte[] key, Word[] keySchedule) {
+	static int[] KeyExpansion(final byte[] key, int Nk, int Nr) {
 
-	    Word temp = new Word();
+	    int[] keySchedule = new int[Nb * (Nr + 1)];
 
 	    // Copy the key into the key schedule.
-	    //keySchedule.copy(0, key, 0);
 	    for (int i = 0; i < Nk; ++i) {
-	        for (int n = 0; n < 4; ++n) {
-	            keySchedule[i].word[n] = key[(i*4)+n];
-	        }
+	        keySchedule[i] = ((key[i*4] & 0xff) << 24)
+	                        | ((key[(i*4)+1] & 0xff) << 16)
+	                        | ((key[(i*4)+2] & 0xff) << 8)
+	                        | (key[(i*4)+3] & 0xff);
 	    }
 
 	    for (int i = Nk; i < Nb * (Nr + 1); ++i) {
-	        copyWord(temp, keySchedule[i-1]);
+	        int temp = keySchedule[i-1];
 	        if (i % Nk == 0) {
-	            // RotWord()
-	            int t = temp.word[0];
-	            temp.word[0] = temp.word[1];
-	            temp.word[1] = temp.word[2];
-	            temp.word[2] = temp.word[3];
-	            temp.word[3] = t;
-	            // SubWord()
-	            for (int n = 0; n < 4; ++n) {
-	                temp.word[n] = Sbox[temp.word[n]];
-	            }
-	            // xor Rcon
-	            temp.word[0] = temp.word[0] ^ Rcon[i / Nk];
-	                
+	            // SubWord(RotWord()) xor Rcon
+	            temp = SubWord((temp << 8) | (temp >>> 24)) ^ (Rcon[i / Nk] << 24);
 	        }
 	        else if (Nk > 6 && i % Nk == 4) { // 256 bit keys
-	            // SubWord()
-	            for (int n = 0; n < 4; ++n) {
-	                temp.word[n] = Sbox[temp.word[n]];
-	            }
+	            temp = SubWord(temp);
 	        }
-	        Word wink = new Word();
-	        copyWord(wink, keySchedule[i-Nk]);
-	        for (int n = 0; n < 4; ++n) {
-	            wink.word[n] = wink.word[n] ^ temp.word[n];
-	        }
-	        copyWord(keySchedule[i],wink);
+	        keySchedule[i] = keySchedule[i-Nk] ^ temp;
+	    }
+
+	    return keySchedule;
+
+	}
+
+	/**
+	 * Load one block into the state, column by column.
+	 */
+	private void loadState(final byte[] in, int offset) {
+
+	    for (int n = 0; n < 4; ++n) {
+	        state.row0.word[n] = in[offset + (n*4)] & 0xff;
+	        state.row1.word[n] = in[offset + (n*4)+1] & 0xff;
+	        state.row2.word[n] = in[offset + (n*4)+2] & 0xff;
+	        state.row3.word[n] = in[offset + (n*4)+3] & 0xff;
 	    }
 
 	}
@@ -572,7 +581,11 @@ public class AES implements BlockCipher {
 	 */
 	private void MixColumns() {
 
-	    StateArray m = new StateArray(state);
+	    StateArray m = scratch;
+	    copyWord(m.row0, state.row0);
+	    copyWord(m.row1, state.row1);
+	    copyWord(m.row2, state.row2);
+	    copyWord(m.row3, state.row3);
 
 	    for (int c = 0; c < 4; ++c) {
 	        state.row0.word[c] = RijndaelMult(cx.row0.word[0], m.row0.word[c])
@@ -709,10 +722,16 @@ public class AES implements BlockCipher {
 			default:
 		        throw new InvalidKeyException("Invalid AES key");
 		}
-		keyScheduleSize = Nb * (Nr + 1);
 		state = new StateArray();
 
-		this.key = key;
+		// Expand the key once. The per-block operations only
+		// read the cached schedules.
+		encryptSchedule = KeyExpansion(key, Nk, Nr);
+		decryptSchedule = new int[encryptSchedule.length];
+		for (int round = 0; round <= Nr; ++round) {
+			System.arraycopy(encryptSchedule, round * Nb, decryptSchedule,
+												(Nr - round) * Nb, Nb);
+		}
 
 	}
 	
@@ -732,6 +751,20 @@ public class AES implements BlockCipher {
 	}
 
 
+	/**
+	 * Write the state out as one block, column by column.
+	 */
+	private void storeState(byte[] out, int offset) {
+
+	    for (int col = 0; col < 4; ++col) {
+	        out[offset + (col*4)] = (byte)state.row0.word[col];
+	        out[offset + (col*4)+1] = (byte)state.row1.word[col];
+	        out[offset + (col*4)+2] = (byte)state.row2.word[col];
+	        out[offset + (col*4)+3] = (byte)state.row3.word[col];
+	    }
+
+	}
+
 	/**
 	 * Perform the S-Box transformation.
 	 * For each byte in the state s[r,c] substitute with
@@ -748,4 +781,16 @@ public class AES implements BlockCipher {
 
 	}
 
+	/**
+	 * Apply the S-Box to each byte of a key schedule word.
+	 */
+	private static int SubWord(int word) {
+
+		return (Sbox[word >>> 24] << 24)
+				| (Sbox[(word >>> 16) & 0xff] << 16)
+				| (Sbox[(word >>> 8) & 0xff] << 8)
+				| Sbox[word & 0xff];
+
+	}
+
 }
@@ -3,6 +3,8 @@
  */
 package org.cryptokitty.xprovider.cipher;
 
+import org.cryptokitty.xprovider.CKProvider;
+
 /**
  * @author stevebrenneis
  *
@@ -14,7 +16,7 @@ public class AESSpi extends CKBlockCipherSpi {
 	 */
 	public AESSpi() {
 		
-		cipher = new AES();
+		cipher = CKProvider.newAESEngine();
 
 	}
 
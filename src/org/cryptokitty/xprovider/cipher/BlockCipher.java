@@ -11,11 +11,25 @@ import javax.crypto.IllegalBlockSizeException;
  */
 public interface BlockCipher {
 
+	/**
+	 * Create a cipher with the same key that can be used on another
+	 * thread. Key material is shared, working state is not.
+	 */
+	public BlockCipher copy();
+
 	/**
 	 * Decrypt a series of bits.
 	 */
 	public byte[] decrypt(byte[] ciphertext)
 			throws IllegalBlockSizeException, BadPaddingException;
+
+	/**
+	 * Decrypt one block of ciphertext beginning at inOff and write the
+	 * plaintext to out beginning at outOff. The input and output may be
+	 * the same array at the same offset.
+	 */
+	public void decryptBlock(byte[] in, int inOff, byte[] out, int outOff)
+			throws IllegalBlockSizeException;
 	
 	/**
 	 * Encrypt a series of bits.
@@ -23,6 +37,14 @@ public interface BlockCipher {
 	public byte[] encrypt(byte[] plaintext)
 			throws IllegalBlockSizeException, BadPaddingException;
 
+	/**
+	 * Encrypt one block of plaintext beginning at inOff and write the
+	 * ciphertext to out beginning at outOff. The input and output may be
+	 * the same array at the same offset.
+	 */
+	public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff)
+			throws IllegalBlockSizeException;
+
 	/**
 	 * Get the block size of the cipher.
 	 * @return
@@ -22,16 +22,15 @@ import org.cryptokitty.codec.Scalar32;
  * between the algorithms in the RFC and the code implementation
  * easier to follow.
  *
- * This is the actual CAST5 encryption/decryption class. It is only
- * used in the CAST5Cipher class and it may not be subclassed.
+ * This is the actual CAST5 encryption/decryption class. It is used
+ * by CAST5Spi and by the block modes, and it may not be subclassed.
  * 
  */
-final class CAST5 implements BlockCipher {
+public final class CAST5 implements BlockCipher {
 
 	/*
 	 * Substitution boxes.
 	 */
-	@SuppressWarnings("unused")
 	private static final int[] S1 = {
 		0x30fb40d4, 0x9fa0ff0b, 0x6beccd2f, 0x3f258c7a, 0x1e213f2f, 0x9c004dd3, 0x6003e540, 0xcf9fc949,
 		0xbfd4af27, 0x88bbbdb5, 0xe2034090, 0x98d09675, 0x6e63a0e0, 0x15c361d2, 0xc2e7661d, 0x22d4ff8e,
@@ -67,7 +66,6 @@ final class CAST5 implements BlockCipher {
 		0x1a69e783, 0x02cc4843, 0xa2f7c579, 0x429ef47d, 0x427b169c, 0x5ac9f049, 0xdd8f0f00, 0x5c8165bf
 	};
 
-	@SuppressWarnings("unused")
 	private static final int[] S2 = {
 		0x1f201094, 0xef0ba75b, 0x69e3cf7e, 0x393f4380, 0xfe61cf7a, 0xeec5207a, 0x55889c94, 0x72fc0651,
 		0xada7ef79, 0x4e1d7235, 0xd55a63ce, 0xde0436ba, 0x99c430ef, 0x5f0c0794, 0x18dcdb7d, 0xa1d6eff3,
@@ -103,7 +101,6 @@ final class CAST5 implements BlockCipher {
 		0x43d79572, 0x7e6dd07c, 0x06dfdf1e, 0x6c6cc4ef, 0x7160a539, 0x73bfbe70, 0x83877605, 0x4523ecf1
 	};
 
-	@SuppressWarnings("unused")
 	private static final int[] S3 = {
 		0x8defc240, 0x25fa5d9f, 0xeb903dbf, 0xe810c907, 0x47607fff, 0x369fe44b, 0x8c1fc644, 0xaececa90,
 		0xbeb1f9bf, 0xeefbcaea, 0xe8cf1950, 0x51df07ae, 0x920e8806, 0xf0ad0548, 0xe13c8d83, 0x927010d5,
@@ -139,7 +136,6 @@ final class CAST5 implements BlockCipher {
 		0xf7baefd5, 0x4142ed9c, 0xa4315c11, 0x83323ec5, 0xdfef4636, 0xa133c501, 0xe9d3531c, 0xee353783
 	};
 
-	@SuppressWarnings("unused")
 	private static final int[] S4 = {
 		0x9db30420, 0x1fb6e9de, 0xa7be7bef, 0xd273a298, 0x4a4f7bdb, 0x64ad8c57, 0x85510443, 0xfa020ed1,
 		0x7e287aff, 0xe60fb663, 0x095f35a1, 0x79ebf120, 0xfd059d43, 0x6497b7b1, 0xf3641f63, 0x241e4adf,
@@ -315,11 +311,6 @@ final class CAST5 implements BlockCipher {
 		0x04f19130, 0xba6e4ec0, 0x99265164, 0x1ee7230d, 0x50b2ad80, 0xeaee6801, 0x8db2a283, 0xea8bf59e
 	};
 
-	/*
-	 * Cipher text
-	 */
-	private byte[] c;
-
 	/*
 	 * The symmetric Key. 128 bits.
 	 */
@@ -335,11 +326,6 @@ final class CAST5 implements BlockCipher {
 	 */
 	private int[] Kr;
 
-	/*
-	 * Plain text.
-	 */
-	private byte[] m;
-
 	/*
 	 * Number of encryption rounds. 12 or 16.
 	 */
@@ -351,6 +337,23 @@ final class CAST5 implements BlockCipher {
 	public CAST5() {
 	}
 
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.cipher.BlockCipher#copy()
+	 */
+	@Override
+	public BlockCipher copy() {
+
+		// The subkeys are never modified after setKey, so they are shared.
+		CAST5 copy = new CAST5();
+		copy.key = key;
+		copy.Km = Km;
+		copy.Kr = Kr;
+		copy.rounds = rounds;
+		return copy;
+
+	}
+
 	/*
 	 * Convert a byte array to an int array to be used for unsigned
 	 * values.
@@ -364,25 +367,23 @@ final class CAST5 implements BlockCipher {
 	}
 
 	/*
-	 * Perform the cipher encryption rounds.
+	 * Perform the cipher decryption rounds on the block at inOff and
+	 * write the result to out at outOff.
 	 */
-	private void doDecryption() {
+	private void doDecryption(byte[] in, int inOff, byte[] out, int outOff) {
 
 		// Decryption reverses the rounds process. From the RFC:
 		// Decryption is identical to the encryption algorithm given above,
 		// except that the rounds (and therefore the subkey pairs) are used in
 		// reverse order to compute (L0,R0) from (R16,L16).
-		generateSubkeys();
 
 		// Section 2.5 of the RFC addresses variable key sizes and states that
 		// keys of 80 bits or less only go through 12 substitution rounds.
-		int[] L = new int[rounds+2];
-		int[] R = new int[rounds+2];
-		L[rounds+1] = new Scalar32(Arrays.copyOf(c, 4)).getValue();
-		R[rounds+1] = new Scalar32(Arrays.copyOfRange(c, 4, 8)).getValue();
+		int L = getWord(in, inOff);
+		int R = getWord(in, inOff + 4);
 
 		for (int i = rounds; i > 0; --i) {
-			L[i] = R[i+1];
+			int t = R;
 			switch (i) {
 			case 1:
 			case 4:
@@ -390,35 +391,36 @@ final class CAST5 implements BlockCipher {
 			case 10:
 			case 13:
 			case 16:
-				R[i] = L[i+1] ^ f1(R[i+1], Km[i], Kr[i]);
+				R = L ^ f1(R, Km[i], Kr[i]);
 				break;
 			case 2:
 			case 5:
 			case 8:
 			case 11:
 			case 14:
-				R[i] = L[i+1] ^ f2(R[i+1], Km[i], Kr[i]);
+				R = L ^ f2(R, Km[i], Kr[i]);
 				break;
 			case 3:
 			case 6:
 			case 9:
 			case 12:
 			case 15:
-				R[i] = L[i+1] ^ f3(R[i+1], Km[i], Kr[i]);
+				R = L ^ f3(R, Km[i], Kr[i]);
 				break;
 			}
+			L = t;
 		}
 
-		m = new byte[8];
-		System.arraycopy(new Scalar32(R[1]).getEncoded(), 0, m, 0, 4);
-		System.arraycopy(new Scalar32(L[1]).getEncoded(), 0, m, 4, 4);
+		putWord(R, out, outOff);
+		putWord(L, out, outOff + 4);
 
 	}
 
 	/*
-	 * Perform the cipher encryption rounds.
+	 * Perform the cipher encryption rounds on the block at inOff and
+	 * write the result to out at outOff.
 	 */
-	private void doEncryption() {
+	private void doEncryption(byte[] in, int inOff, byte[] out, int outOff) {
 
 		// INPUT:  plaintext m1...m64; key K = k1...k128.
 		// OUTPUT: ciphertext c1...c64.
@@ -433,17 +435,15 @@ final class CAST5 implements BlockCipher {
 		// 4. c1...c64 <-- (R16,L16).  (Exchange final blocks L16, R16 and
 		//    concatenate to form the ciphertext.)
 
-		generateSubkeys();
+		// The subkeys are computed once in setKey.
 
 		// Section 2.5 of the RFC addresses variable key sizes and states that
 		// keys of 80 bits or less only go through 12 substitution rounds.
-		int[] L = new int[17];
-		int[] R = new int[17];
-		L[0] = new Scalar32(Arrays.copyOf(m, 4)).getValue();
-		R[0] = new Scalar32(Arrays.copyOfRange(m, 4, 8)).getValue();
+		int L = getWord(in, inOff);
+		int R = getWord(in, inOff + 4);
 
 		for (int i = 1; i <= rounds; ++i) {
-			L[i] = R[i-1];
+			int t = R;
 			switch (i) {
 			case 1:
 			case 4:
@@ -451,28 +451,28 @@ final class CAST5 implements BlockCipher {
 			case 10:
 			case 13:
 			case 16:
-				R[i] = L[i-1] ^ f1(R[i-1], Km[i], Kr[i]);
+				R = L ^ f1(R, Km[i], Kr[i]);
 				break;
 			case 2:
 			case 5:
 			case 8:
 			case 11:
 			case 14:
-				R[i] = L[i-1] ^ f2(R[i-1], Km[i], Kr[i]);
+				R = L ^ f2(R, Km[i], Kr[i]);
 				break;
 			case 3:
 			case 6:
 			case 9:
 			case 12:
 			case 15:
-				R[i] = L[i-1] ^ f3(R[i-1], Km[i], Kr[i]);
+				R = L ^ f3(R, Km[i], Kr[i]);
 				break;
 			}
+			L = t;
 		}
 
-		c = new byte[8];
-		System.arraycopy(new Scalar32(R[rounds]).getEncoded(), 0, c, 0, 4);
-		System.arraycopy(new Scalar32(L[rounds]).getEncoded(), 0, c, 4, 4);
+		putWord(R, out, outOff);
+		putWord(L, out, outOff + 4);
 
 	}
 
@@ -487,10 +487,8 @@ final class CAST5 implements BlockCipher {
 	 */
 	private int f1(int D, int Kmi, int Kri) {
 
-//		int I = new Scalar32(Kmi + D).rol(Kri).getValue();
-//		int[] i = byte2int(new Scalar32(I).getEncoded());
-//		return ((S1[i[0]] ^ S2[i[1]]) - S3[i[2]]) + S4[i[3]];
-		return 0;
+		int I = Integer.rotateLeft(Kmi + D, Kri);
+		return ((S1[I >>> 24] ^ S2[(I >>> 16) & 0xff]) - S3[(I >>> 8) & 0xff]) + S4[I & 0xff];
 
 	}
 
@@ -505,15 +503,13 @@ final class CAST5 implements BlockCipher {
 	 */
 	private int f2(int D, int Kmi, int Kri) {
 
-//		int I = new Scalar32(Kmi ^ D).rol(Kri).getValue();
-//		int[] i = byte2int(Scalar32.encode(I));
-//		return ((S1[i[0]] - S2[i[1]]) + S3[i[2]]) ^ S4[i[3]];
-		return 0;
+		int I = Integer.rotateLeft(Kmi ^ D, Kri);
+		return ((S1[I >>> 24] - S2[(I >>> 16) & 0xff]) + S3[(I >>> 8) & 0xff]) ^ S4[I & 0xff];
 
 	}
 
 	/*
-	 * Round function 2. See RFC 2144, section 2.2, Non-identical rounds. The
+	 * Round function 3. See RFC 2144, section 2.2, Non-identical rounds. The
 	 * function is given as:
 	 * 
 	 * I = ((Kmi - D) <<< Kri)
@@ -523,10 +519,8 @@ final class CAST5 implements BlockCipher {
 	 */
 	private int f3(int D, int Kmi, int Kri) {
 
-//		int I = new Scalar32(Kmi - D).rol(Kri).getValue();
-//		int[] i = byte2int(Scalar32.encode(I));
-//		return ((S1[i[0]] + S2[i[1]]) ^ S3[i[2]]) - S4[i[3]];
-		return 0;
+		int I = Integer.rotateLeft(Kmi - D, Kri);
+		return ((S1[I >>> 24] + S2[(I >>> 16) & 0xff]) ^ S3[(I >>> 8) & 0xff]) - S4[I & 0xff];
 
 	}
 
@@ -763,6 +757,18 @@ final class CAST5 implements BlockCipher {
 
 	}
 
+	/*
+	 * Big endian word from four bytes.
+	 */
+	private static int getWord(byte[] in, int offset) {
+
+		return ((in[offset] & 0xff) << 24)
+				| ((in[offset + 1] & 0xff) << 16)
+				| ((in[offset + 2] & 0xff) << 8)
+				| (in[offset + 3] & 0xff);
+
+	}
+
 	/*
 	 * Convert an int array to a byte array.
 	 */
@@ -781,10 +787,31 @@ final class CAST5 implements BlockCipher {
 	@Override
 	public byte[] decrypt(byte[] ciphertext)
 			throws IllegalBlockSizeException, BadPaddingException {
-		// TODO Block size checks?
-		c = ciphertext;
-		doDecryption();
-		return m;
+
+		if (ciphertext.length != 8) {
+			throw new IllegalBlockSizeException("Illegal CAST5 block size");
+		}
+
+		byte[] plaintext = new byte[8];
+		doDecryption(ciphertext, 0, plaintext, 0);
+		return plaintext;
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.cipher.BlockCipher#decryptBlock(byte[], int, byte[], int)
+	 */
+	@Override
+	public void decryptBlock(byte[] in, int inOff, byte[] out, int outOff)
+			throws IllegalBlockSizeException {
+
+		if (in.length - inOff < 8 || out.length - outOff < 8) {
+			throw new IllegalBlockSizeException("Illegal CAST5 block size");
+		}
+
+		doDecryption(in, inOff, out, outOff);
+
 	}
 
 	/*
@@ -794,10 +821,31 @@ final class CAST5 implements BlockCipher {
 	@Override
 	public byte[] encrypt(byte[] plaintext)
 			throws IllegalBlockSizeException, BadPaddingException {
-		// TODO Block size checks?
-		m = plaintext;
-		doEncryption();
-		return c;
+
+		if (plaintext.length != 8) {
+			throw new IllegalBlockSizeException("Illegal CAST5 block size");
+		}
+
+		byte[] ciphertext = new byte[8];
+		doEncryption(plaintext, 0, ciphertext, 0);
+		return ciphertext;
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.cipher.BlockCipher#encryptBlock(byte[], int, byte[], int)
+	 */
+	@Override
+	public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff)
+			throws IllegalBlockSizeException {
+
+		if (in.length - inOff < 8 || out.length - outOff < 8) {
+			throw new IllegalBlockSizeException("Illegal CAST5 block size");
+		}
+
+		doEncryption(in, inOff, out, outOff);
+
 	}
 
 	/*
@@ -809,6 +857,18 @@ final class CAST5 implements BlockCipher {
 		return 8;
 	}
 
+	/*
+	 * Four bytes from a big endian word.
+	 */
+	private static void putWord(int word, byte[] out, int offset) {
+
+		out[offset] = (byte)(word >>> 24);
+		out[offset + 1] = (byte)(word >>> 16);
+		out[offset + 2] = (byte)(word >>> 8);
+		out[offset + 3] = (byte)word;
+
+	}
+
 	@Override
 	public void reset() {
 		// Nothing to do
@@ -828,6 +888,7 @@ final class CAST5 implements BlockCipher {
 		rounds = bitsize <= 80 ? 12 : 16;
 		// Pad keys less than 128 bits with zeros.
 		this.key = Arrays.copyOf(key, 16);
+		generateSubkeys();
 
 	}
 
@@ -3,7 +3,6 @@
  */
 package org.cryptokitty.xprovider.cipher;
 
-import java.io.ByteArrayOutputStream;
 import java.security.AlgorithmParameters;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
@@ -11,6 +10,9 @@ import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -19,17 +21,51 @@ import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.ShortBufferException;
 
+import org.cryptokitty.xprovider.CKProvider;
+
 /**
  * @author stevebrenneis
  *
+ * Block cipher with no mode and no padding. Whole blocks are encrypted
+ * or decrypted from the input straight to the output. Only a partial
+ * block is held between updates.
+ *
+ * The expanded key schedules of the most recently used keys are kept
+ * in a small LRU cache, keyed by the identity of the Key object, so
+ * initializing again with one of a few long-lived keys doesn't expand
+ * the key again. See CKProvider.KEY_CACHE_SIZE.
  */
 public class CKBlockCipherSpi extends CipherSpi {
 
-	/**
-	 * The cipher stream.
+	/*
+	 * Default size of the key cache.
+	 */
+	private static final int DEFAULT_KEY_CACHE_SIZE = 8;
+
+	/*
+	 * Key cache entry. Keys are compared by identity, so getEncoded
+	 * isn't called on a hit.
 	 */
-	protected ByteArrayOutputStream text;
-	
+	private static final class KeyIdentity {
+
+		private Key key;
+
+		KeyIdentity(Key key) {
+			this.key = key;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof KeyIdentity && ((KeyIdentity)other).key == key;
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(key);
+		}
+
+	}
+
 	/**
 	 * Operation mode. Cipher.ENCRYPT or Cipher.DECRYPT.
 	 */
@@ -39,7 +75,7 @@ public class CKBlockCipherSpi extends CipherSpi {
 	 * Encryption/decryption key.
 	 */
 	protected Key key;
-	
+
 	/**
 	 * The block cipher.
 	 */
@@ -60,13 +96,108 @@ public class CKBlockCipherSpi extends CipherSpi {
 	 */
 	protected SecureRandom random;
 
+	/*
+	 * Partial block held between updates.
+	 */
+	private byte[] buffer;
+
+	/*
+	 * Bytes in the partial block.
+	 */
+	private int bufferLength;
+
+	/*
+	 * Keyed ciphers, least recently used first.
+	 */
+	private Map<KeyIdentity, BlockCipher> contexts;
+
 	/**
-	 * 
+	 *
 	 */
 	public CKBlockCipherSpi() {
 
 		opmode = -1;
-		text = new ByteArrayOutputStream();
+		final int cacheSize = Integer.getInteger(CKProvider.KEY_CACHE_SIZE,
+														DEFAULT_KEY_CACHE_SIZE);
+		contexts = new LinkedHashMap<KeyIdentity, BlockCipher>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<KeyIdentity, BlockCipher> eldest) {
+				return size() > cacheSize;
+			}
+		};
+
+	}
+
+	/*
+	 * Encrypt or decrypt whole blocks from the partial block and the
+	 * input. The rest of the input is held. Returns the number of bytes
+	 * written.
+	 */
+	private int crypt(byte[] input, int inputOffset, int inputLen, byte[] output,
+						int outputOffset) throws ShortBufferException {
+
+		int blockSize = cipher.getBlockSize();
+		int length = bufferLength + inputLen;
+		int outputLen = length - (length % blockSize);
+		if (outputLen > 0 && (output == null || output.length - outputOffset < outputLen)) {
+			throw new ShortBufferException("Invalid output buffer size");
+		}
+
+		// Output that overlaps input ahead of it would overwrite input
+		// that hasn't been read yet.
+		if (input == output && outputLen > 0 && outputOffset > inputOffset - bufferLength
+				&& outputOffset < inputOffset + inputLen) {
+			input = Arrays.copyOfRange(input, inputOffset, inputOffset + inputLen);
+			inputOffset = 0;
+		}
+
+		try {
+			int done = 0;
+			if (bufferLength > 0 && length >= blockSize) {
+				int count = blockSize - bufferLength;
+				System.arraycopy(input, inputOffset, buffer, bufferLength, count);
+				cryptBlock(buffer, 0, output, outputOffset);
+				bufferLength = 0;
+				inputOffset += count;
+				inputLen -= count;
+				done = blockSize;
+			}
+			while (done < outputLen) {
+				cryptBlock(input, inputOffset, output, outputOffset + done);
+				inputOffset += blockSize;
+				inputLen -= blockSize;
+				done += blockSize;
+			}
+		}
+		catch (IllegalBlockSizeException e) {
+			// Can't happen. The lengths are checked.
+			throw new RuntimeException(e);
+		}
+
+		if (inputLen > 0) {
+			if (buffer == null) {
+				buffer = new byte[blockSize];
+			}
+			System.arraycopy(input, inputOffset, buffer, bufferLength, inputLen);
+			bufferLength += inputLen;
+		}
+		return outputLen;
+
+	}
+
+	/*
+	 * Encrypt or decrypt one block.
+	 */
+	private void cryptBlock(byte[] in, int inOff, byte[] out, int outOff)
+			throws IllegalBlockSizeException {
+
+		if (opmode == Cipher.DECRYPT_MODE || opmode == Cipher.UNWRAP_MODE) {
+			cipher.decryptBlock(in, inOff, out, outOff);
+		}
+		else {
+			cipher.encryptBlock(in, inOff, out, outOff);
+		}
 
 	}
 
@@ -76,25 +207,14 @@ public class CKBlockCipherSpi extends CipherSpi {
 	@Override
 	protected byte[] engineDoFinal(byte[] input, int inputOffset, int inputLen)
 			throws IllegalBlockSizeException, BadPaddingException {
-		
-		text.write(input, inputLen, inputLen);
-		
-		byte[] result = null;
-		switch (opmode) {
-			case Cipher.DECRYPT_MODE:
-				result = cipher.decrypt(text.toByteArray());
-			case Cipher.ENCRYPT_MODE:
-				result = cipher.encrypt(text.toByteArray());
-		}
-		
+
+		byte[] result = new byte[bufferLength + inputLen];
 		try {
-			engineInit(opmode, key, params, random);
+			engineDoFinal(input, inputOffset, inputLen, result, 0);
 		}
-		catch (InvalidKeyException e) {
-			// Don't care
-		}
-		catch (InvalidAlgorithmParameterException e) {
-			// Don't care
+		catch (ShortBufferException e) {
+			// Can't happen. The result holds all of the input.
+			throw new RuntimeException(e);
 		}
 		return result;
 
@@ -107,14 +227,14 @@ public class CKBlockCipherSpi extends CipherSpi {
 	protected int engineDoFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
 			throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
 
-		if (output.length < outputOffset + inputLen) {
-			throw new ShortBufferException("Invalid output buffer size");
+		if ((bufferLength + inputLen) % cipher.getBlockSize() != 0) {
+			bufferLength = 0;
+			throw new IllegalBlockSizeException("Input is not a multiple of the block size");
 		}
-		
-		byte[] result = engineDoFinal(input, inputOffset, inputLen);
-		System.arraycopy(result, 0, output, outputOffset, result.length);
-		return result.length;
-		
+
+		// The cipher is left as it was initialized, with the same key.
+		return crypt(input, inputOffset, inputLen, output, outputOffset);
+
 	}
 
 	/* (non-Javadoc)
@@ -129,9 +249,9 @@ public class CKBlockCipherSpi extends CipherSpi {
 
 	/* (non-Javadoc)
 	 * @see javax.crypto.CipherSpi#engineGetIV()
-	 * 
+	 *
 	 * No IV used for block ciphers.
-	 * 
+	 *
 	 */
 	@Override
 	protected byte[] engineGetIV() {
@@ -146,7 +266,7 @@ public class CKBlockCipherSpi extends CipherSpi {
 	@Override
 	protected int engineGetOutputSize(int inputLen) {
 
-		return cipher.getBlockSize();
+		return bufferLength + inputLen;
 
 	}
 
@@ -166,12 +286,22 @@ public class CKBlockCipherSpi extends CipherSpi {
 	@Override
 	protected void engineInit(int opmode, Key key, SecureRandom random) throws InvalidKeyException {
 
+		KeyIdentity identity = new KeyIdentity(key);
+		BlockCipher context = contexts.get(identity);
+		if (context == null) {
+			// Rekeying allocates new schedules, so cached ciphers that
+			// share them with this one aren't changed.
+			context = cipher.copy();
+			context.setKey(key.getEncoded());
+			contexts.put(identity, context);
+		}
+
 		this.opmode = opmode;
 		this.key = key;
 		this.random = random;
-		cipher.setKey(key.getEncoded());
+		cipher = context;
 		cipher.reset();
-		text.reset();
+		bufferLength = 0;
 
 	}
 
@@ -181,7 +311,7 @@ public class CKBlockCipherSpi extends CipherSpi {
 	@Override
 	protected void engineInit(int opmode, Key key, AlgorithmParameterSpec params, SecureRandom random)
 			throws InvalidKeyException, InvalidAlgorithmParameterException {
-		
+
 		spec = params;
 		engineInit(opmode, key, random);
 
@@ -220,8 +350,18 @@ public class CKBlockCipherSpi extends CipherSpi {
 	 */
 	@Override
 	protected byte[] engineUpdate(byte[] input, int inputOffset, int inputLen) {
-		// Not used for block ciphers.
-		return null;
+
+		int length = bufferLength + inputLen;
+		byte[] result = new byte[length - (length % cipher.getBlockSize())];
+		try {
+			crypt(input, inputOffset, inputLen, result, 0);
+		}
+		catch (ShortBufferException e) {
+			// Can't happen. The result is sized for the whole blocks.
+			throw new RuntimeException(e);
+		}
+		return result;
+
 	}
 
 	/* (non-Javadoc)
@@ -230,8 +370,9 @@ public class CKBlockCipherSpi extends CipherSpi {
 	@Override
 	protected int engineUpdate(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
 			throws ShortBufferException {
-		// Not used for block ciphers
-		return 0;
+
+		return crypt(input, inputOffset, inputLen, output, outputOffset);
+
 	}
 
 }
@@ -0,0 +1,360 @@
+/**
+ *
+ */
+package org.cryptokitty.xprovider.cipher;
+
+import java.security.InvalidKeyException;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+/**
+ * @author Steve Brenneis
+ *
+ * Table driven AES engine. The SubBytes, ShiftRows and MixColumns steps
+ * of each round are folded into four 256 entry lookup tables of 32 bit
+ * words (Te0 - Te3) for encryption and four more (Td0 - Td3) for the
+ * equivalent inverse cipher (FIPS 197, Section 5.3.5). The state is
+ * kept in four local ints, so a block operation allocates nothing
+ * beyond its output.
+ *
+ * The key expansion is the same as the reference AES class. The
+ * decryption schedule has InvMixColumns applied to the inner round
+ * keys as required by the equivalent inverse cipher.
+ */
+public class FastAES implements BlockCipher {
+
+	/**
+	 * Something.
+	 */
+	private static final int Nb = 4;
+
+	/**
+	 * Inverse substitution box, derived from the forward S-Box.
+	 */
+	private static final int[] InvSbox = new int[256];
+
+	/**
+	 * Encryption tables.
+	 */
+	private static final int[] Te0 = new int[256];
+	private static final int[] Te1 = new int[256];
+	private static final int[] Te2 = new int[256];
+	private static final int[] Te3 = new int[256];
+
+	/**
+	 * Decryption tables.
+	 */
+	private static final int[] Td0 = new int[256];
+	private static final int[] Td1 = new int[256];
+	private static final int[] Td2 = new int[256];
+	private static final int[] Td3 = new int[256];
+
+	static {
+		for (int x = 0; x < 256; ++x) {
+			InvSbox[AES.Sbox[x]] = x;
+		}
+		for (int x = 0; x < 256; ++x) {
+			int s = AES.Sbox[x];
+			int e = (xtime(s) << 24) | (s << 16) | (s << 8) | (xtime(s) ^ s);
+			Te0[x] = e;
+			Te1[x] = Integer.rotateRight(e, 8);
+			Te2[x] = Integer.rotateRight(e, 16);
+			Te3[x] = Integer.rotateRight(e, 24);
+
+			int si = InvSbox[x];
+			int d = (mult(si, 0x0e) << 24) | (mult(si, 0x09) << 16)
+						| (mult(si, 0x0d) << 8) | mult(si, 0x0b);
+			Td0[x] = d;
+			Td1[x] = Integer.rotateRight(d, 8);
+			Td2[x] = Integer.rotateRight(d, 16);
+			Td3[x] = Integer.rotateRight(d, 24);
+		}
+	}
+
+	/**
+	 * Number of rounds.
+	 */
+	private int Nr;
+
+	/**
+	 * Encryption key schedule.
+	 */
+	private int[] encryptSchedule;
+
+	/**
+	 * Equivalent inverse cipher key schedule.
+	 */
+	private int[] decryptSchedule;
+
+	/**
+	 * Default constructor.
+	 */
+	public FastAES() {
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.cipher.BlockCipher#copy()
+	 */
+	@Override
+	public BlockCipher copy() {
+
+		// The schedules are never modified after setKey, so they are shared.
+		FastAES copy = new FastAES();
+		copy.Nr = Nr;
+		copy.encryptSchedule = encryptSchedule;
+		copy.decryptSchedule = decryptSchedule;
+		return copy;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.cipher.BlockCipher#decrypt(byte[])
+	 */
+	@Override
+	public byte[] decrypt(byte[] ciphertext) throws IllegalBlockSizeException, BadPaddingException {
+
+		if (ciphertext.length != Nb * 4) {
+	        throw new IllegalBlockSizeException("Illegal AES block size");
+	    }
+
+		byte[] plaintext = new byte[Nb * 4];
+		decryptBlock(ciphertext, 0, plaintext, 0);
+		return plaintext;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.cipher.BlockCipher#decryptBlock(byte[], int, byte[], int)
+	 */
+	@Override
+	public void decryptBlock(byte[] in, int inOff, byte[] out, int outOff)
+			throws IllegalBlockSizeException {
+
+		if (in.length - inOff < Nb * 4 || out.length - outOff < Nb * 4) {
+	        throw new IllegalBlockSizeException("Illegal AES block size");
+	    }
+
+		final int[] rk = decryptSchedule;
+
+		int s0 = getWord(in, inOff) ^ rk[0];
+		int s1 = getWord(in, inOff + 4) ^ rk[1];
+		int s2 = getWord(in, inOff + 8) ^ rk[2];
+		int s3 = getWord(in, inOff + 12) ^ rk[3];
+
+		int k = 4;
+		for (int round = 1; round < Nr; ++round) {
+			int t0 = Td0[s0 >>> 24] ^ Td1[(s3 >>> 16) & 0xff]
+						^ Td2[(s2 >>> 8) & 0xff] ^ Td3[s1 & 0xff] ^ rk[k];
+			int t1 = Td0[s1 >>> 24] ^ Td1[(s0 >>> 16) & 0xff]
+						^ Td2[(s3 >>> 8) & 0xff] ^ Td3[s2 & 0xff] ^ rk[k + 1];
+			int t2 = Td0[s2 >>> 24] ^ Td1[(s1 >>> 16) & 0xff]
+						^ Td2[(s0 >>> 8) & 0xff] ^ Td3[s3 & 0xff] ^ rk[k + 2];
+			int t3 = Td0[s3 >>> 24] ^ Td1[(s2 >>> 16) & 0xff]
+						^ Td2[(s1 >>> 8) & 0xff] ^ Td3[s0 & 0xff] ^ rk[k + 3];
+			s0 = t0;
+			s1 = t1;
+			s2 = t2;
+			s3 = t3;
+			k += 4;
+		}
+
+		// Final round. No InvMixColumns.
+		int t0 = (InvSbox[s0 >>> 24] << 24) ^ (InvSbox[(s3 >>> 16) & 0xff] << 16)
+					^ (InvSbox[(s2 >>> 8) & 0xff] << 8) ^ InvSbox[s1 & 0xff] ^ rk[k];
+		int t1 = (InvSbox[s1 >>> 24] << 24) ^ (InvSbox[(s0 >>> 16) & 0xff] << 16)
+					^ (InvSbox[(s3 >>> 8) & 0xff] << 8) ^ InvSbox[s2 & 0xff] ^ rk[k + 1];
+		int t2 = (InvSbox[s2 >>> 24] << 24) ^ (InvSbox[(s1 >>> 16) & 0xff] << 16)
+					^ (InvSbox[(s0 >>> 8) & 0xff] << 8) ^ InvSbox[s3 & 0xff] ^ rk[k + 2];
+		int t3 = (InvSbox[s3 >>> 24] << 24) ^ (InvSbox[(s2 >>> 16) & 0xff] << 16)
+					^ (InvSbox[(s1 >>> 8) & 0xff] << 8) ^ InvSbox[s0 & 0xff] ^ rk[k + 3];
+
+		putWord(t0, out, outOff);
+		putWord(t1, out, outOff + 4);
+		putWord(t2, out, outOff + 8);
+		putWord(t3, out, outOff + 12);
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.cipher.BlockCipher#encrypt(byte[])
+	 */
+	@Override
+	public byte[] encrypt(byte[] plaintext) throws IllegalBlockSizeException, BadPaddingException {
+
+	    if (plaintext.length != Nb * 4) {
+	        throw new IllegalBlockSizeException("AES encrypt: Illegal plaintext size");
+	    }
+
+		byte[] ciphertext = new byte[Nb * 4];
+		encryptBlock(plaintext, 0, ciphertext, 0);
+		return ciphertext;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.cipher.BlockCipher#encryptBlock(byte[], int, byte[], int)
+	 */
+	@Override
+	public void encryptBlock(byte[] in, int inOff, byte[] out, int outOff)
+			throws IllegalBlockSizeException {
+
+		if (in.length - inOff < Nb * 4 || out.length - outOff < Nb * 4) {
+	        throw new IllegalBlockSizeException("AES encrypt: Illegal plaintext size");
+	    }
+
+		final int[] rk = encryptSchedule;
+
+		int s0 = getWord(in, inOff) ^ rk[0];
+		int s1 = getWord(in, inOff + 4) ^ rk[1];
+		int s2 = getWord(in, inOff + 8) ^ rk[2];
+		int s3 = getWord(in, inOff + 12) ^ rk[3];
+
+		int k = 4;
+		for (int round = 1; round < Nr; ++round) {
+			int t0 = Te0[s0 >>> 24] ^ Te1[(s1 >>> 16) & 0xff]
+						^ Te2[(s2 >>> 8) & 0xff] ^ Te3[s3 & 0xff] ^ rk[k];
+			int t1 = Te0[s1 >>> 24] ^ Te1[(s2 >>> 16) & 0xff]
+						^ Te2[(s3 >>> 8) & 0xff] ^ Te3[s0 & 0xff] ^ rk[k + 1];
+			int t2 = Te0[s2 >>> 24] ^ Te1[(s3 >>> 16) & 0xff]
+						^ Te2[(s0 >>> 8) & 0xff] ^ Te3[s1 & 0xff] ^ rk[k + 2];
+			int t3 = Te0[s3 >>> 24] ^ Te1[(s0 >>> 16) & 0xff]
+						^ Te2[(s1 >>> 8) & 0xff] ^ Te3[s2 & 0xff] ^ rk[k + 3];
+			s0 = t0;
+			s1 = t1;
+			s2 = t2;
+			s3 = t3;
+			k += 4;
+		}
+
+		// Final round. No MixColumns.
+		final int[] S = AES.Sbox;
+		int t0 = (S[s0 >>> 24] << 24) ^ (S[(s1 >>> 16) & 0xff] << 16)
+					^ (S[(s2 >>> 8) & 0xff] << 8) ^ S[s3 & 0xff] ^ rk[k];
+		int t1 = (S[s1 >>> 24] << 24) ^ (S[(s2 >>> 16) & 0xff] << 16)
+					^ (S[(s3 >>> 8) & 0xff] << 8) ^ S[s0 & 0xff] ^ rk[k + 1];
+		int t2 = (S[s2 >>> 24] << 24) ^ (S[(s3 >>> 16) & 0xff] << 16)
+					^ (S[(s0 >>> 8) & 0xff] << 8) ^ S[s1 & 0xff] ^ rk[k + 2];
+		int t3 = (S[s3 >>> 24] << 24) ^ (S[(s0 >>> 16) & 0xff] << 16)
+					^ (S[(s1 >>> 8) & 0xff] << 8) ^ S[s2 & 0xff] ^ rk[k + 3];
+
+		putWord(t0, out, outOff);
+		putWord(t1, out, outOff + 4);
+		putWord(t2, out, outOff + 8);
+		putWord(t3, out, outOff + 12);
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.cipher.BlockCipher#getBlockSize()
+	 */
+	@Override
+	public int getBlockSize() {
+
+		return 16;
+
+	}
+
+	/*
+	 * Read a big-endian word.
+	 */
+	private static int getWord(byte[] in, int offset) {
+
+		return (in[offset] << 24) | ((in[offset + 1] & 0xff) << 16)
+				| ((in[offset + 2] & 0xff) << 8) | (in[offset + 3] & 0xff);
+
+	}
+
+	/*
+	 * Rijndael finite field multiplication. Only used to build the tables.
+	 */
+	private static int mult(int a, int b) {
+
+		int product = 0;
+		while (b != 0) {
+			if ((b & 1) != 0) {
+				product ^= a;
+			}
+			a = xtime(a);
+			b >>>= 1;
+		}
+		return product;
+
+	}
+
+	/*
+	 * Write a big-endian word.
+	 */
+	private static void putWord(int word, byte[] out, int offset) {
+
+		out[offset] = (byte)(word >>> 24);
+		out[offset + 1] = (byte)(word >>> 16);
+		out[offset + 2] = (byte)(word >>> 8);
+		out[offset + 3] = (byte)word;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.cipher.BlockCipher#reset()
+	 */
+	@Override
+	public void reset() {
+		// No state is kept between blocks.
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.cipher.BlockCipher#setKey(byte[])
+	 */
+	@Override
+	public void setKey(byte[] key) throws InvalidKeyException {
+
+		int Nk;
+		switch (key.length) {
+			case AES.AES128:
+				Nk = 4;
+				Nr = 10;
+				break;
+			case AES.AES192:
+				Nk = 6;
+				Nr = 12;
+				break;
+			case AES.AES256:
+				Nk = 8;
+				Nr = 14;
+				break;
+			default:
+		        throw new InvalidKeyException("Invalid AES key");
+		}
+
+		encryptSchedule = AES.KeyExpansion(key, Nk, Nr);
+
+		// Equivalent inverse cipher. Reverse the rounds and apply
+		// InvMixColumns to all but the first and last round keys.
+		decryptSchedule = new int[encryptSchedule.length];
+		for (int round = 0; round <= Nr; ++round) {
+			System.arraycopy(encryptSchedule, round * Nb, decryptSchedule,
+												(Nr - round) * Nb, Nb);
+		}
+		final int[] S = AES.Sbox;
+		for (int i = Nb; i < Nr * Nb; ++i) {
+			int w = decryptSchedule[i];
+			decryptSchedule[i] = Td0[S[w >>> 24]] ^ Td1[S[(w >>> 16) & 0xff]]
+									^ Td2[S[(w >>> 8) & 0xff]] ^ Td3[S[w & 0xff]];
+		}
+
+	}
+
+	/*
+	 * Multiply by x in the Rijndael field.
+	 */
+	private static int xtime(int a) {
+
+		a <<= 1;
+		if ((a & 0x100) != 0) {
+			a ^= 0x11b;
+		}
+		return a;
+
+	}
+
+}
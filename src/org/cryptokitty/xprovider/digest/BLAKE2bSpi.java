@@ -0,0 +1,23 @@
+/**
+ * 
+ */
+package org.cryptokitty.xprovider.digest;
+
+import org.cryptokitty.digest.BLAKE2b;
+
+/**
+ * @author Steve Brenneis
+ *
+ */
+public class BLAKE2bSpi extends CKMessageDigestSpi {
+
+	/**
+	 * 
+	 */
+	public BLAKE2bSpi() {
+
+		digest = new BLAKE2b();
+
+	}
+
+}
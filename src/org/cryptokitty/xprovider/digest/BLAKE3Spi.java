@@ -0,0 +1,23 @@
+/**
+ * 
+ */
+package org.cryptokitty.xprovider.digest;
+
+import org.cryptokitty.digest.BLAKE3;
+
+/**
+ * @author Steve Brenneis
+ *
+ */
+public class BLAKE3Spi extends CKMessageDigestSpi {
+
+	/**
+	 * 
+	 */
+	public BLAKE3Spi() {
+
+		digest = new BLAKE3();
+
+	}
+
+}
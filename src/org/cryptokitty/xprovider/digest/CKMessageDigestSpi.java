@@ -3,6 +3,7 @@
  */
 package org.cryptokitty.xprovider.digest;
 
+import java.nio.ByteBuffer;
 import java.security.MessageDigestSpi;
 
 import org.cryptokitty.digest.Digest;
@@ -11,7 +12,7 @@ import org.cryptokitty.digest.Digest;
  * @author Steve Brenneis
  *
  */
-public class CKMessageDigestSpi extends MessageDigestSpi {
+public class CKMessageDigestSpi extends MessageDigestSpi implements Cloneable {
 
 	/*
 	 * The digest
@@ -24,6 +25,16 @@ public class CKMessageDigestSpi extends MessageDigestSpi {
 	protected CKMessageDigestSpi() {
 	}
 
+	/* (non-Javadoc)
+	 * @see java.security.MessageDigestSpi#clone()
+	 */
+	@Override
+	public Object clone() throws CloneNotSupportedException {
+		CKMessageDigestSpi clone = (CKMessageDigestSpi)super.clone();
+		clone.digest = digest.copy();
+		return clone;
+	}
+
 	/* (non-Javadoc)
 	 * @see java.security.MessageDigestSpi#engineUpdate(byte)
 	 */
@@ -40,6 +51,14 @@ public class CKMessageDigestSpi extends MessageDigestSpi {
 		digest.update(input, offset, len);
 	}
 
+	/* (non-Javadoc)
+	 * @see java.security.MessageDigestSpi#engineUpdate(java.nio.ByteBuffer)
+	 */
+	@Override
+	protected void engineUpdate(ByteBuffer input) {
+		digest.update(input);
+	}
+
 	/* (non-Javadoc)
 	 * @see java.security.MessageDigestSpi#engineDigest()
 	 */
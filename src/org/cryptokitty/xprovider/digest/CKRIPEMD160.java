@@ -3,9 +3,10 @@
  */
 package org.cryptokitty.xprovider.digest;
 
-import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 
 import org.cryptokitty.digest.Digest;
 
@@ -15,49 +16,6 @@ import org.cryptokitty.digest.Digest;
  */
 public class CKRIPEMD160 extends Digest {
 
-	/*
-	 * Added constants.
-	 */
-	private static final int[] K =
-		{ 0x00000000, 0x5A827999, 0x6ED9EBA1, 0x8F1BBCDC, 0xA953FD4E };
-	private static final int[] KPrime =
-		{ 0x50A28BE6, 0x5C4DD124, 0x6D703EF3, 0x7A6D76E9, 0x00000000 };
-
-	/*
-	 * Message word selection constants.
-	 */
-	private static final int[] r =
-		{ 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 7,
-			4, 13, 1, 10, 6, 15, 3, 12, 0, 9, 5, 2, 14, 11, 8, 3,
-			10, 14, 4, 9, 15, 8, 1, 2, 7, 0, 6, 13, 11, 5, 12, 1,
-			9, 11, 10, 0, 8, 12, 4, 13, 3, 7, 15, 14, 5, 6, 2, 4,
-			0, 5, 9, 7, 12, 2, 10, 14, 1, 3, 8, 11, 6, 15, 13 };
-
-	private static final int[] rPrime =
-		{ 5, 14, 7, 0, 9, 2, 11, 4, 13, 6, 15, 8, 1, 10, 3, 12, 6,
-			11, 3, 7, 0, 13, 5, 10, 14, 15, 8, 12, 4, 9, 1, 2, 15,
-			5, 1, 3, 7, 14, 6, 9, 11, 8, 12, 2, 10, 0, 4, 13, 8, 6,
-			4, 1, 3, 11, 15, 0, 5, 12, 2, 13, 9, 7, 10, 14, 12, 15,
-			10, 4, 1, 5, 8, 7, 6, 2, 13, 14, 0, 3, 9, 11 };
-
-	/*
-	 * Rotate constants.
-	 */
-	private static final int[] s =
-		{ 11, 14, 15, 12, 5, 8, 7, 9, 11, 13, 14, 15, 6, 7, 9, 8, 
-			7, 6, 8, 13, 11, 9, 7, 15, 7, 12, 15, 9, 11, 7, 13, 
-			12, 11, 13, 6, 7, 14, 9, 13, 15, 14, 8, 13, 6, 5, 12,
-			7, 5, 11, 12, 14, 15, 14, 15, 9, 8, 9, 14, 5, 6, 8, 6,
-			5,12, 9, 15, 5, 11, 6, 8, 13, 12, 5, 12, 13, 14, 11, 
-			8, 5, 6 };
-
-	private static final int[] sPrime = 
-		{ 8, 9, 9, 11, 13, 15, 15, 5, 7, 7, 8, 11, 14, 14, 12, 6, 9,
-			13, 15, 7, 12, 8, 9, 11, 7, 7, 12, 7, 6, 15, 13, 11, 9, 
-			7, 15, 11, 8, 6, 6, 14, 12, 13, 5, 14, 13, 13, 7, 5, 15,
-			5, 8, 11, 14, 14, 6, 14, 6, 9, 12, 9, 12, 5, 15, 8, 8, 5,
-			12, 9, 12, 5, 14, 6, 8, 13, 6, 5, 15, 13, 11, 11 };
-
 	public class Int {
 		private int value;
 		public Int(int value) {
@@ -72,141 +30,94 @@ public class CKRIPEMD160 extends Digest {
 		}
 	}
 
+	/*
+	 * Chaining state.
+	 */
+	private int h0;
+	private int h1;
+	private int h2;
+	private int h3;
+	private int h4;
+
+	/*
+	 * Message words.
+	 */
+	private int[] X;
+
 	/**
 	 * 
 	 */
 	public CKRIPEMD160() {
-	}
 
-	/*
-	 * RIPEMD160 is based on MD4 which is little-endian.
-	 */
-	private byte[] byteswap(int x) {
-		byte[] answer = new byte[4];
-		answer[0] = (byte)(x & 0xff);
-		answer[1] = (byte)((x >> 8) & 0xff);
-		answer[2] = (byte)((x >> 16) & 0xff);
-		answer[3] = (byte)((x >> 24) & 0xff);
-		return answer;
+		super(64);
+		X = new int[16];
+		reset();
+
 	}
 
 	/*
-	 * RIPEMD160 is based on MD4 which is little-endian.
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#compress(byte[], int)
 	 */
-	private int byteswap(byte[] x) {
-		int answer = 0;
-		for (int i = 3; i >= 0; --i) {
-			answer = (answer << 8) | (x[i] & 0xff);
+	@Override
+	protected void compress(byte[] message, int offset) {
+
+		// RIPEMD160 is based on MD4 which is little-endian.
+		for (int j = 0; j < 16; ++j) {
+			int i = offset + (j * 4);
+			X[j] = (message[i] & 0xff) | ((message[i + 1] & 0xff) << 8)
+					| ((message[i + 2] & 0xff) << 16) | ((message[i + 3] & 0xff) << 24);
 		}
-		return answer;
+		transform();
+
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * @see org.cryptokitty.provider.digest.Digest#finalize(byte[])
+	 * @see org.cryptokitty.digest.Digest#compress(java.nio.ByteBuffer)
 	 */
 	@Override
-	protected byte[] finalize(byte[] message) {
+	protected void compress(ByteBuffer message) {
 
-		// Pad the message to an even multiple of 512 bits.
-		byte[] context = pad(message);
-		// Number of 16 word chunks
-		int t = (context.length / 4) / 16;
-		int[][] X = new int[t][16];
-		int n = 0;
-		for (int i = 0; i < t; ++i) {
-			for (int j = 0; j < 16; ++j) {
-				X[i][j]  = byteswap(Arrays.copyOfRange(context, n, n + 4));
-				n += 4;
-			}
+		// RIPEMD160 is based on MD4 which is little-endian.
+		for (int j = 0; j < 16; ++j) {
+			X[j] = Integer.reverseBytes(message.getInt());
 		}
-		 // Initial state.
-		int h0 = 0x67452301;
-		int h1 = 0xEFCDAB89;
-		int h2 = 0x98BADCFE;
-		int h3 = 0x10325476;
-		int h4 = 0xC3D2E1F0;
-
-		for (int i = 0; i < t; ++i) {
-
-			int A = h0;
-			int B = h1;
-			int C = h2;
-			int D = h3;
-			int E = h4;
-
-			int APrime = h0;
-			int BPrime = h1;
-			int CPrime = h2;
-			int DPrime = h3;
-			int EPrime = h4;
-
-			int j = 0;
-			for (j = 0; j < 80; ++j) {
-
-				int T = rol((A + f(j, B, C, D) + X[i][r[j]] + K[j/16]) , s[j]) + E;
-				A = E;
-				E = D;
-				D = rol(C, 10);
-				C = B;	
-				B = T;
-
-				T = rol((APrime + f(79-j, BPrime, CPrime, DPrime) + X[i][rPrime[j]] + KPrime[j/16]), sPrime[j]) + EPrime;
-	            APrime = EPrime;
-	            EPrime = DPrime;
-	            DPrime = rol(CPrime, 10);
-	            CPrime = BPrime;
-	            BPrime = T;
-
-			}
-
-			/* combine results */
-			DPrime += C + h1;
-			h1 = h2 + D + EPrime;
-			h2 = h3 + E + APrime;
-			h3 = h4 + A + BPrime;
-			h4 = h0 + B + CPrime;
-			h0 = DPrime;
+		transform();
 
-		}
+	}
 
-		ByteArrayOutputStream d = new ByteArrayOutputStream();
-		
-		try {
-			d.write(byteswap(h0));
-			d.write(byteswap(h1));
-			d.write(byteswap(h2));
-			d.write(byteswap(h3));
-			d.write(byteswap(h4));
-		}
-		catch (IOException e) {
-			// Nope. Silly Java inheritance problem.
-			throw new RuntimeException(e);
-		}
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#copy()
+	 */
+	@Override
+	public Digest copy() {
 
-		return d.toByteArray();
+		CKRIPEMD160 copy = (CKRIPEMD160)super.copy();
+		copy.X = new int[16];
+		return copy;
 
 	}
 
 	/*
-	 * Non-linear functions.
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#finish()
 	 */
-	private int f(int j, int x, int y, int z) {
-		if (j <= 15) {
-			return x ^ y ^ z;
-		}
-		else if (j <= 31) {
-			return (x & y ) | ((~x) & z);
-		}
-		else if (j <= 47) {
-			return (x | (~y)) ^ z;
-		}
-		else if (j <= 63) {
-			return (x & z) | (y & (~z));
-		}
-		else {
-			return x ^ (y | (~z));
-		}
+	@Override
+	protected byte[] finish() {
+
+		// Pad the message to an even multiple of 512 bits.
+		pad(8, false);
+
+		byte[] result = new byte[20];
+		putInt(h0, result, 0);
+		putInt(h1, result, 4);
+		putInt(h2, result, 8);
+		putInt(h3, result, 12);
+		putInt(h4, result, 16);
+		return result;
+
 	}
 
 	/*
@@ -232,42 +143,431 @@ public class CKRIPEMD160 extends Digest {
 	}
 
 	/*
-	 * Pad the message.
+	 * Little endian four bytes from an int.
 	 */
-	private byte[] pad(byte[] in) {
-
-		long bitsize = in.length * 8;
-		long padbits = 448 - (bitsize % 512);
-		byte[] padding = new byte[(int)(padbits / 8)];
-		Arrays.fill(padding, (byte)0);
-		padding[0] = (byte)0x80;
-		byte[] context = new byte[in.length + padding.length + 8];
-		System.arraycopy(in, 0, context, 0, in.length);
-		System.arraycopy(padding, 0, context, in.length, padding.length);
-		byte[] bitbytes = new byte[8];
-		bitbytes[0] = (byte)(bitsize & 0xff);
-		bitbytes[1] = (byte)((bitsize >> 8) & 0xff);
-		bitbytes[2] = (byte)((bitsize >> 16) & 0xff);
-		bitbytes[3] = (byte)((bitsize >> 24) & 0xff);
-		bitbytes[4] = (byte)((bitsize >> 32) & 0xff);
-		bitbytes[5] = (byte)((bitsize >> 40) & 0xff);
-		bitbytes[6] = (byte)((bitsize >> 48) & 0xff);
-		bitbytes[7] = (byte)((bitsize >> 46) & 0xff);
-		System.arraycopy(bitbytes, 0, context, in.length + padding.length, 8);
-		return context;
+	private static void putInt(int value, byte[] out, int offset) {
+
+		out[offset] = (byte)value;
+		out[offset + 1] = (byte)(value >>> 8);
+		out[offset + 2] = (byte)(value >>> 16);
+		out[offset + 3] = (byte)(value >>> 24);
 
 	}
 
 	/*
-	 * Rotate left (shift left carry the msb).
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#restore(org.cryptokitty.digest.Digest)
 	 */
-	private int rol(int x, int count) {
-		int result = x;
-		for (int i = 1; i <= count; ++i) {
-			int carry = (result >> 31) & 0x01;
-			result = (result << 1) | carry;
-		}
-		return result;
+	@Override
+	public void restore(Digest snapshot) {
+
+		super.restore(snapshot);
+		CKRIPEMD160 other = (CKRIPEMD160)snapshot;
+		h0 = other.h0;
+		h1 = other.h1;
+		h2 = other.h2;
+		h3 = other.h3;
+		h4 = other.h4;
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#readState(java.io.DataInput)
+	 */
+	@Override
+	protected void readState(DataInput in) throws IOException {
+
+		h0 = in.readInt();
+		h1 = in.readInt();
+		h2 = in.readInt();
+		h3 = in.readInt();
+		h4 = in.readInt();
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#reset()
+	 */
+	@Override
+	public void reset() {
+
+		super.reset();
+		h0 = 0x67452301;
+		h1 = 0xEFCDAB89;
+		h2 = 0x98BADCFE;
+		h3 = 0x10325476;
+		h4 = 0xC3D2E1F0;
+
+	}
+
+	/*
+	 * Compress the block in the message schedule. Both lines are
+	 * unrolled and the working variables are renamed instead of
+	 * shifted, five steps to a full turn.
+	 */
+	private void transform() {
+
+		int A = h0;
+		int B = h1;
+		int C = h2;
+		int D = h3;
+		int E = h4;
+
+		int APrime = h0;
+		int BPrime = h1;
+		int CPrime = h2;
+		int DPrime = h3;
+		int EPrime = h4;
+
+		// Left line.
+		A = Integer.rotateLeft(A + (B ^ C ^ D) + X[0], 11) + E;
+		C = Integer.rotateLeft(C, 10);
+		E = Integer.rotateLeft(E + (A ^ B ^ C) + X[1], 14) + D;
+		B = Integer.rotateLeft(B, 10);
+		D = Integer.rotateLeft(D + (E ^ A ^ B) + X[2], 15) + C;
+		A = Integer.rotateLeft(A, 10);
+		C = Integer.rotateLeft(C + (D ^ E ^ A) + X[3], 12) + B;
+		E = Integer.rotateLeft(E, 10);
+		B = Integer.rotateLeft(B + (C ^ D ^ E) + X[4], 5) + A;
+		D = Integer.rotateLeft(D, 10);
+		A = Integer.rotateLeft(A + (B ^ C ^ D) + X[5], 8) + E;
+		C = Integer.rotateLeft(C, 10);
+		E = Integer.rotateLeft(E + (A ^ B ^ C) + X[6], 7) + D;
+		B = Integer.rotateLeft(B, 10);
+		D = Integer.rotateLeft(D + (E ^ A ^ B) + X[7], 9) + C;
+		A = Integer.rotateLeft(A, 10);
+		C = Integer.rotateLeft(C + (D ^ E ^ A) + X[8], 11) + B;
+		E = Integer.rotateLeft(E, 10);
+		B = Integer.rotateLeft(B + (C ^ D ^ E) + X[9], 13) + A;
+		D = Integer.rotateLeft(D, 10);
+		A = Integer.rotateLeft(A + (B ^ C ^ D) + X[10], 14) + E;
+		C = Integer.rotateLeft(C, 10);
+		E = Integer.rotateLeft(E + (A ^ B ^ C) + X[11], 15) + D;
+		B = Integer.rotateLeft(B, 10);
+		D = Integer.rotateLeft(D + (E ^ A ^ B) + X[12], 6) + C;
+		A = Integer.rotateLeft(A, 10);
+		C = Integer.rotateLeft(C + (D ^ E ^ A) + X[13], 7) + B;
+		E = Integer.rotateLeft(E, 10);
+		B = Integer.rotateLeft(B + (C ^ D ^ E) + X[14], 9) + A;
+		D = Integer.rotateLeft(D, 10);
+		A = Integer.rotateLeft(A + (B ^ C ^ D) + X[15], 8) + E;
+		C = Integer.rotateLeft(C, 10);
+		E = Integer.rotateLeft(E + ((A & B) | (~A & C)) + X[7] + 0x5A827999, 7) + D;
+		B = Integer.rotateLeft(B, 10);
+		D = Integer.rotateLeft(D + ((E & A) | (~E & B)) + X[4] + 0x5A827999, 6) + C;
+		A = Integer.rotateLeft(A, 10);
+		C = Integer.rotateLeft(C + ((D & E) | (~D & A)) + X[13] + 0x5A827999, 8) + B;
+		E = Integer.rotateLeft(E, 10);
+		B = Integer.rotateLeft(B + ((C & D) | (~C & E)) + X[1] + 0x5A827999, 13) + A;
+		D = Integer.rotateLeft(D, 10);
+		A = Integer.rotateLeft(A + ((B & C) | (~B & D)) + X[10] + 0x5A827999, 11) + E;
+		C = Integer.rotateLeft(C, 10);
+		E = Integer.rotateLeft(E + ((A & B) | (~A & C)) + X[6] + 0x5A827999, 9) + D;
+		B = Integer.rotateLeft(B, 10);
+		D = Integer.rotateLeft(D + ((E & A) | (~E & B)) + X[15] + 0x5A827999, 7) + C;
+		A = Integer.rotateLeft(A, 10);
+		C = Integer.rotateLeft(C + ((D & E) | (~D & A)) + X[3] + 0x5A827999, 15) + B;
+		E = Integer.rotateLeft(E, 10);
+		B = Integer.rotateLeft(B + ((C & D) | (~C & E)) + X[12] + 0x5A827999, 7) + A;
+		D = Integer.rotateLeft(D, 10);
+		A = Integer.rotateLeft(A + ((B & C) | (~B & D)) + X[0] + 0x5A827999, 12) + E;
+		C = Integer.rotateLeft(C, 10);
+		E = Integer.rotateLeft(E + ((A & B) | (~A & C)) + X[9] + 0x5A827999, 15) + D;
+		B = Integer.rotateLeft(B, 10);
+		D = Integer.rotateLeft(D + ((E & A) | (~E & B)) + X[5] + 0x5A827999, 9) + C;
+		A = Integer.rotateLeft(A, 10);
+		C = Integer.rotateLeft(C + ((D & E) | (~D & A)) + X[2] + 0x5A827999, 11) + B;
+		E = Integer.rotateLeft(E, 10);
+		B = Integer.rotateLeft(B + ((C & D) | (~C & E)) + X[14] + 0x5A827999, 7) + A;
+		D = Integer.rotateLeft(D, 10);
+		A = Integer.rotateLeft(A + ((B & C) | (~B & D)) + X[11] + 0x5A827999, 13) + E;
+		C = Integer.rotateLeft(C, 10);
+		E = Integer.rotateLeft(E + ((A & B) | (~A & C)) + X[8] + 0x5A827999, 12) + D;
+		B = Integer.rotateLeft(B, 10);
+		D = Integer.rotateLeft(D + ((E | ~A) ^ B) + X[3] + 0x6ED9EBA1, 11) + C;
+		A = Integer.rotateLeft(A, 10);
+		C = Integer.rotateLeft(C + ((D | ~E) ^ A) + X[10] + 0x6ED9EBA1, 13) + B;
+		E = Integer.rotateLeft(E, 10);
+		B = Integer.rotateLeft(B + ((C | ~D) ^ E) + X[14] + 0x6ED9EBA1, 6) + A;
+		D = Integer.rotateLeft(D, 10);
+		A = Integer.rotateLeft(A + ((B | ~C) ^ D) + X[4] + 0x6ED9EBA1, 7) + E;
+		C = Integer.rotateLeft(C, 10);
+		E = Integer.rotateLeft(E + ((A | ~B) ^ C) + X[9] + 0x6ED9EBA1, 14) + D;
+		B = Integer.rotateLeft(B, 10);
+		D = Integer.rotateLeft(D + ((E | ~A) ^ B) + X[15] + 0x6ED9EBA1, 9) + C;
+		A = Integer.rotateLeft(A, 10);
+		C = Integer.rotateLeft(C + ((D | ~E) ^ A) + X[8] + 0x6ED9EBA1, 13) + B;
+		E = Integer.rotateLeft(E, 10);
+		B = Integer.rotateLeft(B + ((C | ~D) ^ E) + X[1] + 0x6ED9EBA1, 15) + A;
+		D = Integer.rotateLeft(D, 10);
+		A = Integer.rotateLeft(A + ((B | ~C) ^ D) + X[2] + 0x6ED9EBA1, 14) + E;
+		C = Integer.rotateLeft(C, 10);
+		E = Integer.rotateLeft(E + ((A | ~B) ^ C) + X[7] + 0x6ED9EBA1, 8) + D;
+		B = Integer.rotateLeft(B, 10);
+		D = Integer.rotateLeft(D + ((E | ~A) ^ B) + X[0] + 0x6ED9EBA1, 13) + C;
+		A = Integer.rotateLeft(A, 10);
+		C = Integer.rotateLeft(C + ((D | ~E) ^ A) + X[6] + 0x6ED9EBA1, 6) + B;
+		E = Integer.rotateLeft(E, 10);
+		B = Integer.rotateLeft(B + ((C | ~D) ^ E) + X[13] + 0x6ED9EBA1, 5) + A;
+		D = Integer.rotateLeft(D, 10);
+		A = Integer.rotateLeft(A + ((B | ~C) ^ D) + X[11] + 0x6ED9EBA1, 12) + E;
+		C = Integer.rotateLeft(C, 10);
+		E = Integer.rotateLeft(E + ((A | ~B) ^ C) + X[5] + 0x6ED9EBA1, 7) + D;
+		B = Integer.rotateLeft(B, 10);
+		D = Integer.rotateLeft(D + ((E | ~A) ^ B) + X[12] + 0x6ED9EBA1, 5) + C;
+		A = Integer.rotateLeft(A, 10);
+		C = Integer.rotateLeft(C + ((D & A) | (E & ~A)) + X[1] + 0x8F1BBCDC, 11) + B;
+		E = Integer.rotateLeft(E, 10);
+		B = Integer.rotateLeft(B + ((C & E) | (D & ~E)) + X[9] + 0x8F1BBCDC, 12) + A;
+		D = Integer.rotateLeft(D, 10);
+		A = Integer.rotateLeft(A + ((B & D) | (C & ~D)) + X[11] + 0x8F1BBCDC, 14) + E;
+		C = Integer.rotateLeft(C, 10);
+		E = Integer.rotateLeft(E + ((A & C) | (B & ~C)) + X[10] + 0x8F1BBCDC, 15) + D;
+		B = Integer.rotateLeft(B, 10);
+		D = Integer.rotateLeft(D + ((E & B) | (A & ~B)) + X[0] + 0x8F1BBCDC, 14) + C;
+		A = Integer.rotateLeft(A, 10);
+		C = Integer.rotateLeft(C + ((D & A) | (E & ~A)) + X[8] + 0x8F1BBCDC, 15) + B;
+		E = Integer.rotateLeft(E, 10);
+		B = Integer.rotateLeft(B + ((C & E) | (D & ~E)) + X[12] + 0x8F1BBCDC, 9) + A;
+		D = Integer.rotateLeft(D, 10);
+		A = Integer.rotateLeft(A + ((B & D) | (C & ~D)) + X[4] + 0x8F1BBCDC, 8) + E;
+		C = Integer.rotateLeft(C, 10);
+		E = Integer.rotateLeft(E + ((A & C) | (B & ~C)) + X[13] + 0x8F1BBCDC, 9) + D;
+		B = Integer.rotateLeft(B, 10);
+		D = Integer.rotateLeft(D + ((E & B) | (A & ~B)) + X[3] + 0x8F1BBCDC, 14) + C;
+		A = Integer.rotateLeft(A, 10);
+		C = Integer.rotateLeft(C + ((D & A) | (E & ~A)) + X[7] + 0x8F1BBCDC, 5) + B;
+		E = Integer.rotateLeft(E, 10);
+		B = Integer.rotateLeft(B + ((C & E) | (D & ~E)) + X[15] + 0x8F1BBCDC, 6) + A;
+		D = Integer.rotateLeft(D, 10);
+		A = Integer.rotateLeft(A + ((B & D) | (C & ~D)) + X[14] + 0x8F1BBCDC, 8) + E;
+		C = Integer.rotateLeft(C, 10);
+		E = Integer.rotateLeft(E + ((A & C) | (B & ~C)) + X[5] + 0x8F1BBCDC, 6) + D;
+		B = Integer.rotateLeft(B, 10);
+		D = Integer.rotateLeft(D + ((E & B) | (A & ~B)) + X[6] + 0x8F1BBCDC, 5) + C;
+		A = Integer.rotateLeft(A, 10);
+		C = Integer.rotateLeft(C + ((D & A) | (E & ~A)) + X[2] + 0x8F1BBCDC, 12) + B;
+		E = Integer.rotateLeft(E, 10);
+		B = Integer.rotateLeft(B + (C ^ (D | ~E)) + X[4] + 0xA953FD4E, 9) + A;
+		D = Integer.rotateLeft(D, 10);
+		A = Integer.rotateLeft(A + (B ^ (C | ~D)) + X[0] + 0xA953FD4E, 15) + E;
+		C = Integer.rotateLeft(C, 10);
+		E = Integer.rotateLeft(E + (A ^ (B | ~C)) + X[5] + 0xA953FD4E, 5) + D;
+		B = Integer.rotateLeft(B, 10);
+		D = Integer.rotateLeft(D + (E ^ (A | ~B)) + X[9] + 0xA953FD4E, 11) + C;
+		A = Integer.rotateLeft(A, 10);
+		C = Integer.rotateLeft(C + (D ^ (E | ~A)) + X[7] + 0xA953FD4E, 6) + B;
+		E = Integer.rotateLeft(E, 10);
+		B = Integer.rotateLeft(B + (C ^ (D | ~E)) + X[12] + 0xA953FD4E, 8) + A;
+		D = Integer.rotateLeft(D, 10);
+		A = Integer.rotateLeft(A + (B ^ (C | ~D)) + X[2] + 0xA953FD4E, 13) + E;
+		C = Integer.rotateLeft(C, 10);
+		E = Integer.rotateLeft(E + (A ^ (B | ~C)) + X[10] + 0xA953FD4E, 12) + D;
+		B = Integer.rotateLeft(B, 10);
+		D = Integer.rotateLeft(D + (E ^ (A | ~B)) + X[14] + 0xA953FD4E, 5) + C;
+		A = Integer.rotateLeft(A, 10);
+		C = Integer.rotateLeft(C + (D ^ (E | ~A)) + X[1] + 0xA953FD4E, 12) + B;
+		E = Integer.rotateLeft(E, 10);
+		B = Integer.rotateLeft(B + (C ^ (D | ~E)) + X[3] + 0xA953FD4E, 13) + A;
+		D = Integer.rotateLeft(D, 10);
+		A = Integer.rotateLeft(A + (B ^ (C | ~D)) + X[8] + 0xA953FD4E, 14) + E;
+		C = Integer.rotateLeft(C, 10);
+		E = Integer.rotateLeft(E + (A ^ (B | ~C)) + X[11] + 0xA953FD4E, 11) + D;
+		B = Integer.rotateLeft(B, 10);
+		D = Integer.rotateLeft(D + (E ^ (A | ~B)) + X[6] + 0xA953FD4E, 8) + C;
+		A = Integer.rotateLeft(A, 10);
+		C = Integer.rotateLeft(C + (D ^ (E | ~A)) + X[15] + 0xA953FD4E, 5) + B;
+		E = Integer.rotateLeft(E, 10);
+		B = Integer.rotateLeft(B + (C ^ (D | ~E)) + X[13] + 0xA953FD4E, 6) + A;
+		D = Integer.rotateLeft(D, 10);
+
+		// Right line.
+		APrime = Integer.rotateLeft(APrime + (BPrime ^ (CPrime | ~DPrime)) + X[5] + 0x50A28BE6, 8) + EPrime;
+		CPrime = Integer.rotateLeft(CPrime, 10);
+		EPrime = Integer.rotateLeft(EPrime + (APrime ^ (BPrime | ~CPrime)) + X[14] + 0x50A28BE6, 9) + DPrime;
+		BPrime = Integer.rotateLeft(BPrime, 10);
+		DPrime = Integer.rotateLeft(DPrime + (EPrime ^ (APrime | ~BPrime)) + X[7] + 0x50A28BE6, 9) + CPrime;
+		APrime = Integer.rotateLeft(APrime, 10);
+		CPrime = Integer.rotateLeft(CPrime + (DPrime ^ (EPrime | ~APrime)) + X[0] + 0x50A28BE6, 11) + BPrime;
+		EPrime = Integer.rotateLeft(EPrime, 10);
+		BPrime = Integer.rotateLeft(BPrime + (CPrime ^ (DPrime | ~EPrime)) + X[9] + 0x50A28BE6, 13) + APrime;
+		DPrime = Integer.rotateLeft(DPrime, 10);
+		APrime = Integer.rotateLeft(APrime + (BPrime ^ (CPrime | ~DPrime)) + X[2] + 0x50A28BE6, 15) + EPrime;
+		CPrime = Integer.rotateLeft(CPrime, 10);
+		EPrime = Integer.rotateLeft(EPrime + (APrime ^ (BPrime | ~CPrime)) + X[11] + 0x50A28BE6, 15) + DPrime;
+		BPrime = Integer.rotateLeft(BPrime, 10);
+		DPrime = Integer.rotateLeft(DPrime + (EPrime ^ (APrime | ~BPrime)) + X[4] + 0x50A28BE6, 5) + CPrime;
+		APrime = Integer.rotateLeft(APrime, 10);
+		CPrime = Integer.rotateLeft(CPrime + (DPrime ^ (EPrime | ~APrime)) + X[13] + 0x50A28BE6, 7) + BPrime;
+		EPrime = Integer.rotateLeft(EPrime, 10);
+		BPrime = Integer.rotateLeft(BPrime + (CPrime ^ (DPrime | ~EPrime)) + X[6] + 0x50A28BE6, 7) + APrime;
+		DPrime = Integer.rotateLeft(DPrime, 10);
+		APrime = Integer.rotateLeft(APrime + (BPrime ^ (CPrime | ~DPrime)) + X[15] + 0x50A28BE6, 8) + EPrime;
+		CPrime = Integer.rotateLeft(CPrime, 10);
+		EPrime = Integer.rotateLeft(EPrime + (APrime ^ (BPrime | ~CPrime)) + X[8] + 0x50A28BE6, 11) + DPrime;
+		BPrime = Integer.rotateLeft(BPrime, 10);
+		DPrime = Integer.rotateLeft(DPrime + (EPrime ^ (APrime | ~BPrime)) + X[1] + 0x50A28BE6, 14) + CPrime;
+		APrime = Integer.rotateLeft(APrime, 10);
+		CPrime = Integer.rotateLeft(CPrime + (DPrime ^ (EPrime | ~APrime)) + X[10] + 0x50A28BE6, 14) + BPrime;
+		EPrime = Integer.rotateLeft(EPrime, 10);
+		BPrime = Integer.rotateLeft(BPrime + (CPrime ^ (DPrime | ~EPrime)) + X[3] + 0x50A28BE6, 12) + APrime;
+		DPrime = Integer.rotateLeft(DPrime, 10);
+		APrime = Integer.rotateLeft(APrime + (BPrime ^ (CPrime | ~DPrime)) + X[12] + 0x50A28BE6, 6) + EPrime;
+		CPrime = Integer.rotateLeft(CPrime, 10);
+		EPrime = Integer.rotateLeft(EPrime + ((APrime & CPrime) | (BPrime & ~CPrime)) + X[6] + 0x5C4DD124, 9) + DPrime;
+		BPrime = Integer.rotateLeft(BPrime, 10);
+		DPrime = Integer.rotateLeft(DPrime + ((EPrime & BPrime) | (APrime & ~BPrime)) + X[11] + 0x5C4DD124, 13) + CPrime;
+		APrime = Integer.rotateLeft(APrime, 10);
+		CPrime = Integer.rotateLeft(CPrime + ((DPrime & APrime) | (EPrime & ~APrime)) + X[3] + 0x5C4DD124, 15) + BPrime;
+		EPrime = Integer.rotateLeft(EPrime, 10);
+		BPrime = Integer.rotateLeft(BPrime + ((CPrime & EPrime) | (DPrime & ~EPrime)) + X[7] + 0x5C4DD124, 7) + APrime;
+		DPrime = Integer.rotateLeft(DPrime, 10);
+		APrime = Integer.rotateLeft(APrime + ((BPrime & DPrime) | (CPrime & ~DPrime)) + X[0] + 0x5C4DD124, 12) + EPrime;
+		CPrime = Integer.rotateLeft(CPrime, 10);
+		EPrime = Integer.rotateLeft(EPrime + ((APrime & CPrime) | (BPrime & ~CPrime)) + X[13] + 0x5C4DD124, 8) + DPrime;
+		BPrime = Integer.rotateLeft(BPrime, 10);
+		DPrime = Integer.rotateLeft(DPrime + ((EPrime & BPrime) | (APrime & ~BPrime)) + X[5] + 0x5C4DD124, 9) + CPrime;
+		APrime = Integer.rotateLeft(APrime, 10);
+		CPrime = Integer.rotateLeft(CPrime + ((DPrime & APrime) | (EPrime & ~APrime)) + X[10] + 0x5C4DD124, 11) + BPrime;
+		EPrime = Integer.rotateLeft(EPrime, 10);
+		BPrime = Integer.rotateLeft(BPrime + ((CPrime & EPrime) | (DPrime & ~EPrime)) + X[14] + 0x5C4DD124, 7) + APrime;
+		DPrime = Integer.rotateLeft(DPrime, 10);
+		APrime = Integer.rotateLeft(APrime + ((BPrime & DPrime) | (CPrime & ~DPrime)) + X[15] + 0x5C4DD124, 7) + EPrime;
+		CPrime = Integer.rotateLeft(CPrime, 10);
+		EPrime = Integer.rotateLeft(EPrime + ((APrime & CPrime) | (BPrime & ~CPrime)) + X[8] + 0x5C4DD124, 12) + DPrime;
+		BPrime = Integer.rotateLeft(BPrime, 10);
+		DPrime = Integer.rotateLeft(DPrime + ((EPrime & BPrime) | (APrime & ~BPrime)) + X[12] + 0x5C4DD124, 7) + CPrime;
+		APrime = Integer.rotateLeft(APrime, 10);
+		CPrime = Integer.rotateLeft(CPrime + ((DPrime & APrime) | (EPrime & ~APrime)) + X[4] + 0x5C4DD124, 6) + BPrime;
+		EPrime = Integer.rotateLeft(EPrime, 10);
+		BPrime = Integer.rotateLeft(BPrime + ((CPrime & EPrime) | (DPrime & ~EPrime)) + X[9] + 0x5C4DD124, 15) + APrime;
+		DPrime = Integer.rotateLeft(DPrime, 10);
+		APrime = Integer.rotateLeft(APrime + ((BPrime & DPrime) | (CPrime & ~DPrime)) + X[1] + 0x5C4DD124, 13) + EPrime;
+		CPrime = Integer.rotateLeft(CPrime, 10);
+		EPrime = Integer.rotateLeft(EPrime + ((APrime & CPrime) | (BPrime & ~CPrime)) + X[2] + 0x5C4DD124, 11) + DPrime;
+		BPrime = Integer.rotateLeft(BPrime, 10);
+		DPrime = Integer.rotateLeft(DPrime + ((EPrime | ~APrime) ^ BPrime) + X[15] + 0x6D703EF3, 9) + CPrime;
+		APrime = Integer.rotateLeft(APrime, 10);
+		CPrime = Integer.rotateLeft(CPrime + ((DPrime | ~EPrime) ^ APrime) + X[5] + 0x6D703EF3, 7) + BPrime;
+		EPrime = Integer.rotateLeft(EPrime, 10);
+		BPrime = Integer.rotateLeft(BPrime + ((CPrime | ~DPrime) ^ EPrime) + X[1] + 0x6D703EF3, 15) + APrime;
+		DPrime = Integer.rotateLeft(DPrime, 10);
+		APrime = Integer.rotateLeft(APrime + ((BPrime | ~CPrime) ^ DPrime) + X[3] + 0x6D703EF3, 11) + EPrime;
+		CPrime = Integer.rotateLeft(CPrime, 10);
+		EPrime = Integer.rotateLeft(EPrime + ((APrime | ~BPrime) ^ CPrime) + X[7] + 0x6D703EF3, 8) + DPrime;
+		BPrime = Integer.rotateLeft(BPrime, 10);
+		DPrime = Integer.rotateLeft(DPrime + ((EPrime | ~APrime) ^ BPrime) + X[14] + 0x6D703EF3, 6) + CPrime;
+		APrime = Integer.rotateLeft(APrime, 10);
+		CPrime = Integer.rotateLeft(CPrime + ((DPrime | ~EPrime) ^ APrime) + X[6] + 0x6D703EF3, 6) + BPrime;
+		EPrime = Integer.rotateLeft(EPrime, 10);
+		BPrime = Integer.rotateLeft(BPrime + ((CPrime | ~DPrime) ^ EPrime) + X[9] + 0x6D703EF3, 14) + APrime;
+		DPrime = Integer.rotateLeft(DPrime, 10);
+		APrime = Integer.rotateLeft(APrime + ((BPrime | ~CPrime) ^ DPrime) + X[11] + 0x6D703EF3, 12) + EPrime;
+		CPrime = Integer.rotateLeft(CPrime, 10);
+		EPrime = Integer.rotateLeft(EPrime + ((APrime | ~BPrime) ^ CPrime) + X[8] + 0x6D703EF3, 13) + DPrime;
+		BPrime = Integer.rotateLeft(BPrime, 10);
+		DPrime = Integer.rotateLeft(DPrime + ((EPrime | ~APrime) ^ BPrime) + X[12] + 0x6D703EF3, 5) + CPrime;
+		APrime = Integer.rotateLeft(APrime, 10);
+		CPrime = Integer.rotateLeft(CPrime + ((DPrime | ~EPrime) ^ APrime) + X[2] + 0x6D703EF3, 14) + BPrime;
+		EPrime = Integer.rotateLeft(EPrime, 10);
+		BPrime = Integer.rotateLeft(BPrime + ((CPrime | ~DPrime) ^ EPrime) + X[10] + 0x6D703EF3, 13) + APrime;
+		DPrime = Integer.rotateLeft(DPrime, 10);
+		APrime = Integer.rotateLeft(APrime + ((BPrime | ~CPrime) ^ DPrime) + X[0] + 0x6D703EF3, 13) + EPrime;
+		CPrime = Integer.rotateLeft(CPrime, 10);
+		EPrime = Integer.rotateLeft(EPrime + ((APrime | ~BPrime) ^ CPrime) + X[4] + 0x6D703EF3, 7) + DPrime;
+		BPrime = Integer.rotateLeft(BPrime, 10);
+		DPrime = Integer.rotateLeft(DPrime + ((EPrime | ~APrime) ^ BPrime) + X[13] + 0x6D703EF3, 5) + CPrime;
+		APrime = Integer.rotateLeft(APrime, 10);
+		CPrime = Integer.rotateLeft(CPrime + ((DPrime & EPrime) | (~DPrime & APrime)) + X[8] + 0x7A6D76E9, 15) + BPrime;
+		EPrime = Integer.rotateLeft(EPrime, 10);
+		BPrime = Integer.rotateLeft(BPrime + ((CPrime & DPrime) | (~CPrime & EPrime)) + X[6] + 0x7A6D76E9, 5) + APrime;
+		DPrime = Integer.rotateLeft(DPrime, 10);
+		APrime = Integer.rotateLeft(APrime + ((BPrime & CPrime) | (~BPrime & DPrime)) + X[4] + 0x7A6D76E9, 8) + EPrime;
+		CPrime = Integer.rotateLeft(CPrime, 10);
+		EPrime = Integer.rotateLeft(EPrime + ((APrime & BPrime) | (~APrime & CPrime)) + X[1] + 0x7A6D76E9, 11) + DPrime;
+		BPrime = Integer.rotateLeft(BPrime, 10);
+		DPrime = Integer.rotateLeft(DPrime + ((EPrime & APrime) | (~EPrime & BPrime)) + X[3] + 0x7A6D76E9, 14) + CPrime;
+		APrime = Integer.rotateLeft(APrime, 10);
+		CPrime = Integer.rotateLeft(CPrime + ((DPrime & EPrime) | (~DPrime & APrime)) + X[11] + 0x7A6D76E9, 14) + BPrime;
+		EPrime = Integer.rotateLeft(EPrime, 10);
+		BPrime = Integer.rotateLeft(BPrime + ((CPrime & DPrime) | (~CPrime & EPrime)) + X[15] + 0x7A6D76E9, 6) + APrime;
+		DPrime = Integer.rotateLeft(DPrime, 10);
+		APrime = Integer.rotateLeft(APrime + ((BPrime & CPrime) | (~BPrime & DPrime)) + X[0] + 0x7A6D76E9, 14) + EPrime;
+		CPrime = Integer.rotateLeft(CPrime, 10);
+		EPrime = Integer.rotateLeft(EPrime + ((APrime & BPrime) | (~APrime & CPrime)) + X[5] + 0x7A6D76E9, 6) + DPrime;
+		BPrime = Integer.rotateLeft(BPrime, 10);
+		DPrime = Integer.rotateLeft(DPrime + ((EPrime & APrime) | (~EPrime & BPrime)) + X[12] + 0x7A6D76E9, 9) + CPrime;
+		APrime = Integer.rotateLeft(APrime, 10);
+		CPrime = Integer.rotateLeft(CPrime + ((DPrime & EPrime) | (~DPrime & APrime)) + X[2] + 0x7A6D76E9, 12) + BPrime;
+		EPrime = Integer.rotateLeft(EPrime, 10);
+		BPrime = Integer.rotateLeft(BPrime + ((CPrime & DPrime) | (~CPrime & EPrime)) + X[13] + 0x7A6D76E9, 9) + APrime;
+		DPrime = Integer.rotateLeft(DPrime, 10);
+		APrime = Integer.rotateLeft(APrime + ((BPrime & CPrime) | (~BPrime & DPrime)) + X[9] + 0x7A6D76E9, 12) + EPrime;
+		CPrime = Integer.rotateLeft(CPrime, 10);
+		EPrime = Integer.rotateLeft(EPrime + ((APrime & BPrime) | (~APrime & CPrime)) + X[7] + 0x7A6D76E9, 5) + DPrime;
+		BPrime = Integer.rotateLeft(BPrime, 10);
+		DPrime = Integer.rotateLeft(DPrime + ((EPrime & APrime) | (~EPrime & BPrime)) + X[10] + 0x7A6D76E9, 15) + CPrime;
+		APrime = Integer.rotateLeft(APrime, 10);
+		CPrime = Integer.rotateLeft(CPrime + ((DPrime & EPrime) | (~DPrime & APrime)) + X[14] + 0x7A6D76E9, 8) + BPrime;
+		EPrime = Integer.rotateLeft(EPrime, 10);
+		BPrime = Integer.rotateLeft(BPrime + (CPrime ^ DPrime ^ EPrime) + X[12], 8) + APrime;
+		DPrime = Integer.rotateLeft(DPrime, 10);
+		APrime = Integer.rotateLeft(APrime + (BPrime ^ CPrime ^ DPrime) + X[15], 5) + EPrime;
+		CPrime = Integer.rotateLeft(CPrime, 10);
+		EPrime = Integer.rotateLeft(EPrime + (APrime ^ BPrime ^ CPrime) + X[10], 12) + DPrime;
+		BPrime = Integer.rotateLeft(BPrime, 10);
+		DPrime = Integer.rotateLeft(DPrime + (EPrime ^ APrime ^ BPrime) + X[4], 9) + CPrime;
+		APrime = Integer.rotateLeft(APrime, 10);
+		CPrime = Integer.rotateLeft(CPrime + (DPrime ^ EPrime ^ APrime) + X[1], 12) + BPrime;
+		EPrime = Integer.rotateLeft(EPrime, 10);
+		BPrime = Integer.rotateLeft(BPrime + (CPrime ^ DPrime ^ EPrime) + X[5], 5) + APrime;
+		DPrime = Integer.rotateLeft(DPrime, 10);
+		APrime = Integer.rotateLeft(APrime + (BPrime ^ CPrime ^ DPrime) + X[8], 14) + EPrime;
+		CPrime = Integer.rotateLeft(CPrime, 10);
+		EPrime = Integer.rotateLeft(EPrime + (APrime ^ BPrime ^ CPrime) + X[7], 6) + DPrime;
+		BPrime = Integer.rotateLeft(BPrime, 10);
+		DPrime = Integer.rotateLeft(DPrime + (EPrime ^ APrime ^ BPrime) + X[6], 8) + CPrime;
+		APrime = Integer.rotateLeft(APrime, 10);
+		CPrime = Integer.rotateLeft(CPrime + (DPrime ^ EPrime ^ APrime) + X[2], 13) + BPrime;
+		EPrime = Integer.rotateLeft(EPrime, 10);
+		BPrime = Integer.rotateLeft(BPrime + (CPrime ^ DPrime ^ EPrime) + X[13], 6) + APrime;
+		DPrime = Integer.rotateLeft(DPrime, 10);
+		APrime = Integer.rotateLeft(APrime + (BPrime ^ CPrime ^ DPrime) + X[14], 5) + EPrime;
+		CPrime = Integer.rotateLeft(CPrime, 10);
+		EPrime = Integer.rotateLeft(EPrime + (APrime ^ BPrime ^ CPrime) + X[0], 15) + DPrime;
+		BPrime = Integer.rotateLeft(BPrime, 10);
+		DPrime = Integer.rotateLeft(DPrime + (EPrime ^ APrime ^ BPrime) + X[3], 13) + CPrime;
+		APrime = Integer.rotateLeft(APrime, 10);
+		CPrime = Integer.rotateLeft(CPrime + (DPrime ^ EPrime ^ APrime) + X[9], 11) + BPrime;
+		EPrime = Integer.rotateLeft(EPrime, 10);
+		BPrime = Integer.rotateLeft(BPrime + (CPrime ^ DPrime ^ EPrime) + X[11], 11) + APrime;
+		DPrime = Integer.rotateLeft(DPrime, 10);
+
+		/* combine results */
+		DPrime += C + h1;
+		h1 = h2 + D + EPrime;
+		h2 = h3 + E + APrime;
+		h3 = h4 + A + BPrime;
+		h4 = h0 + B + CPrime;
+		h0 = DPrime;
+
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.cryptokitty.digest.Digest#writeState(java.io.DataOutput)
+	 */
+	@Override
+	protected void writeState(DataOutput out) throws IOException {
+
+		out.writeInt(h0);
+		out.writeInt(h1);
+		out.writeInt(h2);
+		out.writeInt(h3);
+		out.writeInt(h4);
+
 	}
 
 }
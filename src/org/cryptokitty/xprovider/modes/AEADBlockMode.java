@@ -1,24 +1,51 @@
 /**
- * 
+ *
  */
 package org.cryptokitty.xprovider.modes;
 
 import java.security.InvalidAlgorithmParameterException;
 import java.security.spec.AlgorithmParameterSpec;
 
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.spec.GCMParameterSpec;
 
 /**
  * @author stevebrenneis
  *
+ * Authenticated block modes. Besides the stream methods of BlockMode,
+ * these modes can be driven incrementally: start, any number of
+ * authentication data updates, any number of text updates, then finish.
  */
-public abstract class AEADBlockMode implements BlockMode {
+public abstract class AEADBlockMode implements IncrementalBlockMode {
+
+	/**
+	 * Finish the operation with the last of the input. On encryption the
+	 * authentication tag is written after the ciphertext. On decryption
+	 * the tag is verified before any plaintext is written. Returns the
+	 * number of bytes written to out.
+	 */
+	@Override
+	public abstract int finish(byte[] in, int inOff, int length, byte[] out, int outOff)
+			throws IllegalBlockSizeException, BadPaddingException;
 
 	/**
 	 * Get authentication data
 	 */
 	public abstract byte[] getAuthenticationData();
 
+	/**
+	 * Number of bytes finish will write for length more bytes of input.
+	 */
+	@Override
+	public abstract int getOutputSize(int length);
+
+	/**
+	 * Number of bytes update will write for length bytes of input.
+	 */
+	@Override
+	public abstract int getUpdateOutputSize(int length);
+
 	/**
 	 * Set authentication data.
 	 */
@@ -29,18 +56,43 @@ public abstract class AEADBlockMode implements BlockMode {
 	 */
 	@Override
 	public void setParams(AlgorithmParameterSpec params) throws InvalidAlgorithmParameterException {
-		
+
 		if (params instanceof GCMParameterSpec) {
 
+			if (((GCMParameterSpec)params).getTLen() != 128) {
+				throw new InvalidAlgorithmParameterException("Only 128 bit tags are supported");
+			}
 			setIV(((GCMParameterSpec)params).getIV());
 
 		}
 		else {
-			
+
 			throw new InvalidAlgorithmParameterException("Invalid AAD parameter");
-			
+
 		}
 
 	}
 
+	/**
+	 * Begin an incremental encryption or decryption with the current
+	 * key and IV. Any authentication data set with setAuthenticationData
+	 * is hashed first.
+	 */
+	@Override
+	public abstract void start(boolean encrypt) throws IllegalBlockSizeException;
+
+	/**
+	 * Process more of the input. Returns the number of bytes written
+	 * to out.
+	 */
+	@Override
+	public abstract int update(byte[] in, int inOff, int length, byte[] out, int outOff)
+			throws IllegalBlockSizeException;
+
+	/**
+	 * Add authentication data. All of it must be supplied before the
+	 * first text update.
+	 */
+	public abstract void updateAuthenticationData(byte[] ad, int offset, int length);
+
 }
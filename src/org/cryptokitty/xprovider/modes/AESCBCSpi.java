@@ -0,0 +1,25 @@
+/**
+ * 
+ */
+package org.cryptokitty.xprovider.modes;
+
+import org.cryptokitty.xprovider.CKProvider;
+
+/**
+ * @author stevebrenneis
+ *
+ */
+public class AESCBCSpi extends CKBlockModeSpi {
+
+	/**
+	 * 
+	 */
+	public AESCBCSpi() {
+		
+		mode = new CBC();
+		mode.setBlockCipher(CKProvider.newAESEngine());
+		algorithm = "AES";
+		
+	}
+
+}
@@ -3,7 +3,7 @@
  */
 package org.cryptokitty.xprovider.modes;
 
-import org.cryptokitty.xprovider.cipher.AES;
+import org.cryptokitty.xprovider.CKProvider;
 
 /**
  * @author stevebrenneis
@@ -17,7 +17,8 @@ public class AESCFBSpi extends CKBlockModeSpi {
 	public AESCFBSpi() {
 		
 		mode = new CFB();
-		mode.setBlockCipher(new AES());
+		mode.setBlockCipher(CKProvider.newAESEngine());
+		algorithm = "AES";
 		
 	}
 
@@ -0,0 +1,25 @@
+/**
+ * 
+ */
+package org.cryptokitty.xprovider.modes;
+
+import org.cryptokitty.xprovider.CKProvider;
+
+/**
+ * @author stevebrenneis
+ *
+ */
+public class AESCTRSpi extends CKBlockModeSpi {
+
+	/**
+	 * 
+	 */
+	public AESCTRSpi() {
+		
+		mode = new CTR();
+		mode.setBlockCipher(CKProvider.newAESEngine());
+		algorithm = "AES";
+		
+	}
+
+}
@@ -3,6 +3,8 @@
  */
 package org.cryptokitty.xprovider.modes;
 
+import org.cryptokitty.xprovider.CKProvider;
+
 /**
  * @author stevebrenneis
  *
@@ -14,8 +16,7 @@ public class AESGCMSpi extends CKBlockModeSpi {
 	 */
 	public AESGCMSpi() {
 		
-		//mode = new GCM();
-		//mode.setBlockCipher(new AES());
+		mode = new GCM(CKProvider.newAESEngine());
 
 	}
 
@@ -0,0 +1,23 @@
+/**
+ * 
+ */
+package org.cryptokitty.xprovider.modes;
+
+import org.cryptokitty.xprovider.CKProvider;
+
+/**
+ * @author stevebrenneis
+ *
+ */
+public class AESOCBSpi extends CKBlockModeSpi {
+
+	/**
+	 * 
+	 */
+	public AESOCBSpi() {
+		
+		mode = new OCB(CKProvider.newAESEngine());
+
+	}
+
+}
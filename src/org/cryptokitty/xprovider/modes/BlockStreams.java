@@ -0,0 +1,61 @@
+/**
+ * 
+ */
+package org.cryptokitty.xprovider.modes;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * @author Steve Brenneis
+ *
+ * Stream and buffer helpers shared by the block modes. The modes work
+ * through a fixed buffer of whole blocks so they don't allocate per
+ * block.
+ */
+final class BlockStreams {
+
+	/*
+	 * Number of cipher blocks in a mode's working buffer.
+	 */
+	static final int BUFFER_BLOCKS = 256;
+
+	/**
+	 * Not instantiated.
+	 */
+	private BlockStreams() {
+	}
+
+	/**
+	 * Read from the stream until the buffer range is full or the stream
+	 * ends. Returns the number of bytes read, which is less than length
+	 * only at the end of the stream.
+	 */
+	static int fill(InputStream in, byte[] buffer, int offset, int length)
+			throws IOException {
+
+		int total = 0;
+		while (total < length) {
+			int read = in.read(buffer, offset + total, length - total);
+			if (read < 0) {
+				break;
+			}
+			total += read;
+		}
+		return total;
+
+	}
+
+	/**
+	 * True if the output range is in the same array as the input range,
+	 * at a different offset, and the two overlap. Lanes running in
+	 * parallel over such a run can overwrite input that another lane
+	 * hasn't read yet, whichever way the output is shifted.
+	 */
+	static boolean overlaps(byte[] in, int inOff, byte[] out, int outOff, int length) {
+
+		return in == out && inOff != outOff && outOff < inOff + length && inOff < outOff + length;
+
+	}
+
+}
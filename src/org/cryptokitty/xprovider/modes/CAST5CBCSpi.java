@@ -0,0 +1,25 @@
+/**
+ * 
+ */
+package org.cryptokitty.xprovider.modes;
+
+import org.cryptokitty.xprovider.cipher.CAST5;
+
+/**
+ * @author stevebrenneis
+ *
+ */
+public class CAST5CBCSpi extends CKBlockModeSpi {
+
+	/**
+	 * 
+	 */
+	public CAST5CBCSpi() {
+		
+		mode = new CBC();
+		mode.setBlockCipher(new CAST5());
+		algorithm = "CAST5";
+		
+	}
+
+}
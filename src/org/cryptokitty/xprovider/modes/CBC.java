@@ -0,0 +1,559 @@
+/**
+ *
+ */
+package org.cryptokitty.xprovider.modes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.cryptokitty.xprovider.CKProvider;
+import org.cryptokitty.xprovider.WorkerPool;
+import org.cryptokitty.xprovider.cipher.BlockCipher;
+
+/**
+ * @author stevebrenneis
+ *
+ * Cipher block chaining mode with PKCS #7 padding. See NIST SP 800-38A,
+ * section 6.2, and RFC 5652, section 6.3. Encryption always adds one to
+ * a block of padding. Decryption holds back the last block until finish
+ * so the padding can be checked and removed.
+ *
+ * Encryption is serial, but each decrypted block needs only its own
+ * ciphertext block and the one before it. Runs of whole blocks at or
+ * above the parallel threshold are decrypted in chunks on the shared
+ * worker pool.
+ */
+public class CBC implements IncrementalBlockMode {
+
+	/**
+	 * Default parallel threshold in bytes.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 64 * 1024;
+
+	/*
+	 * Smallest chunk given to a worker, in blocks.
+	 */
+	private static final int MIN_CHUNK_BLOCKS = 1024;
+
+	/*
+	 * One worker's share of a parallel decryption. The cipher is a copy
+	 * that shares the key material.
+	 */
+	private static final class Lane implements Callable<Void> {
+		Lane(BlockCipher cipher) {
+			this.cipher = cipher;
+			previous = new byte[cipher.getBlockSize()];
+			block = new byte[cipher.getBlockSize()];
+		}
+		final BlockCipher cipher;
+		final byte[] previous;
+		final byte[] block;
+		byte[] in;
+		int inOff;
+		byte[] out;
+		int outOff;
+		int length;
+		@Override
+		public Void call() throws IllegalBlockSizeException {
+			decrypt(cipher, previous, block, in, inOff, out, outOff, length);
+			return null;
+		}
+	}
+
+	/*
+	 * Decryption scratch block.
+	 */
+	private byte[] block;
+
+	/*
+	 * The cipher block size.
+	 */
+	private int blockSize;
+
+	/*
+	 * Stream input buffer. A whole number of blocks.
+	 */
+	private byte[] buffer;
+
+	/*
+	 * The chaining block. The IV, then the last ciphertext block.
+	 */
+	private byte[] chain;
+
+	/*
+	 * The block cipher.
+	 */
+	private BlockCipher cipher;
+
+	/*
+	 * True when encrypting.
+	 */
+	private boolean encrypting;
+
+	/*
+	 * The initialization vector.
+	 */
+	private byte[] iv;
+
+	/*
+	 * Stream output buffer. One block more than the input buffer.
+	 */
+	private byte[] output;
+
+	/*
+	 * Input held between updates. Less than a block when encrypting,
+	 * up to a whole block when decrypting.
+	 */
+	private byte[] pending;
+
+	/*
+	 * Bytes of held input.
+	 */
+	private int pendingLength;
+
+	/*
+	 * Size in bytes at or above which a run of blocks is decrypted
+	 * in parallel. Zero or less disables the parallel path.
+	 */
+	private int parallelThreshold;
+
+	/*
+	 * Workers for the parallel path. Built on first use after a key change.
+	 */
+	private Lane[] lanes;
+
+	/*
+	 * Task list for the parallel path.
+	 */
+	private List<Callable<Void>> tasks;
+
+	/**
+	 *
+	 */
+	public CBC() {
+
+		parallelThreshold = Integer.getInteger(CKProvider.CBC_PARALLEL_THRESHOLD,
+												DEFAULT_PARALLEL_THRESHOLD);
+		tasks = new ArrayList<Callable<Void>>();
+
+	}
+
+	/**
+	 *
+	 */
+	public CBC(BlockCipher cipher) {
+
+		this();
+		setBlockCipher(cipher);
+
+	}
+
+	/*
+	 * Encrypt or decrypt a run of whole blocks.
+	 */
+	private void crypt(byte[] in, int inOff, byte[] out, int outOff, int length)
+			throws IllegalBlockSizeException {
+
+		if (encrypting) {
+			for (int i = 0; i < length; i += blockSize) {
+				for (int j = 0; j < blockSize; ++j) {
+					chain[j] ^= in[inOff + i + j];
+				}
+				cipher.encryptBlock(chain, 0, out, outOff + i);
+				System.arraycopy(out, outOff + i, chain, 0, blockSize);
+			}
+		}
+		else if (isParallel(length)) {
+			parallel(in, inOff, out, outOff, length);
+		}
+		else {
+			decrypt(cipher, chain, block, in, inOff, out, outOff, length);
+		}
+
+	}
+
+	/*
+	 * Decrypt a run of whole blocks, starting from the previous
+	 * ciphertext block. Each ciphertext block is saved before its
+	 * plaintext is written, so the run can be decrypted in place. The
+	 * previous block is left holding the last ciphertext block.
+	 */
+	private static void decrypt(BlockCipher cipher, byte[] previous, byte[] block,
+									byte[] in, int inOff, byte[] out, int outOff, int length)
+			throws IllegalBlockSizeException {
+
+		int blockSize = previous.length;
+		for (int i = 0; i < length; i += blockSize) {
+			cipher.decryptBlock(in, inOff + i, block, 0);
+			for (int j = 0; j < blockSize; ++j) {
+				block[j] ^= previous[j];
+			}
+			System.arraycopy(in, inOff + i, previous, 0, blockSize);
+			System.arraycopy(block, 0, out, outOff + i, blockSize);
+		}
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.BlockMode#decrypt(java.io.InputStream, java.io.OutputStream)
+	 */
+	@Override
+	public void decrypt(InputStream ciphertext, OutputStream plaintext)
+			throws IllegalBlockSizeException, BadPaddingException, IOException {
+
+		start(false);
+		byte[] buffer = getBuffer();
+		int read = BlockStreams.fill(ciphertext, buffer, 0, buffer.length);
+		while (read > 0) {
+			plaintext.write(output, 0, update(buffer, 0, read, output, 0));
+			read = read < buffer.length ? 0
+					: BlockStreams.fill(ciphertext, buffer, 0, buffer.length);
+		}
+		plaintext.write(output, 0, finish(buffer, 0, 0, output, 0));
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.BlockMode#encrypt(java.io.InputStream, java.io.OutputStream)
+	 */
+	@Override
+	public void encrypt(InputStream plaintext, OutputStream ciphertext)
+			throws IllegalBlockSizeException, BadPaddingException, IOException {
+
+		start(true);
+		byte[] buffer = getBuffer();
+		int read = BlockStreams.fill(plaintext, buffer, 0, buffer.length);
+		while (read > 0) {
+			ciphertext.write(output, 0, update(buffer, 0, read, output, 0));
+			read = read < buffer.length ? 0
+					: BlockStreams.fill(plaintext, buffer, 0, buffer.length);
+		}
+		ciphertext.write(output, 0, finish(buffer, 0, 0, output, 0));
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.IncrementalBlockMode#finish(byte[], int, int, byte[], int)
+	 */
+	@Override
+	public int finish(byte[] in, int inOff, int length, byte[] out, int outOff)
+			throws IllegalBlockSizeException, BadPaddingException {
+
+		if (encrypting) {
+			int written = update(in, inOff, length, out, outOff);
+			byte pad = (byte)(blockSize - pendingLength);
+			Arrays.fill(pending, pendingLength, blockSize, pad);
+			pendingLength = 0;
+			crypt(pending, 0, out, outOff + written, blockSize);
+			return written + blockSize;
+		}
+
+		int total = pendingLength + length;
+		if (total == 0 || total % blockSize != 0) {
+			throw new IllegalBlockSizeException("Input is not a multiple of the block size");
+		}
+		int written = update(in, inOff, length, out, outOff);
+		decrypt(cipher, chain, block, pending, 0, pending, 0, blockSize);
+		pendingLength = 0;
+
+		int pad = pending[blockSize - 1] & 0xff;
+		if (pad == 0 || pad > blockSize) {
+			throw new BadPaddingException("Invalid padding");
+		}
+		int bad = 0;
+		for (int i = blockSize - pad; i < blockSize; ++i) {
+			bad |= (pending[i] & 0xff) ^ pad;
+		}
+		if (bad != 0) {
+			throw new BadPaddingException("Invalid padding");
+		}
+		System.arraycopy(pending, 0, out, outOff + written, blockSize - pad);
+		return written + blockSize - pad;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.BlockMode#getBlockSize()
+	 */
+	@Override
+	public int getBlockSize() {
+
+		return cipher.getBlockSize();
+
+	}
+
+	/*
+	 * Get the stream buffers. Decryption reads large enough windows for
+	 * a chunk per worker.
+	 */
+	private byte[] getBuffer() {
+
+		int size = blockSize * BlockStreams.BUFFER_BLOCKS;
+		if (!encrypting && parallelThreshold > 0 && WorkerPool.getParallelism() > 1) {
+			size = Math.max(parallelThreshold,
+							MIN_CHUNK_BLOCKS * blockSize * WorkerPool.getParallelism());
+			size += (blockSize - (size % blockSize)) % blockSize;
+		}
+		if (buffer == null || buffer.length != size) {
+			buffer = new byte[size];
+			output = new byte[size + blockSize];
+		}
+		return buffer;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.BlockMode#getIV()
+	 */
+	@Override
+	public byte[] getIV() {
+
+		return iv;
+
+	}
+
+	/*
+	 * Get the workers, building them if the key has changed.
+	 */
+	private Lane[] getLanes() {
+
+		if (lanes == null) {
+			lanes = new Lane[WorkerPool.getParallelism()];
+			for (int i = 0; i < lanes.length; ++i) {
+				lanes[i] = new Lane(cipher.copy());
+			}
+		}
+		return lanes;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.IncrementalBlockMode#getOutputSize(int)
+	 */
+	@Override
+	public int getOutputSize(int length) {
+
+		int total = pendingLength + length;
+		// Decryption removes at least one byte of padding.
+		return encrypting ? total - (total % blockSize) + blockSize : total;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.IncrementalBlockMode#getUpdateOutputSize(int)
+	 */
+	@Override
+	public int getUpdateOutputSize(int length) {
+
+		int total = pendingLength + length;
+		if (encrypting) {
+			return total - (total % blockSize);
+		}
+		// Hold back the last block for the padding.
+		return total <= blockSize ? 0 : ((total - 1) / blockSize) * blockSize;
+
+	}
+
+	/*
+	 * True if a run of length bytes should be decrypted in parallel.
+	 */
+	private boolean isParallel(int length) {
+
+		return parallelThreshold > 0 && length >= parallelThreshold
+				&& length >= MIN_CHUNK_BLOCKS * blockSize * 2 && WorkerPool.getParallelism() > 1;
+
+	}
+
+	/*
+	 * Decrypt a run of whole blocks, split into chunks on the worker
+	 * pool. Each chunk's previous block is the ciphertext block before
+	 * it, copied before any chunk runs so the run can be decrypted in
+	 * place. Input that overlaps the output at another offset is copied
+	 * first. The chaining block is left holding the last ciphertext block.
+	 */
+	private void parallel(byte[] in, int inOff, byte[] out, int outOff, int length)
+			throws IllegalBlockSizeException {
+
+		if (BlockStreams.overlaps(in, inOff, out, outOff, length)) {
+			in = Arrays.copyOfRange(in, inOff, inOff + length);
+			inOff = 0;
+		}
+
+		Lane[] lanes = getLanes();
+		int blocks = length / blockSize;
+		int chunks = Math.min(lanes.length, blocks / MIN_CHUNK_BLOCKS);
+		int chunkBlocks = (blocks + chunks - 1) / chunks;
+
+		tasks.clear();
+		for (int i = 0; i < chunks && i * chunkBlocks < blocks; ++i) {
+			int first = i * chunkBlocks;
+			Lane lane = lanes[i];
+			lane.in = in;
+			lane.inOff = inOff + (first * blockSize);
+			lane.out = out;
+			lane.outOff = outOff + (first * blockSize);
+			lane.length = Math.min(chunkBlocks, blocks - first) * blockSize;
+			if (first == 0) {
+				System.arraycopy(chain, 0, lane.previous, 0, blockSize);
+			}
+			else {
+				System.arraycopy(in, lane.inOff - blockSize, lane.previous, 0, blockSize);
+			}
+			tasks.add(lane);
+		}
+		System.arraycopy(in, inOff + length - blockSize, chain, 0, blockSize);
+
+		WorkerPool.runAll(tasks);
+
+		// Don't hold on to the caller's arrays.
+		for (int i = 0; i < tasks.size(); ++i) {
+			lanes[i].in = null;
+			lanes[i].out = null;
+		}
+		tasks.clear();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.BlockMode#reset()
+	 */
+	@Override
+	public void reset() {
+
+		if (iv != null) {
+			System.arraycopy(iv, 0, chain, 0, blockSize);
+		}
+		pendingLength = 0;
+		cipher.reset();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.BlockMode#setBlockCipher(org.cryptokitty.xprovider.cipher.BlockCipher)
+	 */
+	@Override
+	public void setBlockCipher(BlockCipher cipher) {
+
+		this.cipher = cipher;
+		blockSize = cipher.getBlockSize();
+		block = new byte[blockSize];
+		chain = new byte[blockSize];
+		pending = new byte[blockSize];
+		pendingLength = 0;
+		buffer = null;
+		lanes = null;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.BlockMode#setIV(byte[])
+	 */
+	@Override
+	public void setIV(byte[] iv) {
+
+		this.iv = iv.clone();
+		System.arraycopy(iv, 0, chain, 0, blockSize);
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.BlockMode#setKey(byte[])
+	 */
+	@Override
+	public void setKey(byte[] key) throws InvalidKeyException {
+
+		cipher.setKey(key);
+		lanes = null;
+
+	}
+
+	/**
+	 * Set the size in bytes at or above which a run of blocks is
+	 * decrypted in parallel. Zero or less disables the parallel path.
+	 */
+	public void setParallelThreshold(int threshold) {
+
+		parallelThreshold = threshold;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.BlockMode#setParams(java.security.spec.AlgorithmParameterSpec)
+	 */
+	@Override
+	public void setParams(AlgorithmParameterSpec params) throws InvalidAlgorithmParameterException {
+
+		if (!(params instanceof IvParameterSpec)) {
+			throw new InvalidAlgorithmParameterException("IV parameter required");
+		}
+		byte[] iv = ((IvParameterSpec)params).getIV();
+		if (iv.length != blockSize) {
+			throw new InvalidAlgorithmParameterException("IV must be one block");
+		}
+		setIV(iv);
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.IncrementalBlockMode#start(boolean)
+	 */
+	@Override
+	public void start(boolean encrypt) throws IllegalBlockSizeException {
+
+		encrypting = encrypt;
+		reset();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.IncrementalBlockMode#update(byte[], int, int, byte[], int)
+	 */
+	@Override
+	public int update(byte[] in, int inOff, int length, byte[] out, int outOff)
+			throws IllegalBlockSizeException {
+
+		// Output lags the input by the held bytes. Output that overlaps
+		// input ahead of it would overwrite input that hasn't been read.
+		if (in == out && outOff > inOff - pendingLength && outOff < inOff + length) {
+			in = Arrays.copyOfRange(in, inOff, inOff + length);
+			inOff = 0;
+		}
+
+		int outputLength = getUpdateOutputSize(length);
+		int written = 0;
+		if (outputLength > 0 && pendingLength > 0) {
+			int count = blockSize - pendingLength;
+			System.arraycopy(in, inOff, pending, pendingLength, count);
+			crypt(pending, 0, out, outOff, blockSize);
+			pendingLength = 0;
+			inOff += count;
+			length -= count;
+			written = blockSize;
+		}
+		if (outputLength > written) {
+			crypt(in, inOff, out, outOff + written, outputLength - written);
+			inOff += outputLength - written;
+			length -= outputLength - written;
+		}
+
+		if (length > 0) {
+			System.arraycopy(in, inOff, pending, pendingLength, length);
+			pendingLength += length;
+		}
+		return outputLength;
+
+	}
+
+}
@@ -6,24 +6,76 @@ import java.io.OutputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.spec.IvParameterSpec;
 
+import org.cryptokitty.xprovider.CKProvider;
+import org.cryptokitty.xprovider.WorkerPool;
 import org.cryptokitty.xprovider.cipher.BlockCipher;
 
 /**
  * @author Steve Brenneis
  *
+ * Cipher feedback mode with a full block feedback register. See NIST
+ * SP 800-38A, section 6.3.
+ *
+ * Encryption is serial, but each decrypted block needs only the
+ * ciphertext block before it. When the worker pool has more than one
+ * thread, decryption reads the ciphertext in large windows and splits
+ * the whole blocks of each window into chunks on the pool. Each chunk
+ * starts from the ciphertext block before it.
  */
 public class CFB implements BlockMode {
 
+	/**
+	 * Default parallel threshold in bytes.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 64 * 1024;
+
+	/*
+	 * Smallest chunk given to a worker, in blocks.
+	 */
+	private static final int MIN_CHUNK_BLOCKS = 1024;
+
+	/*
+	 * One worker's share of a parallel decryption. The cipher is a copy
+	 * that shares the key material.
+	 */
+	private static final class Lane implements Callable<Void> {
+		Lane(BlockCipher cipher) {
+			this.cipher = cipher;
+			feedback = new byte[cipher.getBlockSize()];
+			keystream = new byte[cipher.getBlockSize()];
+		}
+		final BlockCipher cipher;
+		final byte[] feedback;
+		final byte[] keystream;
+		byte[] text;
+		int offset;
+		int length;
+		@Override
+		public Void call() throws IllegalBlockSizeException {
+			decrypt(cipher, feedback, keystream, text, offset, length);
+			return null;
+		}
+	}
+
 	/*
 	 * The cipher block size.
 	 */
 	private int blockSize;
 
+	/*
+	 * Working buffer. A whole number of blocks.
+	 */
+	private byte[] buffer;
+
 	/*
 	 * The block cipher.
 	 */
@@ -39,10 +91,63 @@ public class CFB implements BlockMode {
 	 */
 	private byte[] iv;
 
+	/*
+	 * Cipher output for the current feedback block.
+	 */
+	private byte[] keystream;
+
+	/*
+	 * Size in bytes at or above which a window of ciphertext is
+	 * decrypted in parallel. Zero or less disables the parallel path.
+	 */
+	private int parallelThreshold;
+
+	/*
+	 * Workers for the parallel path. Built on first use after a key change.
+	 */
+	private Lane[] lanes;
+
+	/*
+	 * Task list for the parallel path.
+	 */
+	private List<Callable<Void>> tasks;
+
+	/*
+	 * Ciphertext window for parallel decryption. A whole number of blocks.
+	 */
+	private byte[] window;
+
 	/**
 	 * 
 	 */
 	public CFB() {
+
+		parallelThreshold = Integer.getInteger(CKProvider.CFB_PARALLEL_THRESHOLD,
+												DEFAULT_PARALLEL_THRESHOLD);
+		tasks = new ArrayList<Callable<Void>>();
+
+	}
+
+	/*
+	 * Decrypt length bytes of text in place, starting from the feedback
+	 * register. The feedback register is left holding the last
+	 * ciphertext block.
+	 */
+	private static void decrypt(BlockCipher cipher, byte[] feedback, byte[] keystream,
+									byte[] text, int offset, int length)
+			throws IllegalBlockSizeException {
+
+		int blockSize = feedback.length;
+		for (int i = 0; i < length; i += blockSize) {
+			cipher.encryptBlock(feedback, 0, keystream, 0);
+			int count = Math.min(blockSize, length - i);
+			for (int n = 0; n < count; ++n) {
+				byte c = text[offset + i + n];
+				text[offset + i + n] = (byte)(c ^ keystream[n]);
+				feedback[n] = c;
+			}
+		}
+
 	}
 
 	/* (non-Javadoc)
@@ -52,14 +157,20 @@ public class CFB implements BlockMode {
 	public void decrypt(InputStream cipherstream, OutputStream plainstream)
 			throws IllegalBlockSizeException, BadPaddingException, IOException {
 
-		byte[] ciphertext = new byte[blockSize];
-		int read = cipherstream.read(ciphertext);
+		byte[] text = isParallel() ? getWindow() : buffer;
+		int read = BlockStreams.fill(cipherstream, text, 0, text.length);
 		while (read > 0) {
-			byte[] cipherblock = cipher.encrypt(feedback);
-			byte[] plaintext = xor(ciphertext, cipherblock);
-			feedback = Arrays.copyOf(ciphertext, read);
-			plainstream.write(Arrays.copyOf(plaintext, read));
-			read = cipherstream.read(ciphertext);
+			int whole = read - (read % blockSize);
+			if (whole >= parallelThreshold && whole >= MIN_CHUNK_BLOCKS * blockSize * 2) {
+				parallel(text, whole);
+				decrypt(cipher, feedback, keystream, text, whole, read - whole);
+			}
+			else {
+				decrypt(cipher, feedback, keystream, text, 0, read);
+			}
+			plainstream.write(text, 0, read);
+			read = read < text.length ? 0
+					: BlockStreams.fill(cipherstream, text, 0, text.length);
 		}
 
 	}
@@ -71,14 +182,19 @@ public class CFB implements BlockMode {
 	public void encrypt(InputStream plainstream, OutputStream cipherstream)
 			throws IllegalBlockSizeException, BadPaddingException, IOException {
 
-		byte[] plaintext = new byte[blockSize];
-		int read = plainstream.read(plaintext);
+		int read = BlockStreams.fill(plainstream, buffer, 0, buffer.length);
 		while (read > 0) {
-			byte[] cipherblock = cipher.encrypt(feedback);
-			byte[] ciphertext = xor(plaintext, cipherblock);
-			feedback = Arrays.copyOf(ciphertext, read);
-			cipherstream.write(Arrays.copyOf(ciphertext, read));
-			read = plainstream.read(plaintext);
+			for (int offset = 0; offset < read; offset += blockSize) {
+				cipher.encryptBlock(feedback, 0, keystream, 0);
+				int length = Math.min(blockSize, read - offset);
+				for (int n = 0; n < length; ++n) {
+					buffer[offset + n] ^= keystream[n];
+					feedback[n] = buffer[offset + n];
+				}
+			}
+			cipherstream.write(buffer, 0, read);
+			read = read < buffer.length ? 0
+					: BlockStreams.fill(plainstream, buffer, 0, buffer.length);
 		}
 
 	}
@@ -103,13 +219,93 @@ public class CFB implements BlockMode {
 
 	}
 
+	/*
+	 * Get the workers, building them if the key has changed.
+	 */
+	private Lane[] getLanes() {
+
+		if (lanes == null) {
+			lanes = new Lane[WorkerPool.getParallelism()];
+			for (int i = 0; i < lanes.length; ++i) {
+				lanes[i] = new Lane(cipher.copy());
+			}
+		}
+		return lanes;
+
+	}
+
+	/*
+	 * Get the parallel decryption window. Large enough for a chunk per
+	 * worker and at least the parallel threshold.
+	 */
+	private byte[] getWindow() {
+
+		int size = Math.max(parallelThreshold,
+							MIN_CHUNK_BLOCKS * blockSize * WorkerPool.getParallelism());
+		size += (blockSize - (size % blockSize)) % blockSize;
+		if (window == null || window.length != size) {
+			window = new byte[size];
+		}
+		return window;
+
+	}
+
+	/*
+	 * True if decryption should read windows for the parallel path.
+	 */
+	private boolean isParallel() {
+
+		return parallelThreshold > 0 && WorkerPool.getParallelism() > 1;
+
+	}
+
+	/*
+	 * Decrypt a run of whole blocks in place, split into chunks on the
+	 * worker pool. Each chunk's feedback register is the ciphertext block
+	 * before it, copied before any chunk runs. The feedback register is
+	 * left holding the last ciphertext block of the run.
+	 */
+	private void parallel(byte[] text, int length) throws IllegalBlockSizeException {
+
+		Lane[] lanes = getLanes();
+		int blocks = length / blockSize;
+		int chunks = Math.min(lanes.length, blocks / MIN_CHUNK_BLOCKS);
+		int chunkBlocks = (blocks + chunks - 1) / chunks;
+
+		tasks.clear();
+		for (int i = 0; i < chunks && i * chunkBlocks < blocks; ++i) {
+			int first = i * chunkBlocks;
+			Lane lane = lanes[i];
+			lane.text = text;
+			lane.offset = first * blockSize;
+			lane.length = Math.min(chunkBlocks, blocks - first) * blockSize;
+			if (first == 0) {
+				System.arraycopy(feedback, 0, lane.feedback, 0, blockSize);
+			}
+			else {
+				System.arraycopy(text, lane.offset - blockSize, lane.feedback, 0, blockSize);
+			}
+			tasks.add(lane);
+		}
+		System.arraycopy(text, length - blockSize, feedback, 0, blockSize);
+
+		WorkerPool.runAll(tasks);
+
+		// Don't hold on to the caller's arrays.
+		for (int i = 0; i < tasks.size(); ++i) {
+			lanes[i].text = null;
+		}
+		tasks.clear();
+
+	}
+
 	/* (non-Javadoc)
 	 * @see org.cryptokitty.provider.modes.BlockMode#reset()
 	 */
 	@Override
 	public void reset() {
 		
-		feedback = Arrays.copyOf(iv, iv.length);
+		System.arraycopy(iv, 0, feedback, 0, iv.length);
 		cipher.reset();
 
 	}
@@ -121,6 +317,11 @@ public class CFB implements BlockMode {
 	public void setBlockCipher(BlockCipher cipher) {
 
 		this.cipher = cipher;
+		blockSize = cipher.getBlockSize();
+		buffer = new byte[blockSize * BlockStreams.BUFFER_BLOCKS];
+		keystream = new byte[blockSize];
+		window = null;
+		lanes = null;
 
 	}
 
@@ -142,6 +343,17 @@ public class CFB implements BlockMode {
 	public void setKey(byte[] key) throws InvalidKeyException {
 
 		cipher.setKey(key);
+		lanes = null;
+
+	}
+
+	/**
+	 * Set the size in bytes at or above which a window of ciphertext is
+	 * decrypted in parallel. Zero or less disables the parallel path.
+	 */
+	public void setParallelThreshold(int threshold) {
+
+		parallelThreshold = threshold;
 
 	}
 
@@ -150,19 +362,16 @@ public class CFB implements BlockMode {
 	 */
 	@Override
 	public void setParams(AlgorithmParameterSpec params) throws InvalidAlgorithmParameterException {
-		// Nothing to do.
-		
-	}
 
-	/**
-	 * Exclusive or function.
-	 */
-	private byte[] xor(byte[] x1, byte[] x2) {
-		byte[] result = new byte[x1.length];
-		for (int i = 0; i < result.length; i++) {
-			result[i] = (byte)(x1[i] ^ x2[i]);
+		if (!(params instanceof IvParameterSpec)) {
+			throw new InvalidAlgorithmParameterException("IV parameter required");
 		}
-		return result;
+		byte[] iv = ((IvParameterSpec)params).getIV();
+		if (iv.length != blockSize) {
+			throw new InvalidAlgorithmParameterException("IV must be one block");
+		}
+		setIV(iv);
+
 	}
 
 }
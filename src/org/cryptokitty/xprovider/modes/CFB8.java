@@ -22,15 +22,20 @@ import org.cryptokitty.xprovider.cipher.BlockCipher;
  * 
  * The shift register is set to the initialization vector and applied to the block
  * cipher. The MSB of the resulting block of ciphertext is exclusive-or'd with the
- * specified segment of plaintext to produce a cipher segment. The cipher segment
- * is then shifted into the shift register from the left (MSB) side and the
- * resulting block is applied to the cipher. The operation is repeated until all
+ * specified segment of plaintext to produce a cipher segment. The shift register
+ * is shifted left by one segment, the cipher segment is shifted in on the right
+ * (LSB) side and the resulting block is applied to the cipher. The operation is repeated until all
  * segments of plaintext have been processed. This is the self-synchronizing stream
- * version of classic CFB.
+ * version of classic CFB. The segment size is 8 bits.
  * 
  */
 public class CFB8 implements BlockMode {
 
+	/*
+	 * Working buffer.
+	 */
+	private byte[] buffer;
+
 	/*
 	 * The block cipher.
 	 */
@@ -70,7 +75,22 @@ public class CFB8 implements BlockMode {
 	public void decrypt(InputStream ciphertext, OutputStream plaintext)
 			throws IllegalBlockSizeException, BadPaddingException, IOException {
 
-		cipherBlock = cipher.encrypt(shiftRegister);
+		int read = BlockStreams.fill(ciphertext, buffer, 0, buffer.length);
+		while (read > 0) {
+			if (read % segmentSize != 0) {
+				throw new IllegalBlockSizeException("Illegal segment");
+			}
+			for (int offset = 0; offset < read; offset += segmentSize) {
+				cipher.encryptBlock(shiftRegister, 0, cipherBlock, 0);
+				shiftIn(buffer, offset);
+				for (int n = 0; n < segmentSize; n++) {
+					buffer[offset + n] ^= cipherBlock[n];
+				}
+			}
+			plaintext.write(buffer, 0, read);
+			read = read < buffer.length ? 0
+					: BlockStreams.fill(ciphertext, buffer, 0, buffer.length);
+		}
 
 	}
 
@@ -82,20 +102,21 @@ public class CFB8 implements BlockMode {
 	public void encrypt(InputStream cleartext, OutputStream ciphertext)
 			throws IllegalBlockSizeException, BadPaddingException, IOException {
 
-		byte[] cipherSeg = new byte[segmentSize];
-		byte[] clearSeg = new byte[segmentSize];
-		int read = cleartext.read(clearSeg);
-		while (read == segmentSize) {
-			for (int n = 0; n < segmentSize; n++) {
-				cipherSeg[n] = (byte)(clearSeg[n] ^ cipherBlock[n]);
+		int read = BlockStreams.fill(cleartext, buffer, 0, buffer.length);
+		while (read > 0) {
+			if (read % segmentSize != 0) {
+				throw new IllegalBlockSizeException("Illegal segment");
 			}
-			ciphertext.write(cipherSeg);
-			shiftIn(cipherSeg);
-			cipherBlock = cipher.encrypt(shiftRegister);
-			read = cleartext.read(cipherSeg);
-		}
-		if (read > 0) {
-			throw new IllegalBlockSizeException("Illegal segment");
+			for (int offset = 0; offset < read; offset += segmentSize) {
+				cipher.encryptBlock(shiftRegister, 0, cipherBlock, 0);
+				for (int n = 0; n < segmentSize; n++) {
+					buffer[offset + n] ^= cipherBlock[n];
+				}
+				shiftIn(buffer, offset);
+			}
+			ciphertext.write(buffer, 0, read);
+			read = read < buffer.length ? 0
+					: BlockStreams.fill(cleartext, buffer, 0, buffer.length);
 		}
 
 	}
@@ -126,7 +147,7 @@ public class CFB8 implements BlockMode {
 	@Override
 	public void reset() {
 		
-		shiftRegister = Arrays.copyOf(iv, iv.length);
+		System.arraycopy(iv, 0, shiftRegister, 0, iv.length);
 		cipher.reset();
 
 	}
@@ -138,7 +159,9 @@ public class CFB8 implements BlockMode {
 	public void setBlockCipher(BlockCipher cipher) {
 
 		this.cipher = cipher;
-		segmentSize = cipher.getBlockSize();
+		segmentSize = 1;
+		cipherBlock = new byte[cipher.getBlockSize()];
+		buffer = new byte[cipher.getBlockSize() * BlockStreams.BUFFER_BLOCKS];
 
 	}
 
@@ -166,10 +189,11 @@ public class CFB8 implements BlockMode {
 	/*
 	 * Shift a segment into the shift register.
 	 */
-	private void shiftIn(byte[] segment) {
-		System.arraycopy(shiftRegister, 0, shiftRegister, segmentSize,
+	private void shiftIn(byte[] segment, int offset) {
+		System.arraycopy(shiftRegister, segmentSize, shiftRegister, 0,
 									shiftRegister.length - segmentSize);
-		System.arraycopy(segment, 0, shiftRegister, 0, segmentSize);
+		System.arraycopy(segment, offset, shiftRegister,
+									shiftRegister.length - segmentSize, segmentSize);
 	}
 
 	@Override
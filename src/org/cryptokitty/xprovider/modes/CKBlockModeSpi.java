@@ -11,8 +11,10 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
+import java.security.ProviderException;
 import java.security.SecureRandom;
 import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
 import java.util.Arrays;
 
 import javax.crypto.BadPaddingException;
@@ -21,18 +23,52 @@ import javax.crypto.CipherSpi;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.cryptokitty.xprovider.CKProvider;
 
 /**
  * @author stevebrenneis
  *
+ * Cipher SPI for the block modes. Authenticated and padded modes are
+ * driven incrementally through IncrementalBlockMode, and stream modes
+ * through StreamMode, so update produces output as input arrives. Other
+ * modes are staged until doFinal.
+ *
+ * An authenticated encryption can't be repeated with the same key and
+ * nonce. After an authenticated doFinal in encrypt mode, the cipher must
+ * be initialized again with a new IV before it is used. Initializing
+ * with only a key generates a random IV or nonce for encryption and is
+ * refused for decryption. The IV from an earlier initialization is never
+ * reused.
  */
 public class CKBlockModeSpi extends CipherSpi {
 
+	/**
+	 * Nonce length generated for an authenticated encryption initialized
+	 * with only a key.
+	 */
+	private static final int DEFAULT_NONCE_LENGTH = 12;
+
 	/**
 	 * Plaintext stream.
 	 */
 	private ByteArrayOutputStream text;
 
+	/**
+	 * True after an authenticated encryption has finished, until the
+	 * cipher is initialized again.
+	 */
+	private boolean exhausted;
+
+	/**
+	 * Key and nonce of the last authenticated encryption. They can't be
+	 * used together again.
+	 */
+	private byte[] lastKey;
+	private byte[] lastNonce;
+
 	/**
 	 * Operation mode. Cipher.ENCRYPT or Cipher.DECRYPT.
 	 */
@@ -48,6 +84,11 @@ public class CKBlockModeSpi extends CipherSpi {
 	 */
 	protected BlockMode mode;
 
+	/**
+	 * Cipher name for the IV parameters. Set by the subclass.
+	 */
+	protected String algorithm;
+
 	/**
 	 * Algorithm parameters.
 	 */
@@ -73,14 +114,51 @@ public class CKBlockModeSpi extends CipherSpi {
 
 	}
 
+	/*
+	 * Refuse to continue an authenticated encryption that has finished.
+	 */
+	private void checkUsable() {
+
+		if (exhausted) {
+			throw new IllegalStateException("Cipher must be initialized with a new IV");
+		}
+
+	}
+
 	/* (non-Javadoc)
 	 * @see javax.crypto.CipherSpi#engineDoFinal(byte[], int, int)
 	 */
 	@Override
 	protected byte[] engineDoFinal(byte[] input, int inputOffset, int inputLen)
 			throws IllegalBlockSizeException, BadPaddingException {
+
+		if (mode instanceof IncrementalBlockMode) {
+			checkUsable();
+			IncrementalBlockMode incremental = (IncrementalBlockMode)mode;
+			byte[] output = new byte[incremental.getOutputSize(inputLen)];
+			try {
+				int length = incremental.finish(input, inputOffset, inputLen, output, 0);
+				return length == output.length ? output : Arrays.copyOf(output, length);
+			}
+			finally {
+				finished();
+			}
+		}
+
+		if (mode instanceof StreamMode) {
+			byte[] output = new byte[inputLen];
+			try {
+				streamUpdate(input, inputOffset, inputLen, output, 0);
+				return output;
+			}
+			finally {
+				restart();
+			}
+		}
 		
-		text.write(input, inputLen, inputLen);
+		if (inputLen > 0) {
+			text.write(input, inputOffset, inputLen);
+		}
 		ByteArrayInputStream in = new ByteArrayInputStream(text.toByteArray());
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 
@@ -89,14 +167,18 @@ public class CKBlockModeSpi extends CipherSpi {
 			switch (opmode) {
 				case Cipher.DECRYPT_MODE:
 					mode.decrypt(in, out);
+					break;
 				case Cipher.ENCRYPT_MODE:
 					mode.encrypt(in, out);
+					break;
 			}
-			engineInit(opmode, key, params, random);
 		}
-		catch (InvalidKeyException | InvalidAlgorithmParameterException | IOException e) {
+		catch (IOException e) {
 			// Don't care
 		}
+		finally {
+			restart();
+		}
 		return out.toByteArray();
 
 	}
@@ -107,8 +189,40 @@ public class CKBlockModeSpi extends CipherSpi {
 	@Override
 	protected int engineDoFinal(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
 			throws ShortBufferException, IllegalBlockSizeException, BadPaddingException {
-		// TODO Auto-generated method stub
-		return 0;
+
+		if (mode instanceof IncrementalBlockMode) {
+			checkUsable();
+			IncrementalBlockMode incremental = (IncrementalBlockMode)mode;
+			if (output.length - outputOffset < incremental.getOutputSize(inputLen)) {
+				throw new ShortBufferException("Output buffer too small");
+			}
+			try {
+				return incremental.finish(input, inputOffset, inputLen, output, outputOffset);
+			}
+			finally {
+				finished();
+			}
+		}
+
+		if (mode instanceof StreamMode) {
+			if (output.length - outputOffset < inputLen) {
+				throw new ShortBufferException("Output buffer too small");
+			}
+			try {
+				return streamUpdate(input, inputOffset, inputLen, output, outputOffset);
+			}
+			finally {
+				restart();
+			}
+		}
+
+		if (output.length - outputOffset < engineGetOutputSize(inputLen)) {
+			throw new ShortBufferException("Output buffer too small");
+		}
+		byte[] result = engineDoFinal(input, inputOffset, inputLen);
+		System.arraycopy(result, 0, output, outputOffset, result.length);
+		return result.length;
+
 	}
 
 	/* (non-Javadoc)
@@ -136,8 +250,15 @@ public class CKBlockModeSpi extends CipherSpi {
 	 */
 	@Override
 	protected int engineGetOutputSize(int inputLen) {
-		// This is only used for stream ciphers
-		return 0;
+
+		if (mode instanceof IncrementalBlockMode) {
+			return ((IncrementalBlockMode)mode).getOutputSize(inputLen);
+		}
+		if (mode instanceof StreamMode) {
+			return inputLen;
+		}
+		return text.size() + inputLen;
+
 	}
 
 	/* (non-Javadoc)
@@ -146,7 +267,29 @@ public class CKBlockModeSpi extends CipherSpi {
 	@Override
 	protected AlgorithmParameters engineGetParameters() {
 
-		return params;
+		byte[] iv = mode.getIV();
+		if (iv == null) {
+			return null;
+		}
+		try {
+			AlgorithmParameters parameters;
+			if (mode instanceof AEADBlockMode) {
+				// Only 128 bit tags are supported.
+				parameters = AlgorithmParameters.getInstance("GCM", new CKProvider());
+				parameters.init(new GCMParameterSpec(128, iv));
+			}
+			else if (algorithm != null) {
+				parameters = AlgorithmParameters.getInstance(algorithm, new CKProvider());
+				parameters.init(new IvParameterSpec(iv));
+			}
+			else {
+				return null;
+			}
+			return parameters;
+		}
+		catch (NoSuchAlgorithmException | InvalidParameterSpecException e) {
+			throw new ProviderException(e);
+		}
 
 	}
 
@@ -156,13 +299,57 @@ public class CKBlockModeSpi extends CipherSpi {
 	@Override
 	protected void engineInit(int opmode, Key key, SecureRandom random) throws InvalidKeyException {
 
+		// Never carry a previous IV or nonce forward.
+		if (opmode != Cipher.ENCRYPT_MODE) {
+			throw new InvalidKeyException("Algorithm parameters required");
+		}
+		boolean aead = mode instanceof AEADBlockMode;
+		byte[] iv = new byte[aead ? DEFAULT_NONCE_LENGTH : mode.getBlockSize()];
+		(random != null ? random : new SecureRandom()).nextBytes(iv);
+		try {
+			engineInit(opmode, key, aead ? new GCMParameterSpec(128, iv)
+											: new IvParameterSpec(iv), random);
+		}
+		catch (InvalidAlgorithmParameterException e) {
+			throw new InvalidKeyException(e.getMessage());
+		}
+
+	}
+
+	/*
+	 * Initialize the mode with the key and the parameters already set.
+	 */
+	private void start(int opmode, Key key, SecureRandom random) throws InvalidKeyException {
+
+		exhausted = false;
 		this.opmode = opmode;
 		this.key = key;
 		this.random = random;
+		if (mode.getIV() == null) {
+			throw new InvalidKeyException("Algorithm parameters required");
+		}
 		mode.setKey(key.getEncoded());
 		mode.reset();
 		text.reset();
 
+		if (mode instanceof IncrementalBlockMode) {
+			try {
+				((IncrementalBlockMode)mode).start(opmode == Cipher.ENCRYPT_MODE);
+			}
+			catch (IllegalBlockSizeException e) {
+				throw new InvalidKeyException(e.getMessage());
+			}
+		}
+
+		if (mode instanceof StreamMode) {
+			try {
+				((StreamMode)mode).start(opmode == Cipher.ENCRYPT_MODE);
+			}
+			catch (IllegalBlockSizeException e) {
+				throw new InvalidKeyException(e.getMessage());
+			}
+		}
+
 	}
 
 	/* (non-Javadoc)
@@ -172,9 +359,28 @@ public class CKBlockModeSpi extends CipherSpi {
 	protected void engineInit(int opmode, Key key, AlgorithmParameterSpec params, SecureRandom random)
 			throws InvalidKeyException, InvalidAlgorithmParameterException {
 		
-		spec = params;
-		mode.setParams(params);
-		engineInit(opmode, key, random);
+		if (params == null) {
+			engineInit(opmode, key, random);
+		}
+		else if (mode instanceof AEADBlockMode && opmode == Cipher.ENCRYPT_MODE
+				&& params instanceof GCMParameterSpec) {
+			byte[] nonce = ((GCMParameterSpec)params).getIV();
+			byte[] encoded = key.getEncoded();
+			if (Arrays.equals(nonce, lastNonce) && Arrays.equals(encoded, lastKey)) {
+				throw new InvalidAlgorithmParameterException(
+										"Can't reuse the IV for encryption with the same key");
+			}
+			spec = params;
+			mode.setParams(params);
+			start(opmode, key, random);
+			lastKey = encoded;
+			lastNonce = nonce;
+		}
+		else {
+			spec = params;
+			mode.setParams(params);
+			start(opmode, key, random);
+		}
 
 	}
 
@@ -186,7 +392,72 @@ public class CKBlockModeSpi extends CipherSpi {
 			throws InvalidKeyException, InvalidAlgorithmParameterException {
 
 		this.params = params;
-		engineInit(opmode, key, random);
+		if (params == null) {
+			engineInit(opmode, key, random);
+			return;
+		}
+		try {
+			if (mode instanceof AEADBlockMode) {
+				engineInit(opmode, key, params.getParameterSpec(GCMParameterSpec.class), random);
+			}
+			else {
+				engineInit(opmode, key, params.getParameterSpec(IvParameterSpec.class), random);
+			}
+		}
+		catch (InvalidParameterSpecException e) {
+			throw new InvalidAlgorithmParameterException(e.getMessage());
+		}
+
+	}
+
+	/*
+	 * End an incremental operation. An authenticated encryption can't be
+	 * repeated with the same nonce, so the cipher must be initialized
+	 * again. Anything else restarts with the same key and parameters.
+	 */
+	private void finished() {
+
+		if (mode instanceof AEADBlockMode && opmode == Cipher.ENCRYPT_MODE) {
+			exhausted = true;
+		}
+		else {
+			restart();
+		}
+
+	}
+
+	/*
+	 * Start the next operation with the same key and parameters.
+	 */
+	private void restart() {
+
+		try {
+			start(opmode, key, random);
+		}
+		catch (InvalidKeyException e) {
+			// Don't care. The key was accepted once already.
+		}
+
+	}
+
+	/*
+	 * Encrypt or decrypt with a stream mode. Input that overlaps the
+	 * output ahead of it is copied first.
+	 */
+	private int streamUpdate(byte[] input, int inputOffset, int inputLen, byte[] output,
+								int outputOffset) {
+
+		if (input == output && outputOffset > inputOffset
+				&& outputOffset < inputOffset + inputLen) {
+			input = Arrays.copyOfRange(input, inputOffset, inputOffset + inputLen);
+			inputOffset = 0;
+		}
+		try {
+			return ((StreamMode)mode).update(input, inputOffset, inputLen, output, outputOffset);
+		}
+		catch (IllegalBlockSizeException e) {
+			throw new ProviderException(e);
+		}
 
 	}
 
@@ -213,7 +484,29 @@ public class CKBlockModeSpi extends CipherSpi {
 	 */
 	@Override
 	protected byte[] engineUpdate(byte[] input, int inputOffset, int inputLen) {
-		
+
+		if (mode instanceof IncrementalBlockMode) {
+			checkUsable();
+			IncrementalBlockMode incremental = (IncrementalBlockMode)mode;
+			byte[] output = new byte[incremental.getUpdateOutputSize(inputLen)];
+			try {
+				int length = incremental.update(input, inputOffset, inputLen, output, 0);
+				return length == output.length ? output : Arrays.copyOf(output, length);
+			}
+			catch (IllegalBlockSizeException e) {
+				throw new ProviderException(e);
+			}
+		}
+
+		if (mode instanceof StreamMode) {
+			byte[] output = new byte[inputLen];
+			streamUpdate(input, inputOffset, inputLen, output, 0);
+			return output;
+		}
+
+		if (inputLen > 0) {
+			text.write(input, inputOffset, inputLen);
+		}
 		return null;
 
 	}
@@ -225,6 +518,30 @@ public class CKBlockModeSpi extends CipherSpi {
 	protected int engineUpdate(byte[] input, int inputOffset, int inputLen, byte[] output, int outputOffset)
 			throws ShortBufferException {
 
+		if (mode instanceof IncrementalBlockMode) {
+			checkUsable();
+			IncrementalBlockMode incremental = (IncrementalBlockMode)mode;
+			if (output.length - outputOffset < incremental.getUpdateOutputSize(inputLen)) {
+				throw new ShortBufferException("Output buffer too small");
+			}
+			try {
+				return incremental.update(input, inputOffset, inputLen, output, outputOffset);
+			}
+			catch (IllegalBlockSizeException e) {
+				throw new ProviderException(e);
+			}
+		}
+
+		if (mode instanceof StreamMode) {
+			if (output.length - outputOffset < inputLen) {
+				throw new ShortBufferException("Output buffer too small");
+			}
+			return streamUpdate(input, inputOffset, inputLen, output, outputOffset);
+		}
+
+		if (inputLen > 0) {
+			text.write(input, inputOffset, inputLen);
+		}
 		return 0;
 
 	}
@@ -236,7 +553,8 @@ public class CKBlockModeSpi extends CipherSpi {
 	protected void engineUpdateAAD(byte[] src, int offset, int len) {
 		
 		if (mode instanceof AEADBlockMode) {
-			((AEADBlockMode)mode).setAuthenticationData(Arrays.copyOfRange(src, offset, offset + len));
+			checkUsable();
+			((AEADBlockMode)mode).updateAuthenticationData(src, offset, len);
 		}
 		// Otherwise do nothing. Silly programmer.
 
@@ -0,0 +1,474 @@
+/**
+ *
+ */
+package org.cryptokitty.xprovider.modes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.cryptokitty.xprovider.CKProvider;
+import org.cryptokitty.xprovider.WorkerPool;
+import org.cryptokitty.xprovider.cipher.BlockCipher;
+
+/**
+ * @author stevebrenneis
+ *
+ * Counter mode. See NIST SP 800-38A, section 6.5. The IV is the first
+ * counter block. The whole block is incremented as a big endian integer,
+ * modulo 2^(block size), for each block of input. Encryption and
+ * decryption are the same operation, and no padding is needed.
+ *
+ * Every keystream block depends only on its counter, so seek can move
+ * to any byte offset from the IV without processing the bytes before
+ * it. The stream methods and update continue from the current offset.
+ *
+ * Runs of whole blocks at or above the parallel threshold are split
+ * into counter ranges on the shared worker pool.
+ */
+public class CTR implements StreamMode {
+
+	/**
+	 * Default parallel threshold in bytes.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 64 * 1024;
+
+	/*
+	 * Smallest chunk given to a worker, in blocks.
+	 */
+	private static final int MIN_CHUNK_BLOCKS = 1024;
+
+	/*
+	 * One worker's share of a parallel run. The cipher is a copy that
+	 * shares the key material.
+	 */
+	private static final class Lane implements Callable<Void> {
+		Lane(BlockCipher cipher) {
+			this.cipher = cipher;
+			counter = new byte[cipher.getBlockSize()];
+			keystream = new byte[cipher.getBlockSize()];
+		}
+		final BlockCipher cipher;
+		final byte[] counter;
+		final byte[] keystream;
+		byte[] in;
+		int inOff;
+		byte[] out;
+		int outOff;
+		int length;
+		@Override
+		public Void call() throws IllegalBlockSizeException {
+			crypt(cipher, counter, keystream, in, inOff, out, outOff, length);
+			return null;
+		}
+	}
+
+	/*
+	 * The cipher block size.
+	 */
+	private int blockSize;
+
+	/*
+	 * Working buffer for the stream methods. A whole number of blocks.
+	 */
+	private byte[] buffer;
+
+	/*
+	 * The block cipher.
+	 */
+	private BlockCipher cipher;
+
+	/*
+	 * Counter block for the current position.
+	 */
+	private byte[] counter;
+
+	/*
+	 * The initialization vector.
+	 */
+	private byte[] iv;
+
+	/*
+	 * Cipher output for the current counter block.
+	 */
+	private byte[] keystream;
+
+	/*
+	 * True if the keystream holds the output for the current counter.
+	 */
+	private boolean loaded;
+
+	/*
+	 * Offset of the current position in the counter block.
+	 */
+	private int offset;
+
+	/*
+	 * Size in bytes at or above which a run of blocks is processed
+	 * in parallel. Zero or less disables the parallel path.
+	 */
+	private int parallelThreshold;
+
+	/*
+	 * Workers for the parallel path. Built on first use after a key change.
+	 */
+	private Lane[] lanes;
+
+	/*
+	 * Task list for the parallel path.
+	 */
+	private List<Callable<Void>> tasks;
+
+	/**
+	 *
+	 */
+	public CTR() {
+
+		parallelThreshold = Integer.getInteger(CKProvider.CTR_PARALLEL_THRESHOLD,
+												DEFAULT_PARALLEL_THRESHOLD);
+		tasks = new ArrayList<Callable<Void>>();
+
+	}
+
+	/**
+	 *
+	 */
+	public CTR(BlockCipher cipher) {
+
+		this();
+		setBlockCipher(cipher);
+
+	}
+
+	/*
+	 * Add n to a big endian counter, modulo 2^(counter bits).
+	 */
+	private static void add(byte[] counter, long n) {
+
+		int carry = 0;
+		for (int i = counter.length - 1; i >= 0 && (n != 0 || carry != 0); --i) {
+			int sum = (counter[i] & 0xff) + (int)(n & 0xff) + carry;
+			counter[i] = (byte)sum;
+			carry = sum >>> 8;
+			n >>>= 8;
+		}
+
+	}
+
+	/*
+	 * Encrypt or decrypt a run of whole blocks starting at the counter.
+	 * The counter is left at the block after the run.
+	 */
+	private static void crypt(BlockCipher cipher, byte[] counter, byte[] keystream,
+								byte[] in, int inOff, byte[] out, int outOff, int length)
+			throws IllegalBlockSizeException {
+
+		int blockSize = counter.length;
+		for (int i = 0; i < length; i += blockSize) {
+			cipher.encryptBlock(counter, 0, keystream, 0);
+			increment(counter);
+			for (int j = 0; j < blockSize; ++j) {
+				out[outOff + i + j] = (byte)(in[inOff + i + j] ^ keystream[j]);
+			}
+		}
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.BlockMode#decrypt(java.io.InputStream, java.io.OutputStream)
+	 */
+	@Override
+	public void decrypt(InputStream cipherstream, OutputStream plainstream)
+			throws IllegalBlockSizeException, BadPaddingException, IOException {
+
+		encrypt(cipherstream, plainstream);
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.BlockMode#encrypt(java.io.InputStream, java.io.OutputStream)
+	 */
+	@Override
+	public void encrypt(InputStream plainstream, OutputStream cipherstream)
+			throws IllegalBlockSizeException, BadPaddingException, IOException {
+
+		int read = BlockStreams.fill(plainstream, buffer, 0, buffer.length);
+		while (read > 0) {
+			update(buffer, 0, read, buffer, 0);
+			cipherstream.write(buffer, 0, read);
+			read = read < buffer.length ? 0
+					: BlockStreams.fill(plainstream, buffer, 0, buffer.length);
+		}
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.BlockMode#getBlockSize()
+	 */
+	@Override
+	public int getBlockSize() {
+
+		return cipher.getBlockSize();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.BlockMode#getIV()
+	 */
+	@Override
+	public byte[] getIV() {
+
+		return iv;
+
+	}
+
+	/*
+	 * Get the workers, building them if the key has changed.
+	 */
+	private Lane[] getLanes() {
+
+		if (lanes == null) {
+			lanes = new Lane[WorkerPool.getParallelism()];
+			for (int i = 0; i < lanes.length; ++i) {
+				lanes[i] = new Lane(cipher.copy());
+			}
+		}
+		return lanes;
+
+	}
+
+	/*
+	 * Increment a big endian counter, modulo 2^(counter bits).
+	 */
+	private static void increment(byte[] counter) {
+
+		for (int i = counter.length - 1; i >= 0; --i) {
+			if (++counter[i] != 0) {
+				break;
+			}
+		}
+
+	}
+
+	/*
+	 * True if a run of length bytes should be processed in parallel.
+	 */
+	private boolean isParallel(int length) {
+
+		return parallelThreshold > 0 && length >= parallelThreshold
+				&& length >= MIN_CHUNK_BLOCKS * blockSize * 2 && WorkerPool.getParallelism() > 1;
+
+	}
+
+	/*
+	 * Counter mode over a run of whole blocks, split into counter ranges
+	 * on the worker pool. Input that overlaps the output at another
+	 * offset is copied first. The counter is advanced past the run.
+	 */
+	private void parallel(byte[] in, int inOff, byte[] out, int outOff, int length)
+			throws IllegalBlockSizeException {
+
+		if (BlockStreams.overlaps(in, inOff, out, outOff, length)) {
+			in = Arrays.copyOfRange(in, inOff, inOff + length);
+			inOff = 0;
+		}
+
+		Lane[] lanes = getLanes();
+		int blocks = length / blockSize;
+		int chunks = Math.min(lanes.length, blocks / MIN_CHUNK_BLOCKS);
+		int chunkBlocks = (blocks + chunks - 1) / chunks;
+
+		tasks.clear();
+		for (int i = 0; i < chunks && i * chunkBlocks < blocks; ++i) {
+			int first = i * chunkBlocks;
+			Lane lane = lanes[i];
+			lane.in = in;
+			lane.inOff = inOff + (first * blockSize);
+			lane.out = out;
+			lane.outOff = outOff + (first * blockSize);
+			lane.length = Math.min(chunkBlocks, blocks - first) * blockSize;
+			System.arraycopy(counter, 0, lane.counter, 0, blockSize);
+			add(lane.counter, first);
+			tasks.add(lane);
+		}
+
+		WorkerPool.runAll(tasks);
+		add(counter, blocks);
+
+		// Don't hold on to the caller's arrays.
+		for (int i = 0; i < tasks.size(); ++i) {
+			lanes[i].in = null;
+			lanes[i].out = null;
+		}
+		tasks.clear();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.BlockMode#reset()
+	 */
+	@Override
+	public void reset() {
+
+		if (iv != null) {
+			seek(0);
+		}
+		cipher.reset();
+
+	}
+
+	/**
+	 * Move to a byte offset in the key stream, counted from the IV. The
+	 * next byte processed is encrypted or decrypted as if all of the
+	 * bytes before it had been.
+	 */
+	public void seek(long position) {
+
+		if (position < 0) {
+			throw new IllegalArgumentException("Negative stream position");
+		}
+		System.arraycopy(iv, 0, counter, 0, counter.length);
+		add(counter, position / blockSize);
+		offset = (int)(position % blockSize);
+		loaded = false;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.BlockMode#setBlockCipher(org.cryptokitty.xprovider.cipher.BlockCipher)
+	 */
+	@Override
+	public void setBlockCipher(BlockCipher cipher) {
+
+		this.cipher = cipher;
+		blockSize = cipher.getBlockSize();
+		buffer = new byte[blockSize * BlockStreams.BUFFER_BLOCKS];
+		keystream = new byte[blockSize];
+		loaded = false;
+		lanes = null;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.BlockMode#setIV(byte[])
+	 */
+	@Override
+	public void setIV(byte[] iv) {
+
+		this.iv = iv.clone();
+		counter = iv.clone();
+		offset = 0;
+		loaded = false;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.BlockMode#setKey(byte[])
+	 */
+	@Override
+	public void setKey(byte[] key) throws InvalidKeyException {
+
+		cipher.setKey(key);
+		loaded = false;
+		lanes = null;
+
+	}
+
+	/**
+	 * Set the size in bytes at or above which a run of blocks is
+	 * processed in parallel. Zero or less disables the parallel path.
+	 */
+	public void setParallelThreshold(int threshold) {
+
+		parallelThreshold = threshold;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.BlockMode#setParams(java.security.spec.AlgorithmParameterSpec)
+	 */
+	@Override
+	public void setParams(AlgorithmParameterSpec params) throws InvalidAlgorithmParameterException {
+
+		if (!(params instanceof IvParameterSpec)) {
+			throw new InvalidAlgorithmParameterException("IV parameter required");
+		}
+		byte[] iv = ((IvParameterSpec)params).getIV();
+		if (iv.length != blockSize) {
+			throw new InvalidAlgorithmParameterException("IV must be one block");
+		}
+		setIV(iv);
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.StreamMode#start(boolean)
+	 */
+	@Override
+	public void start(boolean encrypt) throws IllegalBlockSizeException {
+
+		// Encryption and decryption are the same.
+		seek(0);
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.StreamMode#update(byte[], int, int, byte[], int)
+	 */
+	@Override
+	public int update(byte[] in, int inOff, int length, byte[] out, int outOff)
+			throws IllegalBlockSizeException {
+
+		int done = 0;
+		if (offset > 0 && length > 0) {
+			if (!loaded) {
+				cipher.encryptBlock(counter, 0, keystream, 0);
+				loaded = true;
+			}
+			done = Math.min(blockSize - offset, length);
+			for (int i = 0; i < done; ++i) {
+				out[outOff + i] = (byte)(in[inOff + i] ^ keystream[offset + i]);
+			}
+			offset += done;
+			if (offset == blockSize) {
+				increment(counter);
+				offset = 0;
+				loaded = false;
+			}
+		}
+
+		int whole = length - done - ((length - done) % blockSize);
+		if (whole > 0) {
+			if (isParallel(whole)) {
+				parallel(in, inOff + done, out, outOff + done, whole);
+			}
+			else {
+				crypt(cipher, counter, keystream, in, inOff + done, out, outOff + done, whole);
+			}
+			done += whole;
+		}
+
+		if (done < length) {
+			cipher.encryptBlock(counter, 0, keystream, 0);
+			loaded = true;
+			offset = length - done;
+			for (int i = 0; i < offset; ++i) {
+				out[outOff + done + i] = (byte)(in[inOff + done + i] ^ keystream[i]);
+			}
+		}
+		return length;
+
+	}
+
+}
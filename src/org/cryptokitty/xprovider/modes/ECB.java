@@ -25,10 +25,14 @@ import org.cryptokitty.xprovider.cipher.BlockCipher;
  */
 public class ECB implements BlockMode {
 
+	/*
+	 * Working buffer. A whole number of blocks.
+	 */
+	private byte[] buffer;
+
 	/*
 	 * The BlockCipher object.
 	 */
-	@SuppressWarnings("unused")
 	private BlockCipher cipher;
 
 	/**
@@ -43,6 +47,9 @@ public class ECB implements BlockMode {
 	@Override
 	public void decrypt(InputStream ciphertext, OutputStream plaintext)
 			throws IllegalBlockSizeException, BadPaddingException, IOException {
+
+		process(ciphertext, plaintext, false);
+
 	}
 
 	/* (non-Javadoc)
@@ -51,23 +58,19 @@ public class ECB implements BlockMode {
 	@Override
 	public void encrypt(InputStream plaintext, OutputStream ciphertext)
 			throws IllegalBlockSizeException, BadPaddingException, IOException {
-		// TODO Auto-generated method stub
+
+		process(plaintext, ciphertext, true);
 
 	}
 
 	/* (non-Javadoc)
-	 * @see org.cryptokitty.provider.BlockMode#reset()
+	 * @see org.cryptokitty.provider.modes.BlockMode#getBlockSize()
 	 */
 	@Override
-	public void reset() {
-		// TODO Auto-generated method stub
+	public int getBlockSize() {
 
-	}
+		return cipher.getBlockSize();
 
-	@Override
-	public int getBlockSize() {
-		// TODO Auto-generated method stub
-		return 0;
 	}
 
 	/* (non-Javadoc)
@@ -80,28 +83,81 @@ public class ECB implements BlockMode {
 
 	}
 
+	/*
+	 * Encrypt or decrypt the input a buffer at a time. Each block is
+	 * processed in place.
+	 */
+	private void process(InputStream in, OutputStream out, boolean encrypt)
+			throws IllegalBlockSizeException, IOException {
+
+		int blockSize = cipher.getBlockSize();
+		int read = BlockStreams.fill(in, buffer, 0, buffer.length);
+		while (read > 0) {
+			if (read % blockSize != 0) {
+				throw new IllegalBlockSizeException("Input is not a multiple of the block size");
+			}
+			for (int offset = 0; offset < read; offset += blockSize) {
+				if (encrypt) {
+					cipher.encryptBlock(buffer, offset, buffer, offset);
+				}
+				else {
+					cipher.decryptBlock(buffer, offset, buffer, offset);
+				}
+			}
+			out.write(buffer, 0, read);
+			read = read < buffer.length ? 0
+					: BlockStreams.fill(in, buffer, 0, buffer.length);
+		}
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.provider.BlockMode#reset()
+	 */
+	@Override
+	public void reset() {
+
+		cipher.reset();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.provider.modes.BlockMode#setBlockCipher()
+	 */
 	@Override
 	public void setBlockCipher(BlockCipher cipher) {
-		// TODO Auto-generated method stub
-		
+
+		this.cipher = cipher;
+		buffer = new byte[cipher.getBlockSize() * BlockStreams.BUFFER_BLOCKS];
+
 	}
 
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.provider.modes.BlockMode#setIV()
+	 */
 	@Override
 	public void setIV(byte[] iv) {
-		// TODO Auto-generated method stub
-		
+		// No IV in ECB mode.
+
 	}
 
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.provider.modes.BlockMode#setKey()
+	 */
 	@Override
 	public void setKey(byte[] key) throws InvalidKeyException {
-		// TODO Auto-generated method stub
-		
+
+		cipher.setKey(key);
+
 	}
 
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.provider.modes.BlockMode#setParams()
+	 */
 	@Override
 	public void setParams(AlgorithmParameterSpec params) throws InvalidAlgorithmParameterException {
-		// TODO Auto-generated method stub
-		
+		// Nothing to do.
+
 	}
 
 }
@@ -1,64 +1,295 @@
 /**
- * 
+ *
  */
 package org.cryptokitty.xprovider.modes;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.InvalidKeyException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import javax.crypto.AEADBadTagException;
 import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 
-import org.cryptokitty.codec.Scalar32;
-import org.cryptokitty.codec.Scalar64;
-import org.cryptokitty.exceptions.BadParameterException;
+import org.cryptokitty.xprovider.CKProvider;
+import org.cryptokitty.xprovider.WorkerPool;
 import org.cryptokitty.xprovider.cipher.BlockCipher;
 
 /**
  * @author stevebrenneis
  *
+ * Galois/Counter Mode. See NIST SP 800-38D. The 128 bit authentication
+ * tag is appended to the ciphertext on encryption and is expected at the
+ * end of the ciphertext on decryption.
+ *
+ * Encryption runs incrementally and keeps only the counter block, one
+ * partial block and the GHASH accumulator. Decryption holds the
+ * ciphertext until the tag has been verified.
+ *
+ * Runs of whole blocks at or above the parallel threshold are split
+ * into chunks on the shared worker pool. Each chunk has its own counter
+ * range and is hashed from zero. The chunk hashes are then folded into
+ * the running hash in order with powers of H, so the output is the same
+ * as the sequential path.
  */
 public class GCM extends AEADBlockMode {
 
 	/**
-	 * The block cipher
+	 * Authentication tag size in bytes.
 	 */
-	private BlockCipher cipher;
-	
+	public static final int TAG_SIZE = 16;
+
 	/**
-	 * Authentication tag
+	 * Default parallel threshold in bytes.
 	 */
-	private byte[] T;
-	
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 256 * 1024;
+
+	/*
+	 * Smallest chunk given to a worker, in blocks.
+	 */
+	private static final int MIN_CHUNK_BLOCKS = 1024;
+
+	/*
+	 * One worker's share of a parallel run. The cipher and GHASH
+	 * engine are copies that share the key material.
+	 */
+	private static final class Lane implements Callable<Void> {
+		Lane(BlockCipher cipher, GHASH ghash) {
+			this.cipher = cipher;
+			this.ghash = ghash;
+		}
+		final BlockCipher cipher;
+		final GHASH ghash;
+		final byte[] counter = new byte[16];
+		final byte[] keystream = new byte[16];
+		byte[] in;
+		int inOff;
+		byte[] out;
+		int outOff;
+		int length;
+		boolean crypt;
+		boolean hash;
+		@Override
+		public Void call() throws IllegalBlockSizeException {
+			if (crypt) {
+				for (int i = 0; i < length; i += 16) {
+					cipher.encryptBlock(counter, 0, keystream, 0);
+					incr(counter);
+					for (int j = 0; j < 16; ++j) {
+						out[outOff + i + j] = (byte)(in[inOff + i + j] ^ keystream[j]);
+					}
+				}
+			}
+			if (hash) {
+				ghash.reset();
+				if (crypt) {
+					ghash.update(out, outOff, length);
+				}
+				else {
+					ghash.update(in, inOff, length);
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * The block cipher
+	 */
+	private BlockCipher cipher;
+
 	/**
 	 * Initialization vector.
 	 */
 	private byte[] IV;
-	
+
 	/**
 	 * Authentication data
 	 */
 	private byte[] A;
 
-	/**
-	 * Encryption/decryption key
-	private byte[] key;
+	/*
+	 * Hash subkey. E(K, 0^128).
+	 */
+	private byte[] H;
+
+	/*
+	 * GHASH engine. Its tables are computed from H once per key.
+	 */
+	private GHASH ghash;
+
+	/*
+	 * True when the GHASH tables match the current key.
+	 */
+	private boolean keyed;
+
+	/*
+	 * Pre-counter block.
+	 */
+	private byte[] J0;
+
+	/*
+	 * Current counter block.
+	 */
+	private byte[] counter;
+
+	/*
+	 * Cipher output for the current counter block.
+	 */
+	private byte[] keystream;
+
+	/*
+	 * Bytes of the keystream block already used. 16 when a new
+	 * block is needed.
+	 */
+	private int keystreamUsed;
+
+	/*
+	 * Ciphertext of the current partial block, waiting to be hashed.
+	 */
+	private byte[] block;
+
+	/*
+	 * Authentication data of the current partial block.
 	 */
+	private byte[] aadBlock;
+
+	/*
+	 * Bytes in aadBlock.
+	 */
+	private int aadPartial;
+
+	/*
+	 * Total authentication data and ciphertext lengths.
+	 */
+	private long aadLength;
+	private long clength;
+
+	/*
+	 * True once the authentication data has been closed off.
+	 */
+	private boolean aadDone;
+
+	/*
+	 * True when encrypting.
+	 */
+	private boolean encrypting;
+
+	/*
+	 * Computed tag.
+	 */
+	private byte[] T;
+
+	/*
+	 * Working buffer. A whole number of blocks.
+	 */
+	private byte[] buffer;
+
+	/*
+	 * Ciphertext held for tag verification. Grown as needed and reused.
+	 */
+	private byte[] pending;
+
+	/*
+	 * Bytes in pending.
+	 */
+	private int pendingLength;
+
+	/*
+	 * Size in bytes at or above which a run of blocks is processed
+	 * in parallel. Zero or less disables the parallel path.
+	 */
+	private int parallelThreshold;
+
+	/*
+	 * Workers for the parallel path. Built on first use after a key change.
+	 */
+	private Lane[] lanes;
+
+	/*
+	 * Task list for the parallel path.
+	 */
+	private List<Callable<Void>> tasks;
 
 	/**
-	 * 
+	 *
 	 */
 	public GCM(BlockCipher cipher) {
 
+		H = new byte[16];
+		ghash = new GHASH();
+		J0 = new byte[16];
+		counter = new byte[16];
+		keystream = new byte[16];
+		block = new byte[16];
+		aadBlock = new byte[16];
+		T = new byte[16];
+		buffer = new byte[16 * BlockStreams.BUFFER_BLOCKS];
+		pending = new byte[0];
+		parallelThreshold = Integer.getInteger(CKProvider.GCM_PARALLEL_THRESHOLD,
+												DEFAULT_PARALLEL_THRESHOLD);
+		tasks = new ArrayList<Callable<Void>>();
 		this.cipher = cipher;
 
 	}
 
+	/*
+	 * Hold ciphertext for verification.
+	 */
+	private void append(byte[] in, int inOff, int length) {
+
+		if (length == 0) {
+			return;
+		}
+		if (pending.length < pendingLength + length) {
+			byte[] grown = new byte[Math.max(pending.length * 2, pendingLength + length)];
+			System.arraycopy(pending, 0, grown, 0, pendingLength);
+			pending = grown;
+		}
+		System.arraycopy(in, inOff, pending, pendingLength, length);
+		pendingLength += length;
+
+	}
+
+	/*
+	 * Encrypt or decrypt length bytes with the counter stream, starting
+	 * on a block boundary. See NIST SP 800-38D, section 6.5.
+	 */
+	private void ctr(byte[] in, int inOff, byte[] out, int outOff, int length)
+			throws IllegalBlockSizeException {
+
+		for (int i = 0; i < length; i += 16) {
+			cipher.encryptBlock(counter, 0, keystream, 0);
+			incr(counter);
+			int n = Math.min(16, length - i);
+			for (int j = 0; j < n; ++j) {
+				out[outOff + i + j] = (byte)(in[inOff + i + j] ^ keystream[j]);
+			}
+		}
+
+	}
+
+	/*
+	 * Counter mode over length bytes starting on a block boundary, in
+	 * parallel when the run is long enough.
+	 */
+	private void crypt(byte[] in, int inOff, byte[] out, int outOff, int length)
+			throws IllegalBlockSizeException {
+
+		int whole = 0;
+		if (isParallel(length)) {
+			whole = length & ~15;
+			parallel(in, inOff, out, outOff, whole, true, false);
+		}
+		ctr(in, inOff + whole, out, outOff + whole, length - whole);
+
+	}
+
 	/* (non-Javadoc)
 	 * @see org.cryptokitty.provider.modes.BlockMode#decrypt(java.io.InputStream, java.io.OutputStream)
 	 */
@@ -66,128 +297,132 @@ public class GCM extends AEADBlockMode {
 	public void decrypt(InputStream ciphertext, OutputStream plaintext)
 			throws IllegalBlockSizeException, BadPaddingException, IOException {
 
-		try {
-			byte[] C = new byte[ciphertext.available()];
-			ciphertext.read(C);
-			int n = C.length / 16;
-			int u = C.length % 16;
-			if (u == 0) {
-				u = 16;
-				n--;
-			}
+		start(false);
+		int read = BlockStreams.fill(ciphertext, buffer, 0, buffer.length);
+		while (read > 0) {
+			append(buffer, 0, read);
+			read = read < buffer.length ? 0
+					: BlockStreams.fill(ciphertext, buffer, 0, buffer.length);
+		}
 
-			byte[] empty = new byte[16];
-			Arrays.fill(empty, (byte)0);
-			byte[] H = cipher.encrypt(empty);
-
-			ByteArrayOutputStream Y0 = new ByteArrayOutputStream();
-			if (IV.length == 12) {
-				byte[] ctr = new byte[4];
-				Arrays.fill(ctr, (byte)0);
-				ctr[3] = 0x01;
-				Y0.write(IV);
-				Y0.write(ctr);
-			}
-			else {
-				Y0.write(GHASH(H, new byte[0], IV));
-			}
+		// Decrypt in place and write it out.
+		int length = verify();
+		crypt(pending, 0, pending, 0, length);
+		plaintext.write(pending, 0, length);
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.provider.modes.BlockMode#encrypt(java.io.InputStream, java.io.OutputStream)
+	 */
+	@Override
+	public void encrypt(InputStream plaintext, OutputStream ciphertext)
+			throws IllegalBlockSizeException, BadPaddingException, IOException {
+
+		start(true);
+		int read = BlockStreams.fill(plaintext, buffer, 0, buffer.length);
+		while (read > 0) {
+			update(buffer, 0, read, buffer, 0);
+			ciphertext.write(buffer, 0, read);
+			read = read < buffer.length ? 0
+					: BlockStreams.fill(plaintext, buffer, 0, buffer.length);
+		}
+
+		int length = finish(buffer, 0, 0, buffer, 0);
+		ciphertext.write(buffer, 0, length);
+
+	}
 
-			byte[] Tp = GHASH(H, A, C);
-			Tp = xor(Tp, cipher.encrypt(Y0.toByteArray()));
-			if (T != Tp) {
-				throw new AEADBadTagException("GCM tag failed to validate");
+	/*
+	 * Encrypt and hash length bytes, carrying partial blocks between
+	 * calls.
+	 */
+	private void encryptText(byte[] in, int inOff, int length, byte[] out, int outOff)
+			throws IllegalBlockSizeException {
+
+		int end = inOff + length;
+
+		// Finish a partial block.
+		while (keystreamUsed < 16 && inOff < end) {
+			byte c = (byte)(in[inOff++] ^ keystream[keystreamUsed]);
+			block[keystreamUsed++] = c;
+			out[outOff++] = c;
+			if (keystreamUsed == 16) {
+				ghash.update(block, 0, 16);
 			}
-			else {
-				byte[] Yi;							// Y(i)
-				byte[] Yi1 = Y0.toByteArray();		// Y(i-1)
-				byte[] Ci;							// C(i)
-				byte[] Pi;							// C(i);
-
-				if (C.length > 0) {
-					for (int i = 1; i <= n; ++i) {
-						Yi = incr(Yi1);
-						int ii = (i - 1) * 16;
-						Ci = Arrays.copyOfRange(C, ii, ii + 16);
-						Pi = xor(Ci, cipher.encrypt(Yi));
-						plaintext.write(Pi);
-						Yi1 = Yi;
-					}
-					Yi = incr(Yi1);
-					int cu = C.length - u;
-					byte[] Cn = Arrays.copyOfRange(C, cu, cu + u);
-					plaintext.write(xor(Cn, Arrays.copyOfRange(cipher.encrypt(Yi), 0, u)));
-				}
+		}
+
+		// Whole blocks.
+		int whole = (end - inOff) & ~15;
+		if (isParallel(whole)) {
+			parallel(in, inOff, out, outOff, whole, true, true);
+			inOff += whole;
+			outOff += whole;
+		}
+		else if (whole > 0) {
+			ctr(in, inOff, out, outOff, whole);
+			ghash.update(out, outOff, whole);
+			inOff += whole;
+			outOff += whole;
+		}
+
+		// Start a partial block.
+		if (inOff < end) {
+			cipher.encryptBlock(counter, 0, keystream, 0);
+			incr(counter);
+			keystreamUsed = 0;
+			while (inOff < end) {
+				byte c = (byte)(in[inOff++] ^ keystream[keystreamUsed]);
+				block[keystreamUsed++] = c;
+				out[outOff++] = c;
 			}
 		}
-		catch (BadParameterException e) {
-			throw new BadPaddingException(e.getMessage());
+
+		clength += length;
+
+	}
+
+	/*
+	 * Close off the authentication data. The partial block is hashed
+	 * with zero padding.
+	 */
+	private void endAuthenticationData() {
+
+		if (!aadDone) {
+			if (aadPartial > 0) {
+				ghash.update(aadBlock, 0, aadPartial);
+				aadPartial = 0;
+			}
+			aadDone = true;
 		}
 
 	}
 
 	/* (non-Javadoc)
-	 * @see org.cryptokitty.provider.modes.BlockMode#encrypt(java.io.InputStream, java.io.OutputStream)
+	 * @see org.cryptokitty.xprovider.modes.AEADBlockMode#finish(byte[], int, int, byte[], int)
 	 */
 	@Override
-	public void encrypt(InputStream plaintext, OutputStream ciphertext)
-			throws IllegalBlockSizeException, BadPaddingException, IOException {
+	public int finish(byte[] in, int inOff, int length, byte[] out, int outOff)
+			throws IllegalBlockSizeException, BadPaddingException {
+
+		if (encrypting) {
+			endAuthenticationData();
+			encryptText(in, inOff, length, out, outOff);
+			if (keystreamUsed < 16) {
+				ghash.update(block, 0, keystreamUsed);
+				keystreamUsed = 16;
+			}
+			tag(T);
+			System.arraycopy(T, 0, out, outOff + length, TAG_SIZE);
+			return length + TAG_SIZE;
+		}
+		else {
+			append(in, inOff, length);
+			int plength = verify();
+			crypt(pending, 0, out, outOff, plength);
+			return plength;
+		}
 
-		try {
-			byte[] P = new byte[plaintext.available()];
-			plaintext.read(P);
-		    int n = P.length / 16;
-		    int u = P.length % 16;
-		    if (u == 0) {
-		        u = 16;
-		        n--;
-		    }
-
-			byte[] empty = new byte[16];
-			Arrays.fill(empty, (byte)0);
-		    byte[] H = cipher.encrypt(empty);
-
-		    ByteArrayOutputStream Y0 = new ByteArrayOutputStream();
-		    if (IV.length == 12) {
-		    	byte[] ctr = new byte[4];
-				Arrays.fill(ctr, (byte)0);
-		        ctr[3] = 0x01;
-		        Y0.write(IV);
-		        Y0.write(ctr);
-		    }
-		    else {
-		        Y0.write(GHASH(H, new byte[0], IV));
-		    }
-
-		    byte[] Yi;						// Y(i)
-		    byte[] Yi1 = Y0.toByteArray();	// Y(i-1)
-		    byte[] Pi;						// P(i)
-		    byte[] Ci;						// C(i)
-
-		    byte[] C = new byte[0];
-		    if (P.length > 0) {
-		        for (int i = 1; i <= n; ++i) {
-		            Yi = incr(Yi1);
-		            int ii = (i - 1) * 16;
-		            Pi = Arrays.copyOfRange(P, ii, ii + 16);
-		            Ci = xor(Pi, cipher.encrypt(Yi));
-		            ciphertext.write(Ci);
-		            Yi1 = Yi;
-		        }
-		        Yi = incr(Yi1);
-		        int pu = P.length - u;
-		        byte[] Pn = Arrays.copyOfRange(P, pu, pu + u);
-		        C = xor(Pn, Arrays.copyOfRange(cipher.encrypt(Yi), 0, u));
-				ciphertext.write(C);
-		    }
-
-		    T = GHASH(H, A, C);
-		    T = xor(T, cipher.encrypt(Y0.toByteArray()));
-
-		}
-		catch (BadParameterException e) {
-			throw new BadPaddingException(e.getMessage());
-		}
-		
 	}
 
 	/* (non-Javadoc)
@@ -220,148 +455,140 @@ public class GCM extends AEADBlockMode {
 
 	}
 
-	/**
-	 * GHASH function. See NIST SP 800-38D, section 6.4.
-	 * X must be an even multiple of 16 bytes. H is the subhash
-	 * key. Yi is always 128 bits.
-	 * @throws BadParameterException 
-	 * @throws IOException 
-	 */
-	private final byte[] GHASH(final byte[] H, final byte[] A, final byte[] C)
-											throws BadParameterException, IOException {
-
-	    if (H.length != 16) {
-	        throw new BadParameterException("Invalid GCM hash sub-key");
-	    }
-
-		// Caution! A may be zero length.
-	    int m = A.length / 16;
-	    int v = A.length % 16;
-	    if (v == 0) {
-	        v = 16;
-	        m--;
-	    }
-		// Caution! C may be zero length.
-	    int n = C.length / 16;
-	    int u = C.length % 16;
-	    if (u == 0) {
-	        u = 16;
-	        n--;
-	    }
-
-	    byte[] Xi1 = new byte[16];
-	    Arrays.fill(Xi1, (byte)0);		// X(i-1)
-	    byte[] Xi;						// X(i)
-	    byte[] Ai;                   // A(i)
-	    byte[] Ci;                   // C(i)
-
-	    @SuppressWarnings("unused")
-		int i = 1; // For tracking Xi index. Debug only.
-	    for (int j = 0; j < m; ++j) {
-	    	int jj = j * 16;
-	        Ai = Arrays.copyOfRange(A, jj, jj + 16);
-	        Xi = multiply(xor(Xi1, Ai), H);
-	        i++;
-	        Xi1 = Xi;
-	    }
-
-	    if (A.length > 0) {
-	    	ByteArrayOutputStream Am = new ByteArrayOutputStream();
-	    	int av = A.length - v;
-	        Am.write(Arrays.copyOfRange(A, av, av + v));    // A(n)
-	        byte[] pad = new byte[16 - v];
-		    Arrays.fill(pad, (byte)0);
-	        Am.write(pad);
-	        Xi = multiply(xor(Xi1, Am.toByteArray()), H);
-	        i++;
-	        Xi1 = Xi;
-	    }
-
-	    for (int j = 0; j < n; ++j) {
-	    	int jj = j * 16;
-	        Ci = Arrays.copyOfRange(C, jj, jj + 16);
-	        Xi = multiply(xor(Xi1, Ci), H);
-	        i++;
-	        Xi1 = Xi;
-	    }
-
-	    if (C.length > 0) {
-	    	ByteArrayOutputStream Cn = new ByteArrayOutputStream();
-	    	int cu = C.length - u;
-	        Cn.write(Arrays.copyOfRange(C, cu, cu + u));    // A(n)
-	        byte[] pad = new byte[16 - u];
-		    Arrays.fill(pad, (byte)0);
-	        Cn.write(pad);
-	        Xi = multiply(xor(Xi1, Cn.toByteArray()), H);
-	        i++;
-	        Xi1 = Xi;
-	    }
-
-	    ByteArrayOutputStream ac = new ByteArrayOutputStream();
-	    ac.write(new Scalar64(A.length * 8).getEncoded());
-	    ac.write(new Scalar64(C.length * 8).getEncoded());
-	    Xi = multiply(xor(Xi1, ac.toByteArray()), H);
-
-	    return Xi;
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.AEADBlockMode#getOutputSize(int)
+	 */
+	@Override
+	public int getOutputSize(int length) {
+
+		if (encrypting) {
+			return length + TAG_SIZE;
+		}
+		else {
+			return Math.max(0, pendingLength + length - TAG_SIZE);
+		}
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.AEADBlockMode#getUpdateOutputSize(int)
+	 */
+	@Override
+	public int getUpdateOutputSize(int length) {
+
+		return encrypting ? length : 0;
+
+	}
+
+	/*
+	 * Get the workers, building them if the key has changed.
+	 */
+	private Lane[] getLanes() {
+
+		if (lanes == null) {
+			lanes = new Lane[WorkerPool.getParallelism()];
+			for (int i = 0; i < lanes.length; ++i) {
+				lanes[i] = new Lane(cipher.copy(), new GHASH(ghash));
+			}
+		}
+		return lanes;
 
 	}
 
 	/**
 	 * Galois incr function. See NIST SP 800-38D, section 6.2.
-	 * Increments the rightmost s bits of X leaving the leftmost in
-	 * the bit string unchanged.
-	 * @throws BadParameterException 
-	 * @throws IOException 
+	 * Increments the rightmost 32 bits of X, modulo 2^32, leaving
+	 * the leftmost 96 bits unchanged.
 	 */
-	private final byte[] incr(final byte[] X) throws BadParameterException, IOException {
+	private static void incr(byte[] X) {
+
+		for (int i = 15; i >= 12; --i) {
+			if (++X[i] != 0) {
+				break;
+			}
+		}
 
-	    if (X.length != 16) {
-	        throw new BadParameterException("Illegal GCM block size");
-	    }
+	}
 
-	    ByteArrayOutputStream fixed = new ByteArrayOutputStream();
-	    fixed.write(Arrays.copyOfRange(X, 0, 12));
-	    Scalar32 x = new Scalar32(Arrays.copyOfRange(X, 12, 16));
-	    Scalar32 inc = new Scalar32(x.getValue() + 1);
-	    fixed.write(inc.getEncoded());
+	/*
+	 * True if a run of length bytes should be processed in parallel.
+	 */
+	private boolean isParallel(int length) {
 
-	    return fixed.toByteArray();
+		return parallelThreshold > 0 && length >= parallelThreshold
+				&& length >= MIN_CHUNK_BLOCKS * 32 && WorkerPool.getParallelism() > 1;
 
 	}
 
-	/**
-	 * Galois multiplication function. See NIST SP 800-3D, Section 6.3.
-	 * X, Y, and Z are 128 bits.
-	 * @throws BadParameterException 
+	/*
+	 * Counter mode and/or GHASH over a run of whole blocks, split into
+	 * chunks on the worker pool. Input that overlaps the output at another
+	 * offset is copied first. The chunk hashes are folded into the running
+	 * hash in order and the counter is advanced past the run.
 	 */
-	private final byte[] multiply(final byte[] X, final byte[] Y) throws BadParameterException {
+	private void parallel(byte[] in, int inOff, byte[] out, int outOff, int length,
+								boolean crypt, boolean hash) throws IllegalBlockSizeException {
+
+		if (BlockStreams.overlaps(in, inOff, out, outOff, length)) {
+			in = Arrays.copyOfRange(in, inOff, inOff + length);
+			inOff = 0;
+		}
+
+		Lane[] lanes = getLanes();
+		int blocks = length / 16;
+		int chunks = Math.min(lanes.length, blocks / MIN_CHUNK_BLOCKS);
+		int chunkBlocks = (blocks + chunks - 1) / chunks;
+		int base = ((counter[12] & 0xff) << 24) | ((counter[13] & 0xff) << 16)
+						| ((counter[14] & 0xff) << 8) | (counter[15] & 0xff);
+
+		tasks.clear();
+		for (int i = 0; i < chunks && i * chunkBlocks < blocks; ++i) {
+			int first = i * chunkBlocks;
+			Lane lane = lanes[i];
+			lane.in = in;
+			lane.inOff = inOff + (first * 16);
+			lane.out = out;
+			lane.outOff = outOff + (first * 16);
+			lane.length = Math.min(chunkBlocks, blocks - first) * 16;
+			lane.crypt = crypt;
+			lane.hash = hash;
+			System.arraycopy(counter, 0, lane.counter, 0, 12);
+			putInt(base + first, lane.counter, 12);
+			tasks.add(lane);
+		}
 
-	    if (X.length != 16 || Y.length != 16) {
-	        throw new BadParameterException("Invalid GCM multiplicand or multiplier size");
-	    }
+		WorkerPool.runAll(tasks);
 
-	    byte[] Z = new byte[16];
-	    Arrays.fill(Z, (byte)0);
-	    byte[] V = Y;
+		if (hash) {
+			long[] Hn = ghash.power(chunkBlocks);
+			for (int i = 0; i < tasks.size(); ++i) {
+				Lane lane = lanes[i];
+				int n = lane.length / 16;
+				ghash.combine(n == chunkBlocks ? Hn : ghash.power(n), lane.ghash);
+			}
+		}
+		if (crypt) {
+			putInt(base + blocks, counter, 12);
+		}
+
+		// Don't hold on to the caller's arrays.
+		for (int i = 0; i < tasks.size(); ++i) {
+			lanes[i].in = null;
+			lanes[i].out = null;
+		}
+		tasks.clear();
+
+	}
 
-	    int[] bits = { 0x01, 0x02, 0x04, 0x08, 0x10, 0x20, 0x40, 0x80 };
-	    for (int i = 0; i < 16; ++i) {
-	        for (int j = 0; j < 8; ++j) {
-	            if ((X[i] & (bits[7-j] & 0xff)) != 0) {
-	                Z = xor(Z, V);
-	            }
-	            if ((V[15] & 0x01) != 0) {
-	                shiftBlock(V);
-	                int v0 = V[0] ^ 0xe1;
-	                V[0] = (byte)(v0 & 0xff);
-	            }
-	            else {
-	                shiftBlock(V);
-	            }
-	        }
-	    }
+	/*
+	 * Big endian four bytes from an int.
+	 */
+	private static void putInt(int value, byte[] out, int offset) {
 
-	    return Z;
+		out[offset] = (byte)(value >>> 24);
+		out[offset + 1] = (byte)(value >>> 16);
+		out[offset + 2] = (byte)(value >>> 8);
+		out[offset + 3] = (byte)value;
 
 	}
 
@@ -370,7 +597,7 @@ public class GCM extends AEADBlockMode {
 	 */
 	@Override
 	public void reset() {
-		// TODO Auto-generated method stub
+		// Nothing to do. All state is set up at the start of each operation.
 
 	}
 
@@ -381,6 +608,8 @@ public class GCM extends AEADBlockMode {
 	public void setBlockCipher(BlockCipher cipher) {
 
 		this.cipher = cipher;
+		keyed = false;
+		lanes = null;
 
 	}
 
@@ -389,7 +618,7 @@ public class GCM extends AEADBlockMode {
 	 */
 	@Override
 	public void setIV(byte[] iv) {
-		
+
 		IV = iv;
 
 	}
@@ -400,66 +629,198 @@ public class GCM extends AEADBlockMode {
 	@Override
 	public void setKey(byte[] key) throws InvalidKeyException {
 
-		// this.key = key;
 		cipher.setKey(key);
+		setSubkey();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.provider.modes.AEADBlockMode#setAuthenticationData(byte[])
+	 */
+	@Override
+	public void setAuthenticationData(byte[] ad) {
+
+		A = ad;
 
 	}
 
-	private final void shiftBlock(byte[] block) {
+	/**
+	 * Set the size in bytes at or above which a run of blocks is
+	 * processed in parallel. Zero or less disables the parallel path.
+	 */
+	public void setParallelThreshold(int threshold) {
 
-		Scalar32 be = new Scalar32(Arrays.copyOfRange(block, 12, 16));
-		long value = be.getValue() & 0xffff;
-	    value = value >> 1;
-	    if ((block[11] & 0x01) != 0) {
-	        value |= 0x80000000;
-	    }
-	    Scalar32 v = new Scalar32((int)value);
-	    System.arraycopy(v.getEncoded(), 0, block, 12, 4);
+		parallelThreshold = threshold;
 
-	    value = new Scalar32(Arrays.copyOfRange(block, 8, 12)).getValue();
-	    value = (value >> 1) & 0xffff;
-	    if ((block[7] & 0x01) != 0) {
-	        value |= 0x80000000;
-	    }
-	    Scalar32 vi = new Scalar32((int)value);
-	    System.arraycopy(vi.getEncoded(), 0, block, 8, 4);
+	}
 
-	    value = new Scalar32(Arrays.copyOfRange(block, 4, 8)).getValue();
-	    value = (value >> 1) & 0xffff;
-	    if ((block[3] & 0x01) != 0) {
-	        value |= 0x80000000;
-	    }
-	    Scalar32 vii = new Scalar32((int)value);
-	    System.arraycopy(vii.getEncoded(), 0, block, 4, 4);
+	/*
+	 * Compute the hash subkey, H = E(K, 0^128), and the GHASH tables.
+	 */
+	private void setSubkey() throws InvalidKeyException {
 
-	    value = new Scalar32(Arrays.copyOfRange(block, 0, 4)).getValue();
-	    value = (value >> 1) & 0xffff;
-	    Scalar32 viii = new Scalar32((int)value);
-	    System.arraycopy(viii.getEncoded(), 0, block, 0, 4);
+		for (int i = 0; i < 16; ++i) {
+			H[i] = 0;
+		}
+		try {
+			cipher.encryptBlock(H, 0, H, 0);
+		}
+		catch (IllegalBlockSizeException e) {
+			throw new InvalidKeyException(e.getMessage());
+		}
+		ghash.init(H);
+		keyed = true;
+		lanes = null;
 
 	}
 
 	/* (non-Javadoc)
-	 * @see org.cryptokitty.provider.modes.AEADBlockMode#setAuthenticationData(byte[])
+	 * @see org.cryptokitty.xprovider.modes.AEADBlockMode#start(boolean)
+	 *
+	 * Compute the pre-counter block, then hash the authentication
+	 * data. See NIST SP 800-38D, section 7.1.
 	 */
 	@Override
-	public void setAuthenticationData(byte[] ad) {
+	public void start(boolean encrypt) throws IllegalBlockSizeException {
 
-		A = ad;
+		if (!keyed) {
+			// The cipher was keyed outside of this mode.
+			try {
+				setSubkey();
+			}
+			catch (InvalidKeyException e) {
+				throw new IllegalBlockSizeException(e.getMessage());
+			}
+		}
+
+		ghash.reset();
+		if (IV.length == 12) {
+			System.arraycopy(IV, 0, J0, 0, 12);
+			J0[12] = 0;
+			J0[13] = 0;
+			J0[14] = 0;
+			J0[15] = 1;
+		}
+		else {
+			ghash.update(IV, 0, IV.length);
+			ghash.updateLengths(0, IV.length);
+			ghash.getValue(J0, 0);
+			ghash.reset();
+		}
+		System.arraycopy(J0, 0, counter, 0, 16);
+		incr(counter);
+
+		encrypting = encrypt;
+		keystreamUsed = 16;
+		aadPartial = 0;
+		aadLength = 0;
+		aadDone = false;
+		clength = 0;
+		pendingLength = 0;
+
+		if (A != null) {
+			updateAuthenticationData(A, 0, A.length);
+		}
 
 	}
 
-	/**
-	 * Array xor function.
+	/*
+	 * Finish the hash with the length block and compute the tag.
+	 * See NIST SP 800-38D, section 7.1, steps 5 and 6.
 	 */
-	private byte[] xor(byte[] lhs, byte[] rhs) {
-		
-		byte[] result = new byte[lhs.length];
-		for (int i = 0; i < lhs.length; ++i) {
-			int x = lhs[i] ^ rhs[i];
-			result[i] = (byte)(x & 0xff);
+	private void tag(byte[] tag) throws IllegalBlockSizeException {
+
+		ghash.updateLengths(aadLength, clength);
+		cipher.encryptBlock(J0, 0, tag, 0);
+		ghash.xorValue(tag, 0);
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.AEADBlockMode#update(byte[], int, int, byte[], int)
+	 */
+	@Override
+	public int update(byte[] in, int inOff, int length, byte[] out, int outOff)
+			throws IllegalBlockSizeException {
+
+		endAuthenticationData();
+		if (encrypting) {
+			encryptText(in, inOff, length, out, outOff);
+			return length;
+		}
+		else {
+			append(in, inOff, length);
+			return 0;
+		}
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.AEADBlockMode#updateAuthenticationData(byte[], int, int)
+	 */
+	@Override
+	public void updateAuthenticationData(byte[] ad, int offset, int length) {
+
+		if (aadDone) {
+			throw new IllegalStateException("Authentication data must precede the text");
+		}
+		aadLength += length;
+
+		if (aadPartial > 0) {
+			int n = Math.min(16 - aadPartial, length);
+			System.arraycopy(ad, offset, aadBlock, aadPartial, n);
+			aadPartial += n;
+			offset += n;
+			length -= n;
+			if (aadPartial == 16) {
+				ghash.update(aadBlock, 0, 16);
+				aadPartial = 0;
+			}
 		}
-		return result;
+
+		int whole = length & ~15;
+		ghash.update(ad, offset, whole);
+		offset += whole;
+		length -= whole;
+
+		if (length > 0) {
+			System.arraycopy(ad, offset, aadBlock, 0, length);
+			aadPartial = length;
+		}
+
+	}
+
+	/*
+	 * Hash the held ciphertext and check the tag at its end. Returns
+	 * the ciphertext length.
+	 */
+	private int verify() throws IllegalBlockSizeException, AEADBadTagException {
+
+		if (pendingLength < TAG_SIZE) {
+			throw new AEADBadTagException("GCM ciphertext too short");
+		}
+		int length = pendingLength - TAG_SIZE;
+
+		endAuthenticationData();
+		int whole = 0;
+		if (isParallel(length)) {
+			whole = length & ~15;
+			parallel(pending, 0, pending, 0, whole, false, true);
+		}
+		ghash.update(pending, whole, length - whole);
+		clength = length;
+		tag(T);
+
+		// Constant time comparison.
+		int diff = 0;
+		for (int i = 0; i < TAG_SIZE; ++i) {
+			diff |= T[i] ^ pending[length + i];
+		}
+		if (diff != 0) {
+			throw new AEADBadTagException("GCM tag failed to validate");
+		}
+
+		return length;
 
 	}
 
@@ -0,0 +1,313 @@
+/**
+ *
+ */
+package org.cryptokitty.xprovider.modes;
+
+/**
+ * @author Steve Brenneis
+ *
+ * GHASH function for GCM. See NIST SP 800-38D, section 6.4.
+ *
+ * Multiplication by the hash subkey H uses Shoup's 4 bit table method.
+ * The sixteen multiples of H by 4 bit polynomials are computed once per
+ * key, then each block is multiplied a nibble at a time with a table
+ * lookup and a 4 bit reduction. Field elements are held as big endian
+ * pairs of longs.
+ *
+ * A long string can be hashed in chunks on separate threads. Each chunk
+ * is hashed from zero by a copy of the engine and the results are
+ * folded together with powers of H. See combine.
+ */
+final class GHASH {
+
+	/*
+	 * Reduction of the 4 bits shifted out of the low end of the
+	 * accumulator, in the top 16 bits of the high word.
+	 */
+	private static final long[] LAST4 = {
+		0x0000L, 0x1c20L, 0x3840L, 0x2460L, 0x7080L, 0x6ca0L, 0x48c0L, 0x54e0L,
+		0xe100L, 0xfd20L, 0xd940L, 0xc560L, 0x9180L, 0x8da0L, 0xa9c0L, 0xb5e0L
+	};
+
+	/*
+	 * Multiples of H, high and low halves. Index i is H times the
+	 * 4 bit polynomial i in GCM bit order.
+	 */
+	private final long[] HH;
+	private final long[] HL;
+
+	/*
+	 * The hash subkey.
+	 */
+	private long Hh;
+	private long Hl;
+
+	/*
+	 * Accumulator, high and low halves.
+	 */
+	private long Xh;
+	private long Xl;
+
+	/**
+	 * Default constructor.
+	 */
+	GHASH() {
+
+		HH = new long[16];
+		HL = new long[16];
+
+	}
+
+	/**
+	 * Copy constructor. The tables are shared, so the copy is only valid
+	 * until the original is given a new key.
+	 */
+	GHASH(GHASH other) {
+
+		HH = other.HH;
+		HL = other.HL;
+		Hh = other.Hh;
+		Hl = other.Hl;
+
+	}
+
+	/**
+	 * Fold in a chunk that followed the data hashed so far. The chunk
+	 * was hashed from zero and is n blocks long, and Hn is H^n from
+	 * power(n). X = (X * H^n) ^ chunk.
+	 */
+	void combine(long[] Hn, GHASH chunk) {
+
+		long[] x = { Xh, Xl };
+		multiply(x, Hn[0], Hn[1]);
+		Xh = x[0] ^ chunk.Xh;
+		Xl = x[1] ^ chunk.Xl;
+
+	}
+
+	/*
+	 * Big endian long from eight bytes.
+	 */
+	static long getLong(byte[] in, int offset) {
+
+		return ((long)(in[offset] & 0xff) << 56)
+				| ((long)(in[offset + 1] & 0xff) << 48)
+				| ((long)(in[offset + 2] & 0xff) << 40)
+				| ((long)(in[offset + 3] & 0xff) << 32)
+				| ((long)(in[offset + 4] & 0xff) << 24)
+				| ((long)(in[offset + 5] & 0xff) << 16)
+				| ((long)(in[offset + 6] & 0xff) << 8)
+				| (in[offset + 7] & 0xff);
+
+	}
+
+	/**
+	 * Write the accumulator to out at offset.
+	 */
+	void getValue(byte[] out, int offset) {
+
+		putLong(Xh, out, offset);
+		putLong(Xl, out, offset + 8);
+
+	}
+
+	/**
+	 * XOR the accumulator into out at offset.
+	 */
+	void xorValue(byte[] out, int offset) {
+
+		for (int i = 0; i < 8; ++i) {
+			out[offset + i] ^= (byte)(Xh >>> (56 - (i * 8)));
+			out[offset + i + 8] ^= (byte)(Xl >>> (56 - (i * 8)));
+		}
+
+	}
+
+	/**
+	 * Compute the tables for the hash subkey H and clear the
+	 * accumulator.
+	 */
+	void init(byte[] H) {
+
+		long vh = getLong(H, 0);
+		long vl = getLong(H, 8);
+		Hh = vh;
+		Hl = vl;
+
+		// HH[8] is H. Each halving of the index is a multiplication by x.
+		HH[0] = 0;
+		HL[0] = 0;
+		HH[8] = vh;
+		HL[8] = vl;
+		for (int i = 4; i > 0; i >>>= 1) {
+			long T = (vl & 1) * 0xe1000000L;
+			vl = (vh << 63) | (vl >>> 1);
+			vh = (vh >>> 1) ^ (T << 32);
+			HH[i] = vh;
+			HL[i] = vl;
+		}
+
+		// The rest are sums of the powers.
+		for (int i = 2; i <= 8; i <<= 1) {
+			for (int j = 1; j < i; ++j) {
+				HH[i + j] = HH[i] ^ HH[j];
+				HL[i + j] = HL[i] ^ HL[j];
+			}
+		}
+
+		reset();
+
+	}
+
+	/*
+	 * Multiply the accumulator by H.
+	 */
+	private void multiply() {
+
+		int lo = (int)Xl & 0x0f;
+		long zh = HH[lo];
+		long zl = HL[lo];
+
+		for (int i = 15; i >= 0; --i) {
+			int b = (int)(i < 8 ? Xh >>> (56 - (i * 8)) : Xl >>> (120 - (i * 8))) & 0xff;
+			lo = b & 0x0f;
+			int hi = b >>> 4;
+
+			if (i != 15) {
+				int rem = (int)zl & 0x0f;
+				zl = (zh << 60) | (zl >>> 4);
+				zh = (zh >>> 4) ^ (LAST4[rem] << 48);
+				zh ^= HH[lo];
+				zl ^= HL[lo];
+			}
+
+			int rem = (int)zl & 0x0f;
+			zl = (zh << 60) | (zl >>> 4);
+			zh = (zh >>> 4) ^ (LAST4[rem] << 48);
+			zh ^= HH[hi];
+			zl ^= HL[hi];
+		}
+
+		Xh = zh;
+		Xl = zl;
+
+	}
+
+	/*
+	 * General multiplication, x = x * y. See NIST SP 800-38D,
+	 * section 6.3. This is the bit serial algorithm. It is only used
+	 * for powers of H, so it doesn't need the tables.
+	 */
+	private static void multiply(long[] x, long yh, long yl) {
+
+		long Zh = 0;
+		long Zl = 0;
+		long Vh = yh;
+		long Vl = yl;
+
+		for (int i = 0; i < 128; ++i) {
+			long bit = i < 64 ? x[0] >>> (63 - i) : x[1] >>> (127 - i);
+			if ((bit & 1) != 0) {
+				Zh ^= Vh;
+				Zl ^= Vl;
+			}
+			long lsb = Vl & 1;
+			Vl = (Vl >>> 1) | (Vh << 63);
+			Vh = (Vh >>> 1) ^ (lsb * 0xe100000000000000L);
+		}
+
+		x[0] = Zh;
+		x[1] = Zl;
+
+	}
+
+	/**
+	 * H^n, by square and multiply.
+	 */
+	long[] power(int n) {
+
+		// The field's one is the leftmost bit.
+		long[] result = { 0x8000000000000000L, 0 };
+		long[] square = { Hh, Hl };
+		while (n > 0) {
+			if ((n & 1) != 0) {
+				multiply(result, square[0], square[1]);
+			}
+			n >>>= 1;
+			if (n > 0) {
+				multiply(square, square[0], square[1]);
+			}
+		}
+		return result;
+
+	}
+
+	/*
+	 * Big endian eight bytes from a long.
+	 */
+	static void putLong(long value, byte[] out, int offset) {
+
+		for (int i = 7; i >= 0; --i) {
+			out[offset + i] = (byte)value;
+			value = value >>> 8;
+		}
+
+	}
+
+	/**
+	 * Clear the accumulator. The tables are kept.
+	 */
+	void reset() {
+
+		Xh = 0;
+		Xl = 0;
+
+	}
+
+	/**
+	 * Hash length bytes at offset into the accumulator. A partial final
+	 * block is padded with zeros, so only the last call for a given
+	 * string may have a length that isn't a multiple of 16.
+	 */
+	void update(final byte[] X, int offset, int length) {
+
+		int end = offset + length;
+		int i = offset;
+		for (; i + 16 <= end; i += 16) {
+			Xh ^= getLong(X, i);
+			Xl ^= getLong(X, i + 8);
+			multiply();
+		}
+
+		if (i < end) {
+			long h = 0;
+			long l = 0;
+			for (int j = 0; j < 16; ++j) {
+				long b = i + j < end ? X[i + j] & 0xff : 0;
+				if (j < 8) {
+					h = (h << 8) | b;
+				}
+				else {
+					l = (l << 8) | b;
+				}
+			}
+			Xh ^= h;
+			Xl ^= l;
+			multiply();
+		}
+
+	}
+
+	/**
+	 * Hash the final length block, [len(A)]64 || [len(C)]64, with the
+	 * lengths given in bytes.
+	 */
+	void updateLengths(long alength, long clength) {
+
+		Xh ^= alength * 8;
+		Xl ^= clength * 8;
+		multiply();
+
+	}
+
+}
@@ -0,0 +1,48 @@
+/**
+ *
+ */
+package org.cryptokitty.xprovider.modes;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+
+/**
+ * @author stevebrenneis
+ *
+ * Block modes that can be driven incrementally: start, any number of
+ * updates, then finish. Output may lag the input, for instance to hold
+ * back a padded last block or an authentication tag.
+ */
+public interface IncrementalBlockMode extends BlockMode {
+
+	/**
+	 * Finish the operation with the last of the input. Returns the
+	 * number of bytes written to out.
+	 */
+	public int finish(byte[] in, int inOff, int length, byte[] out, int outOff)
+			throws IllegalBlockSizeException, BadPaddingException;
+
+	/**
+	 * Number of bytes finish will write for length more bytes of input.
+	 */
+	public int getOutputSize(int length);
+
+	/**
+	 * Number of bytes update will write for length bytes of input.
+	 */
+	public int getUpdateOutputSize(int length);
+
+	/**
+	 * Begin an incremental encryption or decryption with the current
+	 * key and IV.
+	 */
+	public void start(boolean encrypt) throws IllegalBlockSizeException;
+
+	/**
+	 * Process more of the input. Returns the number of bytes written
+	 * to out.
+	 */
+	public int update(byte[] in, int inOff, int length, byte[] out, int outOff)
+			throws IllegalBlockSizeException;
+
+}
@@ -0,0 +1,925 @@
+/**
+ *
+ */
+package org.cryptokitty.xprovider.modes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.ProviderException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.spec.GCMParameterSpec;
+
+import org.cryptokitty.xprovider.CKProvider;
+import org.cryptokitty.xprovider.WorkerPool;
+import org.cryptokitty.xprovider.cipher.BlockCipher;
+
+/**
+ * @author stevebrenneis
+ *
+ * Offset Codebook Mode, version 3. See RFC 7253. The nonce is 1 to 15
+ * bytes and the 128 bit authentication tag is appended to the ciphertext
+ * on encryption and is expected at the end of the ciphertext on
+ * decryption. Parameters are passed in a GCMParameterSpec.
+ *
+ * Each block costs one block cipher call and a few XORs. The offsets
+ * come from a table of doublings of L computed once per key. Encryption
+ * holds at most one partial block. Decryption holds the ciphertext until
+ * the tag has been verified.
+ *
+ * Runs of whole blocks at or above the parallel threshold are split
+ * into chunks on the shared worker pool. The offset at the start of a
+ * chunk is found directly from the block index, and the chunk checksums
+ * are XORed together, so the output is the same as the sequential path.
+ */
+public class OCB extends AEADBlockMode {
+
+	/**
+	 * Authentication tag size in bytes.
+	 */
+	public static final int TAG_SIZE = 16;
+
+	/**
+	 * Default parallel threshold in bytes.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 64 * 1024;
+
+	/*
+	 * Smallest chunk given to a worker, in blocks.
+	 */
+	private static final int MIN_CHUNK_BLOCKS = 1024;
+
+	/*
+	 * Lane operations.
+	 */
+	private static final int ENCRYPT = 0;
+	private static final int DECRYPT = 1;
+	private static final int HASH = 2;
+
+	/*
+	 * An offset chain over a run of whole blocks. The mode keeps one for
+	 * the text and one for the authentication data. Workers for the
+	 * parallel path are the same, with ciphers that are copies sharing the
+	 * key material.
+	 */
+	private static final class Lane implements Callable<Void> {
+		Lane(BlockCipher cipher, byte[][] L) {
+			this.cipher = cipher;
+			this.L = L;
+		}
+		final BlockCipher cipher;
+		final byte[][] L;
+		final byte[] offset = new byte[16];
+		final byte[] sum = new byte[16];
+		final byte[] block = new byte[16];
+		int operation;
+		long index;
+		byte[] in;
+		int inOff;
+		byte[] out;
+		int outOff;
+		int blocks;
+		@Override
+		public Void call() throws IllegalBlockSizeException {
+			run(in, inOff, out, outOff, blocks);
+			return null;
+		}
+		/*
+		 * Process whole blocks, advancing the offset and the checksum or
+		 * sum. See RFC 7253, sections 4.1, 4.2 and 4.3.
+		 */
+		void run(byte[] in, int inOff, byte[] out, int outOff, int blocks)
+				throws IllegalBlockSizeException {
+			for (int n = 0; n < blocks; ++n) {
+				xor(L[Long.numberOfTrailingZeros(++index)], offset);
+				int i = inOff + (n * 16);
+				int o = outOff + (n * 16);
+				switch (operation) {
+				case ENCRYPT:
+					for (int j = 0; j < 16; ++j) {
+						sum[j] ^= in[i + j];
+						block[j] = (byte)(in[i + j] ^ offset[j]);
+					}
+					cipher.encryptBlock(block, 0, block, 0);
+					for (int j = 0; j < 16; ++j) {
+						out[o + j] = (byte)(block[j] ^ offset[j]);
+					}
+					break;
+				case DECRYPT:
+					for (int j = 0; j < 16; ++j) {
+						block[j] = (byte)(in[i + j] ^ offset[j]);
+					}
+					cipher.decryptBlock(block, 0, block, 0);
+					for (int j = 0; j < 16; ++j) {
+						byte p = (byte)(block[j] ^ offset[j]);
+						sum[j] ^= p;
+						out[o + j] = p;
+					}
+					break;
+				default:
+					for (int j = 0; j < 16; ++j) {
+						block[j] = (byte)(in[i + j] ^ offset[j]);
+					}
+					cipher.encryptBlock(block, 0, block, 0);
+					xor(block, sum);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The block cipher
+	 */
+	private BlockCipher cipher;
+
+	/**
+	 * Nonce.
+	 */
+	private byte[] IV;
+
+	/**
+	 * Authentication data
+	 */
+	private byte[] A;
+
+	/*
+	 * L_* = E(K, 0^128), L_$ = double(L_*) and L_i = double(L_{i-1}),
+	 * starting from L_0 = double(L_$). Computed once per key.
+	 */
+	private byte[] Lstar;
+	private byte[] Ldollar;
+	private byte[][] L;
+
+	/*
+	 * True when the L table matches the current key.
+	 */
+	private boolean keyed;
+
+	/*
+	 * Offset chain and checksum for the text.
+	 */
+	private Lane text;
+
+	/*
+	 * Offset chain and sum for the authentication data.
+	 */
+	private Lane aad;
+
+	/*
+	 * Nonce block with the bottom six bits cleared, and Ktop followed
+	 * by the rest of Stretch. Consecutive nonces share Ktop, so it is
+	 * only recomputed when the top of the nonce changes. See RFC 7253,
+	 * section 4.2.
+	 */
+	private byte[] nonce;
+	private byte[] ktopNonce;
+	private byte[] stretch;
+	private boolean ktopValid;
+
+	/*
+	 * Plaintext of the current partial block.
+	 */
+	private byte[] block;
+
+	/*
+	 * Bytes in block.
+	 */
+	private int partial;
+
+	/*
+	 * Authentication data of the current partial block.
+	 */
+	private byte[] aadBlock;
+
+	/*
+	 * Bytes in aadBlock.
+	 */
+	private int aadPartial;
+
+	/*
+	 * True once the authentication data has been closed off.
+	 */
+	private boolean aadDone;
+
+	/*
+	 * True when encrypting.
+	 */
+	private boolean encrypting;
+
+	/*
+	 * Computed tag.
+	 */
+	private byte[] T;
+
+	/*
+	 * Working buffer. A whole number of blocks.
+	 */
+	private byte[] buffer;
+
+	/*
+	 * Ciphertext held for tag verification. Grown as needed and reused.
+	 */
+	private byte[] pending;
+
+	/*
+	 * Bytes in pending.
+	 */
+	private int pendingLength;
+
+	/*
+	 * Size in bytes at or above which a run of blocks is processed
+	 * in parallel. Zero or less disables the parallel path.
+	 */
+	private int parallelThreshold;
+
+	/*
+	 * Workers for the parallel path. Built on first use after a key change.
+	 */
+	private Lane[] lanes;
+
+	/*
+	 * Task list for the parallel path.
+	 */
+	private List<Callable<Void>> tasks;
+
+	/**
+	 *
+	 */
+	public OCB(BlockCipher cipher) {
+
+		if (cipher.getBlockSize() != 16) {
+			throw new IllegalArgumentException("OCB requires a 128 bit block cipher");
+		}
+		Lstar = new byte[16];
+		Ldollar = new byte[16];
+		L = new byte[64][16];
+		nonce = new byte[16];
+		ktopNonce = new byte[16];
+		stretch = new byte[24];
+		block = new byte[16];
+		aadBlock = new byte[16];
+		T = new byte[16];
+		buffer = new byte[16 * BlockStreams.BUFFER_BLOCKS];
+		pending = new byte[0];
+		parallelThreshold = Integer.getInteger(CKProvider.OCB_PARALLEL_THRESHOLD,
+												DEFAULT_PARALLEL_THRESHOLD);
+		tasks = new ArrayList<Callable<Void>>();
+		this.cipher = cipher;
+
+	}
+
+	/*
+	 * Offsets differ by the L values for the bits that differ between the
+	 * Gray codes of their block indices. Moves offset from block index
+	 * from to block index to.
+	 */
+	private static void advance(byte[][] L, byte[] offset, long from, long to) {
+
+		long bits = (from ^ (from >>> 1)) ^ (to ^ (to >>> 1));
+		while (bits != 0) {
+			xor(L[Long.numberOfTrailingZeros(bits)], offset);
+			bits &= bits - 1;
+		}
+
+	}
+
+	/*
+	 * Hold ciphertext for verification.
+	 */
+	private void append(byte[] in, int inOff, int length) {
+
+		if (length == 0) {
+			return;
+		}
+		if (pending.length < pendingLength + length) {
+			byte[] grown = new byte[Math.max(pending.length * 2, pendingLength + length)];
+			System.arraycopy(pending, 0, grown, 0, pendingLength);
+			pending = grown;
+		}
+		System.arraycopy(in, inOff, pending, pendingLength, length);
+		pendingLength += length;
+
+	}
+
+	/*
+	 * Run whole blocks through an offset chain, in parallel when the run
+	 * is long enough.
+	 */
+	private void blocks(Lane chain, byte[] in, int inOff, byte[] out, int outOff, int blocks)
+			throws IllegalBlockSizeException {
+
+		if (isParallel(blocks * 16)) {
+			parallel(chain, in, inOff, out, outOff, blocks);
+		}
+		else {
+			chain.run(in, inOff, out, outOff, blocks);
+		}
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.provider.modes.BlockMode#decrypt(java.io.InputStream, java.io.OutputStream)
+	 */
+	@Override
+	public void decrypt(InputStream ciphertext, OutputStream plaintext)
+			throws IllegalBlockSizeException, BadPaddingException, IOException {
+
+		start(false);
+		int read = BlockStreams.fill(ciphertext, buffer, 0, buffer.length);
+		while (read > 0) {
+			append(buffer, 0, read);
+			read = read < buffer.length ? 0
+					: BlockStreams.fill(ciphertext, buffer, 0, buffer.length);
+		}
+
+		// Decrypted in place.
+		int length = verify();
+		plaintext.write(pending, 0, length);
+
+	}
+
+	/*
+	 * Double a block in GF(2^128). See RFC 7253, section 2.
+	 */
+	private static void doubleBlock(byte[] in, byte[] out) {
+
+		int carry = (in[0] & 0xff) >>> 7;
+		for (int i = 0; i < 15; ++i) {
+			out[i] = (byte)((in[i] << 1) | ((in[i + 1] & 0xff) >>> 7));
+		}
+		out[15] = (byte)(in[15] << 1);
+		if (carry != 0) {
+			out[15] ^= (byte)0x87;
+		}
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.provider.modes.BlockMode#encrypt(java.io.InputStream, java.io.OutputStream)
+	 */
+	@Override
+	public void encrypt(InputStream plaintext, OutputStream ciphertext)
+			throws IllegalBlockSizeException, BadPaddingException, IOException {
+
+		start(true);
+		int read = BlockStreams.fill(plaintext, buffer, 0, buffer.length);
+		while (read > 0) {
+			int length = update(buffer, 0, read, buffer, 0);
+			ciphertext.write(buffer, 0, length);
+			read = read < buffer.length ? 0
+					: BlockStreams.fill(plaintext, buffer, 0, buffer.length);
+		}
+
+		int length = finish(buffer, 0, 0, buffer, 0);
+		ciphertext.write(buffer, 0, length);
+
+	}
+
+	/*
+	 * Encrypt whole blocks, carrying a partial block between calls.
+	 * Returns the number of bytes written.
+	 */
+	private int encryptText(byte[] in, int inOff, int length, byte[] out, int outOff)
+			throws IllegalBlockSizeException {
+
+		// Output that overlaps input ahead of it would overwrite input
+		// that hasn't been read yet.
+		if (in == out && outOff > inOff - partial && outOff < inOff + length) {
+			in = Arrays.copyOfRange(in, inOff, inOff + length);
+			inOff = 0;
+		}
+
+		int end = inOff + length;
+		int written = 0;
+
+		// Finish a partial block.
+		if (partial > 0 && length > 0) {
+			int n = Math.min(16 - partial, length);
+			System.arraycopy(in, inOff, block, partial, n);
+			partial += n;
+			inOff += n;
+			if (partial == 16) {
+				text.run(block, 0, out, outOff, 1);
+				partial = 0;
+				written = 16;
+			}
+		}
+
+		// Whole blocks.
+		int whole = (end - inOff) / 16;
+		blocks(text, in, inOff, out, outOff + written, whole);
+		inOff += whole * 16;
+		written += whole * 16;
+
+		// Start a partial block.
+		if (inOff < end) {
+			System.arraycopy(in, inOff, block, partial, end - inOff);
+			partial += end - inOff;
+		}
+
+		return written;
+
+	}
+
+	/*
+	 * Close off the authentication data. The partial block is padded
+	 * with a one bit and zeros. See RFC 7253, section 4.1.
+	 */
+	private void endAuthenticationData() throws IllegalBlockSizeException {
+
+		if (!aadDone) {
+			if (aadPartial > 0) {
+				xor(Lstar, aad.offset);
+				aadBlock[aadPartial] = (byte)0x80;
+				for (int i = aadPartial + 1; i < 16; ++i) {
+					aadBlock[i] = 0;
+				}
+				xor(aad.offset, aadBlock);
+				cipher.encryptBlock(aadBlock, 0, aadBlock, 0);
+				xor(aadBlock, aad.sum);
+				aadPartial = 0;
+			}
+			aadDone = true;
+		}
+
+	}
+
+	/*
+	 * Encrypt or decrypt the final partial block with the pad for
+	 * Offset_* and add it to the checksum. See RFC 7253, sections 4.2
+	 * and 4.3.
+	 */
+	private void finalBlock(byte[] in, int inOff, byte[] out, int outOff, int length)
+			throws IllegalBlockSizeException {
+
+		byte[] pad = text.block;
+		xor(Lstar, text.offset);
+		cipher.encryptBlock(text.offset, 0, pad, 0);
+		for (int i = 0; i < length; ++i) {
+			byte p = encrypting ? in[inOff + i] : (byte)(in[inOff + i] ^ pad[i]);
+			text.sum[i] ^= p;
+			out[outOff + i] = (byte)(in[inOff + i] ^ pad[i]);
+		}
+		text.sum[length] ^= (byte)0x80;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.AEADBlockMode#finish(byte[], int, int, byte[], int)
+	 */
+	@Override
+	public int finish(byte[] in, int inOff, int length, byte[] out, int outOff)
+			throws IllegalBlockSizeException, BadPaddingException {
+
+		if (encrypting) {
+			endAuthenticationData();
+			int written = encryptText(in, inOff, length, out, outOff);
+			if (partial > 0) {
+				finalBlock(block, 0, out, outOff + written, partial);
+				written += partial;
+				partial = 0;
+			}
+			tag(T);
+			System.arraycopy(T, 0, out, outOff + written, TAG_SIZE);
+			return written + TAG_SIZE;
+		}
+		else {
+			append(in, inOff, length);
+			int plength = verify();
+			System.arraycopy(pending, 0, out, outOff, plength);
+			return plength;
+		}
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.provider.modes.AEADBlockMode#getAuthenticationData()
+	 */
+	@Override
+	public byte[] getAuthenticationData() {
+
+		return A;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.provider.modes.BlockMode#getBlockSize()
+	 */
+	@Override
+	public int getBlockSize() {
+
+		return cipher.getBlockSize();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.provider.modes.BlockMode#getIV()
+	 */
+	@Override
+	public byte[] getIV() {
+
+		return IV;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.AEADBlockMode#getOutputSize(int)
+	 */
+	@Override
+	public int getOutputSize(int length) {
+
+		if (encrypting) {
+			return partial + length + TAG_SIZE;
+		}
+		else {
+			return Math.max(0, pendingLength + length - TAG_SIZE);
+		}
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.AEADBlockMode#getUpdateOutputSize(int)
+	 */
+	@Override
+	public int getUpdateOutputSize(int length) {
+
+		return encrypting ? (partial + length) & ~15 : 0;
+
+	}
+
+	/*
+	 * Get the workers, building them if the key has changed.
+	 */
+	private Lane[] getLanes() {
+
+		if (lanes == null) {
+			lanes = new Lane[WorkerPool.getParallelism()];
+			for (int i = 0; i < lanes.length; ++i) {
+				lanes[i] = new Lane(cipher.copy(), L);
+			}
+		}
+		return lanes;
+
+	}
+
+	/*
+	 * True if a run of length bytes should be processed in parallel.
+	 */
+	private boolean isParallel(int length) {
+
+		return parallelThreshold > 0 && length >= parallelThreshold
+				&& length >= MIN_CHUNK_BLOCKS * 32 && WorkerPool.getParallelism() > 1;
+
+	}
+
+	/*
+	 * Run whole blocks through an offset chain, split into chunks on the
+	 * worker pool. Each chunk starts at its own offset with an empty
+	 * checksum. Input that overlaps the output at another offset is
+	 * copied first. The checksums are XORed into the chain's and the
+	 * chain is left at the offset of the last block.
+	 */
+	private void parallel(Lane chain, byte[] in, int inOff, byte[] out, int outOff, int blocks)
+			throws IllegalBlockSizeException {
+
+		if (BlockStreams.overlaps(in, inOff, out, outOff, blocks * 16)) {
+			in = Arrays.copyOfRange(in, inOff, inOff + (blocks * 16));
+			inOff = 0;
+		}
+
+		Lane[] lanes = getLanes();
+		int chunks = Math.min(lanes.length, blocks / MIN_CHUNK_BLOCKS);
+		int chunkBlocks = (blocks + chunks - 1) / chunks;
+
+		tasks.clear();
+		for (int i = 0; i < chunks && i * chunkBlocks < blocks; ++i) {
+			int first = i * chunkBlocks;
+			Lane lane = lanes[i];
+			lane.operation = chain.operation;
+			lane.index = chain.index + first;
+			System.arraycopy(chain.offset, 0, lane.offset, 0, 16);
+			advance(L, lane.offset, chain.index, lane.index);
+			Arrays.fill(lane.sum, (byte)0);
+			lane.in = in;
+			lane.inOff = inOff + (first * 16);
+			lane.out = out;
+			lane.outOff = outOff + (first * 16);
+			lane.blocks = Math.min(chunkBlocks, blocks - first);
+			tasks.add(lane);
+		}
+
+		WorkerPool.runAll(tasks);
+
+		for (int i = 0; i < tasks.size(); ++i) {
+			xor(lanes[i].sum, chain.sum);
+		}
+		Lane last = lanes[tasks.size() - 1];
+		System.arraycopy(last.offset, 0, chain.offset, 0, 16);
+		chain.index = last.index;
+
+		// Don't hold on to the caller's arrays.
+		for (int i = 0; i < tasks.size(); ++i) {
+			lanes[i].in = null;
+			lanes[i].out = null;
+		}
+		tasks.clear();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.provider.modes.BlockMode#reset()
+	 */
+	@Override
+	public void reset() {
+		// Nothing to do. All state is set up at the start of each operation.
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.provider.modes.BlockMode#setBlockCipher(org.cryptokitty.provider.cipher.BlockCipher)
+	 */
+	@Override
+	public void setBlockCipher(BlockCipher cipher) {
+
+		this.cipher = cipher;
+		keyed = false;
+		lanes = null;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.provider.modes.BlockMode#setIV(byte[])
+	 */
+	@Override
+	public void setIV(byte[] iv) {
+
+		IV = iv;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.provider.modes.BlockMode#setKey(byte[])
+	 */
+	@Override
+	public void setKey(byte[] key) throws InvalidKeyException {
+
+		cipher.setKey(key);
+		setSubkey();
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.provider.modes.AEADBlockMode#setAuthenticationData(byte[])
+	 */
+	@Override
+	public void setAuthenticationData(byte[] ad) {
+
+		A = ad;
+
+	}
+
+	/**
+	 * Set the size in bytes at or above which a run of blocks is
+	 * processed in parallel. Zero or less disables the parallel path.
+	 */
+	public void setParallelThreshold(int threshold) {
+
+		parallelThreshold = threshold;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.AEADBlockMode#setParams(java.security.spec.AlgorithmParameterSpec)
+	 */
+	@Override
+	public void setParams(AlgorithmParameterSpec params) throws InvalidAlgorithmParameterException {
+
+		if (params instanceof GCMParameterSpec) {
+			int length = ((GCMParameterSpec)params).getIV().length;
+			if (length < 1 || length > 15) {
+				throw new InvalidAlgorithmParameterException("OCB nonce must be 1 to 15 bytes");
+			}
+		}
+		super.setParams(params);
+
+	}
+
+	/*
+	 * Compute L_*, L_$ and the table of L_i. See RFC 7253, section 4.1.
+	 */
+	private void setSubkey() throws InvalidKeyException {
+
+		Arrays.fill(Lstar, (byte)0);
+		try {
+			cipher.encryptBlock(Lstar, 0, Lstar, 0);
+		}
+		catch (IllegalBlockSizeException e) {
+			throw new InvalidKeyException(e.getMessage());
+		}
+		doubleBlock(Lstar, Ldollar);
+		doubleBlock(Ldollar, L[0]);
+		for (int i = 1; i < L.length; ++i) {
+			doubleBlock(L[i - 1], L[i]);
+		}
+		text = new Lane(cipher, L);
+		aad = new Lane(cipher, L);
+		aad.operation = HASH;
+		ktopValid = false;
+		keyed = true;
+		lanes = null;
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.AEADBlockMode#start(boolean)
+	 *
+	 * Compute the initial offset from the nonce, then hash the
+	 * authentication data. See RFC 7253, section 4.2.
+	 */
+	@Override
+	public void start(boolean encrypt) throws IllegalBlockSizeException {
+
+		if (!keyed) {
+			// The cipher was keyed outside of this mode.
+			try {
+				setSubkey();
+			}
+			catch (InvalidKeyException e) {
+				throw new IllegalBlockSizeException(e.getMessage());
+			}
+		}
+		if (IV.length < 1 || IV.length > 15) {
+			throw new IllegalBlockSizeException("OCB nonce must be 1 to 15 bytes");
+		}
+
+		// Nonce = 0^7 || 0* || 1 || N, for a 128 bit tag.
+		Arrays.fill(nonce, (byte)0);
+		nonce[15 - IV.length] = 1;
+		System.arraycopy(IV, 0, nonce, 16 - IV.length, IV.length);
+		int bottom = nonce[15] & 0x3f;
+		nonce[15] &= (byte)0xc0;
+		if (!ktopValid || !Arrays.equals(nonce, ktopNonce)) {
+			cipher.encryptBlock(nonce, 0, stretch, 0);
+			for (int i = 0; i < 8; ++i) {
+				stretch[16 + i] = (byte)(stretch[i] ^ stretch[i + 1]);
+			}
+			System.arraycopy(nonce, 0, ktopNonce, 0, 16);
+			ktopValid = true;
+		}
+
+		// Offset_0 = Stretch[1+bottom..128+bottom]
+		int shift = bottom / 8;
+		int bits = bottom % 8;
+		for (int i = 0; i < 16; ++i) {
+			int b = (stretch[i + shift] & 0xff) << bits;
+			if (bits > 0) {
+				b |= (stretch[i + shift + 1] & 0xff) >>> (8 - bits);
+			}
+			text.offset[i] = (byte)b;
+		}
+		text.operation = encrypt ? ENCRYPT : DECRYPT;
+		text.index = 0;
+		Arrays.fill(text.sum, (byte)0);
+		aad.index = 0;
+		Arrays.fill(aad.offset, (byte)0);
+		Arrays.fill(aad.sum, (byte)0);
+
+		encrypting = encrypt;
+		partial = 0;
+		aadPartial = 0;
+		aadDone = false;
+		pendingLength = 0;
+
+		if (A != null) {
+			updateAuthenticationData(A, 0, A.length);
+		}
+
+	}
+
+	/*
+	 * Compute the tag. See RFC 7253, section 4.2.
+	 */
+	private void tag(byte[] tag) throws IllegalBlockSizeException {
+
+		for (int i = 0; i < 16; ++i) {
+			tag[i] = (byte)(text.sum[i] ^ text.offset[i] ^ Ldollar[i]);
+		}
+		cipher.encryptBlock(tag, 0, tag, 0);
+		xor(aad.sum, tag);
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.AEADBlockMode#update(byte[], int, int, byte[], int)
+	 */
+	@Override
+	public int update(byte[] in, int inOff, int length, byte[] out, int outOff)
+			throws IllegalBlockSizeException {
+
+		endAuthenticationData();
+		if (encrypting) {
+			return encryptText(in, inOff, length, out, outOff);
+		}
+		else {
+			append(in, inOff, length);
+			return 0;
+		}
+
+	}
+
+	/* (non-Javadoc)
+	 * @see org.cryptokitty.xprovider.modes.AEADBlockMode#updateAuthenticationData(byte[], int, int)
+	 */
+	@Override
+	public void updateAuthenticationData(byte[] ad, int offset, int length) {
+
+		if (aadDone) {
+			throw new IllegalStateException("Authentication data must precede the text");
+		}
+
+		try {
+			if (aadPartial > 0) {
+				int n = Math.min(16 - aadPartial, length);
+				System.arraycopy(ad, offset, aadBlock, aadPartial, n);
+				aadPartial += n;
+				offset += n;
+				length -= n;
+				if (aadPartial == 16) {
+					aad.run(aadBlock, 0, null, 0, 1);
+					aadPartial = 0;
+				}
+			}
+
+			int whole = length / 16;
+			blocks(aad, ad, offset, null, 0, whole);
+			offset += whole * 16;
+			length -= whole * 16;
+		}
+		catch (IllegalBlockSizeException e) {
+			// Can't happen. Only whole blocks are encrypted.
+			throw new ProviderException(e);
+		}
+
+		if (length > 0) {
+			System.arraycopy(ad, offset, aadBlock, 0, length);
+			aadPartial = length;
+		}
+
+	}
+
+	/*
+	 * Decrypt the held ciphertext in place and check the tag at its end.
+	 * The plaintext is cleared if the tag doesn't match. Returns the
+	 * plaintext length.
+	 */
+	private int verify() throws IllegalBlockSizeException, AEADBadTagException {
+
+		if (pendingLength < TAG_SIZE) {
+			throw new AEADBadTagException("OCB ciphertext too short");
+		}
+		int length = pendingLength - TAG_SIZE;
+
+		endAuthenticationData();
+		int whole = length / 16;
+		blocks(text, pending, 0, pending, 0, whole);
+		if (length % 16 != 0) {
+			finalBlock(pending, whole * 16, pending, whole * 16, length % 16);
+		}
+		tag(T);
+
+		// Constant time comparison.
+		int diff = 0;
+		for (int i = 0; i < TAG_SIZE; ++i) {
+			diff |= T[i] ^ pending[length + i];
+		}
+		if (diff != 0) {
+			Arrays.fill(pending, 0, length, (byte)0);
+			throw new AEADBadTagException("OCB tag failed to validate");
+		}
+
+		return length;
+
+	}
+
+	/*
+	 * XOR a block into another.
+	 */
+	private static void xor(byte[] in, byte[] out) {
+
+		for (int i = 0; i < 16; ++i) {
+			out[i] ^= in[i];
+		}
+
+	}
+
+}
@@ -0,0 +1,31 @@
+/**
+ *
+ */
+package org.cryptokitty.xprovider.modes;
+
+import javax.crypto.IllegalBlockSizeException;
+
+/**
+ * @author stevebrenneis
+ *
+ * Block modes that turn the block cipher into a stream cipher. Every
+ * byte of input produces a byte of output as soon as it arrives, so
+ * these modes can be driven incrementally without padding: start, then
+ * any number of updates.
+ */
+public interface StreamMode extends BlockMode {
+
+	/**
+	 * Begin an incremental encryption or decryption with the current
+	 * key and IV.
+	 */
+	public void start(boolean encrypt) throws IllegalBlockSizeException;
+
+	/**
+	 * Process more of the input. Writes length bytes to out and
+	 * returns length.
+	 */
+	public int update(byte[] in, int inOff, int length, byte[] out, int outOff)
+			throws IllegalBlockSizeException;
+
+}
@@ -0,0 +1,355 @@
+/**
+ *
+ */
+package org.cryptokitty.xprovider.modes;
+
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import javax.crypto.IllegalBlockSizeException;
+
+import org.cryptokitty.xprovider.CKProvider;
+import org.cryptokitty.xprovider.WorkerPool;
+import org.cryptokitty.xprovider.cipher.BlockCipher;
+
+/**
+ * @author stevebrenneis
+ *
+ * XTS-AES tweakable block cipher mode for sector level storage. See
+ * IEEE Std 1619 and NIST SP 800-38E. The key is two AES keys of the
+ * same size, the data key followed by the tweak key. Each sector is
+ * encrypted under a tweak derived from its sector number, so sectors
+ * can be encrypted and decrypted in any order and the ciphertext is the
+ * same length as the plaintext. Sector sizes that aren't a multiple of
+ * the block size use ciphertext stealing for the last block.
+ *
+ * This isn't a BlockMode. Callers encrypt or decrypt a run of whole
+ * sectors from a starting sector number. Runs at or above the parallel
+ * threshold are split into ranges of sectors on the shared worker pool.
+ * No memory is allocated per sector.
+ */
+public class XTS {
+
+	/**
+	 * Default parallel threshold in bytes.
+	 */
+	public static final int DEFAULT_PARALLEL_THRESHOLD = 64 * 1024;
+
+	/*
+	 * Smallest share of a parallel run given to a worker, in bytes.
+	 */
+	private static final int MIN_CHUNK_SIZE = 16 * 1024;
+
+	/*
+	 * One worker's share of a run of sectors. The ciphers are copies
+	 * that share the key material. The first worker uses the mode's own
+	 * ciphers and also runs the serial path.
+	 */
+	private static final class Lane implements Callable<Void> {
+		Lane(BlockCipher cipher, BlockCipher tweakCipher) {
+			this.cipher = cipher;
+			this.tweakCipher = tweakCipher;
+		}
+		final BlockCipher cipher;
+		final BlockCipher tweakCipher;
+		final byte[] tweak = new byte[16];
+		final byte[] lastTweak = new byte[16];
+		final byte[] block = new byte[16];
+		boolean encrypt;
+		int sectorSize;
+		long sector;
+		int sectors;
+		byte[] in;
+		int inOff;
+		byte[] out;
+		int outOff;
+		@Override
+		public Void call() throws IllegalBlockSizeException {
+			for (int i = 0; i < sectors; ++i) {
+				int offset = i * sectorSize;
+				crypt(sector + i, in, inOff + offset, out, outOff + offset);
+			}
+			return null;
+		}
+		/*
+		 * Encrypt or decrypt one sector.
+		 */
+		void crypt(long number, byte[] in, int inOff, byte[] out, int outOff)
+				throws IllegalBlockSizeException {
+			// The tweak is the encrypted sector number, little endian.
+			for (int i = 0; i < 8; ++i) {
+				tweak[i] = (byte)(number >>> (i * 8));
+				tweak[i + 8] = 0;
+			}
+			tweakCipher.encryptBlock(tweak, 0, tweak, 0);
+
+			int partial = sectorSize % 16;
+			int whole = (sectorSize / 16) - (partial == 0 ? 0 : 1);
+			for (int j = 0; j < whole; ++j) {
+				xex(in, inOff + (j * 16), out, outOff + (j * 16));
+				multiply(tweak);
+			}
+			if (partial == 0) {
+				return;
+			}
+
+			// Ciphertext stealing. The last whole block and the partial
+			// block are processed with their tweaks swapped on decryption.
+			int last = outOff + (whole * 16);
+			int tail = last + 16;
+			System.arraycopy(tweak, 0, lastTweak, 0, 16);
+			if (!encrypt) {
+				multiply(tweak);
+			}
+			xex(in, inOff + (whole * 16), out, last);
+			for (int i = 0; i < partial; ++i) {
+				byte b = in[inOff + (whole * 16) + 16 + i];
+				out[tail + i] = out[last + i];
+				out[last + i] = b;
+			}
+			if (encrypt) {
+				multiply(tweak);
+			}
+			else {
+				System.arraycopy(lastTweak, 0, tweak, 0, 16);
+			}
+			xex(out, last, out, last);
+		}
+		/*
+		 * Encrypt or decrypt one block with the current tweak.
+		 */
+		void xex(byte[] in, int inOff, byte[] out, int outOff) throws IllegalBlockSizeException {
+			for (int i = 0; i < 16; ++i) {
+				block[i] = (byte)(in[inOff + i] ^ tweak[i]);
+			}
+			if (encrypt) {
+				cipher.encryptBlock(block, 0, block, 0);
+			}
+			else {
+				cipher.decryptBlock(block, 0, block, 0);
+			}
+			for (int i = 0; i < 16; ++i) {
+				out[outOff + i] = (byte)(block[i] ^ tweak[i]);
+			}
+		}
+	}
+
+	/*
+	 * The data cipher.
+	 */
+	private BlockCipher cipher;
+
+	/*
+	 * Workers. The first is also the serial path. Built on first use
+	 * after a key change.
+	 */
+	private Lane[] lanes;
+
+	/*
+	 * Size in bytes at or above which a run of sectors is processed
+	 * in parallel. Zero or less disables the parallel path.
+	 */
+	private int parallelThreshold;
+
+	/*
+	 * The sector size in bytes.
+	 */
+	private int sectorSize;
+
+	/*
+	 * Task list for the parallel path.
+	 */
+	private List<Callable<Void>> tasks;
+
+	/*
+	 * The tweak cipher.
+	 */
+	private BlockCipher tweakCipher;
+
+	/**
+	 * Construct with the AES engine selected by CKProvider.AES_ENGINE.
+	 *
+	 * @param sectorSize - The sector size in bytes, at least 16.
+	 */
+	public XTS(int sectorSize) {
+		this(CKProvider.newAESEngine(), sectorSize);
+	}
+
+	/**
+	 * @param cipher - An AES engine.
+	 * @param sectorSize - The sector size in bytes, at least 16.
+	 */
+	public XTS(BlockCipher cipher, int sectorSize) {
+
+		if (cipher.getBlockSize() != 16) {
+			throw new IllegalArgumentException("XTS requires a 128 bit block cipher");
+		}
+		if (sectorSize < 16) {
+			throw new IllegalArgumentException("Sector size must be at least one block");
+		}
+		this.cipher = cipher;
+		tweakCipher = cipher.copy();
+		this.sectorSize = sectorSize;
+		parallelThreshold = Integer.getInteger(CKProvider.XTS_PARALLEL_THRESHOLD,
+												DEFAULT_PARALLEL_THRESHOLD);
+		tasks = new ArrayList<Callable<Void>>();
+
+	}
+
+	/*
+	 * Encrypt or decrypt a run of sectors.
+	 */
+	private void crypt(boolean encrypt, long sector, byte[] in, int inOff, byte[] out,
+							int outOff, int length) throws IllegalBlockSizeException {
+
+		if (length % sectorSize != 0) {
+			throw new IllegalBlockSizeException("Input is not a multiple of the sector size");
+		}
+		if (in.length - inOff < length || out.length - outOff < length) {
+			throw new IllegalBlockSizeException("Buffer too small");
+		}
+
+		Lane[] lanes = getLanes();
+		int sectors = length / sectorSize;
+		int chunks = Math.min(lanes.length, length / MIN_CHUNK_SIZE);
+		if (parallelThreshold <= 0 || length < parallelThreshold || chunks < 2 || sectors < 2) {
+			Lane lane = lanes[0];
+			lane.encrypt = encrypt;
+			lane.sectorSize = sectorSize;
+			for (int i = 0; i < sectors; ++i) {
+				int offset = i * sectorSize;
+				lane.crypt(sector + i, in, inOff + offset, out, outOff + offset);
+			}
+			return;
+		}
+
+		chunks = Math.min(chunks, sectors);
+		int chunkSectors = (sectors + chunks - 1) / chunks;
+		tasks.clear();
+		for (int i = 0; i < chunks && i * chunkSectors < sectors; ++i) {
+			int first = i * chunkSectors;
+			Lane lane = lanes[i];
+			lane.encrypt = encrypt;
+			lane.sectorSize = sectorSize;
+			lane.sector = sector + first;
+			lane.sectors = Math.min(chunkSectors, sectors - first);
+			lane.in = in;
+			lane.inOff = inOff + (first * sectorSize);
+			lane.out = out;
+			lane.outOff = outOff + (first * sectorSize);
+			tasks.add(lane);
+		}
+
+		WorkerPool.runAll(tasks);
+
+		// Don't hold on to the caller's arrays.
+		for (int i = 0; i < tasks.size(); ++i) {
+			lanes[i].in = null;
+			lanes[i].out = null;
+		}
+		tasks.clear();
+
+	}
+
+	/**
+	 * Decrypt length bytes of whole sectors, the first of which is
+	 * sector number sector. The input and output may be the same array
+	 * at the same offset.
+	 */
+	public void decrypt(long sector, byte[] in, int inOff, byte[] out, int outOff, int length)
+			throws IllegalBlockSizeException {
+
+		crypt(false, sector, in, inOff, out, outOff, length);
+
+	}
+
+	/**
+	 * Encrypt length bytes of whole sectors, the first of which is
+	 * sector number sector. The input and output may be the same array
+	 * at the same offset.
+	 */
+	public void encrypt(long sector, byte[] in, int inOff, byte[] out, int outOff, int length)
+			throws IllegalBlockSizeException {
+
+		crypt(true, sector, in, inOff, out, outOff, length);
+
+	}
+
+	/*
+	 * Get the workers, building them if the key has changed.
+	 */
+	private Lane[] getLanes() {
+
+		if (lanes == null) {
+			lanes = new Lane[Math.max(1, WorkerPool.getParallelism())];
+			lanes[0] = new Lane(cipher, tweakCipher);
+			for (int i = 1; i < lanes.length; ++i) {
+				lanes[i] = new Lane(cipher.copy(), tweakCipher.copy());
+			}
+		}
+		return lanes;
+
+	}
+
+	/**
+	 * Get the sector size in bytes.
+	 */
+	public int getSectorSize() {
+
+		return sectorSize;
+
+	}
+
+	/*
+	 * Multiply the tweak by the primitive element, x, in GF(2^128).
+	 * The tweak is little endian.
+	 */
+	private static void multiply(byte[] tweak) {
+
+		int carry = 0;
+		for (int i = 0; i < 16; ++i) {
+			int b = tweak[i] & 0xff;
+			tweak[i] = (byte)((b << 1) | carry);
+			carry = b >>> 7;
+		}
+		if (carry != 0) {
+			tweak[0] ^= (byte)0x87;
+		}
+
+	}
+
+	/**
+	 * Set the key. The data key followed by the tweak key, 32 bytes for
+	 * XTS-AES-128 or 64 bytes for XTS-AES-256. The two halves must differ.
+	 */
+	public void setKey(byte[] key) throws InvalidKeyException {
+
+		if (key.length != 32 && key.length != 64) {
+			throw new InvalidKeyException("Invalid XTS key size");
+		}
+		int half = key.length / 2;
+		byte[] dataKey = Arrays.copyOfRange(key, 0, half);
+		byte[] tweakKey = Arrays.copyOfRange(key, half, key.length);
+		if (Arrays.equals(dataKey, tweakKey)) {
+			throw new InvalidKeyException("XTS data and tweak keys must differ");
+		}
+		cipher.setKey(dataKey);
+		tweakCipher.setKey(tweakKey);
+		lanes = null;
+
+	}
+
+	/**
+	 * Set the size in bytes at or above which a run of sectors is
+	 * processed in parallel. Zero or less disables the parallel path.
+	 */
+	public void setParallelThreshold(int threshold) {
+
+		parallelThreshold = threshold;
+
+	}
+
+}